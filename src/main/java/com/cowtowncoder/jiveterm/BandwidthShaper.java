@@ -0,0 +1,116 @@
+/************************************************************
+
+Project:
+    JiveTerm.
+
+    A VT52/VT100/VT102-compliant telnet/terminal program
+    written in java.
+
+    (C) 1998-2001 Tatu Saloranta
+    tatu.saloranta@iki.fi.
+
+Module:
+    BandwidthShaper.java
+
+    Token bucket that limits the data rate of a connection
+    to that of a serial line.
+
+Last changed:
+    16-Oct-2026
+
+************************************************************/
+
+package com.cowtowncoder.jiveterm;
+
+/**
+ * Class used for simulating terminals connected over a serial line
+ * (9600 bps etc): the connection calls {@link #acquire} for each chunk
+ * of bytes it passes on, and is made to wait for as long as sending
+ * them over the line would take.
+ *
+ * This is a token bucket, with the tokens kept as nanoseconds of line
+ * time: time passing adds to the allowance, bytes passed use it up. If
+ * the allowance goes negative, the caller sleeps until it's back to
+ * zero. Sleeping too long (or being slow otherwise) is not a problem,
+ * as the time is accounted for on the next call; so no guesses about
+ * the overhead are needed. Only a little allowance can be saved up
+ * while the line is idle, so that bursts after idle periods stay
+ * short, as on a real line.
+ *
+ * Each direction of a connection has a shaper of its own; instances
+ * are not to be used by multiple threads. When there's no limit, the
+ * connection has no shaper at all, so there is no cost.
+ */
+
+final class
+BandwidthShaper
+{
+    /* Line is assumed to use 8N1 framing: start bit, 8 data bits and
+     * stop bit:
+     */
+    public final static int BITS_PER_BYTE = 10;
+
+    private final static long NANOS_PER_SEC = 1000000000L;
+
+    /* How much line time can be saved up while idle: */
+    private final static long MAX_CREDIT_NANOS = 20L * 1000000L;
+
+    /* Bytes should be passed in chunks that take about this long on the
+     * line, so that the output appears gradually, not in big bursts:
+     */
+    private final static long CHUNK_NANOS = 10L * 1000000L;
+
+    private final int mBps;
+    private final int mChunkSize;
+
+    private long mCredit = 0L;
+    private long mLast;
+
+    /**
+     * @param bps Speed of the line, in bits per second
+     */
+    public BandwidthShaper(int bps)
+    {
+	if (bps < 1) {
+	    throw new IllegalArgumentException("Illegal speed: "+bps+" bps");
+	}
+	mBps = bps;
+	long chunk = (long) bps * CHUNK_NANOS / (BITS_PER_BYTE * NANOS_PER_SEC);
+	mChunkSize = (int) Math.max(1L, Math.min(chunk, Integer.MAX_VALUE));
+	mLast = System.nanoTime();
+    }
+
+    public int getBps() { return mBps; }
+
+    /**
+     * Returns the number of bytes that should be passed at a time (at
+     * least 1).
+     */
+    public int getChunkSize() { return mChunkSize; }
+
+    /**
+     * Method called before passing given number of bytes on; waits
+     * until the line would have had time to send them. If the calling
+     * thread is interrupted, returns right away, leaving the interrupt
+     * status set.
+     */
+    public void acquire(int count)
+    {
+	long now = System.nanoTime();
+	mCredit += now - mLast;
+	mLast = now;
+	if (mCredit > MAX_CREDIT_NANOS) {
+	    mCredit = MAX_CREDIT_NANOS;
+	}
+	mCredit -= (long) count * BITS_PER_BYTE * NANOS_PER_SEC / mBps;
+	if (mCredit < 0L) {
+	    long wait = -mCredit;
+	    try {
+		Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+	    } catch (InterruptedException ie) {
+		// Session is being stopped; caller will notice
+		Thread.currentThread().interrupt();
+	    }
+	}
+    }
+}
@@ -0,0 +1,111 @@
+/************************************************************
+
+Project:
+    JiveTerm.
+
+    A VT52/VT100/VT102-compliant telnet/terminal program
+    written in java.
+
+    (C) 1998-2001 Tatu Saloranta
+    tatu.saloranta@iki.fi.
+
+Module:
+    BlinkScheduler.java
+
+    Single timer that drives blinking for all displays.
+
+Last changed:
+    16-Oct-2026
+
+************************************************************/
+
+package com.cowtowncoder.jiveterm;
+
+import java.util.Vector;
+
+/**
+ * Class that tells displays with blinking characters when to change
+ * the blink phase. Earlier each Display had a thread of its own for
+ * this, which kept waking up even if nothing was blinking.
+ *
+ * A display registers itself when it gets blinking characters, and is
+ * dropped once it has none left (see Display.blinkTick()). The timer
+ * thread only exists while there are registered displays; when the last
+ * one is dropped, the thread exits, so no thread (or wakeups) are
+ * needed when nothing blinks. All displays blink in the same phase.
+ */
+
+final class
+BlinkScheduler
+    implements Runnable
+{
+    private final static BlinkScheduler sInstance = new BlinkScheduler();
+
+    private final Vector mDisplays = new Vector();
+
+    /* Timer thread; null when not running: */
+    private Thread mThread = null;
+
+    private BlinkScheduler() { }
+
+    public static BlinkScheduler getInstance() { return sInstance; }
+
+    /**
+     * Method a display calls when it gets blinking chars; starts the
+     * timer thread if it's not running.
+     */
+    public synchronized void add(Display d)
+    {
+	if (!mDisplays.contains(d)) {
+	    mDisplays.addElement(d);
+	}
+	if (mThread == null) {
+	    mThread = SessionRuntime.getInstance().newThread("JiveTerm blinker",
+							    this);
+	    mThread.start();
+	}
+    }
+
+    /**
+     * Method a display calls when it no longer has blinking chars
+     * (or is going away).
+     */
+    public synchronized void remove(Display d)
+    {
+	mDisplays.removeElement(d);
+    }
+
+    public void run()
+    {
+	Display[] displays = new Display[4];
+
+	while (true) {
+	    try {
+		Thread.sleep(Display.BLINK_INTERVAL);
+	    } catch (InterruptedException ie) {
+		// Not used for anything; let's just continue
+	    }
+
+	    int count;
+	    synchronized (this) {
+		count = mDisplays.size();
+		if (count == 0) {
+		    mThread = null;
+		    return;
+		}
+		if (count > displays.length) {
+		    displays = new Display[count];
+		}
+		mDisplays.copyInto(displays);
+	    }
+
+	    /* Displays are not to be called with our lock held (they
+	     * call remove() with their own lock held):
+	     */
+	    for (int i = 0; i < count; ++i) {
+		displays[i].blinkTick();
+		displays[i] = null;
+	    }
+	}
+    }
+}
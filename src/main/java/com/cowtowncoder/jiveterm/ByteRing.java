@@ -0,0 +1,231 @@
+/************************************************************
+
+Project:
+    JiveTerm.
+
+    A VT52/VT100/VT102-compliant telnet/terminal program
+    written in java.
+
+    (C) 1998-2001 Tatu Saloranta
+    tatu.saloranta@iki.fi.
+
+Module:
+    ByteRing.java
+
+    Lock-free ring buffer for passing bytes from one thread
+    to another.
+
+Last changed:
+    16-Oct-2026
+
+************************************************************/
+
+package com.cowtowncoder.jiveterm;
+
+import java.io.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ring buffer that passes bytes from exactly one writer thread to
+ * exactly one reader thread; used between the SSH client (which
+ * decrypts the data) and Terminal (which reads it via SSHConnection).
+ * Replaces the piped streams used earlier, which locked on every
+ * read and write, and polled once a second when empty or full.
+ *
+ * No locks are needed: the writer only updates the head counter and
+ * the reader only the tail counter; both are volatile, so that the
+ * bytes written before updating the head are visible to the reader
+ * once it sees the new head (and similarly for the space freed by
+ * the reader). A thread that has to wait (reader for data, writer for
+ * space) parks itself, and is unparked by the other side as soon as
+ * there's something to do.
+ *
+ * The reader gets the data as slices of the ring array (see
+ * {@link #lend}), so no copying is needed on that side either.
+ */
+
+final class
+ByteRing
+{
+    public final static int DEFAULT_CAPACITY = 64 * 1024;
+
+    private final byte[] mBuffer;
+    private final int mMask;
+
+    /* Total number of bytes written and read (indexes in the array
+     * are these masked); never wrap in practice:
+     */
+    private volatile long mHead = 0L;
+    private volatile long mTail = 0L;
+
+    /* Number of bytes lent to the reader, not yet given back: */
+    private int mLent = 0;
+
+    private volatile boolean mClosed = false;
+
+    /* Threads parked waiting for data/space, if any: */
+    private volatile Thread mWaitingReader = null;
+    private volatile Thread mWaitingWriter = null;
+
+    public ByteRing()
+    {
+	this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity Minimum capacity of the ring, in bytes; rounded
+     *   up to the next power of two.
+     */
+    public ByteRing(int capacity)
+    {
+	int size = 256;
+	while (size < capacity) {
+	    size <<= 1;
+	}
+	mBuffer = new byte[size];
+	mMask = size - 1;
+    }
+
+    public int getCapacity() { return mBuffer.length; }
+
+    /**
+     * Method for closing the ring; writes after this fail, and the
+     * reader gets end-of-input once it has read what was written
+     * before closing. Can be called by either side (or any other
+     * thread).
+     */
+    public void close()
+    {
+	mClosed = true;
+	unpark(mWaitingReader);
+	unpark(mWaitingWriter);
+    }
+
+    public boolean isClosed() { return mClosed; }
+
+    /* *** Writer side: *** */
+
+    /**
+     * Method for writing given bytes to the ring; blocks until there's
+     * space for all of them.
+     */
+    public void write(byte[] buf, int start, int len)
+	throws IOException
+    {
+	final byte[] ring = mBuffer;
+	final int size = ring.length;
+	long head = mHead;
+
+	while (len > 0) {
+	    int free = size - (int) (head - mTail);
+	    if (free == 0) {
+		waitForSpace(head);
+		continue;
+	    }
+	    if (mClosed) {
+		throw new IOException("ByteRing closed");
+	    }
+	    int ix = (int) head & mMask;
+	    int count = Math.min(len, Math.min(free, size - ix));
+	    System.arraycopy(buf, start, ring, ix, count);
+	    start += count;
+	    len -= count;
+	    head += count;
+	    mHead = head; // publishes the bytes to the reader
+	    unpark(mWaitingReader);
+	}
+    }
+
+    public void write(byte[] buf)
+	throws IOException
+    {
+	write(buf, 0, buf.length);
+    }
+
+    private void waitForSpace(long head)
+	throws IOException
+    {
+	mWaitingWriter = Thread.currentThread();
+	try {
+	    // Need to re-check after announcing we are waiting:
+	    while ((head - mTail) == mBuffer.length && !mClosed) {
+		LockSupport.park(this);
+		if (Thread.interrupted()) {
+		    throw new InterruptedIOException("Interrupted while writing to ByteRing");
+		}
+	    }
+	} finally {
+	    mWaitingWriter = null;
+	}
+	if (mClosed) {
+	    throw new IOException("ByteRing closed");
+	}
+    }
+
+    /* *** Reader side: *** */
+
+    /**
+     * Method for getting the next available bytes; blocks until there
+     * is at least one byte available. The bytes are not copied: the
+     * slice is set to refer to them in the ring array. They are given
+     * back (and may be overwritten) by the next call.
+     *
+     * @return True if the slice was set; false if the ring has been
+     *   closed and all data has been read (or if the reader thread was
+     *   interrupted)
+     */
+    public boolean lend(InputSlice slice)
+    {
+	return lend(slice, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Method similar to {@link #lend(InputSlice)}, but that lends at
+     * most given number of bytes (at least 1).
+     */
+    public boolean lend(InputSlice slice, int max)
+    {
+	long tail = mTail;
+
+	if (mLent > 0) {
+	    tail += mLent;
+	    mLent = 0;
+	    mTail = tail; // frees the space for the writer
+	    unpark(mWaitingWriter);
+	}
+
+	long head = mHead;
+	if (head == tail) {
+	    mWaitingReader = Thread.currentThread();
+	    try {
+		while ((head = mHead) == tail) {
+		    if (mClosed) {
+			slice.clear();
+			return false;
+		    }
+		    LockSupport.park(this);
+		    if (Thread.interrupted()) {
+			slice.clear();
+			return false;
+		    }
+		}
+	    } finally {
+		mWaitingReader = null;
+	    }
+	}
+
+	int ix = (int) tail & mMask;
+	int count = (int) Math.min(Math.min(head - tail, mBuffer.length - ix),
+				   Math.max(max, 1));
+	slice.set(mBuffer, ix, count);
+	mLent = count;
+	return true;
+    }
+
+    private final static void unpark(Thread t)
+    {
+	if (t != null) {
+	    LockSupport.unpark(t);
+	}
+    }
+}
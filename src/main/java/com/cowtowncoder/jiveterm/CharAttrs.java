@@ -17,7 +17,7 @@ Module:
     attributes.
 
 Last changed:
-    23-Sep-2001, TSa:
+    16-Oct-2026
 
 ************************************************************/
 
@@ -31,14 +31,13 @@ import java.awt.*;
  * attributes. Attribute instances are to be shared so that each
  * display character is associated with a CharAttrs instance.
  *
- * CharAttrs instances are not canonicalized (because of
- * problems with purging unused instanced: on Java1.2 and above
- * could use weak/soft references, on Java1.1 not), but some
- * attempts are made to promote sharing. This sharing property
- * is used in optimizing screen rendering; characters with same
- * attributes (and on same line) can be (and are) drawn using
- * just one draw - method, except for certain special cases
- * (double-sized chars).
+ * CharAttrs instances are canonicalized by CharAttrsTable, which
+ * also assigns them small integer ids (that DisplayLine stores
+ * instead of references); unused instances are purged by the table
+ * when it fills up. This sharing property is used in optimizing
+ * screen rendering; characters with same attributes (and on same
+ * line) can be (and are) drawn using just one draw - method, except
+ * for certain special cases (double-sized chars).
  */
 
 public final class
@@ -97,6 +96,12 @@ CharAttrs
      */
     private Color mBrightForeground, mDarkForeground;
 
+    /* Index of this instance in the CharAttrsTable that owns it
+     * (-1 if not registered); DisplayLine stores these ids instead
+     * of references.
+     */
+    int mId = -1;
+
     public CharAttrs(int attrs, Color fg, Color bg)
     {
 	mAttributes = attrs;
@@ -122,6 +127,8 @@ CharAttrs
     }
 
     public int getAttributes() { return mAttributes; }
+    public Color getForeground() { return mColours[FG_INDEX]; }
+    public Color getBackground() { return mColours[BG_INDEX]; }
     public boolean isBold() { return (mAttributes & FX_BOLD) != 0; }
     public boolean isItalics() { return (mAttributes & FX_ITALICS) != 0; }
     public boolean hasUnderlining() { return (mAttributes & FX_UNDERLINING) != 0; }
@@ -152,6 +159,30 @@ CharAttrs
 	return ca.mColours[BG_INDEX].equals(mColours[BG_INDEX]);
     }
 
+    public int hashCode()
+    {
+	return calcHash(mAttributes, mColours[FG_INDEX].getRGB(),
+			mColours[BG_INDEX].getRGB());
+    }
+
+    /**
+     * Method used by CharAttrsTable for looking up instances without
+     * having to create one first; needs to be consistent with
+     * hashCode().
+     */
+    final static int calcHash(int attrs, int fgRgb, int bgRgb)
+    {
+	int hash = (attrs * 31 + fgRgb) * 31 + bgRgb;
+	return hash ^ (hash >>> 16);
+    }
+
+    final boolean matches(int attrs, int fgRgb, int bgRgb)
+    {
+	return (attrs == mAttributes)
+	    && fgRgb == mColours[FG_INDEX].getRGB()
+	    && bgRgb == mColours[BG_INDEX].getRGB();
+    }
+
     public int getFontIndex() { return mFontIndex; }
 
     private final Color[] getReverseColours(Color[] colours)
@@ -201,16 +232,7 @@ CharAttrs
 			  Rectangle coords, int baseline,
 			  boolean blinkedOut, boolean reversed)
     {
-	Color[] colours;
-	
-	if (reversed) {
-	    if (mReverseColours == null) {
-		mReverseColours = getReverseColours(mColours);
-	    }
-	    colours = mReverseColours;
-	} else {
-	    colours = mColours;
-	}
+	Color[] colours = getColours(reversed);
 	
 	g.setColor(colours[BG_INDEX]);
 	g.fillRect(coords.x, coords.y, coords.width, coords.height);
@@ -222,9 +244,89 @@ CharAttrs
 	
 	g.setColor(colours[FG_INDEX]);
 	g.drawChars(text, start, len, coords.x, coords.y + baseline);
+	paintDecorations(g, coords, baseline, colours);
+    }
+
+    /**
+     * Alternative to the other paintText() method, which copies
+     * pre-rendered characters from the given glyph atlas, instead of
+     * drawing them. Font set for the graphics context is not used.
+     */
+    public void paintText(Graphics g, GlyphAtlas atlas,
+			  char[] text, int start, int len,
+			  Rectangle coords, int baseline,
+			  boolean blinkedOut, boolean reversed)
+    {
+	Color[] colours = getColours(reversed);
+
+	// If blinking text, and we are in "off" - phase, just background:
+	if ((mAttributes & FX_BLINK) != 0 && blinkedOut) {
+	    g.setColor(colours[BG_INDEX]);
+	    g.fillRect(coords.x, coords.y, coords.width, coords.height);
+	    return;
+	}
+
+	// Cells include the background, so no need to clear first:
+	atlas.drawChars(g, text, start, len, mFontIndex,
+			colours[FG_INDEX], colours[BG_INDEX],
+			coords.x, coords.y);
+	paintDecorations(g, coords, baseline, colours);
+    }
 
+    /**
+     * Method for painting text on double-width or double-height lines;
+     * glyphs are scaled versions of the normal ones, and come from the
+     * given (shared) cache. Coordinates are those of the doubled cells.
+     *
+     * @param mode Which part of the scaled glyphs to paint; one of
+     *   ScaledGlyphCache.MODE_xxx
+     */
+    public void paintScaledText(Graphics g, ScaledGlyphCache cache,
+				Font[] fonts, char[] text, int start, int len,
+				Rectangle coords, int cellWidth,
+				int cellHeight, int baseline, int mode,
+				boolean blinkedOut, boolean reversed)
+    {
+	Color[] colours = getColours(reversed);
+
+	if ((mAttributes & FX_BLINK) != 0 && blinkedOut) {
+	    g.setColor(colours[BG_INDEX]);
+	    g.fillRect(coords.x, coords.y, coords.width, coords.height);
+	    return;
+	}
+
+	Font font = fonts[mFontIndex];
+	int x = coords.x;
+	for (int end = start + len; start < end; ++start) {
+	    Image glyph = cache.getGlyph(font, cellWidth, cellHeight, baseline,
+					 text[start], mode, colours[FG_INDEX],
+					 colours[BG_INDEX]);
+	    g.drawImage(glyph, x, coords.y, null);
+	    x += 2 * cellWidth;
+	}
+	// Top half of double-height text has no underline (or borders):
+	if (mode != ScaledGlyphCache.MODE_DOUBLE_HEIGHT_TOP) {
+	    paintDecorations(g, coords, baseline, colours);
+	}
+    }
+
+    private final Color[] getColours(boolean reversed)
+    {
+	if (reversed) {
+	    if (mReverseColours == null) {
+		mReverseColours = getReverseColours(mColours);
+	    }
+	    return mReverseColours;
+	}
+	return mColours;
+    }
+
+    private void paintDecorations(Graphics g, Rectangle coords, int baseline,
+				  Color[] colours)
+    {
 	// Underlining?
 	if ((mAttributes & FX_UNDERLINING) != 0) {
+	    g.setColor(colours[FG_INDEX]);
 	    /* Hmmh. Some style guides say underline is not to be applied
 	     * over descending chars, and perhaps not under empty spaces.
 	     * That would be difficult to do. :->
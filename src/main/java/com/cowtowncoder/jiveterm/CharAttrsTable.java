@@ -0,0 +1,345 @@
+/************************************************************
+
+Project:
+    JiveTerm.
+
+    A VT52/VT100/VT102-compliant telnet/terminal program
+    written in java.
+
+    (C) 1998-2001 Tatu Saloranta
+    tatu.saloranta@iki.fi.
+
+Module:
+    CharAttrsTable.java
+
+    Registry that canonicalizes CharAttrs instances and
+    assigns them small integer ids.
+
+Last changed:
+    16-Oct-2026
+
+************************************************************/
+
+package com.cowtowncoder.jiveterm;
+
+import java.awt.Color;
+
+/**
+ * Class that maps (attribute flags, foreground, background) triplets
+ * to shared CharAttrs instances, and each instance to a dense
+ * integer id. Ids are what DisplayLine stores in its cells, so they
+ * have to fit in 16 bits, which bounds the size of the table.
+ *
+ * Cells store plain ids, not references, so the garbage collector
+ * can't tell which entries are still in use (weak references would
+ * not help); instead, unused entries are purged with a simple
+ * mark-and-sweep: when the table fills up, the owner
+ * (Display) is asked to mark all ids still referred to, and unmarked
+ * entries are released (and their ids reused). If all the entries
+ * are still in use, new attributes are not registered; the closest
+ * existing entry is used for them instead (so those chars are shown
+ * with slightly wrong colours or flags, but entries in use never
+ * change).
+ *
+ * Instances are not thread-safe; the owner has to serialize access.
+ * Display only uses its table with the display locked: interning is
+ * done by synchronized methods (setNewCharAttrs(), getAttrsId(), and
+ * ScrollbackArchive when called from synchronized scrolling and
+ * painting code), and ids are only mapped back to attributes while
+ * painting, also with the lock held. MemoryScreen's methods are all
+ * synchronized.
+ */
+
+final class
+CharAttrsTable
+{
+    /* Maximum number of distinct attribute sets; SGR allows quite a few
+     * combinations (flags times 256 or 24-bit colours for fg and bg),
+     * so let's allow as many as ids fit in the cells:
+     */
+    public final static int DEFAULT_MAX_ENTRIES =
+	(1 << (32 - Display.DisplayLine.CELL_ATTRS_SHIFT)) - 1;
+
+    /**
+     * Interface the owner of the table implements, to let the table
+     * know which ids are still in use.
+     */
+    interface Marker
+    {
+	/**
+	 * Called when the table is full; implementation is to call
+	 * {@link CharAttrsTable#mark} for all the attributes it still
+	 * uses (or {@link CharAttrsTable#markCells} for packed cells).
+	 */
+	public void markUsedAttrs(CharAttrsTable table);
+    }
+
+    private final Marker mMarker;
+    private final int mMaxEntries;
+
+    /* Entries indexed by id; null for free slots: */
+    private CharAttrs[] mEntries;
+    private int mCount = 0; // number of used slots
+    private int mNextFree = 0; // lowest possibly free id
+
+    /* Open addressing hash index; each slot contains id+1 (0 means
+     * empty). Size is always a power of two, at least twice the
+     * number of entries.
+     */
+    private int[] mHashSlots;
+
+    /* Marks used by purge(); allocated when needed: */
+    private boolean[] mMarks;
+
+    public CharAttrsTable(Marker marker)
+    {
+	this(marker, DEFAULT_MAX_ENTRIES);
+    }
+
+    public CharAttrsTable(Marker marker, int maxEntries)
+    {
+	mMarker = marker;
+	mMaxEntries = maxEntries;
+	mEntries = new CharAttrs[32];
+	mHashSlots = new int[64];
+    }
+
+    /* *** Public API: *** */
+
+    public int size() { return mCount; }
+
+    public CharAttrs get(int id) { return mEntries[id]; }
+
+    /**
+     * Returns the canonical instance for given attributes, creating
+     * (and registering) one if necessary. If the table is full of
+     * attributes still in use, the closest registered instance is
+     * returned instead.
+     */
+    public CharAttrs intern(int attrs, Color fg, Color bg)
+    {
+	CharAttrs ca = find(attrs, fg.getRGB(), bg.getRGB());
+	if (ca == null) {
+	    ca = add(new CharAttrs(attrs, fg, bg));
+	}
+	return ca;
+    }
+
+    /**
+     * Alternate lookup method, used when colours are only known as
+     * RGB values (like when reading archived lines); Color objects
+     * are only created if there's no matching instance yet.
+     */
+    public CharAttrs intern(int attrs, int fgRgb, int bgRgb)
+    {
+	CharAttrs ca = find(attrs, fgRgb, bgRgb);
+	if (ca == null) {
+	    ca = add(new CharAttrs(attrs, new Color(fgRgb, true),
+				   new Color(bgRgb, true)));
+	}
+	return ca;
+    }
+
+    /**
+     * Returns the id of given attributes. If the instance is not
+     * (or is no longer) registered, the canonical instance with same
+     * contents is looked up, or registered if there's none.
+     */
+    public int getId(CharAttrs attrs)
+    {
+	int id = attrs.mId;
+
+	if (id >= 0 && id < mEntries.length && mEntries[id] == attrs) {
+	    return id;
+	}
+	CharAttrs ca = intern(attrs.getAttributes(), attrs.getForeground(),
+			      attrs.getBackground());
+	return ca.mId;
+    }
+
+    /**
+     * Method called by the Marker during purge, to indicate given
+     * attributes are still in use. Unregistered instances (and nulls)
+     * are ignored.
+     */
+    public void mark(CharAttrs attrs)
+    {
+	if (attrs != null) {
+	    int id = attrs.mId;
+	    if (id >= 0 && id < mEntries.length && mEntries[id] == attrs) {
+		mMarks[id] = true;
+	    }
+	}
+    }
+
+    /**
+     * Convenience method for marking all the ids used by cells
+     * packed by DisplayLine.
+     */
+    public void markCells(int[] cells, int len)
+    {
+	boolean[] marks = mMarks;
+	int prev = -1;
+
+	for (int i = 0; i < len; ++i) {
+	    int id = cells[i] >>> Display.DisplayLine.CELL_ATTRS_SHIFT;
+	    if (id != prev) {
+		marks[id] = true;
+		prev = id;
+	    }
+	}
+    }
+
+    /* *** Internal methods: *** */
+
+    private CharAttrs find(int attrs, int fgRgb, int bgRgb)
+    {
+	int hash = CharAttrs.calcHash(attrs, fgRgb, bgRgb);
+	int mask = mHashSlots.length - 1;
+
+	for (int ix = hash & mask; ; ix = (ix + 1) & mask) {
+	    int slot = mHashSlots[ix];
+	    if (slot == 0) {
+		return null;
+	    }
+	    CharAttrs ca = mEntries[slot - 1];
+	    if (ca.matches(attrs, fgRgb, bgRgb)) {
+		return ca;
+	    }
+	}
+    }
+
+    /* Registers given instance, and returns it; or, if there's no
+     * room, returns the closest registered instance:
+     */
+    private CharAttrs add(CharAttrs ca)
+    {
+	if (mCount >= mMaxEntries) {
+	    purge();
+	    if (mCount >= mMaxEntries) {
+		/* Can't exceed the limit, as ids must fit in cells;
+		 * and entries still in use can't be replaced, as the
+		 * chars using them would change too:
+		 */
+		return findClosest(ca);
+	    }
+	}
+	int id = findFreeId();
+	if (id < 0) { // All in use? Need to grow the table, then
+	    int newLen = mEntries.length * 2;
+	    if (newLen > mMaxEntries) {
+		newLen = mMaxEntries;
+	    }
+	    CharAttrs[] old = mEntries;
+	    mEntries = new CharAttrs[newLen];
+	    System.arraycopy(old, 0, mEntries, 0, old.length);
+	    id = old.length;
+	}
+	mEntries[id] = ca;
+	ca.mId = id;
+	++mCount;
+	mNextFree = id + 1;
+
+	if ((mCount * 2) > mHashSlots.length) {
+	    rehash(mHashSlots.length * 2);
+	} else {
+	    insertHash(id);
+	}
+	return ca;
+    }
+
+    /* Background colour matters the most (it fills the whole cell),
+     * then foreground; flags the least. Ties go to the lowest id,
+     * which is usually the default attributes (registered first):
+     */
+    private CharAttrs findClosest(CharAttrs ca)
+    {
+	int attrs = ca.getAttributes();
+	int fgRgb = ca.getForeground().getRGB();
+	int bgRgb = ca.getBackground().getRGB();
+	CharAttrs best = null;
+	int bestScore = -1;
+
+	for (int i = 0; i < mEntries.length && bestScore < 7; ++i) {
+	    CharAttrs e = mEntries[i];
+	    if (e == null) {
+		continue;
+	    }
+	    int score = 0;
+	    if (e.getBackground().getRGB() == bgRgb) {
+		score += 4;
+	    }
+	    if (e.getForeground().getRGB() == fgRgb) {
+		score += 2;
+	    }
+	    if (e.getAttributes() == attrs) {
+		score += 1;
+	    }
+	    if (score > bestScore) {
+		best = e;
+		bestScore = score;
+	    }
+	}
+	return best;
+    }
+
+    private int findFreeId()
+    {
+	CharAttrs[] entries = mEntries;
+	for (int i = mNextFree; i < entries.length; ++i) {
+	    if (entries[i] == null) {
+		return i;
+	    }
+	}
+	return -1;
+    }
+
+    private void insertHash(int id)
+    {
+	CharAttrs ca = mEntries[id];
+	int mask = mHashSlots.length - 1;
+	int ix = ca.hashCode() & mask;
+
+	while (mHashSlots[ix] != 0) {
+	    ix = (ix + 1) & mask;
+	}
+	mHashSlots[ix] = id + 1;
+    }
+
+    private void rehash(int newSize)
+    {
+	mHashSlots = new int[newSize];
+	for (int i = 0; i < mEntries.length; ++i) {
+	    if (mEntries[i] != null) {
+		insertHash(i);
+	    }
+	}
+    }
+
+    /**
+     * Method that releases all entries the owner no longer refers
+     * to.
+     */
+    private void purge()
+    {
+	if (mMarks == null || mMarks.length < mEntries.length) {
+	    mMarks = new boolean[mEntries.length];
+	} else {
+	    for (int i = 0; i < mMarks.length; ++i) {
+		mMarks[i] = false;
+	    }
+	}
+	mMarker.markUsedAttrs(this);
+
+	boolean[] marks = mMarks;
+	for (int i = 0; i < mEntries.length; ++i) {
+	    if (!marks[i] && mEntries[i] != null) {
+		mEntries[i].mId = -1;
+		mEntries[i] = null;
+		--mCount;
+	    }
+	}
+	mNextFree = 0;
+	rehash(mHashSlots.length);
+    }
+}
@@ -0,0 +1,176 @@
+/************************************************************
+
+Project:
+    JiveTerm.
+
+    A VT52/VT100/VT102-compliant telnet/terminal program
+    written in java.
+
+    (C) 1998-2001 Tatu Saloranta
+    tatu.saloranta@iki.fi.
+
+Module:
+    ControlScanner.java
+
+    Fast scanning of input for control characters.
+
+Last changed:
+    16-Oct-2026
+
+************************************************************/
+
+package com.cowtowncoder.jiveterm;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Helper class Terminal uses to find the end of a run of printable
+ * characters in the input, ie. the next control character (C0 or C1
+ * code, including ESC). Since most of the input is plain text, this
+ * is the loop every byte goes through.
+ *
+ * Instead of checking one byte at a time, input is read 8 bytes at
+ * a time (as longs, through a ByteBuffer view of the input array),
+ * and all 8 bytes are checked at once using simple bit operations
+ * ("SIMD within a register"). Scanning falls back to checking single
+ * bytes for the last few bytes of the input.
+ *
+ * For UTF-8 input only C0 codes count ({@link #findC0Control}), since
+ * bytes 0x80 - 0x9F are continuation bytes of multi-byte chars.
+ *
+ * TelnetConnection uses the same approach for finding the protocol
+ * bytes (IAC, CR) in its input ({@link #findTelnetSpecial}).
+ */
+
+final class
+ControlScanner
+{
+    /* A byte is a control char if ((b & 0x7F) < 32), ie. if both bits
+     * 5 and 6 are zero. ORing each byte with itself shifted right by
+     * one moves bit 6 to bit 5, so after masking bit 5 is only
+     * clear for control chars:
+     */
+    private final static long BIT5_MASK = 0x2020202020202020L;
+
+    /* For finding bytes with specific values; see zeroBytes(): */
+    private final static long LOW7_MASK = 0x7F7F7F7F7F7F7F7FL;
+    private final static long CR_BYTES = 0x0D0D0D0D0D0D0D0DL;
+
+    private final static byte BYTE_IAC = (byte) 0xFF;
+    private final static byte BYTE_CR = (byte) 0x0D;
+
+    /* Shorter runs are not worth the overhead: */
+    private final static int MIN_WORD_SCAN = 16;
+
+    private byte[] mArray = null;
+    private ByteBuffer mView = null;
+
+    public ControlScanner() { }
+
+    /**
+     * Returns the index of the first control char in the given part
+     * of the buffer, or 'end' if there is none.
+     *
+     * @param buf Buffer to scan
+     * @param start Index of the first byte to check
+     * @param end Index after the last byte to check
+     */
+    public int findControl(byte[] buf, int start, int end)
+    {
+	int i = start;
+
+	if ((end - i) >= MIN_WORD_SCAN) {
+	    ByteBuffer view = getView(buf);
+	    for (int last = end - 8; i <= last; i += 8) {
+		long w = view.getLong(i);
+		long ctrl = ((w | (w >>> 1)) & BIT5_MASK) ^ BIT5_MASK;
+		if (ctrl != 0L) {
+		    // First byte is the most significant one:
+		    return i + (Long.numberOfLeadingZeros(ctrl) >> 3);
+		}
+	    }
+	}
+	for (; i < end; ++i) {
+	    if ((buf[i] & 0x60) == 0) {
+		break;
+	    }
+	}
+	return i;
+    }
+
+    /**
+     * Same as {@link #findControl}, except that only C0 codes (bytes
+     * below 32) are considered control chars.
+     */
+    public int findC0Control(byte[] buf, int start, int end)
+    {
+	int i = start;
+
+	if ((end - i) >= MIN_WORD_SCAN) {
+	    ByteBuffer view = getView(buf);
+	    for (int last = end - 8; i <= last; i += 8) {
+		long w = view.getLong(i);
+		// Now bit 7 needs to be clear as well:
+		long ctrl = ((w | (w >>> 1) | (w >>> 2)) & BIT5_MASK) ^ BIT5_MASK;
+		if (ctrl != 0L) {
+		    return i + (Long.numberOfLeadingZeros(ctrl) >> 3);
+		}
+	    }
+	}
+	for (; i < end; ++i) {
+	    if ((buf[i] & 0xE0) == 0) {
+		break;
+	    }
+	}
+	return i;
+    }
+
+    /**
+     * Returns the index of the first byte in the given part of the
+     * buffer that telnet protocol handling needs to look at: IAC (255),
+     * CR or NULL; or 'end' if there is none.
+     */
+    public int findTelnetSpecial(byte[] buf, int start, int end)
+    {
+	int i = start;
+
+	if ((end - i) >= MIN_WORD_SCAN) {
+	    ByteBuffer view = getView(buf);
+	    for (int last = end - 8; i <= last; i += 8) {
+		long w = view.getLong(i);
+		// NULLs are zero bytes in w, IACs in ~w, CRs in (w ^ CR_BYTES)
+		long special = zeroBytes(w) | zeroBytes(~w)
+		    | zeroBytes(w ^ CR_BYTES);
+		if (special != 0L) {
+		    return i + (Long.numberOfLeadingZeros(special) >> 3);
+		}
+	    }
+	}
+	for (; i < end; ++i) {
+	    byte b = buf[i];
+	    if (b == BYTE_IAC || b == BYTE_CR || b == 0) {
+		break;
+	    }
+	}
+	return i;
+    }
+
+    /* Returns a word with the high bit set in each byte that is zero
+     * in x, and nothing else set. Unlike the usual (x - 0x0101..) trick,
+     * there are no carries between bytes, so there can be no false
+     * matches either.
+     */
+    private final static long zeroBytes(long x)
+    {
+	return ~(((x & LOW7_MASK) + LOW7_MASK) | x | LOW7_MASK);
+    }
+
+    private final ByteBuffer getView(byte[] buf)
+    {
+	if (buf != mArray) { // big-endian by default; that's what we want
+	    mView = ByteBuffer.wrap(buf);
+	    mArray = buf;
+	}
+	return mView;
+    }
+}
@@ -12,7 +12,7 @@ Module:
     Display.java
 
 Last changed:
-    29-Sep-2001
+    16-Oct-2026
 
 Description:
     This class implements the matrix display
@@ -59,6 +59,46 @@ Changes:
     and cutting it clipboard...
   29-Oct-2001: (no, selection not there yet). Refactoring the
     whole codebase.
+  16-Oct-2026:
+    DisplayLine now stores chars and attributes packed
+    in a single int array (attributes as ids to a
+    per-display table).
+    Character attributes are now canonicalized by
+    CharAttrsTable.
+    Lines are kept in a circular LineBuffer, with
+    configurable scrollback size.
+    Lines dropped from the LineBuffer are saved in a
+    ScrollbackArchive (of limited size), and can be viewed
+    in buffer mode.
+    Dirty areas are tracked per row, and repainted
+    one span at a time.
+    Painting is done by a separate render thread, at a
+    limited frame rate; parsing thread only updates lines
+    and marks damage.
+    Text is painted by copying pre-rendered cells from a
+    GlyphAtlas.
+    FontLoader is gone; glyphs for double-sized lines are
+    rendered on demand by ScaledGlyphCache, so there is no
+    more waiting for the fonts to load.
+    Scrolling (linefeeds, index, insert/delete lines) moves
+    the already rendered rows in the screen image, instead
+    of rendering them again.
+    No more Blinker thread per display; a shared
+    BlinkScheduler calls blinkTick() only while there is
+    something blinking, and only the blinking spans are
+    repainted.
+    doPaint() counts paints, cells and pixels painted, and
+    time spent, in SessionStats (if set).
+    Terminal now uses Display through the ScreenModel
+    interface; MemoryScreen is the other implementation,
+    with no painting.
+    Smooth scrolling no longer sleeps with the display
+    locked; the pauses are taken once the lock is released.
+    Painting reads lines with LineBuffer.peek(), which never
+    creates or stores lines, as it's done without the lock.
+    paint() only blits the screen image; the blink phase
+    is painted in by doPaint(), with blinkedState passed as
+    'blinked out' as documented.
 
 ************************************************************/
 
@@ -79,27 +119,12 @@ Class that implements the "output window" of the client:
 
 final class Display
     extends Canvas // could use Component as well?
-    implements MouseMotionListener, MouseListener, FocusListener
+    implements ScreenModel, MouseMotionListener, MouseListener,
+	       FocusListener, CharAttrsTable.Marker
 {
-    // On/off properties (display modes):
-    public final static int MODE_ORIGIN_RELATIVE = 0x0001;
-    public final static int MODE_AUTO_WRAP = 0x0002;
-    public final static int MODE_SMOOTH_SCROLL = 0x0004;
-    public final static int MODE_INSERT_MODE = 0x0008;
-    public final static int MODE_CURSOR_VISIBLE = 0x0010;
-    public final static int MODE_SCREEN_REVERSED = 0x0020;
-
-    // Default settings for those properties (list of those that are on)
-    public final static int DEFAULT_DISPLAY_FLAGS =
-	MODE_AUTO_WRAP | MODE_CURSOR_VISIBLE;
-
-    public final static int DEFAULT_TAB_SIZE = 8;
-    /* Are they all saveable? According to docs, only auto-wrap and
-     * origin mode?
+    /* Display modes (MODE_xxx) and their defaults are defined in
+     * ScreenModel.
      */
-    //public final static int SAVEABLE_DISPLAY_FLAGS = 0xFFFF;
-    public final static int SAVEABLE_DISPLAY_FLAGS =
-	MODE_ORIGIN_RELATIVE | MODE_AUTO_WRAP;
 
     /* *** Default look'n feel: *** */
     public final static Color DEFAULT_FG = Color.black;
@@ -109,8 +134,10 @@ final class Display
     public final static int BORDER_Y = 2;
     public final static int UNDERLINE_OFFSET = 1;
 
-    //public final static int BUFFER_LINES = 500;
-    public final static int BUFFER_LINES = 100;
+    /* Default size of the scrollback buffer (including the screen);
+     * can be changed with setBufferLines():
+     */
+    public final static int DEFAULT_BUFFER_LINES = 1000;
     public final static int INPUT_CHARS = 2048; /* Just a guess */
     /* Bigger buffer seems to improve the throughput (quite naturally)... */
 
@@ -138,6 +165,13 @@ final class Display
     
     protected CharAttrs mCharAttrs;
     protected CharAttrs mDefaultCharAttrs;
+
+    /* Canonical character attributes used on this display; DisplayLine
+     * refers to attributes using ids from this table (see
+     * getAttrsId()):
+     */
+    private final CharAttrsTable mAttrTable = new CharAttrsTable(this);
+    private char[] mPaintChars = new char[DEF_COLS];
     protected int mDisplayModes = DEFAULT_DISPLAY_FLAGS;
 
     public final static Dimension minCharSize = new Dimension(MIN_COLS, MIN_ROWS);
@@ -154,7 +188,16 @@ final class Display
     //private final static boolean doubleDraw = true;
     
     /* Now the buffer space: */
-    private DisplayLine[] mLines;
+    private LineBuffer mLines;
+
+    /* Lines scrolled out of mLines are stored in the archive (created
+     * when first needed); mArchiveLine is used for decoding archived
+     * lines for painting:
+     */
+    private ScrollbackArchive mArchive = null;
+    private boolean mArchiveFailed = false;
+    private DisplayLine mArchiveLine = null;
+    private long mArchiveMaxSize = ScrollbackArchive.DEFAULT_MAX_SIZE;
 
     /* Information about (and related to) the cursor: */
     private int mCurrRow, mCurrCol; // Current position of cursor;
@@ -203,20 +246,33 @@ final class Display
     
     protected Integer screenLock = new Integer(0); // Needs to be obtained when
     // drawing to the Graphics context of the window...
-    protected int updateX1 = -1, updateX2 = 0;
-    protected int updateY1 = -1, updateY2 = 0;
-    
-    /* Then the graphics buffers that contain doubled chars and
-     * related data:
+    /* Dirty areas are tracked per screen row; a bit set tells which
+     * rows have changed, and for those rows mDirtyMin/mDirtyMax
+     * contain the range of changed columns (inclusive):
+     */
+    private int[] mDirtyRowBits = new int[(DEF_ROWS + 31) >> 5];
+    private int[] mDirtyMin = new int[DEF_ROWS];
+    private int[] mDirtyMax = new int[DEF_ROWS];
+    private boolean mAnyDirty = false;
+    /* Rows (relative to the screen top) that have not changed but
+     * have been moved in the screen image (by scrolling), and thus
+     * need to be copied to the window; -1 if none:
+     */
+    private int mBlitTop = -1, mBlitBottom = -1;
+
+    /* Painting is done by a separate thread, at most at the given
+     * frame rate; see RenderTimer. After a keystroke the next frame
+     * is painted immediately, to keep echo latency low:
      */
-    private FontLoader fontLoader;
-    public final static int DW_FONT_NORMAL = 0;
-    public final static int DW_FONT_BOLD = 1;
-    public final static int DH_FONT_NORMAL = 2;
-    public final static int DH_FONT_BOLD = 3;
-    private Image [][] doubleFonts;
-    // Actually, also some special chars...
-    private Image [] gfxFonts; // Contains all the symbols in one array
+    private RenderTimer mRenderer;
+    private boolean mKeystrokePending = false;
+
+    /* Statistics of the session displayed, if any: */
+    private SessionStats mStats = null;
+    private final Rectangle mRenderCoords = new Rectangle();
+
+    /* Cache of pre-rendered chars; re-created when fonts change: */
+    private GlyphAtlas mGlyphAtlas = null;
 
     /* Current/default char/line attribute values: */
 
@@ -224,18 +280,22 @@ final class Display
      * communicate:
      */
     protected JiveTerm master;
-    private Thread blinkThread; // The thread that informs us about blinking...
     
     /* Some internal mode flags: */
     public boolean bufferMode = false; // Are we viewing the scrollback buffer?
     private boolean hasFocus = false; // Does the terminal have the focus?
     private boolean blinkedState = false; // If true, blinked chars are 'off' now
-    private boolean blinkActive = false; // Whether blink-thread is active
+    private boolean blinkActive = false; // Registered with BlinkScheduler?
 
     private boolean mScreenReversed = false; // For reverse-mode
     
     /* Various modes that may be changed... */
     private boolean scrollOnOutput = false; // Buffer-mode off when text is received?
+
+    /* Smooth scrolling pauses for this long (msecs) after each step: */
+    private final static long SMOOTH_SCROLL_DELAY = 10L;
+    // Steps scrolled (with smooth scrolling on) but not yet paused for:
+    private int mSmoothScrollSteps = 0;
     
     private Font[] mCurrFonts;
     /* Even though there are 4 fonts, font metrics should be identical
@@ -253,17 +313,13 @@ final class Display
 	sizeInCharsH = DEF_ROWS;
 	
 	mCurrFonts = getFonts(fontName, fontSize);
-	mDefaultCharAttrs = new CharAttrs(0, DEFAULT_FG, DEFAULT_FG);
+	mDefaultCharAttrs = mAttrTable.intern(0, DEFAULT_FG, DEFAULT_FG);
 	
 	mCurrRow = mCurrCol = mTopRow = screenRow = 0;
 	mBottomRow = sizeInCharsH - 1;
 	
 	// We better initialize the buffers first:
-	mLines = new DisplayLine[BUFFER_LINES];
-	// Let's only create lines for the first screen here:
-	for (int i = 0; i <= mBottomRow; ++i) {
-	    mLines[i] = new DisplayLine(this, sizeInCharsW);
-	}
+	mLines = new LineBuffer(this, DEFAULT_BUFFER_LINES, sizeInCharsW);
 	
 	if (currFont == null || currBoldFont == null) {
 	    doWarning("Warning: Couldn't get font-info when calculating layout!");
@@ -276,17 +332,8 @@ final class Display
 	 */
 	softResetDisplay(false);
 	
-	/* We really should get the damn fonts, otherwise we can't make
-	 * the double width/height ones... 
-	 */
-	doubleFonts = new Image[4][];
-	fontLoader = new FontLoader(this, currFont, currBoldFont);
-	for (int i = 0; i < 4; i++) {
-	    doubleFonts[i] = new Image[fontLoader.IMAGES_PER_CHARSET];
-	}
-	new Thread(fontLoader).start();
-	blinkThread = new Blinker(this);
-	blinkThread.start();
+	mRenderer = new RenderTimer(this, RenderTimer.DEFAULT_FRAME_RATE);
+	mRenderer.start();
 	
 	/* These are just sort of first guesses: */
 	//pixelSize = new Dimension(sizeInCharsW * fontWidth + 2 * BORDER_X,
@@ -435,10 +482,66 @@ final class Display
 	//setCursorAt(0, mTopRow);
     }
 
-    public void resetCharAttrs()
+    /* The attribute table is not thread-safe; it's only accessed with
+     * the display locked (interning can purge entries, which must not
+     * happen while painting, or another thread interns):
+     */
+    public synchronized void resetCharAttrs()
     {
 	mCharAttrs = mDefaultCharAttrs;
     }
+
+    /**
+     * Method Terminal calls when SGR codes have changed the current
+     * character attributes; the shared canonical instance is used,
+     * so no new objects are created for already seen combinations.
+     */
+    public synchronized void setNewCharAttrs(int attrs, Color fg, Color bg)
+    {
+	mCharAttrs = mAttrTable.intern(attrs, fg, bg);
+    }
+
+    /**
+     * Returns the id (index in the attribute table) of given attributes,
+     * adding them to the table first if necessary. Ids are stored in
+     * the packed cells of DisplayLine, and can be mapped back to
+     * attributes using getAttrs().
+     */
+    final synchronized int getAttrsId(CharAttrs attrs)
+    {
+	return mAttrTable.getId(attrs);
+    }
+
+    // Only to be called with the display locked (while painting etc):
+    final CharAttrs getAttrs(int id)
+    {
+	return mAttrTable.get(id);
+    }
+
+    /**
+     * Callback from CharAttrsTable, called when the table is full
+     * and unused attributes need to be purged.
+     */
+    public void markUsedAttrs(CharAttrsTable table)
+    {
+	table.mark(mDefaultCharAttrs);
+	table.mark(mCharAttrs);
+	mLines.markAttrs(table);
+	if (mArchiveLine != null) {
+	    mArchiveLine.markAttrs(table);
+	}
+    }
+
+    /* Returns a scratch buffer used when unpacking chars for
+     * rendering; only to be used by the painting thread.
+     */
+    final char[] getPaintBuffer(int minLength)
+    {
+	if (mPaintChars.length < minLength) {
+	    mPaintChars = new char[minLength];
+	}
+	return mPaintChars;
+    }
     
     /* *** Then the effects that apply to the whole line (row): * ***/
 
@@ -454,25 +557,25 @@ final class Display
 
     public void setLineEffectDW(boolean repaint)
     {
-	mLines[mCurrRow].setDoubleWidth();
+	mLines.get(mCurrRow).setDoubleWidth();
 	updateDoubleRow(repaint);
     }
 
     public void setLineEffectDHTop(boolean repaint)
     {
-	mLines[mCurrRow].setDoubleTop();
+	mLines.get(mCurrRow).setDoubleTop();
 	updateDoubleRow(repaint);
     }
 
     public void setLineEffectDHBottom(boolean repaint)
     {
-	mLines[mCurrRow].setDoubleBottom();
+	mLines.get(mCurrRow).setDoubleBottom();
 	updateDoubleRow(repaint);
     }
 
     public void setLineEffectNone(boolean repaint)
     {
-	mLines[mCurrRow].setDoubledNone();
+	mLines.get(mCurrRow).setDoubledNone();
 	if (repaint) {
 	    redrawRow(mCurrRow, 0);
 	}
@@ -481,12 +584,12 @@ final class Display
     public void setLineEffectTest()
     {
 	for (int r = mTopRow; r <= mBottomRow; r++) {
-	    mLines[r].fillLineWith('E', mDefaultCharAttrs, sizeInCharsW);
+	    mLines.get(r).fillLineWith('E', mDefaultCharAttrs, sizeInCharsW);
 	    redrawRow(r, 0);
 	}
     }
 
-    private void redrawScreen()
+    public void redrawScreen()
     {
       screenRow = 0;
       paintBuffer(mTopRow, false, true);
@@ -504,7 +607,7 @@ final class Display
 
     protected int getPixelX()
     {
-	if (mLines[mCurrRow].isDoubleWidth()) {
+	if (mLines.peek(mCurrRow).isDoubleWidth()) {
 	    return (mCurrCol * fontWidth) << 1;
 	}
 	return (mCurrCol * fontWidth);
@@ -602,7 +705,7 @@ final class Display
 	    }
 	}
 
-	DisplayLine currLine = mLines[r];
+	DisplayLine currLine = mLines.get(r);
 	boolean dw = currLine.isDoubleWidth();
 
 	/* We can't access line attribute data before making sure
@@ -630,7 +733,7 @@ final class Display
 	 */
 	if (mCurrRow > mBottomRow) {
 	    reshapeScrollbar();
-	    if (mCurrRow >= mLines.length) {
+	    if (mCurrRow >= mLines.getCapacity()) {
 		adjustCharBuffer();
 	    }
 	    mBottomRow = mCurrRow;
@@ -645,16 +748,17 @@ final class Display
 	 * and after move). It might be possible to optimize this
 	 * out, but at least this way works ok:
 	 */
+	/* Only the old and new cursor cells need repainting; if they
+	 * are on different rows, the rows in between are not touched:
+	 */
 	if (dw) {
-	    if (old_c < mCurrCol) {
-		markRangeDirty(old_c * 2, old_r - mTopRow,
-			       mCurrCol * 2 + 1, mCurrRow - mTopRow);
-	    } else {
-		markRangeDirty(mCurrCol * 2, mCurrRow - mTopRow,
-			       old_c * 2 + 1, old_r - mTopRow);
-	    }
+	    markRangeDirty(old_c * 2, old_r - mTopRow,
+			   old_c * 2 + 1, old_r - mTopRow);
+	    markRangeDirty(mCurrCol * 2, mCurrRow - mTopRow,
+			   mCurrCol * 2 + 1, mCurrRow - mTopRow);
 	} else {
-	    markRangeDirty(old_c, old_r - mTopRow, mCurrCol, mCurrRow - mTopRow);
+	    markPositionDirty(old_c, old_r - mTopRow);
+	    markPositionDirty(mCurrCol, mCurrRow - mTopRow);
 	}
     }
 
@@ -686,56 +790,6 @@ final class Display
 	}
     }
 
-    public void setDoubleFont(int which, Image [] dw)
-    {
-	doubleFonts[which] = dw;
-    }
-    
-    public Image [] getDoubleFont(int which)
-    {
-	Image img;
-	
-	return doubleFonts[which];
-    }
-    
-    public void setGfxFont(Image [] dw)
-    {
-	gfxFonts = dw;
-    }
-    
-    public final Image waitForDoubleFont(Image [] set, int entry)
-    {
-	while (set[entry] == null) {
-	    if (debugDisplay) {
-		doWarningLF("DpDebug: Waiting for loading of double font of set #"+set+", entry #"+entry);
-	    }
-	    try {
-		Thread.sleep(100);
-	    } catch (InterruptedException ie) {
-	    }
-	}
-	return set[entry];
-    }
-
-    public final Image waitForDoubleFont(int set, int entry)
-    {
-	return waitForDoubleFont(doubleFonts[set], entry); 
-    }
-    
-    public final Image waitForGfxFont(int entry)
-    {
-	while (gfxFonts[entry] == null) {
-	    if (debugDisplay) {
-		doWarningLF("DpDebug: Waiting for loading of gfx font #"+entry);
-	    }
-	    try {
-		Thread.sleep(100);
-	    } catch (InterruptedException ie) {
-	    }
-	}
-	return gfxFonts[entry];
-    }
-
     /* *** Redraw: *** */
     
     public void update(Graphics g)
@@ -778,8 +832,6 @@ final class Display
      */
     public void output(char[] chars, int start, int len)
     {
-	Rectangle coords;
-
 	int i = start;
         len += start;
 	for (; i < len; ) {
@@ -797,18 +849,12 @@ final class Display
 	    for (; j < len; ++j) {
 		char x = chars[j];
 
-		if ((c & 0x7F) < 32 || c == CHAR_DEL) {
+		if ((x & 0x7F) < 32 || x == CHAR_DEL) {
 		    break;
 		}
 	    }
-	    
-	  // Text may span multiple lines, thus looping:
-	    while (i < j) {
-		if (coords == null) {
-		    coords = new Rectangle(); // Should be cached?
-		}
-		i = j - printChars(chars, i, j - i, coords);
-	    }
+	    printText(chars, i, j - i);
+	    i = j;
 	}
 
 	/* If the user wants to exit the buffer mode when text (including
@@ -820,6 +866,43 @@ final class Display
 	}
     }
 
+    /**
+     * Method for printing text that is known not to contain control
+     * chars (caller has checked that).
+     */
+    public void printText(char[] chars, int start, int len)
+    {
+	/* Text may span multiple lines, thus looping. With smooth
+	 * scrolling, the display is unlocked after each line, so that
+	 * an autowrap that scrolls is paused for right away:
+	 */
+	if (displayMode(MODE_SMOOTH_SCROLL) && !Thread.holdsLock(this)) {
+	    while (len > 0) {
+		int count;
+		synchronized (this) {
+		    count = printChars(chars, start, len);
+		}
+		smoothScrollPause();
+		if (count <= 0) { // shouldn't happen, but let's not loop forever
+		    break;
+		}
+		start += count;
+		len -= count;
+	    }
+	    return;
+	}
+	synchronized (this) {
+	    while (len > 0) {
+		int count = printChars(chars, start, len);
+		if (count <= 0) { // shouldn't happen, but let's not loop forever
+		    break;
+		}
+		start += count;
+		len -= count;
+	    }
+	}
+    }
+
     /* *** Methods for saving, restoring and resetting display state: *** */
     public void softResetDisplay(boolean repaint)
     {
@@ -875,16 +958,27 @@ final class Display
      */
     private void clearHorizontal(int row, int left, int right)
     {
-	int y = getPixelY(row);
-	screenGraphics.setColor(mDefaultCharAttrs.getBackground());
-	if (mLines[row].isDoubleWidth()) {
-	    screenGraphics.fillRect(left * fontWidth * 2, y,
-				    (left - right + 1) * fontWidth * 2,
-				    fontHeight);
-	} else {
-	    screenGraphics.fillRect(left * fontWidth, y,
-				    (left - right + 1) * fontWidth,
-				    fontHeight);
+	/* Contents have already been cleared; just need to get the area
+	 * repainted on the next frame:
+	 */
+	if (mLines.peek(row).isDoubleWidth()) {
+	    left *= 2;
+	    right = right * 2 + 1;
+	}
+	markRangeDirty(left, row - mTopRow, right, row - mTopRow);
+    }
+
+    /**
+     * Method for emptying contents of the lines between specified start
+     * and end lines (inclusive); used for the lines that are recycled
+     * when scrolling or inserting/deleting lines.
+     */
+    private void resetLines(int topRow, int bottomRow)
+    {
+	for (int i = topRow; i <= bottomRow; ++i) {
+	    DisplayLine l = mLines.get(i);
+	    l.clearLine();
+	    l.resetLineAttrs();
 	}
     }
 
@@ -897,32 +991,13 @@ final class Display
      */
     private void clearLines(int topRow, int bottomRow)
     {
-	screenGraphics.setColor(defBgroundColor);
-	int prevY = -1; 
-	/* Because gfx buffer is ring buffer, can't just simply clear
-	 * between y-coords of top & bottom. However, it's not rocket
-	 * science to figure whether we need to clear one or 2 areas:
-	 */
-	int topY = getPixelY(topRow);
-	int bottomY = getPixelY(bottomRow);
-	// Consequtive?
-	if (bottomY > topY) {
-	    screenGraphics.fillRect(0, topY, usablePixelSize.width,
-				bottomY - topY + fontHeight);
-	} else {
-	    /* In 2 pieces; first piece from top to bottomRow, second
-	     * piece from topRow to bottom:
-	     */
-	    screenGraphics.fillRect(0, 0, usablePixelSize.width,
-				bottomY + fontHeight);
-	    screenGraphics.fillRect(0, topY, usablePixelSize.width,
-				usablePixelSize.height - topY);
-	}
+	// As with clearHorizontal(), contents are already cleared
+	markRowsDirty(topRow - mTopRow, bottomRow - mTopRow);
     }
 
     public void eraseLine()
     {	
-	DisplayLine currLine = mLines[mCurrRow];
+	DisplayLine currLine = mLines.get(mCurrRow);
 	int oldLen = currLine.getLineLength();
 
 	currLine.eraseLine(true, mCurrCol);
@@ -930,9 +1005,9 @@ final class Display
 	markRowDirty(mCurrRow - mTopRow);
     }
 
-    public void eraseNonSelectedLine()
+    public void eraseLineNonSelected()
     {
-	mLines[mCurrRow].eraseLine(false, mCurrCol);
+	mLines.get(mCurrRow).eraseLine(false, mCurrCol);
 	redrawRow(mCurrRow, 0);
     }
     
@@ -942,7 +1017,7 @@ final class Display
 	 * not the whole current row... Weird.
 	 */
 	for (int i = mCurrRow + 1; i <= mBottomRow; i++) {
-	    DisplayLine currLine = mLines[i];
+	    DisplayLine currLine = mLines.get(i);
 	    int oldLen = currLine.getLineLength();
 	    
 	    currLine.eraseLine(true, -1);
@@ -958,18 +1033,18 @@ final class Display
 	eraseEOL();
     }
 
-    public void eraseNonSelectedDown()
+    public void eraseDownNonSelected()
     {
 	for (int i = mCurrRow + 1; i <= mBottomRow; i++) {
-	    mLines[i].eraseLine(false, -1);
+	    mLines.get(i).eraseLine(false, -1);
 	    redrawRow(i, 0);
 	}
-	eraseNonSelectedEOL();
+	eraseEOLNonSelected();
     }
     
     public void eraseEOL()
     {	      
-	DisplayLine currLine = mLines[mCurrRow];
+	DisplayLine currLine = mLines.get(mCurrRow);
 	int oldLength = currLine.getLineLength();
 	
 	currLine.eraseEOL(true, mCurrCol);
@@ -977,22 +1052,22 @@ final class Display
 	markRowDirty(mCurrRow - mTopRow);
     }
 
-    public void eraseNonSelectedEOL()
+    public void eraseEOLNonSelected()
     {
-	mLines[mCurrRow].eraseEOL(true, mCurrCol);
+	mLines.get(mCurrRow).eraseEOL(true, mCurrCol);
 	redrawRow(mCurrRow, mCurrCol);
     }
 
     public void eraseSOL()
     {
-	mLines[mCurrRow].eraseSOL(true, mCurrCol);
+	mLines.get(mCurrRow).eraseSOL(true, mCurrCol);
 	clearHorizontal(mCurrRow, 0, mCurrCol);
 	markRowDirty(mTopRow - mCurrRow);
     }
 
-    public void eraseNonSelectedSOL()
+    public void eraseSOLNonSelected()
     {
-	mLines[mCurrRow].eraseSOL(false, mCurrCol);
+	mLines.get(mCurrRow).eraseSOL(false, mCurrCol);
 	redrawRow(mCurrRow, 0);
     }
 
@@ -1004,7 +1079,7 @@ final class Display
     public void eraseUp()
     {
 	for (i = mTopRow; i < mCurrRow; i++) {
-	    DisplayLine currLine = mLines[i];
+	    DisplayLine currLine = mLines.get(i);
 	    int oldLen = currLine.getLineLength();
 	    
 	    currLine.eraseLine(true, -1);
@@ -1019,19 +1094,19 @@ final class Display
 	eraseSOL();
     }
 
-    public void eraseNonSelectedUp()
+    public void eraseUpNonSelected()
     {
 	for (i = mTopRow; i < mCurrRow; i++) {
-	    mLines[i].eraseLine(false, -1);
+	    mLines.get(i).eraseLine(false, -1);
 	    redrawRow(i, 0);
 	}
-	eraseNonSelectedSOL();
+	eraseSOLNonSelected();
     }
 
     public void eraseScreen()
     {
 	for (i = mTopRow; i <= mBottomRow; i++) {
-	    mLines[i].eraseLine(true, -1);
+	    mLines.get(i).eraseLine(true, -1);
 	    currLine.resetLineAttrs();
 	}
 	clearLines(mTopRow, mBottomRow);
@@ -1039,10 +1114,10 @@ final class Display
 	markRowsDirty(0, sizeInCharsH - 1);
     }
 
-    public void eraseNonSelectedScreen()
+    public void eraseScreenNonSelected()
     {
 	for (i = mTopRow; i <= mBottomRow; i++) {
-	    mLines[i].eraseLine(false, -1);
+	    mLines.get(i).eraseLine(false, -1);
 	    currLine.resetLineAttrs();
 	    redrawRow(i, 0);
 	}
@@ -1056,7 +1131,7 @@ final class Display
      */
     public void eraseChars(int count)
     {
-	int oldLen = mLines[i].getLineLength();
+	int oldLen = mLines.get(i).getLineLength();
 
 	display.eraseChars(mCurrCol, count);
 	clearHorizontal(i, mCurrCol, oldLen);
@@ -1083,21 +1158,15 @@ final class Display
 	}
 	if (count > max) {
 	    count = max;
-	} else if (j < max) {
-	    System.arraycopy(mLines, mCurrRow + count, mLines,
-			     mCurrRow, max - count);
 	}
+	// Deleted lines are recycled as the new (empty) lines at the bottom:
+	mLines.rotate(mCurrRow, mCurrRow + max - 1, count);
+	resetLines(mCurrRow + max - count, mCurrRow + max - 1);
 	
-	/* We need to redraw the lines that were not
-	 * deleted but that are moved due to the deletion:
+	/* Lines that were not deleted are moved up in the screen
+	 * image; only the new lines at the bottom need to be drawn:
 	 */
-	int i = 0;
-	for (; i < (max - count); ++i) {
-	    redrawRow(mCurrRow + i, 0);
-	}
-	
-	clearLines(i, max - 1);
-	markRowsDirty(mCurrRow - mTopRow, sizeInCharsH - 1);
+	scrollRenderedRows(mCurrRow, mCurrRow + max - 1, count);
     }
 
     public void insertLines(int count)
@@ -1114,17 +1183,11 @@ final class Display
 	     * outside page bottom?
 	     */
 	    count = max;
-	} else if (count < max) {
-	    System.arraycopy(mLines, mCurrRow, mLines,
-			     mCurrRow+count, max - count);
 	}
+	mLines.rotate(mCurrRow, mCurrRow + max - 1, -count);
+	resetLines(mCurrRow, mCurrRow + count - 1);
 
-	clearLines(mCurrRow, mCurrRow + count - 1);
-
-	for (int i = count; i < max; i++) {
-	    redrawRow(mCurrRow + i, 0);
-	}
-	markRowsDirty(mCurrRow - mTopRow, sizeInCharsH - 1);
+	scrollRenderedRows(mCurrRow, mCurrRow + max - 1, -count);
     }
 
     /* *** Indexing: *** */
@@ -1158,6 +1221,7 @@ final class Display
 	if (debugDisplay) {
 	    doWarningLF("DEBUG: CODE_INDEX_DOWN; indexing past the bottom row, thus scrolling "+count+" lines.");
 	}
+	smoothScrollPause();
     }
 
     public void indexUp(int count)
@@ -1185,6 +1249,7 @@ final class Display
 	if (debugDisplay) {
 	    doWarningLF("DEBUG: CODE_INDEX_UP; indexing past the top row, thus scrolling "+count+" lines.");
 	}
+	smoothScrollPause();
     }
 
     public void indexLeft(int count)
@@ -1212,6 +1277,25 @@ final class Display
 	setCursorAt(0, mCurrRow);
     }
 
+    public void setScreenReversed(boolean state)
+    {
+	setDisplayMode(MODE_SCREEN_REVERSED, state);
+    }
+
+    // Backspace doesn't delete anything, just moves the cursor:
+    public synchronized void printBackspace()
+    {
+	// Pending linewrap (cursor past the right border) is cancelled:
+	if (mCurrCol >= sizeInCharsW) {
+	    mCurrCol = sizeInCharsW - 1;
+	}
+	if (mCurrCol > 0) {
+	    markRangeDirty(mCurrCol - 1, mCurrRow - mTopRow,
+			   mCurrCol, mCurrRow - mTopRow);
+	    --mCurrCol;
+	}
+    }
+
     // Wonder how should bell be indicated... Beep, flash?
     public void printBell()
     {
@@ -1229,7 +1313,13 @@ final class Display
       }
   }
 
-  synchronized public void printLinefeed(boolean auto)
+  public void printLinefeed(boolean auto)
+  {
+    linefeed(auto);
+    smoothScrollPause();
+  }
+
+  private synchronized void linefeed(boolean auto)
   {
     int i;
     int old_row = mCurrRow;
@@ -1261,7 +1351,8 @@ final class Display
 	}
       }
 
-      markRowsDirty(old_row - mTopRow, mCurrRow - mTopRow);
+      // Text did not change, but the cursor moved:
+      markRowsBlit(old_row - mTopRow, mCurrRow - mTopRow);
       return;
     }
 
@@ -1275,19 +1366,21 @@ final class Display
 	screenRow %= sizeInCharsH;
       }
       mTopRow++;
-      screenGraphics.setColor(defBgroundColor);
-      screenGraphics.fillRect(0, getPixelY(mCurrRow),
-			      usablePixelSize.width, fontHeight);
-      markWholeAreaDirty();
+      /* Screen image is circular, so rows already rendered stay where
+       * they are; only the new bottom row needs to be drawn, but the
+       * whole window needs to be refreshed:
+       */
+      shiftDirtyRows(0, sizeInCharsH - 1, 1);
+      markRowDirty(sizeInCharsH - 1);
+      markRowsBlit(0, sizeInCharsH - 1);
     }
 
     /* This call probably also updates currTopRow! */
     reshapeScrollbar();
 
     /* We may have to scroll the buffer up, though... */
-    if (mCurrRow >= charBuffer.length) {
+    if (mCurrRow >= mLines.getCapacity()) {
       adjustCharBuffer();
-    } else {
     }
 
     if (dumpText) {
@@ -1297,12 +1390,11 @@ final class Display
 	doWarning("<LF->" +mCurrCol+ ","+(mCurrRow-mTopRow)+">");
     }
 
+    markRowsBlit(old_row - mTopRow, mCurrRow - mTopRow);
     if (displayMode(MODE_SMOOTH_SCROLL)) {
-      markWholeAreaClean();
-      repaint();
-      try { Thread.sleep(10); } catch (InterruptedException ie) { }
-    } else {
-      markRowsDirty(old_row - mTopRow, mCurrRow - mTopRow);
+      // Smooth scrolling paints every step, at limited speed:
+      doPaint();
+      ++mSmoothScrollSteps;
     }
   }
 
@@ -1375,27 +1467,35 @@ final class Display
    */
   private void adjustCharBuffer()
   {
-    int i = mCurrRow - charBuffer.length + 1;
+    int i = mCurrRow - mLines.getCapacity() + 1;
     
     mCurrRow -= i;
     mTopRow -= i;
     mBottomRow -= i;
-    i = charBuffer.length - 1;
 
-    /* It might be more effective to move more than one line at a time,
-     * but on the other hand, that would mean that the scroll bar
-     * would have to be adjusted constantly.
+    /* Line buffer is circular, so discarding the oldest line(s) is
+     * cheap; lines get recycled as the new last lines. Before that
+     * they are saved in the archive, if possible:
+     */
+    int lost = 0;
+    while (--i >= 0) {
+	lost += archiveLine(mLines.get(0));
+	mLines.scrollUp();
+    }
+
+    /* If lines went to the archive (and none had to be dropped from
+     * it), row numbers used in buffer mode (which include archived
+     * lines) do not change:
      */
-    DisplayLine l = mLines[0];
-    System.arraycopy(mLines, 1, mLines, 0, i);
-    mLines[i] = l; // This is just 'recycling the buffer'
-    l.clearLine(mDefaultCharAttrs);
+    if (lost == 0) {
+	return;
+    }
 
     /* Although the buffer position should not change, the actual line
      * number (in buffer) does change.
      */
     if (bufferMode) {
-      topBufferRow -= 1;
+      topBufferRow -= lost;
 
       /* However, if we were at the beginning of the buffer, we
        * actually may need to scroll..
@@ -1407,19 +1507,130 @@ final class Display
     }
   }
 
+  /* Method for saving a line that is to be discarded from the
+   * line buffer; returns the number of lines lost from the history:
+   * 1 if the line could not be saved, the number of oldest lines
+   * dropped from the archive if it was full, 0 otherwise.
+   */
+  private int archiveLine(DisplayLine l)
+  {
+      if (mArchive == null) {
+	  if (mArchiveFailed) {
+	      return 1;
+	  }
+	  try {
+	      mArchive = new ScrollbackArchive(mAttrTable, mArchiveMaxSize);
+	  } catch (IOException ie) {
+	      doWarning("Warning: can not create scrollback archive ("+ie
+			+"); old lines will be discarded.");
+	      mArchiveFailed = true;
+	      return 1;
+	  }
+      }
+      try {
+	  return mArchive.append(l);
+      } catch (IOException ie) {
+	  doWarning("Warning: failed to append to scrollback archive ("+ie
+		    +"); old lines will be discarded.");
+	  closeScrollbackArchive();
+	  mArchiveFailed = true;
+	  return 1;
+      }
+  }
+
+  /**
+   * Method for limiting the size of the scrollback archive files, in
+   * bytes (0 for no limit); oldest archived lines are dropped when
+   * the limit is reached. Takes effect when the next archive is
+   * created (that is, for the next session).
+   */
+  public synchronized void setArchiveMaxSize(long bytes)
+  {
+      mArchiveMaxSize = bytes;
+  }
+
+  public long getArchiveMaxSize() { return mArchiveMaxSize; }
+
+  /* Number of lines in the archive; buffer mode row numbers (as used
+   * by paintBuffer() and the scrollbar) start from the oldest archived
+   * line.
+   */
+  public final int getArchivedLines()
+  {
+      // May be called by other threads (SessionStats), so:
+      ScrollbackArchive a = mArchive;
+      return (a == null) ? 0 : a.getLineCount();
+  }
+
+  /* Returns the line at given buffer mode row; archived lines are
+   * decoded into a scratch line that is only valid until the next
+   * call.
+   */
+  private DisplayLine getBufferLine(int row)
+  {
+      int archived = getArchivedLines();
+
+      if (row >= archived) {
+	  return mLines.peek(row - archived);
+      }
+      if (mArchiveLine == null) {
+	  mArchiveLine = new DisplayLine(this, sizeInCharsW);
+      }
+      try {
+	  mArchive.readLine(row, mArchiveLine);
+      } catch (IOException ie) {
+	  doWarning("Warning: failed to read scrollback archive: "+ie);
+	  mArchiveLine.clearLine();
+      }
+      return mArchiveLine;
+  }
+
+  /**
+   * Method called when the session is closed; discards the archived
+   * lines, and deletes the archive files.
+   */
+  public synchronized void closeScrollbackArchive()
+  {
+      if (mArchive != null) {
+	  mArchive.close();
+	  mArchive = null;
+	  mArchiveLine = null;
+	  topBufferRow = -1; // buffer image no longer valid
+	  reshapeScrollbar();
+      }
+      mArchiveFailed = false;
+  }
+
   /* This function is called to make sure the lines of the
    * char & attr arrays are of the proper length:
    */
   public synchronized void adjustBuffers(int newSize)
   {
-      int last = mLines.length;
-      for (int i = 0; i < last; ++i) {
-	  if (mLines[i] != null) {
-	      mLines[i].resize(newSize);
-	  }
+      mLines.resize(newSize);
+  }
+
+  /**
+   * Method for changing the size of the scrollback buffer (including
+   * the lines visible on screen). If the buffer shrinks, oldest lines
+   * are discarded.
+   */
+  public synchronized void setBufferLines(int lines)
+  {
+      if (lines < sizeInCharsH) {
+	  lines = sizeInCharsH;
       }
+      int dropped = mLines.setCapacity(lines, mBottomRow + 1);
+      if (dropped > 0) {
+	  mCurrRow -= dropped;
+	  mTopRow -= dropped;
+	  mBottomRow -= dropped;
+	  topBufferRow = -1; // buffer image no longer valid
+      }
+      reshapeScrollbar();
   }
 
+  public int getBufferLines() { return mLines.getCapacity(); }
+
   /* We don't have to worry about the 'weird' chars here I hope: */
   /* Except, of course, delete/backspace and tab ?
    */
@@ -1489,14 +1700,14 @@ final class Display
 
   /* Note that we won't have any "funny" characters to print. */
   protected int
-  printChars(char [] c, int first, int len, Rectangle coords)
+  printChars(char [] c, int first, int len)
   {
       // We have to handle a pending linefeed?
       if (displayMode(MODE_AUTO_WRAP) && mCurrCol >= sizeInCharsW) {
-	  doLinefeed(true);
+	  printLinefeed(true);
       }
       
-      DisplayLine currLine = mLines[mCurrRow];
+      DisplayLine currLine = mLines.get(mCurrRow);
       
       if (dumpText) {
 	  doWarning("\""+new String(c, first, len)+"\"[" +mCurrCol
@@ -1508,21 +1719,14 @@ final class Display
       }
       
       // As the first thing, let's put the stuff in the arrays...
-      int left = mCurrLine.addChars(c, first, len, mCharAttrs,
+      int left = currLine.addChars(c, first, len, mCharAttrs,
 				mCurrCol, sizeInCharsW,
 				    displayMode(MODE_AUTO_WRAP));
       len -= left;
-      if (mCharAttrs.isBlinking()) {
-	  if (!blinkActive) {
-	      blinkThread.interrupt();
-	  }
+      if (mCharAttrs.isBlinking() && !blinkActive) {
+	  startBlinking();
       }
       
-      /* We have to make sure we have an image to update: */
-      if (screenImage == null) {
-	  getImages();
-      }
-
       int origCol = mCurrCol;
       mCurrCol += len;
       
@@ -1542,21 +1746,9 @@ final class Display
 	  }
       }
 
-      /* Ok; internal data updated, now need to redraw things:
-       */
-
-      /* If insert mode was used, we need to do more redrawing; except
-       * if it's a double-size line in which case it'll be redrawn
-       * completely no matter what, later on:
+      /* Ok; internal data updated, now just need to mark the changed
+       * area dirty; actual painting is done by the render thread.
        */
-      if (displayMode(MODE_INSERT_MODE) && !currLine.isDoubleWidth()) {
-	  /* When using doubled fonts, redrawing is costy... and it will
-	   * be done at a later point if necessary anyway.
-	   */
-	  redrawRow(mCurrRow, origCol);
-	  return len;
-      }
-
       if (mCurrRow < mTopRow || mCurrRow > mBottomRow) {
 	  // Out-of-screen print... Shouldn't happen:
 	  doWarningLF("DEBUG: out-of-screen print: "+
@@ -1565,36 +1757,16 @@ final class Display
 	  return len;
       }
 
-      /* Doubled lines have their own drawing: */
+      int row = mCurrRow - mTopRow;
       if (currLine.isDoubleWidth()) {
-	  int last;
-	  
-	  if (displayMode(MODE_INSERT_MODE)) {
-	      last = mCurrLine.getLineLength();
-	  } else {
-	      last = mCurrCol;
-	  }
-
-	  // Double-width -> can only print 50% of the max chars
-	  if (last > (sizeInCharsW / 2)) {
-	      last = sizeInCharsW / 2;
-	  }
-	  
-	  Graphics double_g = screenGraphics.create(0, queryPixelY(currRow),
-			       usablePixelSize.width, fontHeight);
-	  
-	  redrawDoubleRow(double_g, currLine, 0, last, false);
-	  double_g.dispose();
-	  return len;
+	  // Doubled lines are always redrawn completely:
+	  markRowDirty(row);
+      } else if (displayMode(MODE_INSERT_MODE)) {
+	  // Inserted chars pushed the rest of the line right:
+	  markRangeDirty(origCol, row, sizeInCharsW - 1, row);
+      } else {
+	  markRangeDirty(origCol, row, mCurrCol, row);
       }
-
-      coords.x = getPixelX();
-      coords.y = getPixelY(mCurrRow);
-      coords.width = len * fontWidth;
-      coords.height = fontHeight;
-      mCurrAttrs.paintText(c, first, len, coords, fontBase,
-			   !blinkedState, mScreenReversed);
-      markRangeDirty(orig_col, mCurrRow - mTopRow, mCurrCol, mCurrRow - mTopRow);
       return len;
   }
   
@@ -1704,14 +1876,14 @@ final class Display
       
       vis = sizeInCharsH;
       min = 0;
-      max = mBottomRow + 1;
+      max = getArchivedLines() + mBottomRow + 1;
       if (max < min) {
 	  max = min;
       }
     
       if (bufferMode == true) {
-	  value = (1000 * master.scrBar.getValue()) / master.scrBar.getMaximum()
-	      * max / 1000;
+	  value = scaleScrollValue(master.scrBar.getValue(),
+				   master.scrBar.getMaximum(), max);
       } else {
 	  value = max;
       }
@@ -1725,6 +1897,19 @@ final class Display
       master.scrBar.setValues(value, vis, min, max);
   }
 
+  /* Moves a scrollbar position from range [0, oldMax] to the same
+   * relative position in [0, newMax]. History can have millions of
+   * lines, so the product needs a long (it would overflow an int past
+   * about 2.1M lines, and scaling by 1000 first would lose precision):
+   */
+  final static int scaleScrollValue(int value, int oldMax, int newMax)
+  {
+      if (oldMax <= 0) {
+	  return newMax;
+      }
+      return (int) ((long) value * newMax / oldMax);
+  }
+
   /* This version is called from paint(), and specifically:
    * - It never needs to clear the old cursor position
    * - It needs to restore the drawing mode
@@ -1752,68 +1937,6 @@ final class Display
       g.setPaintMode();
   }
 
-  private final void
-  drawBlinkingLine(Graphics g, int rel_row, Image img, int offset, int width)
-  {
-    short [] attrs;
-    int j, end, curr_attrs;
-    int fw = fontWidth;
-    int max = lineLengths[mTopRow + rel_row];
-    int img_offset = offset - (rel_row * fontHeight);
-
-    if ((lineAttrs[mTopRow + rel_row] & (LINE_DOUBLE_W | LINE_DOUBLE_H_TOP | 
-					LINE_DOUBLE_H_BOTTOM)) != 0) {
-	fw *= 2;
-	// No need to check out the whole line for doubled lines
-	// (well; there probably won't be more in any case but...)
-	if (max >= (sizeInCharsW / 2))
-	  max = sizeInCharsW;
-    }
-
-    attrs = attrBuffer[mTopRow + rel_row];
-
-    // First we need to draw the whole line:
-    //g.setColor(mCurrColors[rel_row % 8]);
-    //g.fillRect(0, rel_row * fontHeight, usablePixelSize.width,fontHeight);
-    Graphics g2 = g.create(0, rel_row * fontHeight, width, fontHeight);
-    Graphics g3 = null;
-    //g2.drawImage(img, 0, img_offset, this);
-
-    j = 0;
-    while (j < max) {
-      // First we'll draw the non-blinking parts:
-      if ((attrs[j] & FX_BLINK) == 0) {
-	for (end = j + 1; end < max && (attrs[end] & FX_BLINK) == 0; end++)
-	  ;
-	if (end >= max)
-	  g3 = g2.create(j * fw, 0, width - (j * fw), fontHeight);
-	else
-	  g3 = g2.create(j * fw, 0, (end - j) * fw, fontHeight);
-	g3.drawImage(img, - (j * fw), img_offset, this);
-	if (end >= max)
-	  break;
-	j = end;
-      }
-      
-      // Then the blinking parts:
-      curr_attrs = attrs[j];
-      for (end = j + 1;end<max && attrs[end] == curr_attrs; end++)
-	;
-      // Now we know the area to clear:
-      if ((curr_attrs & FX_REVERSED) != 0)
-	g2.setColor(mCurrColors[curr_attrs & 0x0007]);
-      else
-	g2.setColor(mCurrColors[(curr_attrs & 0x0070) >> 4]);
-      
-      g2.fillRect(j * fw, 0, (end - j) * fw, fontHeight);
-      j = end;
-    }
-
-    g2.dispose();
-    if (g3 != null)
-      g3.dispose();
-  }
-
   public void
   drawCursor(boolean now_focus, boolean draw, Graphics g)
   {
@@ -1895,7 +2018,7 @@ final class Display
 
     public void insertChars(int count)
     {
-	if (mLines[mCurrRow].insertChars(mCurrCol, count)) {
+	if (mLines.get(mCurrRow).insertChars(mCurrCol, count)) {
 	    redrawRow(mCurrRow, mCurrCol, sizeInCharsW);
 	}
 	//setCursorAt(mCurrCol + j, mCurrRow);
@@ -1988,69 +2111,113 @@ final class Display
    *     up, down, left or right
    *** */
 
+  /* Smooth scrolling is slowed down by pausing after each step; but
+   * the pauses are not taken where the steps are made, as the display
+   * is locked there, and sleeping with a monitor held would also pin
+   * the carrier of a virtual session thread. Instead, callers that
+   * scroll (printText(), printLinefeed(), scrollUpLines() and
+   * scrollDownLines()) do one step at a time, and call this after
+   * each one, with the lock released. (If called with the lock held,
+   * steps are added up, and paused for by the next call that can.)
+   */
+  private void smoothScrollPause()
+  {
+    if (Thread.holdsLock(this)) {
+      return;
+    }
+    int steps;
+    synchronized (this) {
+      steps = mSmoothScrollSteps;
+      mSmoothScrollSteps = 0;
+    }
+    if (steps > 0) {
+      try {
+	Thread.sleep(SMOOTH_SCROLL_DELAY * steps);
+      } catch (InterruptedException ie) {
+	Thread.currentThread().interrupt(); // session is being stopped
+      }
+    }
+  }
+
   public void
   scrollUpLines(int top, int bottom, int times)
   {
-  int i;
-
       if (times < 1) // Sanity check...
 	return;
 
-      if (times <= (bottom - top)) {
-	System.arraycopy(mLines, top + times, mLines, top,
-			 (bottom - top + 1) - times);
-      }
-      int last = bottom - times + 1;
-      for (i = top; i < last; i++) {
-	redrawRow(i, 0);
+      // Smooth scrolling is done one line (and pause) at a time:
+      if (times > 1 && displayMode(MODE_SMOOTH_SCROLL)
+	  && !Thread.holdsLock(this)) {
+	  times = Math.min(times, bottom - top + 1);
+	  for (int i = 0; i < times; ++i) {
+	      scrollRowsUp(top, bottom, 1);
+	      smoothScrollPause();
+	  }
+	  return;
       }
+      scrollRowsUp(top, bottom, times);
+  }
 
-      clearLines(i, bottom);
+  private synchronized void
+  scrollRowsUp(int top, int bottom, int times)
+  {
+      if (times <= (bottom - top)) {
+	mLines.rotate(top, bottom, times);
+      } else {
+	times = bottom - top + 1;
+      }
+      resetLines(bottom - times + 1, bottom);
+      scrollRenderedRows(top, bottom, times);
 
       if (displayMode(MODE_SMOOTH_SCROLL)) {
-	markWholeAreaClean();
-	repaint();
-	try { Thread.sleep(10); } catch (InterruptedException ie) { }
-      } else {
-	markRowsDirty(top - mTopRow, bottom - mTopRow);
+	// Smooth scrolling paints every step, at limited speed:
+	doPaint();
+	++mSmoothScrollSteps; // pause is taken by smoothScrollPause()
       }
   }
 
   public void
   scrollDownLines(int top, int bottom, int times)
   {
-      int i;
-      
       if (times < 1) { // Sanity check...
 	  return;
       }
 
+      // Smooth scrolling is done one line (and pause) at a time:
+      if (times > 1 && displayMode(MODE_SMOOTH_SCROLL)
+	  && !Thread.holdsLock(this)) {
+	  times = Math.min(times, bottom - top + 1);
+	  for (int i = 0; i < times; ++i) {
+	      scrollRowsDown(top, bottom, 1);
+	      smoothScrollPause();
+	  }
+	  return;
+      }
+      scrollRowsDown(top, bottom, times);
+  }
+
+  private synchronized void
+  scrollRowsDown(int top, int bottom, int times)
+  {
       if (times <= (bottom - top)) {
-	System.arraycopy(mLines, top, mLines, top + times,
-			 (bottom - top + 1) - times);
+	mLines.rotate(top, bottom, -times);
       } else {
 	  times = bottom - top + 1;
       }
+      resetLines(top, top + times - 1);
+      scrollRenderedRows(top, bottom, -times);
 
-      clearLines(top, top + times - 1);
-      screenGraphics.setColor(defBgroundColor);
-      for (int i = top+times; i <= bottom; ++i) {
-	  redrawRow(i, 0);
-      }
-
-      if (hasSmoothScroll()) {
-	markWholeAreaClean();
-	repaint();
-	try { Thread.sleep(10); } catch (InterruptedException ie) { }
-      } else {
-	markRowsDirty(top - mTopRow, bottom - mTopRow);
+      if (displayMode(MODE_SMOOTH_SCROLL)) {
+	// Smooth scrolling paints every step, at limited speed:
+	doPaint();
+	++mSmoothScrollSteps; // pause is taken by smoothScrollPause()
       }
   }
 
     public void scrollScreenLeft(int count)
     {
       for (int i = mTopRow; i <= mBottomRow; ++i) {
-	  mLines[i].scrollLeft(count);
+	  mLines.get(i).scrollLeft(count);
 	  redrawRow(i, 0);
       }
     }
@@ -2058,7 +2225,7 @@ final class Display
     public void scrollScreenRight(int count)
     {
       for (int i = mTopRow; i <= mBottomRow; ++i) {
-	  mLines[i].scrollRight(count, sizeInCharsW);
+	  mLines.get(i).scrollRight(count, sizeInCharsW);
 	  redrawRow(i, 0);
       }
     }
@@ -2069,45 +2236,18 @@ final class Display
 
 *******************************/
 
-  int skip_repaints = 0; // A kludge, thanks to weirdness with FontLoader
-  int skipped_repaints = 0; // (at least on Linux + X)
-
-  public void addSkipRepaint(int x) {
-    skip_repaints += x;
-    skipped_repaints = 0;
-  }
-
-  public void clearSkipRepaint() {
-    skip_repaints = 0;
-    // To make sure we won't miss any 'real' repaint, let's do one
-    // repaint() just in case:
-    if (skipped_repaints > 0)
-      repaint();
-  }
-
   // These functions mark parts of the window as 'dirty'; dirty areas
   // will be redrawn later on, by calling doPaint()
   private final void
   markPositionDirty(int x, int y)
   {
-    if (updateX1 < 0) {
-      updateX1 = x;
-      updateY1 = y;
-      updateX2 = x;
-      updateY2 = y;
-    } else {
-      if (x < updateX1)
-	updateX1 = x;
-      if (y < updateY1)
-	updateY1 = y;
-      if (x > updateX2)
-	updateX2 = x;
-      if (y > updateY2)
-	updateY2 = y;
-    }
+    markRangeDirty(x, y, x, y);
   }
 
-  private final void
+  /* Marks the columns x1 - x2 dirty on all the rows y1 - y2
+   * (coordinates are inclusive, and relative to the screen top):
+   */
+  private final synchronized void
   markRangeDirty(int x1, int y1, int x2, int y2)
   {
   int i;
@@ -2123,22 +2263,200 @@ final class Display
       y2 = i;
     }
 
-    if (updateX1 < 0) {
-      updateX1 = x1;
-      updateY1 = y1;
-      updateX2 = x2;
-      updateY2 = y2;
-    } else {
-      if (x1 < updateX1)
-	updateX1 = x1;
-      if (y1 < updateY1)
-	updateY1 = y1;
-      if (x2 > updateX2)
-	updateX2 = x2;
-      if (y2 > updateY2)
-	updateY2 = y2;
+    // Screen may have been resized since arrays were allocated:
+    if (mDirtyMin.length < sizeInCharsH) {
+      resizeDirtyRows(sizeInCharsH);
+    }
+    if (y1 < 0) {
+      y1 = 0;
+    }
+    if (y2 >= sizeInCharsH) {
+      y2 = sizeInCharsH - 1;
     }
-  }
+
+    int[] bits = mDirtyRowBits;
+    for (int y = y1; y <= y2; ++y) {
+      int mask = 1 << (y & 31);
+      if ((bits[y >> 5] & mask) == 0) {
+	bits[y >> 5] |= mask;
+	mDirtyMin[y] = x1;
+	mDirtyMax[y] = x2;
+      } else {
+	if (x1 < mDirtyMin[y])
+	  mDirtyMin[y] = x1;
+	if (x2 > mDirtyMax[y])
+	  mDirtyMax[y] = x2;
+      }
+    }
+    if (y1 <= y2) {
+      requestFrame();
+    }
+  }
+
+  /* Marks rows y1 - y2 (relative to the screen top) to be copied to
+   * the window on the next frame, without rendering them again.
+   */
+  private final void markRowsBlit(int y1, int y2)
+  {
+    if (y1 < 0) {
+      y1 = 0;
+    }
+    if (y2 >= sizeInCharsH) {
+      y2 = sizeInCharsH - 1;
+    }
+    if (y1 > y2) {
+      return;
+    }
+    if (mBlitTop < 0 || y1 < mBlitTop) {
+      mBlitTop = y1;
+    }
+    if (y2 > mBlitBottom) {
+      mBlitBottom = y2;
+    }
+    requestFrame();
+  }
+
+  private final void requestFrame()
+  {
+    if (!mAnyDirty) {
+      mAnyDirty = true;
+      // First change since the last frame; need to get a new frame:
+      if (mRenderer != null) {
+	mRenderer.requestFrame(mKeystrokePending);
+	mKeystrokePending = false;
+      }
+    }
+  }
+
+  /* Moves the dirty state of rows y1 - y2 (relative to the screen
+   * top) up by 'count' rows (down, if negative), to match lines that
+   * were moved; rows left behind are marked clean, caller needs to
+   * mark them dirty as necessary.
+   */
+  private final void shiftDirtyRows(int y1, int y2, int count)
+  {
+    if (y2 >= mDirtyMin.length) {
+      y2 = mDirtyMin.length - 1;
+    }
+    if (count > 0) {
+      for (int y = y1; y <= y2; ++y) {
+	copyDirtyRow(y + count, y, y1, y2);
+      }
+    } else if (count < 0) {
+      for (int y = y2; y >= y1; --y) {
+	copyDirtyRow(y + count, y, y1, y2);
+      }
+    }
+  }
+
+  private final void copyDirtyRow(int from, int to, int first, int last)
+  {
+    int[] bits = mDirtyRowBits;
+    int mask = 1 << (to & 31);
+
+    if (from >= first && from <= last
+	&& (bits[from >> 5] & (1 << (from & 31))) != 0) {
+      bits[to >> 5] |= mask;
+      mDirtyMin[to] = mDirtyMin[from];
+      mDirtyMax[to] = mDirtyMax[from];
+    } else {
+      bits[to >> 5] &= ~mask;
+    }
+  }
+
+  /* Moves the rendered rows top - bottom (absolute row numbers) in
+   * the screen image up by 'count' rows (down, if negative), along
+   * with their dirty state. Rows scrolled in are marked dirty; the
+   * rest only need to be copied to the window. So scrolling costs
+   * a blit (two, if the area wraps around the end of the circular
+   * screen image) plus rendering of the new rows, instead of
+   * rendering every row of the area.
+   */
+  private final synchronized void
+  scrollRenderedRows(int top, int bottom, int count)
+  {
+    int y1 = top - mTopRow;
+    int y2 = bottom - mTopRow;
+    int n = (count < 0) ? -count : count;
+    int len = y2 - y1 + 1;
+
+    if (n >= len || screenGraphics == null) {
+      markRowsDirty(y1, y2);
+      return;
+    }
+    synchronized (screenLock) {
+      if (count > 0) {
+	copyScreenRows(y1 + n, y1, len - n);
+      } else {
+	copyScreenRows(y1, y1 + n, len - n);
+      }
+    }
+    shiftDirtyRows(y1, y2, count);
+    if (count > 0) {
+      markRowsDirty(y2 - n + 1, y2);
+    } else {
+      markRowsDirty(y1, y1 + n - 1);
+    }
+    markRowsBlit(y1, y2);
+  }
+
+  /* Copies 'rows' rows of the screen image from screen row 'from'
+   * to screen row 'to' (relative to the screen top). As the image is
+   * circular (see getPixelY()), copy is split where either area wraps
+   * around.
+   */
+  private final void copyScreenRows(int from, int to, int rows)
+  {
+    Graphics g = screenGraphics;
+    int h = sizeInCharsH;
+    int w = usablePixelSize.width;
+
+    g.setClip(0, 0, w, usablePixelSize.height);
+    if (to < from) { // Moving up; need to go from top to bottom
+      while (rows > 0) {
+	int src = (screenRow + from) % h;
+	int dst = (screenRow + to) % h;
+	int n = Math.min(rows, Math.min(h - src, h - dst));
+	g.copyArea(0, src * fontHeight, w, n * fontHeight,
+		   0, (dst - src) * fontHeight);
+	from += n;
+	to += n;
+	rows -= n;
+      }
+    } else { // Moving down; from bottom to top
+      while (rows > 0) {
+	int src = (screenRow + from + rows - 1) % h;
+	int dst = (screenRow + to + rows - 1) % h;
+	int n = Math.min(rows, Math.min(src + 1, dst + 1));
+	g.copyArea(0, (src - n + 1) * fontHeight, w, n * fontHeight,
+		   0, (dst - src) * fontHeight);
+	rows -= n;
+      }
+    }
+  }
+
+  /**
+   * Method called (by JiveTerm) when the user presses a key; the next
+   * change (most likely the echo of the key) will be painted without
+   * waiting for the next frame.
+   */
+  public synchronized void noteKeystroke()
+  {
+    mKeystrokePending = true;
+    // Something may be waiting already?
+    if (mAnyDirty && mRenderer != null) {
+      mRenderer.requestFrame(true);
+    }
+  }
+
+  /**
+   * Method for setting the maximum number of times per second the
+   * display is repainted.
+   */
+  public void setMaxFrameRate(int fps)
+  {
+    mRenderer.setFrameRate(fps);
+  }
 
   private final void markRowsDirty(int row1, int row2)
   {
@@ -2153,27 +2471,56 @@ final class Display
 
   private final void markWholeAreaDirty()
   {
-    updateX1 = updateY1 = 0;
-    updateX2 = sizeInCharsW - 1;
-    updateY2 = sizeInCharsH - 1;
+    markRangeDirty(0, 0, sizeInCharsW - 1, sizeInCharsH - 1);
   }
 
   private final void
   markWholeAreaClean()
   {
-    updateX1 = updateY1 = -1;
+    if (mAnyDirty) {
+      int[] bits = mDirtyRowBits;
+      for (int i = bits.length; --i >= 0; ) {
+	bits[i] = 0;
+      }
+      mAnyDirty = false;
+      mBlitTop = mBlitBottom = -1;
+    }
   }
 
-  /* This won't be called asynchronously, but always from the
-   * event handling thread:
+  private final void resizeDirtyRows(int rows)
+  {
+    mDirtyRowBits = new int[(rows + 31) >> 5];
+    mDirtyMin = new int[rows];
+    mDirtyMax = new int[rows];
+    // Whatever was dirty before the resize needs to be redrawn anyway:
+    mAnyDirty = false;
+    mBlitTop = mBlitBottom = -1;
+  }
+
+  /* This is called by the render thread (RenderTimer), and
+   * occasionally directly when immediate painting is needed. First
+   * re-renders dirty row spans into the screen image from the lines,
+   * then paints each dirty row span separately
+   * (consecutive rows with identical spans are combined), so that
+   * changes at the opposite ends of the screen don't cause the
+   * whole screen to be repainted. Rows moved by scrolling are then
+   * painted with one more blit.
    */
-  private final void
+  final synchronized void
   doPaint()
   {
-    if (updateX1 < 0) {
-      System.err.println("NO DRAW!");
+    if (!mAnyDirty) {
       return;
     }
+    long start = (mStats == null) ? 0L : System.nanoTime();
+    long cells = 0L;
+
+    if (screenImage == null) {
+      getImages();
+      if (screenImage == null) { // not yet displayable?
+	return;
+      }
+    }
     /* New, 08-May-1999, TSa: It's possible that 2 threads may try to
      * simultaneously draw to screen (via paint() and doPaint()), so
      * the access has to be synchronized:
@@ -2182,11 +2529,56 @@ final class Display
 
     synchronized (screenLock) {
       g = getGraphics();
-      g.setClip(updateX1 * fontWidth + BORDER_X,
-	      updateY1 * fontHeight + BORDER_Y,
-	      (updateX2 - updateX1 + 1) * fontWidth,
-	      (updateY2 - updateY1 + 1) * fontHeight);
-      paint(g);
+      if (g == null) { // not yet displayable?
+	markWholeAreaClean();
+	return;
+      }
+      int[] bits = mDirtyRowBits;
+      int rows = sizeInCharsH;
+      if (rows > mDirtyMin.length) {
+	rows = mDirtyMin.length;
+      }
+      for (int y = 0; y < rows; ) {
+	int word = bits[y >> 5];
+	// Can skip 32 clean rows at a time:
+	if (word == 0) {
+	  y = (y | 31) + 1;
+	  continue;
+	}
+	if ((word & (1 << (y & 31))) == 0) {
+	  ++y;
+	  continue;
+	}
+	int x1 = mDirtyMin[y];
+	int x2 = mDirtyMax[y];
+	if (x2 >= sizeInCharsW) {
+	  x2 = sizeInCharsW - 1;
+	}
+	renderRow(y, x1, x2);
+	int y2 = y + 1;
+	while (y2 < rows && (bits[y2 >> 5] & (1 << (y2 & 31))) != 0
+	       && mDirtyMin[y2] == x1 && mDirtyMax[y2] == mDirtyMax[y]) {
+	  renderRow(y2, x1, x2);
+	  ++y2;
+	}
+	// Rows to be blitted as a whole are painted below:
+	if (mBlitTop < 0 || y < mBlitTop || y2 > (mBlitBottom + 1)) {
+	  cells += (x2 - x1 + 1) * (y2 - y);
+	  g.setClip(x1 * fontWidth + BORDER_X,
+		    y * fontHeight + BORDER_Y,
+		    (x2 - x1 + 1) * fontWidth,
+		    (y2 - y) * fontHeight);
+	  paint(g);
+	}
+	y = y2;
+      }
+      if (mBlitTop >= 0) {
+	cells += (mBlitBottom - mBlitTop + 1) * sizeInCharsW;
+	g.setClip(BORDER_X, mBlitTop * fontHeight + BORDER_Y,
+		  usablePixelSize.width,
+		  (mBlitBottom - mBlitTop + 1) * fontHeight);
+	paint(g);
+      }
     }
     g.dispose();
 /*
@@ -2194,28 +2586,30 @@ Display.ssh_draw = System.currentTimeMillis();
 Display.sshDebug();
 */
     markWholeAreaClean();
+    if (mStats != null) {
+      mStats.paintDone(cells, cells * fontWidth * fontHeight,
+		       System.nanoTime() - start);
+    }
+  }
+
+  /* Called by Terminal when a session starts; painting is then
+   * counted in given stats:
+   */
+  public final synchronized void setStats(SessionStats stats)
+  {
+    mStats = stats;
   }
 
   public void
   paint(Graphics g)
   {
-    int i, j, rx, ry, x, y;
+    int rx, ry, x, y;
 
     //long now = System.currentTimeMillis();
 
     if (screenImage == null)
       return;
 
-    /* A kludge; FontLoader causes blinking due to excessive (and worse,
-     * unnecessary) repaint-requests. This is to prevent that from
-     * happening...
-     */
-    if (skip_repaints > 0) {
-      skip_repaints -= 1;
-      skipped_repaints += 1;
-      return;
-    }
-
     /* New, 08-May-1999, TSa: It's possible that 2 threads may try to
      * simultaneously draw to screen (via paint() and doPaint()), so
      * the access has to be synchronized:
@@ -2260,90 +2654,14 @@ Display.sshDebug();
       }
 
       g2 = g.create(BORDER_X, BORDER_Y, rx, ry);
-      Graphics g3 = null;
 
       y = getPixelY(mTopRow);
       int top_size = sizeInCharsH - (y / fontHeight);
 
-      /* All in all, 'blinked' case (ie. some chars are blinking and
-       * are now to be cleared, ie. not drawn) has to be handled
-       * separately:
+      /* Blinking chars are painted in (or left out of) the screen
+       * image by doPaint(), after blinkTick() has marked them dirty;
+       * so there's nothing but blitting to do here:
        */
-    
-      if (blinkedState) {
-     
-	  /* We need to handle the top & bottom part separately (the
-	   * special case, only one part, can be handled in the same
-	   * way; just that its bottom part size is 0
-	   */
-	i = 0;
-
-	// Top part:
-	while (i < top_size) {
-	  j = i;
-	  /* Let's see how many lines have no blinking; these can be
-	   * drawn in just one blit:
-	   */
-	  while (j < top_size && !mLines[mTopRow+j].isBlinking()) {
-	      j++;
-	  }
-	  if (j > i) { // if j == i) chunk has 0 lines...
-	    if (i == 0 && j == top_size) { // Whole top part in one draw:
-		g2.drawImage(screenImage, 0, - y, this);		
-	    } else {
-		g3 = g2.create(0, i * fontHeight, rx, (j - i) * fontHeight);
-		g3.drawImage(screenImage, 0, - (y + i * fontHeight), this);
-		g3.dispose();
-	    }
-	  }
-	  // Let's make sure the cursor is drawn when it should:
-	  if (mCurrRow >= (mTopRow + i) && mCurrRow < (mTopRow + j))
-	    drawCursorFromPaint(g2.create());
-	  // Then we'll handle the "blinking line(s)":
-	  i = j;
-	  while (i < top_size && mLines[mTopRow + i].isBlinking()) {
-	    drawBlinkingLine(g2, i, screenImage, -y, rx);
-	    // ... And the cursor if need be:
-	    if (mCurrRow >= (mTopRow + i) && mCurrRow < (mTopRow + j))
-	      drawCursorFromPaint(g2.create());
-	    i += 1;
-	  }
-	}
-
-	// Bottom part:
-	while (i < sizeInCharsH) {
-	  j = i;
-	  /* Let's see how many lines have no blinking; these can be
-	   * drawn in just one blit:
-	   */
-	  while (j < sizeInCharsH && !mLines[mTopRow+j].isBlinking()) {
-	      j++;
-	  }
-	  if (j > i) { // if (j == i) chunk has 0 lines...
-	    if (i == top_size && j == sizeInCharsH) { // Whole bottom part in one draw:
-	      g2.drawImage(screenImage, 0, ry - y, this);		
-	    } else {
-	      g3 = g2.create(0, i * fontHeight, rx, (j - i) * fontHeight);
-	      g3.drawImage(screenImage, 0, ry - (y + i * fontHeight), this);
-	      g3.dispose();
-	    }
-	  }
-	  // Let's make sure the cursor is drawn when it should:
-	  if (mCurrRow >= (mTopRow + i) && mCurrRow < (mTopRow + j))
-	      drawCursorFromPaint(g2.create());
-	  // Then we'll handle the "blinking line(s)":
-	  i = j;
-	  while (i < sizeInCharsH && mLines[mTopRow + i].isBlinking()) {
-	      drawBlinkingLine(g2, i, screenImage, ry - y, rx);
-	      // ... And the cursor if need be:
-	      if (mCurrRow >= (mTopRow + i) && mCurrRow < (mTopRow + j))
-		  drawCursorFromPaint(g2.create());
-	      i += 1;
-	  }
-	}
-      
-      } else { // ... if (blinkedState) ...
-      
 	if (y == 0) {
 	    g2.drawImage(screenImage, 0, 0, this);
 	    drawCursorFromPaint(g2);
@@ -2361,8 +2679,6 @@ Display.sshDebug();
 	      g2.drawImage(screenImage, 0, - y, this);
 	  }
 	}
-      }
-
     } // synchronized(screenLock) ...
 
     g2.dispose();
@@ -2374,14 +2690,7 @@ Display.sshDebug();
   synchronized public void
   paintBuffer(int y, boolean off_scr, boolean force_new)
   {
-    int from_row, to_row, lines, line, i, j, x, last, w, h;
-    int curr_char;
-    short curr_attr;
-    byte [] chars;
-    short [] attrs;
-    short line_attrs;
-    Color bg, fg;
-    boolean bold = false;
+    int from_row, to_row, lines, line, j, last, h;
     Graphics g;
     
     if (off_scr) {
@@ -2434,13 +2743,15 @@ Display.sshDebug();
     }
 
     // This can occur when enlargening the window?
-    if ((from_row + lines) > charBuffer.length) {
+    int total = getArchivedLines() + mBottomRow + 1;
+    if ((from_row + lines) > total) {
 	doWarning("Repaint overflow!");
-	lines = charBuffer.length - from_row;
+	lines = total - from_row;
     }
+    Rectangle coords = new Rectangle(0, 0, usablePixelSize.width, fontHeight);
     for (line = 0; line < lines; line++) {
-	DisplayLine currLine = mLines[from_row + line];
-	last = currLine.getLength();
+	DisplayLine currLine = getBufferLine(from_row + line);
+	last = currLine.getLineLength();
 	// Can skip empty lines...
 	if (last == 0) {
 	    continue;
@@ -2459,81 +2770,23 @@ Display.sshDebug();
 		last = sizeInCharsW / 2;
 	    Graphics double_g = g.create(0, h,usablePixelSize.width,
 					 fontHeight);
-	    redrawDoubleRow(double_g, 0, last, chars, attrs, line_attrs,
-			    false);
+	    redrawDoubleRow(double_g, currLine, 0, last, false);
 	    double_g.dispose();
 	    continue;
 	}
-	
-	for (i = x = 0; i < last; ) {
-	    curr_char = (int) chars[i] & 0xFF;
-	    if ((curr_char & 0x7F) < 32 || (curr_char == 0xFF)) {
-		x += fontWidth;
-		i++;
-		continue;
-	    }
-	    
-	    curr_attr = attrs[i];
-	    
-	    // Normal chars should be printed ok.
-	    for (j = i + 1; j < last; j++) {
-		curr_char = (int) chars[j] & 0xFF;
-		if ((curr_char & 0x7F) < 32 || (curr_char == 0xFF))
-		    break;
-		if (curr_attr != attrs[j])
-		    break;
-	    }
-	    w = fontWidth * (j - i);
-	    
-	    bg = mCurrColors[(curr_attr & 0x0070) >> 4];
-	    if ((curr_attr & FX_BOLD) != 0) {
-		fg = currBrightColors[(curr_attr & 0x0007)];
-		if (!bold) {
-	      g.setFont(currBoldFont);
-	      bold = true;
-		}
-	    } else {
-		if (bold) {
-		    g.setFont(currFont);
-		    bold = false;
-		}
-		if ((curr_attr & FX_DIM) != 0) {
-		    fg = currDimColors[(curr_attr & 0x0007)];
-		} else {
-		    fg = mCurrColors[(curr_attr & 0x0007)];
-		}
-	    }
-	    
-	    /* Setting background color: */
-	    if ((curr_attr & FX_REVERSED) == 0) g.setColor(bg);
-	    else g.setColor(fg);
-	    
-	    /* First we need to clear the space... */
-	    g.fillRect(x, h, w, fontHeight);
-	    
-	    /* Setting drawing color: */
-	    if ((curr_attr & FX_REVERSED) == 0) g.setColor(fg);
-	  else g.setColor(bg);
-	    
-	  /* Then we might need to do the underscore... */
-	    if ((curr_attr & FX_UNDERSCORE) != 0) {
-		g.drawLine(x, h + fontBase + UNDERLINE_OFFSET,
-			   x + w - 1, h + fontBase + UNDERLINE_OFFSET);
-	  }
 
-	  //g.drawBytes(chars, i, j - i, x, h + fontBase);
-	    g.drawString(new String(chars, i, j - i), x, h + fontBase);
-	    x += w;
-	  }
-	  i = j;
+	coords.y = h;
+	currLine.paintLine(g, coords, 0, last - 1, mCurrFonts, fontWidth,
+			   fontBase, blinkedState, mScreenReversed,
+			   getGlyphAtlas());
     }
     topBufferRow = y;
   }
 
-  /* This is used to update a certain row in the internal draw
-   * buffer. It does not automatically result in paint() getting
-   * called, for efficiency reasons.
-   * New! Argument 'col' is the column from which the redrawing begins;
+  /* This is used to get a certain row updated in the internal draw
+   * buffer. Nowadays it just marks the row dirty; the render thread
+   * repaints it (see renderRow()) on the next frame.
+   * Argument 'col' is the column from which the redrawing begins;
    * the last column is the rightmost column
    */
   synchronized public void
@@ -2543,155 +2796,67 @@ Display.sshDebug();
       if (row < mTopRow || row > mBottomRow) {
 	  return;
       }
-
-      DisplayLine currLine = mLines[row];
-
-      int i, x, y, curr_char;
-      short curr_attr;
-      Color bg, fg;
-      
-      byte [] chars = charBuffer[row];
-      short [] attrs = attrBuffer[row];
-      boolean bold = false;
-      Graphics gfx_g = null;
-      
-      markRowDirty(mCurrRow - mTopRow);
-
-    // Not sure if this is possible but:
-      if (screenImage == null) {
-	  getImages();
+      if (mLines.peek(row).isDoubleWidth()) {
+	  col = 0;
       }
+      markRangeDirty(col, row - mTopRow, sizeInCharsW - 1, row - mTopRow);
+  }
 
-    y = getPixelY(row); // The location in the (circular) buffer
-
-    int last = lineLengths[row];
-    i = col;
-    x = i * fontWidth;
-
-    /* New: Double-width/height drawing differs significantly;
-     * they can't be well optimized and are thus always drawn
-     * char by char.
-     */
-    if (currLine.isDoubleWidth()) {
-
-	// Double-width -> can only print 50% of the max chars
-	if (last > (sizeInCharsW / 2)) {
-	    last = sizeInCharsW / 2;
-	}
-
-	Graphics double_g = screenGraphics.create(0, y,usablePixelSize.width,
-						  fontHeight);
-	redrawDoubleRow(double_g, col, last, chars, attrs, line_attrs,
-			true);
-	double_g.dispose();
-	return;
-    }
-
-    // First we'll erase stuff that's already on the row:
-    screenGraphics.setColor(defBgroundColor);
-//screenGraphics.setColor(Color.yellow);
-    screenGraphics.fillRect(x, y, pixelSize.width - x, fontHeight);
-  
-    // Similar to the drawing part in paintBuffer():
-    for (; i < last; ) {
-      int w, j;
-
-      curr_char = (int) chars[i] & 0xFF;
-      if ((curr_char & 0x7F) < 32 || (curr_char == 0xFF)) {
-	// Shouldn't be necessary, but just in case let's skip
-	// weird chars:
-	x += fontWidth;
-	i++;
+  /* Method called by doPaint() to repaint the given columns of a
+   * screen row (relative to the top of the screen) in the screen
+   * image, from the contents of the line.
+   */
+  private void renderRow(int y, int x1, int x2)
+  {
+      DisplayLine currLine = mLines.peek(mTopRow + y);
+      Graphics g = screenGraphics;
+      int py = getPixelY(mTopRow + y);
+      int px = x1 * fontWidth;
+      int w = (x2 - x1 + 1) * fontWidth;
 
-      } else {
+      g.setClip(px, py, w, fontHeight);
+      g.setColor(defBgroundColor);
+      g.fillRect(px, py, w, fontHeight);
 
-	curr_attr = attrs[i];
-	
-	// Normal chars should be printed ok, but usually we can
-	// print more than one consequtive char at a time, provided
-	// their attributes are the same:
-	for (j = i + 1; j < last; j++) {
-	  curr_char = (int) chars[j] & 0xFF;
-	  if ((curr_char & 0x7F) < 32 || curr_char == 0xFF)
-	    break;
-	  if (curr_attr != attrs[j])
-	    break;
-	}
-
-	w = fontWidth * (j - i);
-	bg = mCurrColors[(curr_attr & 0x0070) >> 4];
-	if ((curr_attr & FX_BOLD) != 0) {
-	  fg = currBrightColors[(curr_attr & 0x0007)];
-	  if (!bold) {
-	    bold = true;
-	    screenGraphics.setFont(currBoldFont);
-	  }
-	} else {
-	  if (bold) {
-	    bold = false;
-	    screenGraphics.setFont(currFont);
-	  }
-	  if ((curr_attr & FX_DIM) != 0) {
-	    fg = currDimColors[(curr_attr & 0x0007)];
-	  } else {
-	    fg = mCurrColors[(curr_attr & 0x0007)];
+      int last = currLine.getLineLength();
+      if (currLine.isDoubleWidth()) {
+	  // Double-width -> can only print 50% of the max chars
+	  if (last > (sizeInCharsW / 2)) {
+	      last = sizeInCharsW / 2;
 	  }
-	}
-
-	if ((curr_attr & FX_REVERSED) == 0) screenGraphics.setColor(bg);
-	else screenGraphics.setColor(fg);
-	
-	/* First we need to clear the space... */
-	screenGraphics.fillRect(x, y, w, fontHeight);
-	
-	if ((curr_attr & FX_REVERSED) == 0) screenGraphics.setColor(fg);
-	else screenGraphics.setColor(bg);
-	
-	// Doubled chars need doubled underscores?
-	if ((curr_attr & FX_UNDERSCORE) != 0) {
-	  screenGraphics.drawLine(x, y + fontBase + UNDERLINE_OFFSET,
-		     x + w - 1, y + fontBase + UNDERLINE_OFFSET);
-	}
+	  Graphics double_g = g.create(0, py, usablePixelSize.width,
+				       fontHeight);
+	  redrawDoubleRow(double_g, currLine, 0, last, false);
+	  double_g.dispose();
+      } else if (x1 < last) {
+	  Rectangle coords = mRenderCoords;
+	  coords.x = 0;
+	  coords.y = py;
+	  coords.width = usablePixelSize.width;
+	  coords.height = fontHeight;
+	  currLine.paintLine(g, coords, x1, x2, mCurrFonts, fontWidth,
+			     fontBase, blinkedState, mScreenReversed,
+			     getGlyphAtlas());
+      }
+      g.setClip(0, 0, usablePixelSize.width, usablePixelSize.height);
+  }
 
-	// And gfx symbols are different as well:
-	if ((curr_attr & FX_GFX) != 0) {
-	  Image img;
+  /* Returns the glyph atlas matching current fonts and font size,
+   * creating a new one if necessary (fonts changed).
+   */
+  private final GlyphAtlas getGlyphAtlas()
+  {
+      GlyphAtlas atlas = mGlyphAtlas;
 
-	  if (gfx_g == null) {
-	    gfx_g=screenGraphics.create(0,y,usablePixelSize.width,fontHeight);
-	  }
-	  gfx_g.setXORMode(new Color(bg.getRed() ^ fg.getRed() ^ 255,
-				 bg.getGreen() ^ fg.getGreen() ^ 255,
-				 bg.getBlue() ^ fg.getBlue() ^ 255));
-	  for (int k = i; k < j; k++, x += fontWidth) {
-	    curr_char = chars[k];
-	    // If it's not 'really' a symbol (or we don't know what it
-	    // might be), let's use the normal font letter:
-	    if (curr_char < 0137 || curr_char > 0176) {
-	      oneCharArray[0] = (char) curr_char;
-	      screenGraphics.drawChars(oneCharArray, 0, 1, x, y + fontBase);
-	      continue;
-	    }
-	    if (curr_char == 0137) // We can skip spaces
-	      continue;
-
-	    //if ((curr_attr & FX_BOLD) != 0)
-	    img = gfxFonts[curr_char - 0140];
-	    if (img == null)
-	      img = waitForGfxFont(curr_char - 0140);
-	    gfx_g.drawImage(img, x, 0, this);
+      if (atlas == null
+	  || !atlas.matches(mCurrFonts, fontWidth, fontHeight, fontBase)) {
+	  if (atlas != null) {
+	      atlas.dispose();
 	  }
-	} else { // Normal chars:
-	  //screenGraphics.drawBytes(chars, i, j - i, x, h + fontBase);
-	  screenGraphics.drawString(new String(chars, i, j-i),x,y + fontBase);
-	  x += w;
-	}
-	i = j;
+	  atlas = new GlyphAtlas(mCurrFonts, fontWidth, fontHeight, fontBase);
+	  mGlyphAtlas = atlas;
       }
-    }
-
-    if (bold)
-      screenGraphics.setFont(currFont);
+      return atlas;
   }
 
   // Note that this function does not clear the row before drawing
@@ -2704,184 +2869,66 @@ Display.sshDebug();
 
   synchronized public void
   redrawDoubleRow(Graphics g, DisplayLine currLine, int first, int last,
-		  //byte [] chars, short [] attrs, int line_attrs,
 		  boolean clear_end)
   {
-    int w, j, curr_char;
-    short curr_attr;
     int fw = 2 * fontWidth;
-    int x = first * fw;
-    Color bg, fg;
-    boolean dw =((line_attrs & LINE_DOUBLE_W) != 0) ? true : false;
-    boolean dh = ((line_attrs & LINE_DOUBLE_H_TOP) != 0) ? true : false;
-    boolean dh_bottom = ((line_attrs & LINE_DOUBLE_H_BOTTOM) != 0) ? true : false;
+    int lineAttrs = currLine.getLineAttrs();
+    int mode;
 
-    markRowDirty(mCurrRow - mTopRow);
+    if ((lineAttrs & DisplayLine.LINE_DOUBLE_H_TOP) != 0) {
+      mode = ScaledGlyphCache.MODE_DOUBLE_HEIGHT_TOP;
+    } else if ((lineAttrs & DisplayLine.LINE_DOUBLE_H_BOTTOM) != 0) {
+      mode = ScaledGlyphCache.MODE_DOUBLE_HEIGHT_BOTTOM;
+    } else {
+      mode = ScaledGlyphCache.MODE_DOUBLE_WIDTH;
+    }
 
     if (clear_end) {
-       w = last * fw;
+       int w = last * fw;
        if (w < usablePixelSize.width) {
 	 g.setColor(defBgroundColor);
 	 g.fillRect(w, 0, usablePixelSize.width - w, fontHeight);
        }
     }
- 
-    // Should we redraw the whole damn row or not?
-    //g.setPaintMode();
-    //g.setColor(defBgroundColor);
-    //g.fillRect(0, 0, usablePixelSize.width, fontHeight);
 
-    for (int i = first; i < last; ) {
+    if (last > currLine.getLineLength()) {
+      last = currLine.getLineLength();
+    }
+    char[] text = getPaintBuffer(last);
+    Rectangle coords = new Rectangle(0, 0, 0, fontHeight);
+    ScaledGlyphCache cache = ScaledGlyphCache.getInstance();
 
-      curr_char = (int) chars[i] & 0xFF;
+    for (int i = first; i < last; ) {
+      int cell = currLine.getCell(i);
 
       // Shouldn't really happen:
-      if ((curr_char & 0x7F) < 32 || (curr_char == 0xFF)) {
-	x += fw;
+      if (DisplayLine.getCellChar(cell) < 32) {
 	i++;
 	continue;
       }
 
-      curr_attr = attrs[i];
-	
-	// Normal chars should be printed ok, but usually we can
-	// print more than one consequtive char at a time, provided
-	// their attributes are the same:
-      for (j = i + 1; j < last; j++) {
-	curr_char = (int) chars[j] & 0xFF;
-	if ((curr_char & 0x7F) < 32 || curr_char == 0xFF)
-	  break;
-	if (curr_attr != attrs[j])
-	  break;
-      }
-
-      w = fw * (j - i);
-
-      bg = mCurrColors[(curr_attr & 0x0070) >> 4];
-      if ((curr_attr & FX_BOLD) != 0) {
-	fg = currBrightColors[(curr_attr & 0x0007)];
-      } else {
-	if ((curr_attr & FX_DIM) != 0) {
-	  fg = currDimColors[(curr_attr & 0x0007)];
-	} else {
-	  fg = mCurrColors[(curr_attr & 0x0007)];
-	}
-      }
-
-      if ((curr_attr & FX_REVERSED) != 0) {
-	Color foo = fg;
-	fg = bg;
-	bg = foo;
-      }
-	
-      // Needs to be cleared in any case, first:
-      g.setPaintMode();
-      /* This seems idiotic doesn't it? But try it without creating a
-       * new colour instance and see what happens... Welcome to the
-       * Twilight Zone!
+      /* Glyphs are drawn one at a time, but attributes only need to
+       * be resolved once per run:
        */
-      g.setColor(new  Color(bg.getRed(), bg.getGreen(), bg.getBlue()));
-      g.fillRect(x, 0, w, fontHeight);
-		
-      // Doubled characters need to be drawn char at a time, though:
-      Image [] f;
-      Image f2;
-
-	// We need to set XOR-mode to get the desired font color:
-      
-      g.setXORMode(new Color(bg.getRed() ^ fg.getRed() ^ 255,
-			     bg.getGreen() ^ fg.getGreen() ^ 255,
-			     bg.getBlue() ^ fg.getBlue() ^ 255));
-
-      // Special GFX are drawn separately. Could use a font set too?
-      if ((curr_attr & FX_GFX) != 0) { // Gfx chars:
-
-	int y, offset;
-
-	if (dh_bottom)
-	  y = -fontHeight;
-	else y = 0;
-
-	if ((curr_attr & FX_BOLD) != 0) {
-	  offset = 3 * fontLoader.NR_OF_SYMBOLS;
-	} else {
-	  offset = 2 * fontLoader.NR_OF_SYMBOLS;
-	}
-
-	offset = 0;
-
-	if (dh || dh_bottom)
-	  offset += (2 * fontLoader.NR_OF_SYMBOLS);
-	
-	for (int k = i; k < j; k++, x += fw) {
-	  curr_char = ((int) chars[k] & 0xFF);
-	  // Doh. We need to draw the doubled char after all. :-p
-	  if (curr_char < 0137 || curr_char > 0176) {
-	    oneCharArray[0] = (char) curr_char;
-	    continue;
-	  } else {
-	    if (curr_char == 0137) // We can skip spaces
-	      continue;
-	  }
-
-	  curr_char = curr_char - 0140 + offset;
-	  f2 = gfxFonts[curr_char];
-	  if (f2 == null)
-	    f2 = waitForGfxFont(curr_char);
-	  g.drawImage(f2, x, 0, this);
-	}
-
-      } else { // 'normal' doubled, not gfx
-
-	if (dw) {
-	  if ((curr_attr & FX_BOLD) != 0)
-	    f = getDoubleFont(DW_FONT_BOLD);
-	  else
-	    f = getDoubleFont(DW_FONT_NORMAL);
-	} else {
-	  if ((curr_attr & FX_BOLD) != 0)
-	    f = getDoubleFont(DH_FONT_BOLD);
-	  else
-	    f = getDoubleFont(DH_FONT_NORMAL);
+      int attrsId = DisplayLine.getCellAttrsId(cell);
+      int j = i;
+      do {
+	text[j] = DisplayLine.getCellChar(cell);
+	if (++j >= last) {
+	  break;
 	}
+	cell = currLine.getCell(j);
+      } while (DisplayLine.getCellAttrsId(cell) == attrsId
+	       && DisplayLine.getCellChar(cell) >= 32);
 
-      
-	for (int k = i; k < j; k++, x += fw) {
-	  curr_char = ((int) chars[k] & 0xFF) - 32;
-	  // No need to 'draw' spaces:
-	  if (curr_char == 0)
-	    continue;
-	  if (curr_char > 95)
-	    curr_char -= 32;
-	  
-	  int set = curr_char / fontLoader.CHARS_PER_IMAGE;
-	  if ((f2 = f[set]) == null)
-	    f2 = waitForDoubleFont(f, set);
-	  curr_char %= fontLoader.CHARS_PER_IMAGE;
-	  curr_char *= fontHeight;
-	  if (dh_bottom)
-	    curr_char = curr_char * 2 + fontHeight;
-	  else if (dh)
-	    curr_char *= 2;
-	  g.drawImage(f2, x, -curr_char, this);
-	  
-	}
-      }
-
-      // Doubled chars need doubled underscores?
-      if ((curr_attr & FX_UNDERSCORE) != 0) {
-	g.setPaintMode();
-	g.setColor(fg);
-	g.drawLine(x, fontBase + UNDERLINE_OFFSET,
-		   x + w - 1, fontBase + UNDERLINE_OFFSET);
-	g.drawLine(x, fontBase + UNDERLINE_OFFSET + 1,
-		   x + w - 1, fontBase + UNDERLINE_OFFSET + 1);
-      }
-      
+      coords.x = i * fw;
+      coords.width = (j - i) * fw;
+      getAttrs(attrsId).paintScaledText(g, cache, mCurrFonts, text, i, j - i,
+					coords, fontWidth, fontHeight,
+					fontBase, mode, blinkedState,
+					mScreenReversed);
       i = j;
     }
-
-    g.setPaintMode();
   }
   
   public void
@@ -2940,60 +2987,93 @@ Display.sshDebug();
     allowBell = !allowBell;
   }
 
-  /* This function is called by the Blinker-thread, to inform
-   * that the blinking state should be changed. We should now check
-   * whether there is any blinking to do; if there is, we'll do the
-   * stuff and return true, otherwise simply return false.
+  /* Registers us with the BlinkScheduler, which then calls
+   * blinkTick() until there's nothing blinking on the screen.
    */
-  public boolean toggleBlink()
+  private synchronized void startBlinking()
   {
-    short [] attrs;
-    int i, x;
+    if (!blinkActive) {
+      blinkActive = true;
+      BlinkScheduler.getInstance().add(this);
+    }
+  }
 
-    synchronized (this) {
-      for (i = mTopRow; i <= mBottomRow; i++) {
-	  DisplayLine currLine = mLines[i];
-	  /* The per-line flag is for optimizing; if it's not set
-	   * we can be sure it contains no blinking chars.
-	   */
-	  if (!currLine.containsBlinking()) {
-	      continue;
-	  }
+  /* This function is called by the BlinkScheduler, to inform
+   * that the blinking state should be changed. Only lines with the
+   * LINE_HAS_BLINK hint are checked, and only the spans of blinking
+   * chars are marked dirty. If nothing is blinking any more, we'll
+   * drop out of the scheduler and return false.
+   */
+  final synchronized boolean blinkTick()
+  {
+    boolean found = false;
 
-	  /* However, the flag doesn't have to mean there is blinking
-	   * for certain, so we need to check whether there is:
-	   */
-	attrs = attrBuffer[i];
-	for (x = lineLengths[i]; --x >= 0; ) {
-	  if ((attrs[x] & FX_BLINK) != 0)
-	    break;
-	}
-	// If not, we'll clear the flag and continue checking
-	if (x < 0) {
-	  lineAttrs[i] &= ~LINE_HAS_BLINK;
-	  continue;
+    blinkedState = !blinkedState;
+    for (int y = 0; y < sizeInCharsH; ++y) {
+      DisplayLine currLine = mLines.peek(mTopRow + y);
+      if (currLine.isBlinking()) {
+	if (markBlinkingSpans(currLine, y)) {
+	  found = true;
+	} else { // hint was stale
+	  currLine.setIsBlinking(false);
 	}
-	// Otherwise we can just skip the other lines:
-	break;
       }
+    }
 
-    // If no blinking, let's return:
-      if (i > mBottomRow) {
-	blinkedState = false;
-	blinkActive = false;
-	return false;
-      }
-      
-      blinkedState = !blinkedState;
+    if (!found) {
+      blinkedState = false;
+      blinkActive = false;
+      BlinkScheduler.getInstance().remove(this);
     }
+    return found;
+  }
 
-    blinkActive = true;
+  /* Marks the runs of blinking chars on given row dirty; returns
+   * false if there were none.
+   */
+  private boolean markBlinkingSpans(DisplayLine line, int y)
+  {
+    int len = line.getLineLength();
+    int prevAttrs = -1;
+    boolean blinking = false, found = false;
+    int start = 0;
+
+    for (int x = 0; x < len; ++x) {
+      int attrs = DisplayLine.getCellAttrsId(line.getCell(x));
+      // Only need to check when attributes change:
+      if (attrs == prevAttrs) {
+	continue;
+      }
+      prevAttrs = attrs;
+      if (getAttrs(attrs).isBlinking() != blinking) {
+	blinking = !blinking;
+	if (blinking) {
+	  start = x;
+	  found = true;
+	} else if (!line.isDoubleWidth()) {
+	  markRangeDirty(start, y, x - 1, y);
+	}
+      }
+    }
+    if (found && line.isDoubleWidth()) {
+      // Cells are twice as wide; simplest to repaint the whole row
+      markRowDirty(y);
+    } else if (blinking) {
+      markRangeDirty(start, y, len - 1, y);
+    }
+    return found;
+  }
 
-    // Repaint() need not be synced?
-    // We can't call 'doPaint()' because this is _not_
-    // called by Display-thread!
-    repaint();
-    return true;
+  /* If we are removed from the window, there's no point in
+   * blinking any more:
+   */
+  public void removeNotify()
+  {
+    synchronized (this) {
+      blinkActive = false;
+      BlinkScheduler.getInstance().remove(this);
+    }
+    super.removeNotify();
   }
 
 /********* Functions required by MouseMotionListener: ************/
@@ -3140,54 +3220,6 @@ Display.sshDebug();
 	public DisplayState() { }
     }
 
-    /*** A small helper class necessary for implementing blinking: ***/
-    final class Blinker
-	extends Thread
-    {
-	public final static long BLINK_THREAD_IDLE_SLEEP = 20000;
-	
-	Display beeped;
-	
-	public Blinker(Display b)
-	{
-	    beeped = b;
-	}
-	
-	public void run()
-	{
-	    long end, now, delay;
-	    long interval = Display.BLINK_INTERVAL;
-	    
-	    // A never-ending loop...
-	    while (true) {
-		
-		now = System.currentTimeMillis();
-		end = now + interval;
-		
-		while ((delay = end - now) > 5) {
-		    try {
-			Thread.sleep(delay);
-		    } catch (InterruptedException ie) {
-			;
-		    }
-		    now = System.currentTimeMillis();
-		}
-		/* However, if no blinking is necessary, let's sleep
-		 * for longer time...
-		 */
-		if (!beeped.toggleBlink()) {
-		    try {
-			// We could sleep indefinitely but perhaps we better not
-			Thread.sleep(BLINK_THREAD_IDLE_SLEEP);
-		    } catch (InterruptedException ie2) {
-			// This _should_ be interrupted occasionally
-		    }
-		} else {
-		}
-	    }
-	}
-    }
-  
   /* **********************************************************************
 
    Another internal utility class, for storing the display lines.
@@ -3207,10 +3239,20 @@ Display.sshDebug();
 	 
 	 public final static short sDefLineAttrs = (short) 0;
 	 public static char sDefChar = ' ';
+
+	 /* Characters and their attributes are packed in a single int
+	  * per cell; the char is in the low 16 bits, and the attribute id
+	  * (index to the attribute table of the Display, see
+	  * Display.getAttrsId()) in the high 16 bits. This way there are
+	  * no per-cell object references, and runs of characters with
+	  * same attributes can be found by comparing the high bits.
+	  */
+	 public final static int CELL_CHAR_MASK = 0x0000FFFF;
+	 public final static int CELL_ATTRS_MASK = 0xFFFF0000;
+	 public final static int CELL_ATTRS_SHIFT = 16;
 	 
 	 private final Display mDisplay;
-	 private char[] mChars;
-	 private CharAttrs[] mCharAttrs;
+	 private int[] mCells;
 	 
 	 private int mLength;
 	 private int mLineAttrs;
@@ -3218,11 +3260,35 @@ Display.sshDebug();
 	 public DisplayLine(Display d, int width)
 	 {
 	     mDisplay = d;
-	     mChars = new char[width];
-	     mCharAttrs = new CharAttrs[width];
+	     mCells = new int[width];
 	     mLength = 0;
 	     mLineAttrs = sDefLineAttrs;
 	 }
+
+	 /* *** Cell packing/unpacking: *** */
+
+	 public final static int makeCell(char c, int attrsId)
+	 {
+	     return (attrsId << CELL_ATTRS_SHIFT) | c;
+	 }
+
+	 public final static char getCellChar(int cell) { return (char) cell; }
+
+	 public final static int getCellAttrsId(int cell)
+	 {
+	     return cell >>> CELL_ATTRS_SHIFT;
+	 }
+
+	 private final int getBlankCell()
+	 {
+	     return makeCell(sDefChar,
+			     mDisplay.getAttrsId(mDisplay.mDefaultCharAttrs));
+	 }
+
+	 private final boolean isProtected(int cell)
+	 {
+	     return mDisplay.getAttrs(cell >>> CELL_ATTRS_SHIFT).isProtected();
+	 }
 	 
 	 /* *** Simple getters/setters: *** */
 	 public boolean isDoubleWidth() {
@@ -3237,6 +3303,17 @@ Display.sshDebug();
 	 
 	 public int getLineLength() { return mLength; }
 
+	 public int getCell(int col) { return mCells[col]; }
+
+	 public int getLineAttrs() { return mLineAttrs; }
+	 public void setLineAttrs(int attrs) { mLineAttrs = attrs; }
+
+	 public char getChar(int col) { return (char) mCells[col]; }
+
+	 public CharAttrs getCharAttrs(int col) {
+	     return mDisplay.getAttrs(mCells[col] >>> CELL_ATTRS_SHIFT);
+	 }
+
 	 public void resetLineAttrs() { mLineAttrs = sDefLineAttrs; }
 
 	 /* Method for setting doubled width, doubled width+height or
@@ -3266,7 +3343,7 @@ Display.sshDebug();
 	     mLineAttrs |= ~LINE_DOUBLE_H_BOTTOM;
 	 }
 
-	 public void isBlinking() { return (mLineAttrs & LINE_HAS_BLINK) != 0;}
+	 public boolean isBlinking() { return (mLineAttrs & LINE_HAS_BLINK) != 0;}
 	 public void setIsBlinking(boolean state)
 	 {
 	     if (state) {
@@ -3276,33 +3353,42 @@ Display.sshDebug();
 	     }
 	 }
 
+	 public void markAttrs(CharAttrsTable table)
+	 {
+	     table.markCells(mCells, mLength);
+	 }
+
 	public boolean containsBlinking()
 	{
 	    if ((mLineAttrs & LINE_HAS_BLINK) == 0) {
 		return false;
 	    }
+	    int prevAttrs = -1;
 	    for (int i = 0; i < mLength; ++i) {
-		if (mCharAttrs[i].isBlinking()) {
-		    return true;
+		int attrs = mCells[i] & CELL_ATTRS_MASK;
+		// Only need to check when attributes change:
+		if (attrs != prevAttrs) {
+		    if (mDisplay.getAttrs(attrs >>> CELL_ATTRS_SHIFT).isBlinking()) {
+			return true;
+		    }
+		    prevAttrs = attrs;
 		}
 	    }
 	    /* Hmmh. Ok, so we don't have anything, after all. Better
 	     * update the line attr flag then:
 	     */
 	    mLineAttrs &= ~LINE_HAS_BLINK;
+	    return false;
 	}
 
 	 /* *** Methods for adding/deleting chars/space: *** */
 
 	 public void clearLine()
 	 {
-	     mLength = 0;
-	     /* Let's actually clean attributes, so that GC may kick
-	      * them out (if they aren't used any more):
+	     /* No need to clear the cells; there are no object references
+	      * to release any more:
 	      */
-	     for (int i = mCharAttrs.length; --i >= 0; ) {
-		 mCharAttrs[i] = null;
-	     }
+	     mLength = 0;
 	 }
 
 	 /** This function actually only makes room for characters;
@@ -3312,44 +3398,40 @@ Display.sshDebug();
 	  */
 	 public boolean insertChars(int col, int nr, int charWidth)
 	 {
-	     CharAttrs defAttrs = mDisplay.mDefaultCharAttrs;
-	     int last = col + nr;
+	     int blank = getBlankCell();
+	     int newLength;
 
 	     /* The trivial case is the one in which we are just appending
 	      * stuff to the end of the line:
 	      */
-	     if (col == mLength) {
-		 if (last > charWidth) {
-		     last = charWidth;
-		 }
+	     if (col >= mLength) {
+		 checkLength(col);
+		 newLength = col + nr;
 	     } else {
-		 int max = charWidth - col - nr;
-		 
-		 if (max <= 0) {
-		     /* In another simple case we are inserting so many new
-		      * characters that we don't actually need any copying:
-		      */
-		     if ((col + nr) > charWidth) {
-			 nr = charWidth - col;
-		     }
-		     last = charWidth;
-		 } else {
-		     /* In the common case we need to shift stuff to the
-		      * right first:
-		      */
-		     System.arraycopy(mChars, col,
-				      mChars, col + nr, max);
-		     System.arraycopy(mCharAttrs, col,
-				      mCharAttrs, col + nr, max);
-		     last = col + nr;
+		 /* In the common case we need to shift stuff to the
+		  * right first; chars pushed past the right edge are lost:
+		  */
+		 int move = mLength - col;
+		 if ((col + nr + move) > charWidth) {
+		     move = charWidth - col - nr;
+		 }
+		 if (move > 0) {
+		     System.arraycopy(mCells, col, mCells, col + nr, move);
 		 }
+		 newLength = mLength + nr;
+	     }
+	     if (newLength > charWidth) {
+		 newLength = charWidth;
 	     }
 
+	     int last = col + nr;
+	     if (last > charWidth) {
+		 last = charWidth;
+	     }
 	     for (int i = col; i < last; ++i) {
-		 mChars[i] = sDefChar;
-		 mCharAttrs[i] = defAttr;
+		 mCells[i] = blank;
 	     }
-	     mLength = last;
+	     mLength = newLength;
     
 	     return true;
 	 }
@@ -3381,7 +3463,7 @@ Display.sshDebug();
 			     CharAttrs currAttrs, int column, int lineLength,
 			     boolean wrap)
 	 {
-	     int ret;
+	     int ret = 0;
 
 	     // Printing blinking character(s)?
 	     if (currAttrs.isBlinking()) {
@@ -3392,22 +3474,32 @@ Display.sshDebug();
 	       * 'too much stuff' to the array. Might happen because
 	       * of a resize:
 	       */
-	      if ((mLength + len) > lineLength) {
-		  ret = (mLength + len) - lineLength;
-		  len -= ret;
-	      } else {
-		  ret = 0;
+	      int room = lineLength - column;
+	      if (room < 0) {
+		  room = 0;
 	      }
-	      System.arraycopy(c, first, mChars, mLength, len);
-	      for (i = 0; i < len; i++) {
-		  mCharAttrs[mLength + i] = currAttrs;
+	      if (len > room) {
+		  ret = len - room;
+		  len = room;
+	      }
+	      checkLength(column);
+
+	      int[] cells = mCells;
+	      int attrBits = mDisplay.getAttrsId(currAttrs) << CELL_ATTRS_SHIFT;
+	      for (int i = 0; i < len; ++i) {
+		  cells[column + i] = attrBits | chars[start + i];
+	      }
+	      column += len;
+	      if (column > mLength) {
+		  mLength = column;
 	      }
-	      mLength += len;
 
 	      // No wrapping and didn't fit? Let's squeeze a bit..
-	      if (!wrap && ret > 0) {
-		  mChars[mLength - 1] = chars[start + len - 1];
-		  mCharAttrs[mLength - 1] = currAttrs;
+	      if (!wrap && ret > 0 && lineLength > 0) {
+		  cells[lineLength - 1] = attrBits | chars[start + len + ret - 1];
+		  if (mLength < lineLength) {
+		      checkLength(lineLength);
+		  }
 		  // Ie. some chars were just discarded
 		  ret = 0;
 	      }
@@ -3424,11 +3516,12 @@ Display.sshDebug();
 	  */
 	 public void fillLineWith(char c, CharAttrs attrs, int length)
 	 {
+	     int cell = makeCell(c, mDisplay.getAttrsId(attrs));
+
 	     mLength = length;
 	     for (int col = 0; col < length; ++col) {
-		mCharAttrs[col] = defAttrs;
-		mChars[col] = c;
-	    }		  
+		 mCells[col] = cell;
+	     }		  
 	 }
 
 	 /**
@@ -3441,17 +3534,16 @@ Display.sshDebug();
 	 {
 	     int copyCount = mLength - count;
 
-	     if (copyCount < 0) {
+	     if (copyCount <= 0) {
 		 mLength = 0;
 	     } else {
-		 System.arraycopy(mChars, count, mChars, 0, copyCount);
-		 System.arraycopy(mCharAttrs, count, mCharAttrs, 0, copyCount);
-		 mLength -= count;
+		 System.arraycopy(mCells, count, mCells, 0, copyCount);
+		 mLength = copyCount;
 	     }
 	 }
 
 	 /**
-	  * Method for moving contents of this line left 'count' times.
+	  * Method for moving contents of this line right 'count' times.
 	  * Last 'count' characters in the line are discarded (except if
 	  * there's enough empty space at the end of the line)
 	  *
@@ -3468,16 +3560,16 @@ Display.sshDebug();
 	     int copyCount = mLength;
 
 	     if ((mLength + count) > width) {
-		 copyCount = width - mLength;
+		 copyCount = width - count;
+	     }
+	     if (copyCount > 0) {
+		 System.arraycopy(mCells, 0, mCells, count, copyCount);
 	     }
-	     System.arraycopy(mChars, 0, mChars, count, mLength);
-	     System.arraycopy(mCharAttrs, 0, mCharAttrs, count, copyCount);
 	     // Need to clear the beginning of the line:
-	     CharAttrs defAttrs = mDisplay.mDefaultCharAttrs;
+	     int blank = getBlankCell();
 
 	     for (int i = 0; i < count; ++i) {
-		 mChars[i] = sDefChar;
-		 mCharAttrs[i] = defAttrs;
+		 mCells[i] = blank;
 	     }
 	     mLength += count;
 	     if (mLength > width) {
@@ -3488,23 +3580,16 @@ Display.sshDebug();
 	 /**
 	  * This method is called when the width of the terminal window
 	  * changes. Depending on how width changes we may need to reallocate
-	  * the char/attr arrays (grows) or truncate lines (shrinks).
+	  * the cell array (grows) or truncate lines (shrinks).
 	  */
 	 public void resize(int newWidth)
 	 {
 	     if (newWidth < mLength) {
 		 mLength = newWidth;
-	     } else {
-		 if (newWidth > mChars.length) {
-		     char[] oldChars = mChars;
-		     CharAttrs oldAttrs = mCharAttrs;
-		     
-		     mChars = new char[newWidth];
-		     mCharAttrs = new CharAttrs[newWidth];
-		     
-		     System.arraycopy(oldChars, 0, mChars, 0, oldChars.length);
-		     System.arraycopy(oldAttrs, 0, mCharAttrs, 0, oldAttrs.length);
-		 }
+	     } else if (newWidth > mCells.length) {
+		 int[] oldCells = mCells;
+		 mCells = new int[newWidth];
+		 System.arraycopy(oldCells, 0, mCells, 0, mLength);
 	     }
 	 }
 
@@ -3518,10 +3603,9 @@ Display.sshDebug();
 	 public void checkLength(int column)
 	 {
 	     if (column > mLength) {
-		 CharAttrs defAttrs = mDisplay.mDefaultCharAttrs;
+		 int blank = getBlankCell();
 		 for (int i = mLength; i < column; i++) {
-		     mChars[i] = sDefChar;
-		     mCharAttrs[i] = defAttrs;
+		     mCells[i] = blank;
 		 }
 		 mLength = column;
 	     }
@@ -3540,32 +3624,31 @@ Display.sshDebug();
 	  */
 	 public void eraseLine(boolean eraseAll, int cursorColumn)
 	 {
-	     CharAttrs defAttrs = mDisplay.mDefaultCharAttrs;
+	     int blank = getBlankCell();
+
 	     if (eraseAll) {
-		 mLength = cursorColumn;
+		 mLength = (cursorColumn < 0) ? 0 : cursorColumn;
 		 for (int i = mLength; --i >= 0; ) {
-		     mChars[i] = mDefChar;
-		     mCharAttrs[i] = defAttrs;
+		     mCells[i] = blank;
 		 }
 	     } else {
 		 int i = mLength;
 		 /* All non-protected chars from the end can really be removed,
 		  * and the line length updated:
 		  */
-		 while (--i >= 0 && !mCharAttrs[i].isProtected()) {
-		     mChars[i] = defChar;
-		     mCharAttrs[i] = defAttrs;
+		 while (--i >= 0 && !isProtected(mCells[i])) {
+		     mCells[i] = blank;
 		 }
 		 mLength = i + 1;
 		 /* And the rest of non-protected may be removed too, but
 		  * this doesn't update line length:
 		  */
 		 while (--i >= 0) {
-		     if (mCharAttrs[i].isProtected()) {
-			 mChars[i] = defChar;
-			 mCharAttrs[i] = defAttrs;
+		     if (!isProtected(mCells[i])) {
+			 mCells[i] = blank;
 		     }
 		 }
+		 checkLength(cursorColumn);
 	     }
 	 }
 
@@ -3588,25 +3671,23 @@ Display.sshDebug();
 
 	     if (eraseAll) {
 		 // easy:
-		 mLength = cursorColumn - 1;
+		 mLength = cursorColumn;
 	     } else {
-		 CharAttrs defAttrs = mDisplay.mDefaultCharAttrs;
+		 int blank = getBlankCell();
 		 /* All non-protected chars from the end can really be removed,
 		  * and line length updated:
 		  */
 		 int i = mLength;
-		 while (--i >= mCurrCol && !mCharAttrs[i].isProtected) {
-		     mChars[i] = sDefChar;
-		     mCharAttrs[i] = defAttrs;
+		 while (--i >= cursorColumn && !isProtected(mCells[i])) {
+		     mCells[i] = blank;
 		 }
 		 mLength = i + 1;
 		 /* And the reset of non-procted may be removed too, but
 		  * this doesn't update line length:
 		  */
-		 while (--i >= mCurrCol) {
-		     if (!mCharAttrs[i].isProtected()) {
-			 mChars[i] = sDefChar;
-			 mCharAttrs[i] = defAttrs;
+		 while (--i >= cursorColumn) {
+		     if (!isProtected(mCells[i])) {
+			 mCells[i] = blank;
 		     }
 		 }
 	     }
@@ -3624,12 +3705,12 @@ Display.sshDebug();
 	  */
 	 public void eraseSOL(boolean eraseAll, int cursorColumn)
 	 {
-	     CharAttrs defAttrs = mDisplay.mDefaultCharAttrs;
+	     int blank = getBlankCell();
+	     int last = (cursorColumn < mLength) ? cursorColumn : (mLength - 1);
 
-	     for (int i = 0; i <= cursorColumn; i++) {
-		 if (eraseAll || !mCharAttrs[i].isProtected()) {
-		     mChars[i] = sDefChar;
-		     mCharAttrs[i] = defAttrs;
+	     for (int i = 0; i <= last; i++) {
+		 if (eraseAll || !isProtected(mCells[i])) {
+		     mCells[i] = blank;
 		 }
 	     }
 	 }
@@ -3645,7 +3726,11 @@ Display.sshDebug();
 	  */
 	 public void eraseChars(int cursorColumn, int count)
 	 {
-	     CharAttrs defAttrs = mDisplay.mDefaultCharAttrs;
+	     if (cursorColumn >= mLength) {
+		 return;
+	     }
+
+	     int blank = getBlankCell();
 	     int last = cursorColumn + count;
 
 	     // Erasing end of line? Can change line length then as well:
@@ -3654,64 +3739,86 @@ Display.sshDebug();
 		 mLength = cursorColumn+1;
 	     }
 	     for (int i = cursorColumn; i < last; ++i) {
-		 mChars[i] = sDefChar;
-		 mCharAttrs[i] = defAttrs;
+		 mCells[i] = blank;
 	     }
 	 }
 
 	 /**
-	  * Method for painting this line on the provided graphics
-	  * context.
+	  * Method for painting (part of) this line on the provided graphics
+	  * context. Runs of characters with identical attributes are
+	  * painted using a single call to CharAttrs.paintText(); if a
+	  * glyph atlas is given, glyphs are copied from it instead of
+	  * being drawn with the fonts.
 	  *
-	  * @param g
-	  * @param coords
-	  * @param fonts
+	  * @param g Graphics context to paint on
+	  * @param coords Area of the line; only x, y and height are used
+	  *    (not modified by the call)
+	  * @param first First column to paint
+	  * @param lastCol Last column to paint (inclusive)
+	  * @param fonts Set of fonts, indexed by CharAttrs.getFontIndex()
 	  * @param fontWidth
 	  * @param fontBase
 	  * @param blinkedOut
 	  * @param reversed
+	  * @param atlas Glyph cache to use, if any (null to draw chars
+	  *    using the fonts)
 	  */
 	 public void paintLine(Graphics g, Rectangle coords,
+			       int first, int lastCol,
 			       Font[] fonts, int fontWidth, int fontBase,
-			       boolean blinkedOut, boolean reversed)
+			       boolean blinkedOut, boolean reversed,
+			       GlyphAtlas atlas)
 	 {
-	     int last = mLength;
+	     int[] cells = mCells;
+	     int last = (lastCol < mLength) ? (lastCol + 1) : mLength;
 	     int baseX = coords.x;
+	     int origWidth = coords.width;
+	     char[] text = mDisplay.getPaintBuffer(last);
 	     Font currFont = null;
 
-	     for (int i = 0; i < last; ) {
+	     for (int i = first; i < last; ) {
+		 int cell = cells[i];
+
 		 /* Are we still supposed to have ctrl chars here?
 		  * If so let's just skip them (tabs?)
 		  */
-		 if (mChars[i] < 32) {
-		     x += fontWidth;
+		 if ((cell & CELL_CHAR_MASK) < 32) {
 		     ++i;
 		     continue;
 		 }
-	    
-		 CharAttrs currAttr = mCharAttrs[i];
-	    
-		 // Normal chars should be printed ok.
-		 for (int j = i + 1; j < last; j++) {
-		     if (mChars[j] < 32 || mCharAttrs[i] != currAttr) {
+
+		 // Normal chars should be printed ok; run ends when attrs change
+		 int attrBits = cell & CELL_ATTRS_MASK;
+		 int j = i;
+		 do {
+		     text[j] = (char) cell;
+		     if (++j >= last) {
 			 break;
 		     }
-		 }
+		     cell = cells[j];
+		 } while ((cell & CELL_ATTRS_MASK) == attrBits
+			  && (cell & CELL_CHAR_MASK) >= 32);
 
 		 // Ok, let's draw the text run:
+		 CharAttrs attrs = mDisplay.getAttrs(attrBits >>> CELL_ATTRS_SHIFT);
 		 coords.x = baseX + (i * fontWidth);
-		 Font nextFont = fonts[currAttrs.getFontIndex()];
-		 if (nextFont != currFont) {
-		     g.setFont(currFont);
-		 }
-		 CharAttrs.paintText(mChars, i, j-i, coords, fontBase,
+		 coords.width = (j - i) * fontWidth;
+		 if (atlas != null) {
+		     attrs.paintText(g, atlas, text, i, j - i, coords, fontBase,
 				     blinkedOut, reversed);
-	     /* CharAttrs: 
-    public void paintText(char[] text, int start, int len,
-			  Rectangle coords, int baseline,
-			  boolean blinkOn, boolean reversed)
-	     */
+		 } else {
+		     Font nextFont = fonts[attrs.getFontIndex()];
+		     if (nextFont != currFont) {
+			 g.setFont(nextFont);
+			 currFont = nextFont;
+		     }
+		     attrs.paintText(g, text, i, j - i, coords, fontBase,
+				     blinkedOut, reversed);
+		 }
+		 i = j;
 	     }
+	     coords.x = baseX;
+	     coords.width = origWidth;
 	 }
     } // class DisplayLine
 } // class Display
@@ -0,0 +1,266 @@
+/************************************************************
+
+Project:
+    JiveTerm.
+
+    A VT52/VT100/VT102-compliant telnet/terminal program
+    written in java.
+
+    (C) 1998-2001 Tatu Saloranta
+    tatu.saloranta@iki.fi.
+
+Module:
+    GlyphAtlas.java
+
+    Cache of pre-rendered character cells, used to speed up
+    text rendering.
+
+Last changed:
+    16-Oct-2026
+
+************************************************************/
+
+package com.cowtowncoder.jiveterm;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * Class that keeps pre-rendered character cells (glyph drawn with
+ * given font, on given background colour) in a single image (atlas),
+ * so that text can be drawn by just copying the cells, instead of
+ * having the glyphs rasterized again for every repaint.
+ *
+ * Cells are keyed by (char, font index, foreground, background); when
+ * the atlas is full, least recently used cells are reused. Underlining
+ * and borders are not part of the cells; CharAttrs draws them
+ * separately.
+ *
+ * Instances are not thread-safe; only the painting code of a Display
+ * is to access them.
+ */
+
+final class
+GlyphAtlas
+{
+    /* Atlas is a grid of cells; 64 x 32 should be plenty for most
+     * uses (ascii with a few dozen colour combinations).
+     */
+    public final static int DEFAULT_COLUMNS = 64;
+    public final static int DEFAULT_ROWS = 32;
+
+    private final Font[] mFonts;
+    private final int mCellWidth, mCellHeight, mBaseline;
+    private final int mColumns, mCapacity;
+
+    private final BufferedImage mImage;
+    private final Graphics mImageGraphics;
+
+    /* Keys of the cells; first part has char (16 bits), font index
+     * (2 bits) and foreground (24 bits), second part background:
+     */
+    private final long[] mKeys;
+    private final int[] mBgKeys;
+    private int mUsed = 0;
+
+    /* Hash index: bucket heads and chains contain cell index + 1 */
+    private final int[] mBuckets;
+    private final int[] mChain;
+
+    /* LRU list (doubly-linked, via cell indexes); head is the most
+     * recently used cell:
+     */
+    private final int[] mPrev, mNext;
+    private int mHead = -1, mTail = -1;
+
+    private final char[] mOneChar = new char[1];
+
+    public GlyphAtlas(Font[] fonts, int cellWidth, int cellHeight,
+		      int baseline)
+    {
+	this(fonts, cellWidth, cellHeight, baseline,
+	     DEFAULT_COLUMNS, DEFAULT_ROWS);
+    }
+
+    public GlyphAtlas(Font[] fonts, int cellWidth, int cellHeight,
+		      int baseline, int columns, int rows)
+    {
+	mFonts = fonts;
+	mCellWidth = cellWidth;
+	mCellHeight = cellHeight;
+	mBaseline = baseline;
+	mColumns = columns;
+	mCapacity = columns * rows;
+
+	mImage = new BufferedImage(columns * cellWidth, rows * cellHeight,
+				   BufferedImage.TYPE_INT_RGB);
+	mImageGraphics = mImage.getGraphics();
+
+	mKeys = new long[mCapacity];
+	mBgKeys = new int[mCapacity];
+	int buckets = 1;
+	while (buckets < mCapacity) {
+	    buckets <<= 1;
+	}
+	mBuckets = new int[buckets];
+	mChain = new int[mCapacity];
+	mPrev = new int[mCapacity];
+	mNext = new int[mCapacity];
+    }
+
+    /**
+     * Returns true if this atlas was created for specified fonts and
+     * cell dimensions, ie. can be used for painting with them.
+     */
+    public boolean matches(Font[] fonts, int cellWidth, int cellHeight,
+			   int baseline)
+    {
+	return (fonts == mFonts) && (cellWidth == mCellWidth)
+	    && (cellHeight == mCellHeight) && (baseline == mBaseline);
+    }
+
+    public void dispose()
+    {
+	mImageGraphics.dispose();
+	mImage.flush();
+    }
+
+    /**
+     * Method for drawing given characters, starting from specified
+     * location (top-left corner of the first cell).
+     */
+    public void drawChars(Graphics g, char[] text, int start, int len,
+			  int fontIndex, Color fg, Color bg, int x, int y)
+    {
+	int fgRgb = fg.getRGB() & 0xFFFFFF;
+	int bgRgb = bg.getRGB() & 0xFFFFFF;
+	long keyBase = ((long) fgRgb << 18) | ((long) fontIndex << 16);
+	int w = mCellWidth, h = mCellHeight;
+
+	for (int end = start + len; start < end; ++start, x += w) {
+	    int cell = getCell(keyBase | text[start], bgRgb, fg, bg);
+	    int sx = (cell % mColumns) * w;
+	    int sy = (cell / mColumns) * h;
+	    g.drawImage(mImage, x, y, x + w, y + h,
+			sx, sy, sx + w, sy + h, null);
+	}
+    }
+
+    /* *** Internal methods: *** */
+
+    private int getCell(long key, int bgKey, Color fg, Color bg)
+    {
+	int bucket = hash(key, bgKey);
+
+	for (int ix = mBuckets[bucket]; ix != 0; ix = mChain[ix - 1]) {
+	    int cell = ix - 1;
+	    if (mKeys[cell] == key && mBgKeys[cell] == bgKey) {
+		touch(cell);
+		return cell;
+	    }
+	}
+
+	// Not found; need a new cell, or reuse the least recently used
+	int cell;
+	if (mUsed < mCapacity) {
+	    cell = mUsed++;
+	} else {
+	    cell = mTail;
+	    unlinkHash(cell);
+	    unlinkLRU(cell);
+	}
+	mKeys[cell] = key;
+	mBgKeys[cell] = bgKey;
+	mChain[cell] = mBuckets[bucket];
+	mBuckets[bucket] = cell + 1;
+	linkFirst(cell);
+	renderCell(cell, (char) key, (int) (key >> 16) & 0x3, fg, bg);
+	return cell;
+    }
+
+    private void renderCell(int cell, char c, int fontIndex, Color fg,
+			    Color bg)
+    {
+	Graphics g = mImageGraphics;
+	int x = (cell % mColumns) * mCellWidth;
+	int y = (cell / mColumns) * mCellHeight;
+
+	// Glyphs must not leak to the neighbouring cells:
+	g.setClip(x, y, mCellWidth, mCellHeight);
+	g.setColor(bg);
+	g.fillRect(x, y, mCellWidth, mCellHeight);
+	g.setColor(fg);
+	// Line drawing etc. symbols fonts do not have are drawn separately:
+	if (!ScaledGlyphCache.drawSymbol(g, c, mFonts[fontIndex], x, y,
+					 mCellWidth, mCellHeight, mBaseline)) {
+	    g.setFont(mFonts[fontIndex]);
+	    mOneChar[0] = c;
+	    g.drawChars(mOneChar, 0, 1, x, y + mBaseline);
+	}
+    }
+
+    private int hash(long key, int bgKey)
+    {
+	long h = key * 31 + bgKey;
+	int i = (int) (h ^ (h >>> 32));
+	i ^= (i >>> 16);
+	return i & (mBuckets.length - 1);
+    }
+
+    private void unlinkHash(int cell)
+    {
+	int bucket = hash(mKeys[cell], mBgKeys[cell]);
+	int ix = mBuckets[bucket];
+
+	if (ix == cell + 1) {
+	    mBuckets[bucket] = mChain[cell];
+	    return;
+	}
+	while (ix != 0) {
+	    int next = mChain[ix - 1];
+	    if (next == cell + 1) {
+		mChain[ix - 1] = mChain[cell];
+		return;
+	    }
+	    ix = next;
+	}
+    }
+
+    private void touch(int cell)
+    {
+	if (cell != mHead) {
+	    unlinkLRU(cell);
+	    linkFirst(cell);
+	}
+    }
+
+    private void unlinkLRU(int cell)
+    {
+	int prev = mPrev[cell];
+	int next = mNext[cell];
+
+	if (prev < 0) {
+	    mHead = next;
+	} else {
+	    mNext[prev] = next;
+	}
+	if (next < 0) {
+	    mTail = prev;
+	} else {
+	    mPrev[next] = prev;
+	}
+    }
+
+    private void linkFirst(int cell)
+    {
+	mPrev[cell] = -1;
+	mNext[cell] = mHead;
+	if (mHead >= 0) {
+	    mPrev[mHead] = cell;
+	}
+	mHead = cell;
+	if (mTail < 0) {
+	    mTail = cell;
+	}
+    }
+}
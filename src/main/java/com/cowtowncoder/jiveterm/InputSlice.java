@@ -0,0 +1,68 @@
+/************************************************************
+
+Project:
+    JiveTerm.
+
+    A VT52/VT100/VT102-compliant telnet/terminal program
+    written in java.
+
+    (C) 1998-2001 Tatu Saloranta
+    tatu.saloranta@iki.fi.
+
+Module:
+    InputSlice.java
+
+    Part of a connection's input buffer, lent to Terminal.
+
+Last changed:
+    16-Oct-2026
+
+************************************************************/
+
+package com.cowtowncoder.jiveterm;
+
+/**
+ * Simple container that refers to a range of bytes in a buffer owned
+ * by someone else; used by JiveConnection to pass content bytes to
+ * Terminal without copying them (see JiveConnection.lendBytes()).
+ *
+ * The bytes are only lent: the owner of the buffer may overwrite them
+ * once the slice is given back, and the borrower is never to modify
+ * them.
+ */
+
+final class
+InputSlice
+{
+    private byte[] mBuffer = null;
+    private int mStart = 0, mEnd = 0;
+
+    public InputSlice() { }
+
+    public void set(byte[] buf, int start, int len)
+    {
+	mBuffer = buf;
+	mStart = start;
+	mEnd = start + len;
+    }
+
+    public void clear()
+    {
+	mBuffer = null;
+	mStart = mEnd = 0;
+    }
+
+    public byte[] getBuffer() { return mBuffer; }
+
+    /**
+     * Returns the index of the first byte of the slice.
+     */
+    public int getStart() { return mStart; }
+
+    /**
+     * Returns the index after the last byte of the slice.
+     */
+    public int getEnd() { return mEnd; }
+
+    public int getLength() { return mEnd - mStart; }
+}
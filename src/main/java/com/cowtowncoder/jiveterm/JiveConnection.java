@@ -16,10 +16,34 @@ Description:
     connections (currently ssh and telnet - connections).
 
 Last changed:
-  23-Sep-2001, TSa
+  16-Oct-2026
 
 Changes:
 
+  16-Oct-2026:
+    Bps-limit delays can be computed for a number of bytes
+    at a time, so that input need not be processed one byte
+    at a time.
+    Content bytes are lent to Terminal as slices of the
+    input buffer (lendBytes()), instead of being copied to
+    Terminal's own buffer (getBytes()).
+    Output is written by a separate writer thread; callers
+    (often the AWT event thread) just append to a buffer.
+    Small writes close to each other are sent together,
+    unless flushing is requested (keystrokes). Writer runs
+    on a SessionRuntime thread.
+    Bytes read are counted in SessionStats, if set.
+    Speed limit is now a token bucket (BandwidthShaper) that
+    works on whole reads/writes, instead of maintainBpsLimit()
+    being called for every byte; can also limit sending.
+    Output buffer is guarded by a ReentrantLock instead of a
+    monitor, so that the writer waiting for output does not
+    pin the carrier when run on a virtual thread.
+    When the server stops reading and unsent output reaches
+    MAX_PENDING_OUTPUT, only the AWT event thread gets its
+    output dropped (and the user is warned, via
+    outputDropped()); other callers wait for the writer.
+
 **************************************/
 
 package com.cowtowncoder.jiveterm;
@@ -27,6 +51,10 @@ package com.cowtowncoder.jiveterm;
 import java.net.*;
 import java.io.*;
 import java.awt.Dimension;
+import java.awt.EventQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 public abstract class JiveConnection
     implements Runnable
@@ -35,38 +63,60 @@ public abstract class JiveConnection
     public final static int OUT_BUFFER_SIZE = 4096;
 
     // Buffering; input buffer.
-    private final byte[] mInputBuffer = new byte[IN_BUFFER_SIZE];
-    private int mInputPtr, mInputSize;
+    protected final byte[] mInputBuffer = new byte[IN_BUFFER_SIZE];
+    protected int mInputPtr, mInputSize;
+
+    /* How long (in msecs) the writer waits for more output before
+     * sending, unless flushing was requested:
+     */
+    public final static int DEFAULT_COALESCE_DELAY = 5;
 
-    // Buffering; output buffer:
-    private final Object mOutputLock = new Object();
+    /* If the server does not read what we send, unsent output can
+     * only grow this big; after that, callers wait until the writer
+     * has taken it -- except for the AWT event thread, which must
+     * never block, and whose output is discarded instead.
+     */
+    public final static int MAX_PENDING_OUTPUT = 1024 * 1024;
+
+    /* Buffering; output buffer. Callers append to mOutputBuffer; the
+     * writer thread swaps it with mOutputBuffer2, and then writes out
+     * the contents without holding the lock. (A ReentrantLock, not a
+     * monitor: waiting on a monitor would pin the carrier thread, if
+     * the writer is a virtual thread.)
+     */
+    private final ReentrantLock mOutputLock = new ReentrantLock();
+    // Signalled when output is added, or the writer is to stop:
+    private final Condition mOutputReady = mOutputLock.newCondition();
+    // Signalled when the writer takes the output, or stops:
+    private final Condition mOutputSpace = mOutputLock.newCondition();
     private byte[] mOutputBuffer = new byte[OUT_BUFFER_SIZE];
     private byte[] mOutputBuffer2 = new byte[OUT_BUFFER_SIZE];
-    private int mOutputPtr, mOutputSize;
+    private int mOutputSize;
+    private boolean mOutputFlush = false; // should be sent right away?
+    private Thread mWriter = null; // null if not running
+    private int mCoalesceDelay = DEFAULT_COALESCE_DELAY;
+    // Has output been dropped since the writer last took output?
+    private boolean mOutputDropped = false;
 
     // Debug-related:
     public final static boolean DEBUG_CONNECTION = false;
 
+    // Statistics of the session using us, if any:
+    protected SessionStats mStats = null;
+
     /* Stuff required by slow-down modes (used to simulate VT-terms that
      * have fixed rate connection to main-frames, 9600 bps etc). Not very
-     * useful, but sometimes interesting to see... 
-     */
-    private int mBpsLimit; /* If > 0, BPS to limit our input to. Used to
-			   * simulate actual serial line connected (VT)
-			   * terminals (mostly for fun, VT-animations etc)
-			   */
-    private double mBpsLimitTime = 0.0;
-    private final static long mBpsMinWait = 5; // Smallest delay we are to wait,
-    private final static long mBpsWaitOverhead = 2; // Just a guess, that's all
-    // (in milliseconds)
-    private double mBpsWaitPerChar = 0.0;// Time (in msecs) each char takes
-    private int mBpsMaxCharsPerRead = 20; // Max chars in each loop to read
+     * useful, but sometimes interesting to see... Null when there's no
+     * limit:
+     */
+    protected volatile BandwidthShaper mInputShaper = null;
+    private volatile BandwidthShaper mOutputShaper = null;
 
     // Base class construction:
     public JiveConnection()
     {
 	mInputSize = mOutputSize = 0;
-	mInputPtr = mOutputPtr = 0;
+	mInputPtr = 0;
     }
 
 /***** Simple set-/get-functions: *****/
@@ -74,6 +124,43 @@ public abstract class JiveConnection
     // Only really used in telnet-mode...
     public void setSendNAWS(boolean x);
 
+    /**
+     * Method for setting how long (in msecs) output not explicitly
+     * flushed may be delayed, to be sent together with output that
+     * follows it. 0 means that everything is sent as soon as possible.
+     */
+    public void setCoalesceDelay(int msecs)
+    {
+	mOutputLock.lock();
+	try {
+	    mCoalesceDelay = (msecs < 0) ? 0 : msecs;
+	    mOutputReady.signal();
+	} finally {
+	    mOutputLock.unlock();
+	}
+    }
+
+    public void setStats(SessionStats stats) { mStats = stats; }
+
+    /**
+     * Method for limiting the speed of the connection to that of a
+     * serial line of given speed.
+     *
+     * @param bps Speed in bits per second; 0 for no limit
+     * @param limitOutput Whether data sent is limited too, or just
+     *   the data received
+     */
+    public void setSpeed(int bps, boolean limitOutput)
+    {
+	if (bps < 1) {
+	    mInputShaper = null;
+	    mOutputShaper = null;
+	} else {
+	    mInputShaper = new BandwidthShaper(bps);
+	    mOutputShaper = limitOutput ? new BandwidthShaper(bps) : null;
+	}
+    }
+
 /***** Connection initialization/close: ********/
 
     public boolean connect() throws Exception;
@@ -87,7 +174,9 @@ public abstract class JiveConnection
     /* When this is called, someone else has already closed the
      * connection, so we need not do much, mostly just mark connection
      * as closed. If the JiveTerm instance itself is calling
-     * us, we need not even inform it about disconnect...
+     * us, we need not even inform it about disconnect... Also called
+     * by SessionRuntime when the input ends, so may be called for a
+     * connection already closed.
      */
     public void informDisconnect(boolean inform_master);
 
@@ -102,20 +191,31 @@ public abstract class JiveConnection
      * useful) character manipulations have been done (on telnet,
      * changing line-feeds to be single character, not NVT-linefeed)
      *
-     * @param result Byte array in which the read in content data is
-     *   returned
+     * Bytes are not copied; instead, the slice is set to refer to
+     * the bytes in the connection's own buffer. The bytes are only
+     * lent to the caller: they stay valid until the next call, which
+     * gives them back (and after which they may be overwritten).
+     *
+     * @param slice Slice to set to refer to the content bytes; always
+     *   at least 1 byte
      *
-     * @return Number of bytes read in; always at least 1, except
-     *   if the connection has been closed (in which case -1 is
-     *   returned)
+     * @return True if the slice was set; false if the connection
+     *   has been closed
      */
-    public int getBytes(byte[] result);
+    public abstract boolean lendBytes(InputSlice slice);
 
     protected boolean getMoreInput()
     {
+	/* With a speed limit, input is read in small chunks, each of which
+	 * is then delayed as needed:
+	 */
+	BandwidthShaper shaper = mInputShaper;
+	int max = (shaper == null) ? mInputBuffer.length :
+	    Math.min(shaper.getChunkSize(), mInputBuffer.length);
+
 	while (true) {
 	    try {
-		mInputSize = readBytes(mInputBuffer);
+		mInputSize = readBytes(mInputBuffer, max);
 	    } catch (InterruptedIOException ie) {
 		// Can we be interrupted? If so, let's loop:
 		/* Hmmh. Here we _SHOULD_ check if whoever interrupted us
@@ -129,71 +229,297 @@ public abstract class JiveConnection
 		mInputSize = 0;
 	    }
 	    mInputPtr = 0;
+	    if (mStats != null && mInputSize > 0) {
+		mStats.addInput(SessionStats.BYTES_READ, mInputSize);
+	    }
+	    if (shaper != null && mInputSize > 0) {
+		shaper.acquire(mInputSize);
+	    }
 
 	    // Connection closed?
 	    return (mInputSize > 0);
 	}
     }
 
-    /**
-     * Method used to handle slow-down due to bps constraints (if
-     * we are restricting bps). The limit is only applied to downstream
-     * traffic, assuming that's where most data goes.
-     */
-    protected void maintainBpsLimit()
-    {
-	double now = (double) System.currentTimeMillis();
-	
-	mBpsLimitTime += mBpsWaitPerChar;
-	if (now > mBpsLimitTime)
-	    mBpsLimitTime = now + mBpsWaitPerChar;
-	
-	int delay = (int) (mBpsLimitTime - now - mBpsWaitOverhead);
-	
-	if (delay >= mBpsMinWait) {
-	    try {
-		Thread.sleep(delay);
-	    } catch (InterruptedException ie) { }
-	}
-    }
-
     /* This function simply returns the next available byte without
      * processing it in any way. Used when reading Telnet-codes.
      * For this reason, echoed chars are _NOT_ multiplexed in here;
      * they might mess up the codes otherwise.
      */
-    private byte getNextRawByte()
+    protected byte getNextRawByte()
 	throws IOException
     {
 	if (mInputPtr >= mInputSize) {
-	    if (!getMoreBytes()) {
+	    if (!getMoreInput()) {
 		throw new IOException("END-OF-CONNECTION");
 	    }
 	}
-
-	/* Bps-delay checks: */
-	if (mBpsLimit > 0) {
-	    maintainBpsLimit();
-	}
-      
 	return mInputBuffer[mInputPtr++];
     }
 
     /**
      * This is the method that actually reads in byte(s) from
-     * the open connection.
+     * the open connection; at most given number of bytes. Called by
+     * {@link #getMoreInput}, which limits the length to the size of
+     * the next chunk when there is a speed limit.
+     *
+     * @return Number of bytes read; -1 (or 0) if the connection has
+     *   been closed
      */
-    private int readBytes(byte[] buffer) throws IOException;
+    protected abstract int readBytes(byte[] buffer, int length)
+	throws IOException;
 
 /**** Then the functions for sending data to the server: ******/
 
-    public synchronized boolean sendByte(byte x, boolean flush);
-    public synchronized boolean sendBytes(byte [] x, boolean flush)
+    /* Data is not sent by the calling thread; it's only added to the
+     * output buffer, and the writer thread sends it. So these normally
+     * don't block; only if the server has not been reading what we
+     * send (see MAX_PENDING_OUTPUT) do callers other than the AWT
+     * event thread wait. Return false if the connection is not open,
+     * or if the output had to be dropped.
+     */
+
+    public final boolean sendByte(byte x, boolean flush)
+    {
+	boolean report;
+
+	mOutputLock.lock();
+	try {
+	    if (reserveOutput(1)) {
+		mOutputBuffer[mOutputSize++] = x;
+		outputAdded(flush);
+		return true;
+	    }
+	    report = reportDropped();
+	} finally {
+	    mOutputLock.unlock();
+	}
+	if (report) {
+	    outputDropped();
+	}
+	return false;
+    }
+
+    public final boolean sendBytes(byte [] x, boolean flush)
     {
 	return sendBytes(x, 0, x.length, flush);
     }
+
     public final boolean sendBytes(byte [] x, int offset, int length,
-				   boolean flush);
+				   boolean flush)
+    {
+	boolean report;
+
+	mOutputLock.lock();
+	try {
+	    if (reserveOutput(length)) {
+		System.arraycopy(x, offset, mOutputBuffer, mOutputSize, length);
+		mOutputSize += length;
+		outputAdded(flush);
+		return true;
+	    }
+	    report = reportDropped();
+	} finally {
+	    mOutputLock.unlock();
+	}
+	if (report) {
+	    outputDropped();
+	}
+	return false;
+    }
+
+    /**
+     * Method called (without locks held) when output from the AWT
+     * event thread (keystrokes, pastes) had to be dropped, because
+     * the server has not been reading what we send. Called once per
+     * such stall, not for every write dropped. Subclasses show the
+     * warning to the user; by default it's just printed out.
+     */
+    protected void outputDropped()
+    {
+	doError("Warning: server is not reading input; input dropped.");
+    }
+
+    /**
+     * This is the method that actually writes given bytes to the
+     * open connection (and flushes them); called by the writer thread.
+     */
+    protected abstract void writeBytes(byte[] buffer, int offset, int length)
+	throws IOException;
+
+    /**
+     * Method subclasses call to start the writer thread, once the
+     * connection is open.
+     */
+    protected void startWriter()
+    {
+	mOutputLock.lock();
+	try {
+	    mOutputSize = 0;
+	    mOutputFlush = false;
+	    mWriter = SessionRuntime.getInstance().newThread("JiveTerm writer",
+							      this);
+	    mWriter.start();
+	} finally {
+	    mOutputLock.unlock();
+	}
+    }
+
+    /**
+     * Method subclasses call to stop the writer thread when the
+     * connection is closed; output not yet sent is discarded. Also
+     * called by SessionRuntime when the session ends; calling it
+     * again is harmless.
+     */
+    protected void stopWriter()
+    {
+	mOutputLock.lock();
+	try {
+	    mWriter = null;
+	    mOutputSize = 0;
+	    mOutputReady.signal();
+	    mOutputSpace.signalAll();
+	} finally {
+	    mOutputLock.unlock();
+	}
+    }
+
+    /**
+     * The writer thread; sends whatever is in the output buffer.
+     */
+    public void run()
+    {
+	Thread me = Thread.currentThread();
+
+	try {
+	    while (true) {
+		byte[] buf;
+		int len;
+
+		mOutputLock.lock();
+		try {
+		    while (mOutputSize == 0 && mWriter == me) {
+			mOutputReady.await();
+		    }
+		    /* Unless asked to flush, let's wait a bit for more; this
+		     * way replies consisting of multiple writes go out in
+		     * one packet:
+		     */
+		    long left = TimeUnit.MILLISECONDS.toNanos(mCoalesceDelay);
+		    while (!mOutputFlush && mWriter == me && left > 0L) {
+			left = mOutputReady.awaitNanos(left);
+		    }
+		    if (mWriter != me) {
+			return;
+		    }
+		    buf = mOutputBuffer;
+		    len = mOutputSize;
+		    mOutputBuffer = mOutputBuffer2;
+		    mOutputBuffer2 = buf;
+		    mOutputSize = 0;
+		    mOutputFlush = false;
+		    mOutputDropped = false;
+		    mOutputSpace.signalAll();
+		} finally {
+		    mOutputLock.unlock();
+		}
+		BandwidthShaper shaper = mOutputShaper;
+		if (shaper == null) {
+		    writeBytes(buf, 0, len);
+		} else {
+		    writeShaped(shaper, buf, len);
+		}
+	    }
+	} catch (InterruptedException ie) {
+	    // Ok, we are being killed, it seems...
+	} catch (IOException ioe) {
+	    /* Connection is probably broken; reading side will notice
+	     * that too, and handle it:
+	     */
+	    if (DEBUG_CONNECTION) {
+		doError("Error: writing to connection failed: "+ioe);
+	    }
+	}
+	mOutputLock.lock();
+	try {
+	    if (mWriter == me) {
+		mWriter = null;
+		mOutputSpace.signalAll();
+	    }
+	} finally {
+	    mOutputLock.unlock();
+	}
+    }
+
+    // Output is sent in small chunks, each delayed as needed:
+    private void writeShaped(BandwidthShaper shaper, byte[] buf, int len)
+	throws IOException
+    {
+	int chunk = shaper.getChunkSize();
+	for (int offset = 0; offset < len; offset += chunk) {
+	    int count = Math.min(chunk, len - offset);
+	    shaper.acquire(count);
+	    writeBytes(buf, offset, count);
+	}
+    }
+
+    /* Makes room for given number of bytes in the output buffer, if
+     * possible; waits for the writer to take the output, if there's
+     * too much of it already (unless called by the AWT event thread).
+     * Needs to be called with mOutputLock held.
+     */
+    private boolean reserveOutput(int length)
+    {
+	if (mWriter == null) {
+	    return false;
+	}
+	/* A single write bigger than the limit is let through once the
+	 * buffer is empty; otherwise it could never be sent:
+	 */
+	while (mOutputSize > 0 && (mOutputSize + length) > MAX_PENDING_OUTPUT) {
+	    if (EventQueue.isDispatchThread()) {
+		return false;
+	    }
+	    try {
+		mOutputSpace.await();
+	    } catch (InterruptedException ie) {
+		Thread.currentThread().interrupt();
+		return false;
+	    }
+	    if (mWriter == null) {
+		return false;
+	    }
+	}
+	int size = mOutputSize + length;
+	if (size > mOutputBuffer.length) {
+	    int newLen = mOutputBuffer.length * 2;
+	    byte[] old = mOutputBuffer;
+	    mOutputBuffer = new byte[(newLen < size) ? size : newLen];
+	    System.arraycopy(old, 0, mOutputBuffer, 0, mOutputSize);
+	}
+	return true;
+    }
+
+    /* Called with mOutputLock held, when a write was not accepted;
+     * returns true if the user should be told about it (output
+     * dropped, and not reported since the writer last took output).
+     */
+    private boolean reportDropped()
+    {
+	if (mWriter == null || mOutputDropped) {
+	    return false;
+	}
+	mOutputDropped = true;
+	return true;
+    }
+
+    private void outputAdded(boolean flush)
+    {
+	if (flush) {
+	    mOutputFlush = true;
+	}
+	mOutputReady.signal();
+    }
 
     // Debugging:
     private void doError(String s)
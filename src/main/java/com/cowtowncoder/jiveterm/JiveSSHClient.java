@@ -16,10 +16,16 @@ Description:
     MindBright's SSH-implementation (MindTerm).
 
 Last changed:
-  27-Apr-99, TSa
+  16-Oct-2026
 
 Changes:
 
+  16-Oct-2026:
+    Output goes to Terminal via a ByteRing (instead of a
+    piped stream); bytes are passed as is, without converting
+    them to a String and back.
+    SSH initialization runs on a SessionRuntime thread.
+
 **************************************/
 
 package com.cowtowncoder.jiveterm;
@@ -72,7 +78,7 @@ implements
   protected int port;
   protected InetAddress hostAddress;
 
-  protected OutputStream toTerminal;
+  protected ByteRing toTerminal;
 
   private static boolean initDone = false;
 
@@ -100,7 +106,7 @@ implements
     if (!initDone) {
       // It takes some time to initialize the generator it seems, so
       // let's kick a thread running:
-      Thread tmp = new Thread() {
+      Runnable init = new Runnable() {
 	public void run() {
 	  System.err.println("DEBUG: initing ssh...");
 	  long now = System.currentTimeMillis();
@@ -110,16 +116,14 @@ implements
 	  markInitDone();
 	}
       };
-      // Let's not slow the whole thing down...
-      tmp.setPriority(JiveTerm.JIVESSH_PRIORITY);
-      tmp.start();
+      SessionRuntime.getInstance().newThread("JiveTerm SSH init", init).start();
     }
   }
 
   public void
-  linkTerminal(OutputStream o)
+  linkTerminal(ByteRing r)
   {
-    toTerminal = o;
+    toTerminal = r;
   }
 
   public boolean
@@ -167,7 +171,11 @@ implements
   public void
   stdoutWriteString(byte [] b)
   {
-      stdoutWriteString(new String(b));
+    try {
+      toTerminal.write(b);
+    } catch (IOException ie) {
+      System.err.println("Error on JiveSSH.stdoutWriteString: "+ie);
+    }
   }
 
   public void
@@ -179,7 +187,6 @@ Display.ssh_rec = System.currentTimeMillis();
     //System.err.println(" <- "+(System.currentTimeMillis() % 1000));
     try {
       toTerminal.write(str.getBytes());
-      toTerminal.flush();
     } catch (IOException ie) {
       System.err.println("Error on JiveSSH.stdoutWriteString: "+ie);
     }
@@ -190,7 +197,11 @@ Display.ssh_rec = System.currentTimeMillis();
   public void
   stderrWriteString(byte [] b)
   {
-      stderrWriteString(new String(b));
+    try {
+      toTerminal.write(b);
+    } catch (IOException ie) {
+      System.err.println("Error on JiveSSH.stderrWriteString: "+ie);
+    }
   }
 
   public void
@@ -199,7 +210,6 @@ Display.ssh_rec = System.currentTimeMillis();
     //System.err.println("DEBUG: JiveSSH, stderrW('"+str+"')");
     try {
       toTerminal.write(str.getBytes());
-      toTerminal.flush();
     } catch (IOException ie) {
       System.err.println("Error on JiveSSH.stderrWriteString: "+ie);
     }
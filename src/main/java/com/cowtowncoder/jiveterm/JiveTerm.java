@@ -18,7 +18,7 @@ Description:
     and Display/Terminal classes.
 
 Last changed:
-  28-Aug-2000, TSa
+  16-Oct-2026
 
 Changes:
 
@@ -30,6 +30,26 @@ Changes:
     Now adds iconified/deiconified - listeners; Win95
     focus-handling breaks otherwise. The idea is gotten
     from MindTerm (thanks Mats) :-)
+  16-Oct-2026:
+    Scrollback buffer size can be set with 'scrollback'
+    parameter. Archived scrollback is discarded when
+    the session is closed; its maximum size can be set
+    with 'archivesize' parameter. Maximum frame rate can
+    be set with 'fps' parameter. Text is decoded as UTF-8 unless
+    'charset' parameter says otherwise. Output from the
+    server can be recorded to a file ('record' parameter).
+    Sessions are run by SessionRuntime, and stopped by
+    cancelling them; no more Thread.stop().
+    Speed selected from the speed menu is kept over
+    reconnects, and can be applied to sending too.
+    Implements TerminalListener, which Terminal uses for
+    calling back (instead of a reference to the applet).
+    Site 'local:' (optionally followed by a command) runs
+    a local process on a PtyConnection instead.
+    A recorded session can be replayed to the display
+    ('replay' and 'replayspeed' parameters, or '-replay'
+    on the command line); replay speed can be toggled
+    from the options menu.
 
 **************************************/
 
@@ -180,7 +200,9 @@ extends Menu
   };
 
   protected CheckboxMenuItem [] menus;
+  protected CheckboxMenuItem limitOutput;
   JiveTerm master;
+  private int speed = 0;
 
   public SpeedMenu(JiveTerm m)
   {
@@ -202,7 +224,8 @@ extends Menu
 	    Object x = e.getItemSelectable();
 	    for (int r = 0; r < menus.length; r++) {
 	      if (x == menus[r]) {
-		master.setSpeed(speeds[r]);
+		speed = speeds[r];
+		master.setSpeed(speed, limitOutput.getState());
 	      } else {
 		menus[r].setState(false);
 	      }
@@ -212,6 +235,16 @@ extends Menu
       });
       add(foop);
     }
+
+    // Real serial lines are slow both ways; by default only input is:
+    addSeparator();
+    limitOutput = new CheckboxMenuItem("Limit sending too", false);
+    limitOutput.addItemListener(new ItemListener() {
+      public void itemStateChanged(ItemEvent e) {
+	master.setSpeed(speed, limitOutput.getState());
+      }
+    });
+    add(limitOutput);
   }
 }
 
@@ -227,7 +260,7 @@ of the menus.
 final public class
 JiveTerm
 extends Applet
-implements LayoutManager
+implements LayoutManager, TerminalListener
 {
   Panel sitePanel = null;
 	/* Panel that contains connect-button etc */
@@ -246,10 +279,27 @@ implements LayoutManager
 	/* Thread that updates the display. */
   public Terminal terminal = null;
 	/* Terminal object that communicates with the server */
+  private SessionRuntime.Session mSession = null;
+	/* Runs the terminal (reads and handles server output) */
 
   //private boolean SSHMode = true; // SSH or telnet?
   private boolean SSHMode = false; // SSH or telnet?
   private JiveConnection connection = null;
+
+  /* Site that means 'run a local process' (rest of the site is the
+   * command to run; the user's shell if none):
+   */
+  public final static String LOCAL_SITE = "local:";
+  private boolean mUtf8 = true; // decode text from server as UTF-8?
+  private String mRecordPath = null; // file to record sessions to, if any
+  private int mSpeed = 0; // bps limit (from speed menu), 0 for none
+  private boolean mSpeedOutput = false; // also limit what we send?
+  private String mReplayPath = null; // recording to replay when started
+  private boolean mReplayMaxSpeed = false; // replay as fast as possible?
+  /* Replay in progress (if any), with the terminal and thread running it: */
+  private SessionReplay mReplay = null;
+  private Terminal mReplayTerminal = null;
+  private Thread mReplayThread = null;
   //private Socket connection = null; /* TCP-connection to/from server (telnet). */
 
   /***** Menus we'll have (as an application / stand-alone applet). ****/
@@ -263,6 +313,7 @@ implements LayoutManager
 
   protected CheckboxMenuItem optionsMenuWrap, optionsMenuEcho, optionsMenuDesc;
   protected CheckboxMenuItem optionsMenuEndOnInput, optionsMenuEndOnOutput;
+  protected CheckboxMenuItem optionsMenuReplayMax;
 
   protected CheckboxMenuItem displayMenuBell;
   protected MenuItem displayMenuRedraw, displayMenuReset;
@@ -293,9 +344,6 @@ implements LayoutManager
   public final static Dimension DEF_SIZE = new Dimension(640, 480);
   public final static Color defPanelBackground = Color.lightGray;
 
-  public final static int JIVESSH_PRIORITY = Thread.MIN_PRIORITY;
-  public final static int FONTLOADER_PRIORITY = Thread.MIN_PRIORITY;
-
   /***** Mode-flags: *****/
   private boolean modeNewline = false; // Will be reset by Display/Terminal
 
@@ -321,6 +369,57 @@ implements LayoutManager
 	if ((str = getParameter("port")) != null) {
 	  portText.setText(str);
 	}
+	if ((str = getParameter("fps")) != null) {
+	  try {
+	    display.setMaxFrameRate(Integer.parseInt(str.trim()));
+	  } catch (NumberFormatException nfe) {
+	    doWarning("Warning: invalid frame rate '"+str+"'.\n");
+	  }
+	}
+	if ((str = getParameter("scrollback")) != null) {
+	  try {
+	    display.setBufferLines(Integer.parseInt(str.trim()));
+	  } catch (NumberFormatException nfe) {
+	    doWarning("Warning: invalid scrollback size '"+str+"'.\n");
+	  }
+	}
+	if ((str = getParameter("archivesize")) != null) {
+	  try {
+	    display.setArchiveMaxSize(Long.parseLong(str.trim()) * 1024L * 1024L);
+	  } catch (NumberFormatException nfe) {
+	    doWarning("Warning: invalid scrollback archive size '"+str+"'.\n");
+	  }
+	}
+	if ((str = getParameter("charset")) != null) {
+	  str = str.trim();
+	  if (str.equalsIgnoreCase("utf-8") || str.equalsIgnoreCase("utf8")) {
+	    mUtf8 = true;
+	  } else if (str.equalsIgnoreCase("iso-8859-1")
+		     || str.equalsIgnoreCase("latin1")) {
+	    mUtf8 = false;
+	  } else {
+	    doWarning("Warning: unsupported charset '"+str+"'.\n");
+	  }
+	}
+	if ((str = getParameter("record")) != null && str.trim().length() > 0) {
+	  mRecordPath = str.trim();
+	}
+	if ((str = getParameter("replay")) != null && str.trim().length() > 0) {
+	  mReplayPath = str.trim();
+	}
+	if ((str = getParameter("replayspeed")) != null) {
+	  str = str.trim();
+	  if (str.equalsIgnoreCase("max")) {
+	    mReplayMaxSpeed = true;
+	  } else if (str.equalsIgnoreCase("original")) {
+	    mReplayMaxSpeed = false;
+	  } else {
+	    doWarning("Warning: invalid replay speed '"+str+"'.\n");
+	  }
+	}
+	if (optionsMenuReplayMax != null) {
+	  optionsMenuReplayMax.setState(mReplayMaxSpeed);
+	}
 
       // Also, no need to let user enter text before getting connected...
 	//display.requestFocus();
@@ -379,6 +478,13 @@ implements LayoutManager
 	      System.err.println("Warning: couldn't initialize JiveSSHClient: "+e);
 	  }
       }
+
+      // Replay is started only once, not whenever applet is restarted:
+      if (mReplayPath != null) {
+	String path = mReplayPath;
+	mReplayPath = null;
+	startReplay(new File(path));
+      }
     }
   
   public void
@@ -395,6 +501,7 @@ implements LayoutManager
   public void
   destroy()
   {
+    stopReplay();
     if (connection != null) {
       doDisconnect(true);
     }
@@ -421,6 +528,13 @@ System.err.print("DEBUG: setSize(dim) called, x="+d.width+", y="+d.height+".\n")
     String [] [] p = {
       { "site", "string", "site to connect to" },
       { "port", "0-65535", "port number to connect to" },
+      { "scrollback", "int", "number of lines to keep in scrollback buffer" },
+      { "archivesize", "int", "maximum size of on-disk scrollback, in megabytes (0 for no limit)" },
+      { "fps", "1-200", "maximum number of screen updates per second" },
+      { "charset", "utf-8/iso-8859-1", "encoding of the text from server" },
+      { "record", "file name", "file to record the session to" },
+      { "replay", "file name", "recorded session to replay when started" },
+      { "replayspeed", "original/max", "speed to replay the recording at" },
     };
     return p;
   }
@@ -437,8 +551,21 @@ System.err.print("DEBUG: setSize(dim) called, x="+d.width+", y="+d.height+".\n")
     //f.setSize(DEF_SIZE);
     
     app.params = new Hashtable();
+
+    if (args.length > 0 && args[0].equals("-replay")) {
+      if (args.length < 2 || args.length > 3) {
+	app.doError("Usage: [java] JiveTerm -replay file [original | max].\n");
+      }
+      app.params.put("replay", args[1]);
+      if (args.length > 2) {
+	app.params.put("replayspeed", args[2]);
+      }
+      args = new String[0];
+    }
     
     switch (args.length) {
+    case 3:
+      app.params.put("scrollback", args[2]);
     case 2:
       app.params.put("port", args[1]);
     case 1:
@@ -446,7 +573,7 @@ System.err.print("DEBUG: setSize(dim) called, x="+d.width+", y="+d.height+".\n")
     case 0:
       break;
     default:
-      app.doError("Usage: [java] JiveTerm [host] [port].\n");
+      app.doError("Usage: [java] JiveTerm [host | local:[command]] [port] [scrollback lines].\n");
     }
     
     app.isApplet = false;
@@ -472,6 +599,8 @@ System.err.print("DEBUG: setSize(dim) called, x="+d.width+", y="+d.height+".\n")
       doWarning("Trying to connect when already connected!");
       return false;
     }
+    // Replay would just get mixed with the session's output:
+    stopReplay();
 
     /* A quick hack; let's default to localhost: */
     if (dest == null || dest.length() == 0) {
@@ -484,8 +613,15 @@ System.err.print("DEBUG: setSize(dim) called, x="+d.width+", y="+d.height+".\n")
     // procedure is to default to linemode for these non-telnet
     // services.
     // SSH acts much like a standard telnet.
-    
-    if (SSHMode || port == Connection.TELNET_PORT) {
+    // Local processes on a pty get echo from the tty; with pipes,
+    // there's no tty to echo or to edit lines.
+
+    boolean local = dest.startsWith(LOCAL_SITE);
+    if (local) {
+      boolean pty = PtyConnection.isPtySupported();
+      setEcho(pty ? 0 : 1, false);
+      setLinemode(!pty);
+    } else if (SSHMode || port == Connection.TELNET_PORT) {
       setEcho(0, false);
       setLinemode(false);
     } else {
@@ -503,10 +639,25 @@ System.err.print("DEBUG: setSize(dim) called, x="+d.width+", y="+d.height+".\n")
     cursor_comp.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
     
     try {
-      connection = new Connection(this, dest, port, SSHMode,
-	       (!SSHMode && port == Connection.TELNET_PORT), !SSHMode);
+      if (local) {
+	terminal = connectLocal(dest.substring(LOCAL_SITE.length()));
+      } else {
+	connection = new Connection(this, dest, port, SSHMode,
+		 (!SSHMode && port == Connection.TELNET_PORT), !SSHMode);
 
-      terminal = connection.connect();
+	terminal = connection.connect();
+      }
+      terminal.setListener(this);
+      terminal.setUtf8(mUtf8);
+      terminal.setSpeed(mSpeed, mSpeedOutput);
+      if (mRecordPath != null) {
+	try {
+	  terminal.startRecording(new File(mRecordPath));
+	} catch (IOException ie) {
+	  doWarning("Warning: can not record to '"+mRecordPath+"': "
+		    +ie.getMessage()+"\n");
+	}
+      }
 
     } catch (Error e) {
 
@@ -568,28 +719,12 @@ System.err.print("DEBUG: setSize(dim) called, x="+d.width+", y="+d.height+".\n")
     validate();
     doLayout(); // Is this necessary?
     
-    /* Then we need an object to catch the BS server sends us, as well as
-     * connect it to the display.
+    /* Then we need something to read the BS server sends us; terminal
+     * passes it to the display directly (and display has its own
+     * renderer thread):
      */
-    
-    /* We also need to make sure output display gets updated regularly... */
-    displayThread = new Thread(display);
-    
-    /* We need to make one pipe for communication between terminal and
-     * display (same for both ssh and telnet):
-     */
-    try {
-      PipedInputStream pi1 = new PipedInputStream();
-      PipedOutputStream po1 = new PipedOutputStream(pi1);
-      display.setInput(new BufferedInputStream(pi1));
-      terminal.setPipe(new BufferedOutputStream(po1));
-    } catch (IOException e) {
-      doError("Can't open and/or connect 2 pipes needed in inter-thread communication!");
-    }
-       
-    /* So, let's kick start the threads in question. */
-    displayThread.start();
-    terminal.start();
+    mSession = SessionRuntime.getInstance().startSession("JiveTerm "+dest,
+							 terminal, connection);
     
     /* Now we better make the text field get the focus, as well. */
     updateFocus();
@@ -597,6 +732,102 @@ System.err.print("DEBUG: setSize(dim) called, x="+d.width+", y="+d.height+".\n")
     return true;
   }
 
+  /* Starts given command (split at white space; the user's shell if
+   * empty) as a local process, sized to the window:
+   */
+  private Terminal
+  connectLocal(String command)
+    throws Exception
+  {
+    StringTokenizer st = new StringTokenizer(command);
+    String[] args = new String[st.countTokens()];
+    for (int i = 0; i < args.length; ++i) {
+      args[i] = st.nextToken();
+    }
+    PtyConnection pty = new PtyConnection(this, args);
+    pty.sendNAWS(-1, -1, false); // size to start the process with
+    pty.connect();
+    connection = pty;
+    return new Terminal(display);
+  }
+
+  /* Replays given recording (see SessionRecorder) to the display, on
+   * a thread of its own; nothing is sent anywhere, and keys are not
+   * passed to the replay:
+   */
+  private void
+  startReplay(File path)
+  {
+    stopReplay();
+    final SessionReplay replay;
+    try {
+      replay = new SessionReplay(path, mReplayMaxSpeed);
+    } catch (IOException ie) {
+      doWarning("Warning: can not replay '"+path+"': "+ie.getMessage()+"\n");
+      return;
+    }
+    final Terminal t = new Terminal(display);
+    t.setListener(this);
+    t.setUtf8(mUtf8);
+    Thread thread = SessionRuntime.getInstance().newThread("JiveTerm replay "+path,
+							  new Runnable() {
+      public void run() {
+	t.replaySession(replay);
+	replayDone(replay);
+      }
+    });
+    synchronized (this) {
+      mReplay = replay;
+      mReplayTerminal = t;
+      mReplayThread = thread;
+    }
+    thread.start();
+  }
+
+  private synchronized void
+  replayDone(SessionReplay replay)
+  {
+    if (mReplay == replay) {
+      mReplay = null;
+      mReplayTerminal = null;
+      mReplayThread = null;
+    }
+  }
+
+  /* Stops the replay in progress, if any; returns right away (the
+   * replay thread notices soon after):
+   */
+  private void
+  stopReplay()
+  {
+    Terminal t;
+    Thread thread;
+    synchronized (this) {
+      t = mReplayTerminal;
+      thread = mReplayThread;
+      mReplay = null;
+      mReplayTerminal = null;
+      mReplayThread = null;
+    }
+    if (t != null) {
+      t.cancel();
+      thread.interrupt();
+    }
+  }
+
+  private void
+  setReplayMaxSpeed(boolean state)
+  {
+    SessionReplay replay;
+    synchronized (this) {
+      mReplayMaxSpeed = state;
+      replay = mReplay;
+    }
+    if (replay != null) {
+      replay.setMaxSpeed(state);
+    }
+  }
+
   public boolean
   doDisconnect(boolean suppress_errors)
   {
@@ -606,7 +837,6 @@ System.err.print("DEBUG: setSize(dim) called, x="+d.width+", y="+d.height+".\n")
     }
 
     Connection tmp_conn = connection;
-    Terminal tmp_term = terminal;
 
     // Let's mark the connection as closed, as the first thing:
     terminal = null;
@@ -653,28 +883,26 @@ System.err.print("DEBUG: setSize(dim) called, x="+d.width+", y="+d.height+".\n")
      * in some other field...
      */
     siteText.requestFocus();
+
+    // Session is over; no need for the archived scrollback any more
+    display.closeScrollbackArchive();
     
-    /* Now... the order in which they are stopped may be important;
-     * if we stop the thread that is now executing... *grin*
+    /* Connection is closed, so the session notices it's done; this
+     * just makes sure it won't try to process anything more (and
+     * works even if we are called from the session itself):
      */
-    /* Shouldn't explicitly use stop(), as JDK1.2 doesn't have it? */
-    if (Thread.currentThread() == tmp_term) {
-      displayThread.stop();
-      tmp_term.stop();
-    } else {
-      tmp_term.stop();
-      displayThread.stop();
-    }
+    stopSession();
     return true;
   }
 
   public boolean
   informDisconnect()
   {
-    Terminal tmp_term = terminal;
-
-    // Let's mark the connection closed:
+    // Let's mark the connection closed (unless it was already):
     Connection c = connection;
+    if (c == null) {
+      return true;
+    }
     connection = null;
     terminal = null;
 
@@ -695,22 +923,21 @@ System.err.print("DEBUG: setSize(dim) called, x="+d.width+", y="+d.height+".\n")
     siteText.requestFocus();
 
     c.informDisconnect(false);
+    display.closeScrollbackArchive();
     
-    /* Now... the order in which they are stopped may be important;
-     * if we stop the thread that is now executing... *grin*
-     */
-    if (Thread.currentThread() == terminal) {
-      displayThread.stop();
-      tmp_term.stop();
-    } else {
-      tmp_term.stop();
-      displayThread.stop();
-      }
-    /* We'll never get past that one, as we just stopped our own
-     * execution. Neat?
-     */
+    stopSession();
     return true;
   }
+
+  private void
+  stopSession()
+  {
+    SessionRuntime.Session s = mSession;
+    mSession = null;
+    if (s != null) {
+      s.cancel();
+    }
+  }
   
   public void
     doQuit()
@@ -862,6 +1089,14 @@ System.err.print("DEBUG: setSize(dim) called, x="+d.width+", y="+d.height+".\n")
       });
       //optionsMenuEcho.setShortcut(new MenuShortcut(KeyEvent.VK_E));
 
+      optionsMenuReplayMax = new CheckboxMenuItem("Replay at full speed");
+      optionsMenuReplayMax.setState(mReplayMaxSpeed);
+      optionsMenuReplayMax.addItemListener(new ItemListener() {
+	public void itemStateChanged(ItemEvent e) {
+	  setReplayMaxSpeed(optionsMenuReplayMax.getState());
+	}
+      });
+
       emulationMenuVT = new Menu("VT-emulation");
       emulationMenuVT52 = new CheckboxMenuItem("VT52");
       emulationMenuVT100 = new CheckboxMenuItem("VT100");
@@ -898,6 +1133,7 @@ System.err.print("DEBUG: setSize(dim) called, x="+d.width+", y="+d.height+".\n")
       optionsMenu.add(optionsMenuEcho);
       optionsMenu.add(optionsMenuEndOnInput);
       optionsMenu.add(optionsMenuEndOnOutput);
+      optionsMenu.add(optionsMenuReplayMax);
 
       emulationMenu.add(emulationMenuVT);
       emulationMenu.add(emulationMenuSpeed);
@@ -1069,6 +1305,7 @@ System.err.print("DEBUG: setSize(dim) called, x="+d.width+", y="+d.height+".\n")
 	    return;
 
 	  }
+	  display.noteKeystroke();
 	  if (scrollOnInput)
 	    display.setBufferMode(false, true);
 	}
@@ -1080,6 +1317,7 @@ System.err.print("DEBUG: setSize(dim) called, x="+d.width+", y="+d.height+".\n")
 
 	  if (terminal == null)
 	    return;
+	  display.noteKeystroke();
 
 /*
 Display.ssh_key1 = System.currentTimeMillis();
@@ -1163,7 +1401,7 @@ Display.ssh_sent2 = System.currentTimeMillis();
 
       scrBar = new Scrollbar(Scrollbar.VERTICAL, 0,
 			     display.sizeInCharsH, 0,
-			     Display.BUFFER_LINES - display.sizeInCharsH);
+			     display.getBufferLines() - display.sizeInCharsH);
 
       scrBar.addAdjustmentListener(new AdjustmentListener() {
 	public void
@@ -1231,15 +1469,23 @@ Display.ssh_sent2 = System.currentTimeMillis();
   updateTitle()
   {
     if (terminal != null) {
-      String port = portText.getText();
-      if (port.length() > 0)
-	port = "port "+port;
-      else port = "(telnet)";
+      String site = siteText.getText();
+      String title;
+      if (site.startsWith(LOCAL_SITE)) {
+	String cmd = site.substring(LOCAL_SITE.length()).trim();
+	title = "Running "+((cmd.length() > 0) ? cmd : "shell")+" locally";
+      } else {
+	String port = portText.getText();
+	if (port.length() > 0)
+	  port = "port "+port;
+	else port = "(telnet)";
+	title = "Connected to "+site+", "+port;
+      }
       
       if (isApplet) {
-	showStatus("Connected to "+siteText.getText()+", "+port);
+	showStatus(title);
       } else {
-	mainFrame.setTitle("Connected to "+siteText.getText()+", "+port);
+	mainFrame.setTitle(title);
       }
       
       // FOO!
@@ -1469,10 +1715,12 @@ And some other layout-related funcs:
   }
 
   public void
-  setSpeed(int speed)
+  setSpeed(int speed, boolean output)
   {
+    mSpeed = speed;
+    mSpeedOutput = output;
     if (terminal != null)
-      terminal.setSpeed(speed);
+      terminal.setSpeed(speed, output);
   }
 
   private final void
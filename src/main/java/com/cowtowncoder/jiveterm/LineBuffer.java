@@ -0,0 +1,253 @@
+/************************************************************
+
+Project:
+    JiveTerm.
+
+    A VT52/VT100/VT102-compliant telnet/terminal program
+    written in java.
+
+    (C) 1998-2001 Tatu Saloranta
+    tatu.saloranta@iki.fi.
+
+Module:
+    LineBuffer.java
+
+    Circular store for the display lines (screen plus
+    scrollback buffer).
+
+Last changed:
+    16-Oct-2026
+
+************************************************************/
+
+package com.cowtowncoder.jiveterm;
+
+/**
+ * Class that contains all the lines Display has; both the ones
+ * visible on screen and the ones scrolled out (scrollback buffer).
+ *
+ * Lines are accessed using logical row numbers; row 0 is the oldest
+ * line still in the buffer. Lines are stored in a circular array,
+ * so that discarding the oldest line when the buffer is full
+ * ({@link #scrollUp}) is a constant-time operation, independent of
+ * the buffer capacity. Line objects are created lazily, when a row
+ * is first modified ({@link #get}), and recycled when they are
+ * scrolled out.
+ *
+ * The buffer is modified by the thread parsing the input, with the
+ * Display locked. Painting (paint() on the AWT thread) reads lines
+ * without that lock, so it uses {@link #peek}, which never modifies
+ * the buffer; at worst it sees a line that's just being changed, and
+ * the next frame will have the right one.
+ */
+
+final class
+LineBuffer
+{
+    /* Let's not allow silly values; at least one screenful is
+     * needed, plus hard limit just to prevent accidental OOMEs:
+     */
+    public final static int MIN_CAPACITY = 24;
+    public final static int MAX_CAPACITY = 1000000;
+
+    private final Display mDisplay;
+
+    private Display.DisplayLine[] mLines;
+
+    /* Returned by peek() for rows that have no line yet; never
+     * modified:
+     */
+    private final Display.DisplayLine mBlankLine;
+
+    /* Index (in mLines) of the logical row 0: */
+    private int mStart = 0;
+
+    /* Width of the lines to create: */
+    private int mWidth;
+
+    public LineBuffer(Display d, int capacity, int width)
+    {
+	mDisplay = d;
+	mWidth = width;
+	mLines = new Display.DisplayLine[checkCapacity(capacity)];
+	mBlankLine = new Display.DisplayLine(d, width);
+    }
+
+    private final static int checkCapacity(int capacity)
+    {
+	if (capacity < MIN_CAPACITY) {
+	    return MIN_CAPACITY;
+	}
+	if (capacity > MAX_CAPACITY) {
+	    return MAX_CAPACITY;
+	}
+	return capacity;
+    }
+
+    /* *** Simple accessors: *** */
+
+    public int getCapacity() { return mLines.length; }
+
+    private final int getIndex(int row)
+    {
+	int ix = mStart + row;
+	if (ix >= mLines.length) {
+	    ix -= mLines.length;
+	}
+	return ix;
+    }
+
+    /**
+     * Returns the line at specified logical row, creating it if
+     * necessary. To be used for modifying the line, with the Display
+     * locked.
+     */
+    public Display.DisplayLine get(int row)
+    {
+	int ix = getIndex(row);
+	Display.DisplayLine l = mLines[ix];
+
+	if (l == null) {
+	    l = new Display.DisplayLine(mDisplay, mWidth);
+	    mLines[ix] = l;
+	}
+	return l;
+    }
+
+    /**
+     * Returns the line at specified logical row for reading only; for
+     * rows that have no line yet, a shared empty line is returned.
+     * Has no side effects, so it can be called without the Display
+     * locked.
+     */
+    public Display.DisplayLine peek(int row)
+    {
+	Display.DisplayLine l = mLines[getIndex(row)];
+	return (l == null) ? mBlankLine : l;
+    }
+
+    /* *** Mutators: *** */
+
+    /**
+     * Method called when the buffer is full, and the oldest line
+     * needs to be discarded; all logical row numbers decrease by one.
+     * The discarded line is cleared and reused as the new last row.
+     */
+    public void scrollUp()
+    {
+	Display.DisplayLine l = mLines[mStart];
+
+	if (++mStart == mLines.length) {
+	    mStart = 0;
+	}
+	if (l != null) {
+	    l.clearLine();
+	    l.resetLineAttrs();
+	}
+    }
+
+    /**
+     * Method for moving lines between (and including) rows 'top' and
+     * 'bottom' up (if count is positive) or down (if negative) by
+     * count rows. Lines moved out of the range are moved to the
+     * other end of the range (ie. lines are rotated); caller is
+     * responsible for clearing them.
+     *
+     * Cost is proportional to the size of the range, not to the
+     * capacity of the buffer.
+     */
+    public void rotate(int top, int bottom, int count)
+    {
+	int len = bottom - top + 1;
+
+	if (len < 2) {
+	    return;
+	}
+	count %= len;
+	if (count < 0) {
+	    count += len;
+	}
+	if (count == 0) {
+	    return;
+	}
+
+	// Make sure all lines exist first, to keep things simple:
+	for (int i = 0; i < len; ++i) {
+	    get(top + i);
+	}
+	/* Rotation by three reversals; no temporary arrays needed as
+	 * this gets called for every scroll within scrolling region:
+	 */
+	reverse(top, top + count - 1);
+	reverse(top + count, bottom);
+	reverse(top, bottom);
+    }
+
+    private void reverse(int first, int last)
+    {
+	while (first < last) {
+	    int a = getIndex(first++);
+	    int b = getIndex(last--);
+	    Display.DisplayLine tmp = mLines[a];
+	    mLines[a] = mLines[b];
+	    mLines[b] = tmp;
+	}
+    }
+
+    /**
+     * Method for changing the capacity of the buffer. If the buffer
+     * shrinks, oldest lines are discarded.
+     *
+     * @param capacity New capacity (number of lines)
+     * @param usedRows Number of rows currently in use (last row in
+     *    use plus one)
+     *
+     * @return Number of oldest rows discarded (ie. how much logical
+     *    row numbers decrease)
+     */
+    public int setCapacity(int capacity, int usedRows)
+    {
+	capacity = checkCapacity(capacity);
+	if (capacity == mLines.length) {
+	    return 0;
+	}
+	int dropped = usedRows - capacity;
+	if (dropped < 0) {
+	    dropped = 0;
+	}
+	int copyCount = usedRows - dropped;
+	Display.DisplayLine[] newLines = new Display.DisplayLine[capacity];
+
+	for (int i = 0; i < copyCount; ++i) {
+	    newLines[i] = mLines[getIndex(dropped + i)];
+	}
+	mLines = newLines;
+	mStart = 0;
+	return dropped;
+    }
+
+    /**
+     * This method is called when the width of the terminal window
+     * changes; existing lines are resized, new ones will be created
+     * using the new width.
+     */
+    public void resize(int newWidth)
+    {
+	mWidth = newWidth;
+	mBlankLine.resize(newWidth);
+	for (int i = 0; i < mLines.length; ++i) {
+	    if (mLines[i] != null) {
+		mLines[i].resize(newWidth);
+	    }
+	}
+    }
+
+    public void markAttrs(CharAttrsTable table)
+    {
+	for (int i = 0; i < mLines.length; ++i) {
+	    if (mLines[i] != null) {
+		mLines[i].markAttrs(table);
+	    }
+	}
+    }
+}
@@ -0,0 +1,729 @@
+/************************************************************
+
+Project:
+    JiveTerm.
+
+    A VT52/VT100/VT102-compliant telnet/terminal program
+    written in java.
+
+    (C) 1998-2001 Tatu Saloranta
+    tatu.saloranta@iki.fi.
+
+Module:
+    MemoryScreen.java
+
+    Screen model that only keeps the contents in memory;
+    no AWT components, fonts or images.
+
+Last changed:
+    16-Oct-2026
+
+************************************************************/
+
+package com.cowtowncoder.jiveterm;
+
+import java.awt.Color;
+
+/**
+ * {@link ScreenModel} implementation that keeps the screen contents
+ * (chars, attributes, line effects), cursor, scrolling region, tab stops
+ * and modes in memory, without painting anything. Terminal can drive it
+ * exactly like it drives Display; the contents can then be read with
+ * {@link #getChar}, {@link #getLineText} and {@link #getScreenText}.
+ * Meant for running sessions on hosts with no graphics (automation,
+ * screen-scraping, benchmarks), possibly lots of them: a 80x24 screen
+ * takes less than 10 kB.
+ *
+ * Semantics follow those of Display, so that what is read from here is
+ * what the user would see in the window. There is no scrollback: lines
+ * scrolled off the top are only counted ({@link #getScrolledLines}).
+ *
+ * All the methods are synchronized, so the contents can be read by
+ * other threads while the session is running.
+ */
+
+final class
+MemoryScreen
+    implements ScreenModel, CharAttrsTable.Marker
+{
+    public final static int DEFAULT_COLUMNS = 80;
+    public final static int DEFAULT_ROWS = 24;
+
+    /* Line effects of rows: */
+    private final static byte LINE_NORMAL = 0;
+    private final static byte LINE_DOUBLE_W = 1;
+    private final static byte LINE_DOUBLE_H_TOP = 2;
+    private final static byte LINE_DOUBLE_H_BOTTOM = 3;
+
+    /* Cells are packed the same way as in Display.DisplayLine (so that
+     * CharAttrsTable.markCells() works for them too): char in the low
+     * 16 bits, attribute id (in mAttrTable) in the high 16 bits.
+     */
+    private final static int CELL_ATTRS_SHIFT = 16;
+    private final static char BLANK_CHAR = ' ';
+
+    private int mColumns, mRows;
+
+    /* Rows of cells; scrolling just moves the row arrays around: */
+    private int[][] mCells;
+    private byte[] mLineEffects;
+
+    private boolean[] mTabStops;
+
+    private int mCurrCol = 0, mCurrRow = 0;
+    private int mScrollTop, mScrollBottom;
+    private int mModes = DEFAULT_DISPLAY_FLAGS;
+
+    private final CharAttrsTable mAttrTable = new CharAttrsTable(this);
+    private final CharAttrs mDefaultCharAttrs;
+    private CharAttrs mCharAttrs;
+    private int mBlankCell;
+
+    private long mScrolledLines = 0L;
+    private int mBellCount = 0;
+
+    public MemoryScreen()
+    {
+	this(DEFAULT_COLUMNS, DEFAULT_ROWS);
+    }
+
+    public MemoryScreen(int columns, int rows)
+    {
+	/* Same defaults as Display uses (Display itself is not to be
+	 * referred to, not to load AWT components):
+	 */
+	mDefaultCharAttrs = mAttrTable.intern(0, Color.black, Color.white);
+	mCharAttrs = mDefaultCharAttrs;
+	mBlankCell = mAttrTable.getId(mDefaultCharAttrs) << CELL_ATTRS_SHIFT
+	    | BLANK_CHAR;
+	mColumns = mRows = 0;
+	resize(columns, rows);
+    }
+
+    /* *** Methods for reading the contents: *** */
+
+    public synchronized int getColumns() { return mColumns; }
+    public synchronized int getRows() { return mRows; }
+
+    public synchronized char getChar(int x, int y)
+    {
+	return (char) mCells[y][x];
+    }
+
+    public synchronized CharAttrs getCharAttrs(int x, int y)
+    {
+	return mAttrTable.get(mCells[y][x] >>> CELL_ATTRS_SHIFT);
+    }
+
+    public synchronized boolean isDoubleWidth(int y)
+    {
+	return mLineEffects[y] != LINE_NORMAL;
+    }
+
+    /**
+     * Returns the text of given row, without trailing spaces.
+     */
+    public synchronized String getLineText(int y)
+    {
+	int[] row = mCells[y];
+	int len = lineWidth(y);
+	while (len > 0 && (char) row[len-1] == BLANK_CHAR) {
+	    --len;
+	}
+	char[] text = new char[len];
+	for (int i = 0; i < len; ++i) {
+	    text[i] = (char) row[i];
+	}
+	return new String(text);
+    }
+
+    /**
+     * Returns the text of the whole screen; rows separated by
+     * linefeeds, without trailing spaces.
+     */
+    public synchronized String getScreenText()
+    {
+	StringBuffer sb = new StringBuffer(mRows * (mColumns + 1));
+	for (int y = 0; y < mRows; ++y) {
+	    if (y > 0) {
+		sb.append('\n');
+	    }
+	    sb.append(getLineText(y));
+	}
+	return sb.toString();
+    }
+
+    /**
+     * Returns the number of lines scrolled off the top of the screen.
+     */
+    public synchronized long getScrolledLines() { return mScrolledLines; }
+
+    public synchronized int getBellCount() { return mBellCount; }
+
+    /**
+     * Method for changing the screen size; contents are kept (as far
+     * as they fit), and the cursor moved inside the screen if needed.
+     */
+    public synchronized void resize(int columns, int rows)
+    {
+	if (columns < 1) {
+	    columns = 1;
+	}
+	if (rows < 1) {
+	    rows = 1;
+	}
+	int[][] cells = new int[rows][];
+	byte[] effects = new byte[rows];
+	for (int y = 0; y < rows; ++y) {
+	    cells[y] = new int[columns];
+	    fill(cells[y], 0, columns);
+	    if (y < mRows) {
+		System.arraycopy(mCells[y], 0, cells[y], 0,
+				 Math.min(columns, mColumns));
+		effects[y] = mLineEffects[y];
+	    }
+	}
+	boolean[] oldTabs = mTabStops;
+	mTabStops = new boolean[columns];
+	for (int i = 0; i < columns; ++i) {
+	    mTabStops[i] = (oldTabs != null && i < oldTabs.length) ?
+		oldTabs[i] : ((i % DEFAULT_TAB_SIZE) == 0 && i > 0);
+	}
+	mCells = cells;
+	mLineEffects = effects;
+	mColumns = columns;
+	mRows = rows;
+	mScrollTop = 0;
+	mScrollBottom = rows - 1;
+	if (mCurrRow >= rows) {
+	    mCurrRow = rows - 1;
+	}
+	if (mCurrCol >= columns) {
+	    mCurrCol = columns - 1;
+	}
+    }
+
+    /* *** ScreenModel; modes and state: *** */
+
+    public synchronized boolean displayMode(int mode)
+    {
+	return (mModes & mode) != 0;
+    }
+
+    public synchronized boolean setDisplayMode(int modes, boolean state)
+    {
+	if (state) {
+	    mModes |= modes;
+	} else {
+	    mModes &= ~modes;
+	}
+	return false; // nothing to redraw
+    }
+
+    public void setScreenReversed(boolean state)
+    {
+	setDisplayMode(MODE_SCREEN_REVERSED, state);
+    }
+
+    public synchronized void softResetDisplay(boolean repaint)
+    {
+	mModes = DEFAULT_DISPLAY_FLAGS;
+	mCharAttrs = mDefaultCharAttrs;
+    }
+
+    public synchronized Object getDisplayState()
+    {
+	State s = new State();
+	s.mCol = mCurrCol;
+	s.mRow = mCurrRow;
+	s.mModes = mModes & SAVEABLE_DISPLAY_FLAGS;
+	s.mCharAttrs = mCharAttrs;
+	return s;
+    }
+
+    public synchronized void setDisplayState(Object o)
+    {
+	if (o instanceof State) {
+	    State s = (State) o;
+	    mModes = (mModes & ~SAVEABLE_DISPLAY_FLAGS) | s.mModes;
+	    mCharAttrs = s.mCharAttrs;
+	    setCursorAt(s.mCol, s.mRow);
+	}
+    }
+
+    public void setColumns132(boolean to132)
+    {
+	resize(to132 ? 132 : 80, getRows());
+    }
+
+    public void redrawScreen() { }
+    public void setStats(SessionStats stats) { }
+
+    /* *** Character attributes: *** */
+
+    public synchronized void resetCharAttrs()
+    {
+	mCharAttrs = mDefaultCharAttrs;
+    }
+
+    public synchronized void setNewCharAttrs(int attrs, Color fg, Color bg)
+    {
+	mCharAttrs = mAttrTable.intern(attrs, fg, bg);
+    }
+
+    // CharAttrsTable.Marker; called when the table is full:
+    public void markUsedAttrs(CharAttrsTable table)
+    {
+	table.mark(mDefaultCharAttrs);
+	table.mark(mCharAttrs);
+	for (int y = 0; y < mRows; ++y) {
+	    table.markCells(mCells[y], mColumns);
+	}
+    }
+
+    /* *** Cursor: *** */
+
+    public synchronized int getCursorX() { return mCurrCol; }
+    public synchronized int getCursorY() { return mCurrRow; }
+
+    public synchronized void setCursorPosition(int x, int y)
+    {
+	setCursorAt(x, y);
+    }
+
+    public synchronized void setCursorX(int x)
+    {
+	setCursorAt(x, mCurrRow);
+    }
+
+    public synchronized void moveCursor(int dx, int dy)
+    {
+	setCursorAt(mCurrCol + dx, mCurrRow + dy);
+    }
+
+    /* Cursor can't be moved outside the screen (or scrolling region,
+     * in origin mode):
+     */
+    private void setCursorAt(int c, int r)
+    {
+	if ((mModes & MODE_ORIGIN_RELATIVE) != 0) {
+	    r = clamp(r, mScrollTop, mScrollBottom);
+	} else {
+	    r = clamp(r, 0, mRows - 1);
+	}
+	mCurrRow = r;
+	mCurrCol = clamp(c, 0, lineWidth(r) - 1);
+    }
+
+    /* *** Printing: *** */
+
+    public synchronized void printText(char[] chars, int start, int len)
+    {
+	boolean wrap = (mModes & MODE_AUTO_WRAP) != 0;
+	int attrBits = mAttrTable.getId(mCharAttrs) << CELL_ATTRS_SHIFT;
+
+	while (len > 0) {
+	    int width = lineWidth(mCurrRow);
+	    // Pending linewrap?
+	    if (mCurrCol >= width) {
+		if (wrap) {
+		    printLinefeed(true);
+		    width = lineWidth(mCurrRow);
+		} else {
+		    mCurrCol = width - 1;
+		}
+	    }
+	    int[] row = mCells[mCurrRow];
+	    int count = width - mCurrCol;
+	    if (count > len) {
+		count = len;
+	    }
+	    if ((mModes & MODE_INSERT_MODE) != 0) {
+		System.arraycopy(row, mCurrCol, row, mCurrCol + count,
+				 width - mCurrCol - count);
+	    }
+	    for (int i = 0; i < count; ++i) {
+		row[mCurrCol + i] = attrBits | chars[start + i];
+	    }
+	    start += count;
+	    len -= count;
+	    mCurrCol += count;
+	    if (mCurrCol >= width && !wrap) {
+		/* No autowrap: the rest of the chars are printed on top
+		 * of each other at the end of the line; only the last
+		 * one is left:
+		 */
+		mCurrCol = width - 1;
+		if (len > 0) {
+		    row[mCurrCol] = attrBits | chars[start + len - 1];
+		    len = 0;
+		}
+	    }
+	}
+    }
+
+    public synchronized void printCarriageReturn()
+    {
+	mCurrCol = 0;
+    }
+
+    public synchronized void printLinefeed(boolean auto)
+    {
+	mCurrCol = 0;
+	if ((mModes & MODE_ORIGIN_RELATIVE) != 0) {
+	    if (mCurrRow >= mScrollBottom) {
+		scrollUp(mScrollTop, mScrollBottom, 1);
+	    } else {
+		++mCurrRow;
+	    }
+	} else if (mCurrRow >= mRows - 1) {
+	    scrollUp(0, mRows - 1, 1);
+	    ++mScrolledLines;
+	} else {
+	    ++mCurrRow;
+	}
+    }
+
+    public synchronized void printBackspace()
+    {
+	int width = lineWidth(mCurrRow);
+	if (mCurrCol >= width) {
+	    mCurrCol = width - 1;
+	}
+	if (mCurrCol > 0) {
+	    --mCurrCol;
+	}
+    }
+
+    public synchronized void printTab()
+    {
+	int width = lineWidth(mCurrRow);
+	for (int i = mCurrCol + 1; i < width; ++i) {
+	    if (mTabStops[i]) {
+		mCurrCol = i;
+		return;
+	    }
+	}
+    }
+
+    public synchronized void printBell()
+    {
+	++mBellCount;
+    }
+
+    /* *** Scrolling region and indexing: *** */
+
+    public synchronized void setScrollingRegion(int top, int bottom)
+    {
+	top = clamp(top, 0, mRows - 1);
+	bottom = clamp(bottom, 0, mRows - 1);
+	if (bottom < top) {
+	    bottom = top;
+	}
+	mScrollTop = top;
+	mScrollBottom = bottom;
+	mModes |= MODE_ORIGIN_RELATIVE;
+	mCurrRow = clamp(mCurrRow, top, bottom);
+    }
+
+    public synchronized void clearScrollingRegion()
+    {
+	mModes &= ~MODE_ORIGIN_RELATIVE;
+	mScrollTop = 0;
+	mScrollBottom = mRows - 1;
+    }
+
+    public synchronized void indexDown(int count)
+    {
+	boolean region = (mModes & MODE_ORIGIN_RELATIVE) != 0;
+	int top = region ? mScrollTop : 0;
+	int bottom = region ? mScrollBottom : (mRows - 1);
+
+	if ((mCurrRow + count) <= bottom) {
+	    mCurrRow += count;
+	} else {
+	    count -= (bottom - mCurrRow);
+	    scrollUp(top, bottom, count);
+	    if (!region) {
+		mScrolledLines += count;
+	    }
+	    mCurrRow = bottom;
+	}
+    }
+
+    public synchronized void indexUp(int count)
+    {
+	boolean region = (mModes & MODE_ORIGIN_RELATIVE) != 0;
+	int top = region ? mScrollTop : 0;
+	int bottom = region ? mScrollBottom : (mRows - 1);
+
+	if ((mCurrRow - count) >= top) {
+	    mCurrRow -= count;
+	} else {
+	    count -= (mCurrRow - top);
+	    scrollDown(top, bottom, count);
+	    mCurrRow = top;
+	}
+    }
+
+    public synchronized void indexLeft(int count)
+    {
+	if ((mCurrCol - count) >= 0) {
+	    mCurrCol -= count;
+	    return;
+	}
+	// Contents move right:
+	shiftColumns(count - mCurrCol);
+	mCurrCol = 0;
+    }
+
+    public synchronized void indexRight(int count)
+    {
+	if ((mCurrCol + count) < mColumns) {
+	    mCurrCol += count;
+	    return;
+	}
+	// Contents move left:
+	shiftColumns(-(count - (mColumns - 1 - mCurrCol)));
+	mCurrCol = mColumns - 1;
+    }
+
+    /* *** Erasing: *** */
+
+    public synchronized void eraseLine() { eraseRow(mCurrRow, 0, mColumns, true); }
+    public synchronized void eraseEOL() { eraseRow(mCurrRow, mCurrCol, mColumns, true); }
+    public synchronized void eraseSOL() { eraseRow(mCurrRow, 0, mCurrCol + 1, true); }
+    public synchronized void eraseDown() { eraseBelow(true); }
+    public synchronized void eraseUp() { eraseAbove(true); }
+    public synchronized void eraseScreen() { eraseRows(0, mRows - 1, true); }
+
+    public synchronized void eraseLineNonSelected() { eraseRow(mCurrRow, 0, mColumns, false); }
+    public synchronized void eraseEOLNonSelected() { eraseRow(mCurrRow, mCurrCol, mColumns, false); }
+    public synchronized void eraseSOLNonSelected() { eraseRow(mCurrRow, 0, mCurrCol + 1, false); }
+    public synchronized void eraseDownNonSelected() { eraseBelow(false); }
+    public synchronized void eraseUpNonSelected() { eraseAbove(false); }
+    public synchronized void eraseScreenNonSelected() { eraseRows(0, mRows - 1, false); }
+
+    public synchronized void eraseChars(int count)
+    {
+	eraseRow(mCurrRow, mCurrCol, mCurrCol + count, true);
+    }
+
+    private void eraseBelow(boolean eraseAll)
+    {
+	eraseRow(mCurrRow, mCurrCol, mColumns, eraseAll);
+	eraseRows(mCurrRow + 1, mRows - 1, eraseAll);
+    }
+
+    private void eraseAbove(boolean eraseAll)
+    {
+	eraseRows(0, mCurrRow - 1, eraseAll);
+	eraseRow(mCurrRow, 0, mCurrCol + 1, eraseAll);
+    }
+
+    /* Whole lines also lose their line effects (VT220 Ref. Manual): */
+    private void eraseRows(int first, int last, boolean eraseAll)
+    {
+	for (int y = first; y <= last; ++y) {
+	    eraseRow(y, 0, mColumns, eraseAll);
+	    mLineEffects[y] = LINE_NORMAL;
+	}
+    }
+
+    private void eraseRow(int y, int from, int to, boolean eraseAll)
+    {
+	int[] row = mCells[y];
+	if (from >= mColumns) { // pending linewrap
+	    from = mColumns - 1;
+	}
+	if (to > mColumns) {
+	    to = mColumns;
+	}
+	for (int i = from; i < to; ++i) {
+	    if (eraseAll || !mAttrTable.get(row[i] >>> CELL_ATTRS_SHIFT).isProtected()) {
+		row[i] = mBlankCell;
+	    }
+	}
+    }
+
+    /* *** Inserting and deleting: *** */
+
+    public synchronized void insertChars(int count)
+    {
+	int width = lineWidth(mCurrRow);
+	int col = Math.min(mCurrCol, width - 1);
+	count = clamp(count, 0, width - col);
+	int[] row = mCells[mCurrRow];
+	System.arraycopy(row, col, row, col + count, width - col - count);
+	fill(row, col, col + count);
+    }
+
+    public synchronized void deleteChars(int count)
+    {
+	int width = lineWidth(mCurrRow);
+	int col = Math.min(mCurrCol, width - 1);
+	count = clamp(count, 0, width - col);
+	int[] row = mCells[mCurrRow];
+	System.arraycopy(row, col + count, row, col, width - col - count);
+	fill(row, width - count, width);
+    }
+
+    public synchronized void insertLines(int count)
+    {
+	scrollDown(mCurrRow, linesBottom(), count);
+    }
+
+    public synchronized void deleteLines(int count)
+    {
+	scrollUp(mCurrRow, linesBottom(), count);
+    }
+
+    /* *** Line effects: *** */
+
+    public synchronized void setLineEffectDW(boolean repaint) { setLineEffect(LINE_DOUBLE_W); }
+    public synchronized void setLineEffectDHTop(boolean repaint) { setLineEffect(LINE_DOUBLE_H_TOP); }
+    public synchronized void setLineEffectDHBottom(boolean repaint) { setLineEffect(LINE_DOUBLE_H_BOTTOM); }
+    public synchronized void setLineEffectNone(boolean repaint) { setLineEffect(LINE_NORMAL); }
+
+    private void setLineEffect(byte effect)
+    {
+	mLineEffects[mCurrRow] = effect;
+	int width = lineWidth(mCurrRow);
+	if (mCurrCol >= width) {
+	    mCurrCol = width - 1;
+	}
+    }
+
+    // DECALN; screen is filled with 'E's:
+    public synchronized void setLineEffectTest()
+    {
+	int cell = mAttrTable.getId(mDefaultCharAttrs) << CELL_ATTRS_SHIFT | 'E';
+	for (int y = 0; y < mRows; ++y) {
+	    int[] row = mCells[y];
+	    for (int x = 0; x < mColumns; ++x) {
+		row[x] = cell;
+	    }
+	}
+    }
+
+    /* *** Tab stops: *** */
+
+    public synchronized void addTab()
+    {
+	mTabStops[Math.min(mCurrCol, mColumns - 1)] = true;
+    }
+
+    public synchronized void removeTab()
+    {
+	mTabStops[Math.min(mCurrCol, mColumns - 1)] = false;
+    }
+
+    public synchronized void removeAllTabs()
+    {
+	for (int i = mTabStops.length; --i >= 0; ) {
+	    mTabStops[i] = false;
+	}
+    }
+
+    /* *** Scrollback (none): *** */
+
+    public int getArchivedLines() { return 0; }
+    public synchronized int getBufferLines() { return mRows; }
+
+    /* *** Internal methods: *** */
+
+    // Double-width/height lines only have room for half the chars:
+    private int lineWidth(int y)
+    {
+	return (mLineEffects[y] == LINE_NORMAL) ? mColumns : ((mColumns + 1) / 2);
+    }
+
+    // Bottom row affected by inserting/deleting lines:
+    private int linesBottom()
+    {
+	return ((mModes & MODE_ORIGIN_RELATIVE) != 0) ? mScrollBottom : (mRows - 1);
+    }
+
+    /* Moves rows top..bottom up by count rows; rows scrolled out are
+     * recycled as the new (empty) rows at the bottom:
+     */
+    private void scrollUp(int top, int bottom, int count)
+    {
+	int n = bottom - top + 1;
+	count = clamp(count, 0, n);
+	if (count == 0) {
+	    return;
+	}
+	rotate(top, n, count);
+	for (int y = bottom - count + 1; y <= bottom; ++y) {
+	    fill(mCells[y], 0, mColumns);
+	    mLineEffects[y] = LINE_NORMAL;
+	}
+    }
+
+    private void scrollDown(int top, int bottom, int count)
+    {
+	int n = bottom - top + 1;
+	count = clamp(count, 0, n);
+	if (count == 0) {
+	    return;
+	}
+	rotate(top, n, n - count);
+	for (int y = top; y < top + count; ++y) {
+	    fill(mCells[y], 0, mColumns);
+	    mLineEffects[y] = LINE_NORMAL;
+	}
+    }
+
+    // Rotates n rows starting from 'first' up by 'count':
+    private void rotate(int first, int n, int count)
+    {
+	int[][] cells = new int[n][];
+	byte[] effects = new byte[n];
+	for (int i = 0; i < n; ++i) {
+	    int from = first + ((i + count) % n);
+	    cells[i] = mCells[from];
+	    effects[i] = mLineEffects[from];
+	}
+	System.arraycopy(cells, 0, mCells, first, n);
+	System.arraycopy(effects, 0, mLineEffects, first, n);
+    }
+
+    /* Shifts contents of all rows right (positive amount) or left
+     * (negative), filling the uncovered columns with blanks:
+     */
+    private void shiftColumns(int amount)
+    {
+	int abs = clamp((amount < 0) ? -amount : amount, 0, mColumns);
+	for (int y = 0; y < mRows; ++y) {
+	    int[] row = mCells[y];
+	    if (amount > 0) {
+		System.arraycopy(row, 0, row, abs, mColumns - abs);
+		fill(row, 0, abs);
+	    } else {
+		System.arraycopy(row, abs, row, 0, mColumns - abs);
+		fill(row, mColumns - abs, mColumns);
+	    }
+	}
+    }
+
+    private void fill(int[] row, int from, int to)
+    {
+	int blank = mBlankCell;
+	for (int i = from; i < to; ++i) {
+	    row[i] = blank;
+	}
+    }
+
+    private final static int clamp(int value, int min, int max)
+    {
+	return (value < min) ? min : ((value > max) ? max : value);
+    }
+
+    /* Saved state (DECSC/DECRC): */
+    private final static class State
+    {
+	int mCol, mRow, mModes;
+	CharAttrs mCharAttrs;
+    }
+}
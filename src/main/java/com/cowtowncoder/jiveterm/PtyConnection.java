@@ -0,0 +1,437 @@
+/************************************************************
+
+Project:
+    JiveTerm.
+
+    A VT52/VT100/VT102-compliant telnet/terminal program
+    written in java.
+
+    (C) 1998-2001 Tatu Saloranta
+    tatu.saloranta@iki.fi.
+
+Module:
+    PtyConnection.java
+
+    Connection to a local process, running on a pseudo
+    terminal if possible.
+
+Last changed:
+    16-Oct-2026
+
+************************************************************/
+
+package com.cowtowncoder.jiveterm;
+
+import java.io.*;
+
+/**
+ * Connection to a process started on the local host (a shell by
+ * default); no network, protocol or encryption in between. JiveTerm
+ * uses it for sites starting with {@link JiveTerm#LOCAL_SITE}.
+ *
+ * On Linux, the process is run on a real pseudo terminal, so that
+ * programs see a tty: line editing, echo, signals (^C), curses
+ * applications and so on work as with telnet or ssh. Java has no
+ * portable access to ptys, so the pty is allocated by util-linux's
+ * 'script' command, with the process run under it; before starting
+ * the process, the name of the pty is printed (and read by us), and its
+ * size set. Window size changes ({@link #sendNAWS}) are then set on the
+ * pty with 'stty', and the kernel sends SIGWINCH to the process as
+ * usual.
+ *
+ * Note that this is not a zero-copy path: 'script' holds the pty
+ * master, and relays everything the process outputs through a pipe
+ * to us, so there is one more process and one more copy than with a
+ * natively opened pty (which needs native access that the Javas this
+ * code runs on don't have). Each resize also starts an 'stty' process;
+ * that's done in the background, with sizes coming in the meantime
+ * merged into one.
+ *
+ * Elsewhere (or if 'script' is not available) the process is just run
+ * with pipes as its input and output. Programs then see no tty: there's
+ * no echo or line editing, and the window size can't be changed once
+ * the process is running (LINES and COLUMNS are set when starting it).
+ * Enter is sent as LF, and LFs received are passed on as CR+LF, as the
+ * tty would do.
+ */
+
+public final class PtyConnection
+extends JiveConnection
+{
+    public final static String DEFAULT_TERM_TYPE = "vt220";
+
+    private final static String SCRIPT_PATH = "/usr/bin/script";
+    private final static String STTY_PATH = "stty";
+
+    private final static int DEFAULT_COLUMNS = 80;
+    private final static int DEFAULT_ROWS = 24;
+
+    private final static byte BYTE_CR = 0x0D;
+    private final static byte BYTE_LF = 0x0A;
+
+    protected JiveTerm jiveterm = null; // null for headless sessions
+
+    private final String[] mCommand;
+    private final boolean mUsePty;
+    private String mTermType = DEFAULT_TERM_TYPE;
+
+    private Process mProcess = null;
+    private InputStream mInputStream;
+    private OutputStream mOutputStream;
+
+    /* Device of the pty ("/dev/pts/N"); null if not known (or not
+     * running on a pty):
+     */
+    private String mPtyName = null;
+
+    /* With pipes, LFs received are preceded by a CR; true if the
+     * CR for the LF at mInputPtr has been passed already:
+     */
+    private boolean mCRDone = false;
+    private final byte[] mSpecialBytes = new byte[] { BYTE_CR };
+
+    // With pipes, CRs sent are converted to LFs in this copy:
+    private byte[] mOutputCopy = null;
+
+    /**
+     * @param master JiveTerm instance to inform of disconnects and ask
+     *   the window size from; may be null
+     * @param command Command to run, and its arguments; null or empty
+     *   for the user's shell
+     */
+    public PtyConnection(JiveTerm master, String[] command)
+    {
+	super();
+	jiveterm = master;
+	if (command == null || command.length == 0) {
+	    String shell = System.getenv("SHELL");
+	    command = new String[] {
+		(shell == null || shell.length() == 0) ? "/bin/sh" : shell
+	    };
+	}
+	mCommand = command;
+	mUsePty = isPtySupported();
+    }
+
+    /**
+     * Returns true if processes can be run on a pty on this platform.
+     */
+    public static boolean isPtySupported()
+    {
+	String os = System.getProperty("os.name");
+	return (os != null && os.startsWith("Linux")
+		&& new File(SCRIPT_PATH).canExecute());
+    }
+
+    public boolean usesPty() { return mUsePty; }
+
+    /**
+     * Method for changing the value of TERM for the process; needs to
+     * be called before connect().
+     */
+    public void setTermType(String type) { mTermType = type; }
+
+/***** Connection initialization/close: ********/
+
+    public boolean connect() throws Exception
+    {
+	int cols = (windowX > 0) ? windowX : DEFAULT_COLUMNS;
+	int rows = (windowY > 0) ? windowY : DEFAULT_ROWS;
+	ProcessBuilder pb;
+
+	if (mUsePty) {
+	    /* 'script' runs the command with $SHELL -c; let's use sh for
+	     * that, and give the user's shell back to the command:
+	     */
+	    String shell = System.getenv("SHELL");
+	    StringBuffer sb = new StringBuffer();
+	    if (shell != null) {
+		sb.append("SHELL=").append(quote(shell)).append("; export SHELL; ");
+	    }
+	    sb.append("tty; stty rows ").append(rows).append(" cols ").append(cols);
+	    sb.append("; exec");
+	    for (int i = 0; i < mCommand.length; ++i) {
+		sb.append(' ').append(quote(mCommand[i]));
+	    }
+	    pb = new ProcessBuilder(new String[] {
+		SCRIPT_PATH, "-q", "-f", "-e", "-c", sb.toString(), "/dev/null"
+	    });
+	    pb.environment().put("SHELL", "/bin/sh");
+	} else {
+	    pb = new ProcessBuilder(mCommand);
+	    pb.environment().put("LINES", String.valueOf(rows));
+	    pb.environment().put("COLUMNS", String.valueOf(cols));
+	}
+	pb.environment().put("TERM", mTermType);
+	pb.redirectErrorStream(true);
+
+	mProcess = pb.start();
+	mInputStream = mProcess.getInputStream();
+	mOutputStream = mProcess.getOutputStream();
+	mInputPtr = mInputSize = 0;
+	mCRDone = false;
+	windowX = cols;
+	windowY = rows;
+
+	if (mUsePty) {
+	    readPtyName();
+	}
+	startWriter();
+	return true;
+    }
+
+    public void initializeConnection()
+    {
+	; // No protocol, nothing to negotiate
+    }
+
+    public boolean disconnect()
+	throws IOException
+    {
+	close();
+	return true;
+    }
+
+    /* When this is called, someone else has already closed the
+     * connection (or the process has exited), so we need not do
+     * much, mostly just mark connection as closed. If the JiveTerm
+     * instance itself is calling us, we need not even inform it
+     * about disconnect...
+     */
+    public void informDisconnect(boolean inform_master)
+    {
+	// (called again when the session ends; only inform once)
+	if (close() && inform_master && jiveterm != null) {
+	    jiveterm.informDisconnect();
+	}
+    }
+
+    // Returns false if the process was not running any more:
+    private boolean close()
+    {
+	stopWriter();
+	Process p = mProcess;
+	mProcess = null;
+	mPtyName = null;
+	if (p == null) {
+	    return false;
+	}
+	p.destroy();
+	try {
+	    p.getOutputStream().close();
+	    p.getInputStream().close();
+	} catch (IOException ie) {
+	    ; // What can we do even if closing fails?
+	}
+	return true;
+    }
+
+    /* 'tty' prints the name of the pty as the first line; anything
+     * else means something went wrong, and is passed on as input
+     * (possibly an error message):
+     */
+    private void readPtyName()
+	throws IOException
+    {
+	int len = 0;
+	int b;
+	while (len < mInputBuffer.length
+	       && (b = mInputStream.read()) >= 0) {
+	    mInputBuffer[len++] = (byte) b;
+	    if (b == BYTE_LF) {
+		break;
+	    }
+	}
+	String line = new String(mInputBuffer, 0, len, "ISO-8859-1").trim();
+	if (line.startsWith("/dev/")) {
+	    mPtyName = line;
+	} else {
+	    mInputSize = len;
+	}
+    }
+
+/***** Reading: *****/
+
+    protected int readBytes(byte[] buffer, int length) throws IOException
+    {
+	return mInputStream.read(buffer, 0, length);
+    }
+
+    public boolean lendBytes(InputSlice slice)
+    {
+	if (mInputPtr >= mInputSize) {
+	    if (!getMoreInput()) {
+		slice.clear();
+		return false;
+	    }
+	}
+	int start = mInputPtr;
+	int end = mInputSize;
+
+	// The pty has done all the translation needed:
+	if (mUsePty) {
+	    slice.set(mInputBuffer, start, end - start);
+	    mInputPtr = end;
+	    return true;
+	}
+
+	if (mInputBuffer[start] == BYTE_LF && !mCRDone) {
+	    mCRDone = true;
+	    slice.set(mSpecialBytes, 0, 1);
+	    return true;
+	}
+	mCRDone = false;
+	int i = start + 1;
+	while (i < end && mInputBuffer[i] != BYTE_LF) {
+	    ++i;
+	}
+	slice.set(mInputBuffer, start, i - start);
+	mInputPtr = i;
+	return true;
+    }
+
+/***** Writing: *****/
+
+    protected void writeBytes(byte[] buffer, int offset, int length)
+	throws IOException
+    {
+	OutputStream out = mOutputStream;
+	if (out == null) {
+	    throw new IOException("Process not running");
+	}
+	if (!mUsePty) {
+	    if (mOutputCopy == null || mOutputCopy.length < length) {
+		mOutputCopy = new byte[Math.max(length, OUT_BUFFER_SIZE)];
+	    }
+	    for (int i = 0; i < length; ++i) {
+		byte b = buffer[offset + i];
+		mOutputCopy[i] = (b == BYTE_CR) ? BYTE_LF : b;
+	    }
+	    buffer = mOutputCopy;
+	    offset = 0;
+	}
+	out.write(buffer, offset, length);
+	out.flush();
+    }
+
+    // Called when keystrokes (etc) had to be dropped:
+    protected void outputDropped()
+    {
+	String msg = "Warning: process is not reading input; input dropped.";
+	if (jiveterm == null) {
+	    System.err.println(msg);
+	} else {
+	    jiveterm.doWarningLF(msg);
+	}
+    }
+
+/***** Window size: *****/
+
+    // The last window size set:
+    private int windowX = 0, windowY = 0;
+
+    /* Resizing the pty is done by a worker thread, one stty at a
+     * time. True while the worker is running, and if there is a size
+     * it has not yet applied:
+     */
+    private boolean mResizing = false;
+    private boolean mResizePending = false;
+
+    public void setSendNAWS(boolean x)
+    {
+	; // Window size is always passed on (if possible)
+    }
+
+    /**
+     * Method for passing the window size to the process; with a pty,
+     * the size of the pty is changed, which makes the kernel send
+     * SIGWINCH to the process. With pipes, only the size used for
+     * the next connect() is changed.
+     */
+    public final synchronized void
+	sendNAWS(int x, int y, boolean force)
+    {
+	if (jiveterm != null && (x < 0 || y < 0)) {
+	    java.awt.Dimension wsize = jiveterm.getWindowSizeInChars();
+	    if (x < 0)
+		x = wsize.width;
+	    if (y < 0)
+		y = wsize.height;
+	}
+	if (x < 0)
+	    x = (windowX > 0) ? windowX : DEFAULT_COLUMNS;
+	if (y < 0)
+	    y = (windowY > 0) ? windowY : DEFAULT_ROWS;
+	if (!force && x == windowX && y == windowY)
+	    return;
+	windowX = x;
+	windowY = y;
+
+	if (mPtyName == null || mProcess == null) {
+	    return;
+	}
+	/* Running stty takes a while; not to be done in the calling
+	 * thread (often the AWT event thread). If the worker is busy,
+	 * it'll pick up the new size when done; sizes set in the
+	 * meantime are skipped, only the latest one matters:
+	 */
+	mResizePending = true;
+	if (!mResizing) {
+	    mResizing = true;
+	    SessionRuntime.getInstance().newThread("JiveTerm pty resize", new Runnable() {
+		    public void run() { resizeLoop(); }
+		}).start();
+	}
+    }
+
+    // Run by the resize worker; applies sizes until none is pending:
+    private void resizeLoop()
+    {
+	while (true) {
+	    String pty;
+	    int x, y;
+	    synchronized (this) {
+		if (!mResizePending || mPtyName == null) {
+		    mResizing = false;
+		    return;
+		}
+		mResizePending = false;
+		pty = mPtyName;
+		x = windowX;
+		y = windowY;
+	    }
+	    String[] cmd = new String[] {
+		STTY_PATH, "-F", pty, "rows", String.valueOf(y), "cols", String.valueOf(x)
+	    };
+	    try {
+		Process p = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+		p.getOutputStream().close();
+		InputStream in = p.getInputStream();
+		while (in.read() >= 0) {
+		    ; // stty prints nothing, unless it fails
+		}
+		in.close();
+		p.waitFor();
+	    } catch (Exception e) {
+		System.err.println("Warning: failed to set pty size: "+e);
+	    }
+	}
+    }
+
+    // Quotes given string for sh, so that it's passed as is:
+    private final static String quote(String s)
+    {
+	StringBuffer sb = new StringBuffer(s.length() + 2);
+	sb.append('\'');
+	for (int i = 0; i < s.length(); ++i) {
+	    char c = s.charAt(i);
+	    if (c == '\'') {
+		sb.append("'\\''");
+	    } else {
+		sb.append(c);
+	    }
+	}
+	sb.append('\'');
+	return sb.toString();
+    }
+}
@@ -0,0 +1,136 @@
+/************************************************************
+
+Project:
+    JiveTerm.
+
+    A VT52/VT100/VT102-compliant telnet/terminal program
+    written in java.
+
+    (C) 1998-2001 Tatu Saloranta
+    tatu.saloranta@iki.fi.
+
+Module:
+    RenderTimer.java
+
+    Thread that repaints the display at most a fixed number
+    of times per second.
+
+Last changed:
+    16-Oct-2026
+
+************************************************************/
+
+package com.cowtowncoder.jiveterm;
+
+/**
+ * Helper thread that decouples painting from the thread that parses
+ * the input. Display only updates its lines and marks the changed
+ * areas dirty; when something gets dirty it calls {@link #requestFrame},
+ * and this thread then calls Display.doPaint(), but no more often than
+ * the frame rate allows. All the changes made in the meantime are
+ * painted with a single frame, so the amount of painting does not
+ * depend on the amount of output.
+ *
+ * An immediate frame can be requested too; this is used to get the
+ * echo of typed characters on screen without extra latency.
+ */
+
+final class
+RenderTimer
+    extends Thread
+{
+    public final static int DEFAULT_FRAME_RATE = 30;
+    public final static int MAX_FRAME_RATE = 200;
+
+    private final Display mDisplay;
+
+    /* Minimum time between frames, in milliseconds: */
+    private int mFrameInterval;
+
+    private boolean mPending = false;
+    private boolean mImmediate = false;
+    private boolean mRunning = true;
+
+    private long mLastFrame = 0L;
+
+    public RenderTimer(Display d, int frameRate)
+    {
+	super("JiveTerm renderer");
+	mDisplay = d;
+	setDaemon(true);
+	setFrameRate(frameRate);
+    }
+
+    /**
+     * Method for changing the maximum number of frames per second.
+     */
+    public synchronized void setFrameRate(int frameRate)
+    {
+	if (frameRate < 1) {
+	    frameRate = 1;
+	} else if (frameRate > MAX_FRAME_RATE) {
+	    frameRate = MAX_FRAME_RATE;
+	}
+	mFrameInterval = 1000 / frameRate;
+	notify();
+    }
+
+    public synchronized int getFrameRate()
+    {
+	return 1000 / mFrameInterval;
+    }
+
+    /**
+     * Method Display calls when there's something new to paint.
+     *
+     * @param immediate If true, the frame is to be painted right away,
+     *   without waiting for the frame interval to pass.
+     */
+    public synchronized void requestFrame(boolean immediate)
+    {
+	mPending = true;
+	if (immediate) {
+	    mImmediate = true;
+	}
+	notify();
+    }
+
+    public synchronized void shutdown()
+    {
+	mRunning = false;
+	notify();
+    }
+
+    public void run()
+    {
+	try {
+	    while (true) {
+		synchronized (this) {
+		    while (mRunning && !mPending) {
+			wait();
+		    }
+		    /* Frame rate limiting; changes made while waiting will
+		     * end up in the same frame:
+		     */
+		    long now = System.currentTimeMillis();
+		    while (mRunning && !mImmediate) {
+			long left = (mLastFrame + mFrameInterval) - now;
+			if (left <= 0) {
+			    break;
+			}
+			wait(left);
+			now = System.currentTimeMillis();
+		    }
+		    if (!mRunning) {
+			return;
+		    }
+		    mPending = mImmediate = false;
+		    mLastFrame = now;
+		}
+		mDisplay.doPaint();
+	    }
+	} catch (InterruptedException ie) {
+	    // Ok, we are being killed, it seems...
+	}
+    }
+}
@@ -15,10 +15,20 @@ Description:
     Simple utility class that represents SSH-connections
 
 Last changed:
-    23-Sep-1999, TSa
+    16-Oct-2026
 
 Changes:
 
+  16-Oct-2026:
+    Data from the SSH client comes through a ByteRing, instead
+    of piped streams; Terminal gets it as slices of the ring.
+    Output is written by JiveConnection's writer thread.
+    Bytes taken from the ring are counted in SessionStats.
+    Speed limit (BandwidthShaper) is applied to the bytes
+    taken from the ring, a chunk at a time.
+    User is warned if input is dropped because the server
+    has stopped reading it.
+
 **************************************/
 
 package com.cowtowncoder.jiveterm;
@@ -30,7 +40,7 @@ import java.awt.Dimension;
 import mindbright.ssh.*;
 
 public final class SSHConnection
-implements JiveConnection
+extends JiveConnection
 {
   /** Constants: */
   public final static int SSH_PORT = 22;
@@ -43,6 +53,10 @@ implements JiveConnection
   protected JiveTerm jiveterm = null;
   protected JiveSSHClient ssh = null;
 
+  /* Output of the SSH client, waiting for Terminal to read it: */
+  private ByteRing mRing = null;
+  private int mRingCapacity = ByteRing.DEFAULT_CAPACITY;
+
   // Debug-stuff:
   public final static boolean debugConnection = true;
 
@@ -64,6 +78,12 @@ implements JiveConnection
     // Only used in telnet-mode:
     public final void setSendNAWS(boolean x) { }
 
+    /**
+     * Method for setting the size of the buffer between SSH client and
+     * Terminal; only affects connections opened after the call.
+     */
+    public final void setBufferSize(int bytes) { mRingCapacity = bytes; }
+
 /***** Connection initialization/close: ********/
 
   /** This method returns a valid Terminal-object if the connection
@@ -83,11 +103,9 @@ implements JiveConnection
       ssh.connect();
       
       // Now we need to link the ssh-module to the Terminal...
-      // (these methods may throw exceptions):
-      PipedInputStream pi1 = new PipedInputStream();
-      PipedOutputStream po1 = new PipedOutputStream(pi1);
-      t.setConnection(pi1, false, false);
-      ssh.linkTerminal(po1);
+      mRing = new ByteRing(mRingCapacity);
+      ssh.linkTerminal(mRing);
+      startWriter();
       return (terminal = t);
   }
 
@@ -96,8 +114,12 @@ implements JiveConnection
   {
     terminal = null;
 
-    ssh.disconnect();
+    stopWriter();
+    if (ssh != null) {
+      ssh.disconnect();
+    }
     ssh = null; // To let it be gc:ed...
+    closeRing();
 
     return true;
   }
@@ -111,12 +133,68 @@ implements JiveConnection
   {
     terminal = null;
 
+    stopWriter();
+    boolean was_open = (ssh != null);
     ssh = null; // To let it be gc:ed...
+    closeRing();
 
-    if (inform_master)
+    // (may get called again when the session ends; only inform once)
+    if (inform_master && was_open)
       jiveterm.informDisconnect();
   }
 
+  /* Terminal gets whatever has arrived, directly from the ring;
+   * once the ring is closed (and emptied), connection is closed:
+   */
+  public boolean lendBytes(InputSlice slice)
+  {
+      ByteRing ring = mRing;
+      if (ring == null) {
+	  slice.clear();
+	  return false;
+      }
+      BandwidthShaper shaper = mInputShaper;
+      if (shaper == null) {
+	  if (!ring.lend(slice)) {
+	      return false;
+	  }
+      } else {
+	  if (!ring.lend(slice, shaper.getChunkSize())) {
+	      return false;
+	  }
+	  shaper.acquire(slice.getLength());
+      }
+      if (mStats != null) {
+	  mStats.addInput(SessionStats.BYTES_READ, slice.getLength());
+      }
+      return true;
+  }
+
+  /* Not used by lendBytes() (which lends straight from the ring), but
+   * getMoreInput() can still be used; bytes are then copied out:
+   */
+  private final InputSlice mReadSlice = new InputSlice();
+
+  protected int readBytes(byte[] buffer, int length) throws IOException
+  {
+      ByteRing ring = mRing;
+      if (ring == null || !ring.lend(mReadSlice, length)) {
+	  return -1;
+      }
+      int count = mReadSlice.getLength();
+      System.arraycopy(mReadSlice.getBuffer(), mReadSlice.getStart(),
+		       buffer, 0, count);
+      return count;
+  }
+
+  // Wakes up Terminal if it's waiting for data:
+  private void closeRing()
+  {
+      if (mRing != null) {
+	  mRing.close();
+      }
+  }
+
   // The last output window size sent to the server:
   private int windowX = 0, windowY = 0;
 
@@ -150,21 +228,22 @@ implements JiveConnection
   }
 
 /**** Then the functions for sending data to the server: ******/
-  public final synchronized boolean
-  sendByte(byte x, boolean flush)
-  {
-      return ssh.sendByte(x, flush);
-  }
 
-  public final synchronized boolean
-  sendBytes(byte [] x, boolean flush)
+  // Called by the writer thread:
+  protected void
+  writeBytes(byte [] x, int offset, int length)
+    throws IOException
   {
-      return ssh.sendBytes(x, flush);
+      JiveSSHClient client = ssh;
+      if (client == null || !client.sendBytes(x, offset, length, true)) {
+	  throw new IOException("SSH connection closed");
+      }
   }
 
-  public final synchronized boolean
-  sendBytes(byte [] x, int offset, int length, boolean flush)
+  // Called when keystrokes (etc) had to be dropped:
+  protected void
+  outputDropped()
   {
-      return ssh.sendBytes(x, offset, length, flush);
+      jiveterm.doWarningLF("Warning: server is not reading input; input dropped.");
   }
 }
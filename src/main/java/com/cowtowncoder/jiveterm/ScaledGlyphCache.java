@@ -0,0 +1,434 @@
+/************************************************************
+
+Project:
+    JiveTerm.
+
+    A VT52/VT100/VT102-compliant telnet/terminal program
+    written in java.
+
+    (C) 1998-2001 Tatu Saloranta
+    tatu.saloranta@iki.fi.
+
+Module:
+    ScaledGlyphCache.java
+
+    Cache of double-width/double-height glyphs, rendered
+    on demand.
+
+Last changed:
+    16-Oct-2026
+
+************************************************************/
+
+package com.cowtowncoder.jiveterm;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Hashtable;
+
+/**
+ * Class that produces the glyphs for double-width and double-height
+ * lines. Glyphs are rendered one at a time, when first needed, by
+ * drawing the character with a scaling transform; there's no need
+ * to pre-render whole character sets, and thus no need for a separate
+ * loader thread, or for waiting until it is done.
+ *
+ * Rendered glyphs are kept in a bounded cache shared by all Display
+ * instances; when it is full, the least recently used glyph is
+ * discarded. Glyphs are keyed by (font, cell size, char, mode,
+ * foreground, background), and contain the background too, so they
+ * can be painted with a single drawImage().
+ *
+ * This class also knows how to draw the symbols of the DEC special
+ * graphics set (line drawing etc), which most fonts lack; they are
+ * drawn procedurally (see {@link #drawSymbol}).
+ */
+
+final class
+ScaledGlyphCache
+{
+    /* Double-sized lines are rare, so this should be plenty: */
+    public final static int DEFAULT_MAX_GLYPHS = 1024;
+
+    /* Which part of the doubled glyph is needed: */
+    public final static int MODE_DOUBLE_WIDTH = 0;
+    public final static int MODE_DOUBLE_HEIGHT_TOP = 1;
+    public final static int MODE_DOUBLE_HEIGHT_BOTTOM = 2;
+
+    private final static ScaledGlyphCache sInstance =
+	new ScaledGlyphCache(DEFAULT_MAX_GLYPHS);
+
+    private final int mMaxGlyphs;
+
+    /* Entries are both keys and values; lookups are done with
+     * mProbe to avoid creating a key object per lookup:
+     */
+    private final Hashtable mGlyphs = new Hashtable();
+    private final Glyph mProbe = new Glyph();
+
+    /* LRU list; head is the most recently used glyph: */
+    private Glyph mHead = null, mTail = null;
+
+    public ScaledGlyphCache(int maxGlyphs)
+    {
+	mMaxGlyphs = maxGlyphs;
+    }
+
+    /**
+     * Returns the cache shared by all displays.
+     */
+    public static ScaledGlyphCache getInstance() { return sInstance; }
+
+    /**
+     * Method for getting the scaled glyph for given character; it is
+     * rendered if not yet in the cache.
+     *
+     * @param cellWidth Width of a (normal-sized) character cell; glyph
+     *   returned is twice as wide
+     * @param cellHeight Height of a character cell; glyph returned
+     *   is of the same height (for double-height lines, one half
+     *   of the doubled glyph, depending on mode)
+     * @param baseline Offset of the baseline, from the top of the cell
+     */
+    public synchronized Image getGlyph(Font font, int cellWidth,
+				       int cellHeight, int baseline,
+				       char c, int mode, Color fg, Color bg)
+    {
+	Glyph probe = mProbe;
+	probe.set(font, cellWidth, cellHeight, baseline, c, mode,
+		  fg.getRGB(), bg.getRGB());
+	Glyph glyph = (Glyph) mGlyphs.get(probe);
+
+	if (glyph != null) {
+	    if (glyph != mHead) {
+		unlink(glyph);
+		linkFirst(glyph);
+	    }
+	    return glyph.mImage;
+	}
+
+	if (mGlyphs.size() >= mMaxGlyphs) {
+	    Glyph old = mTail;
+	    unlink(old);
+	    mGlyphs.remove(old);
+	    old.mImage.flush();
+	}
+	glyph = new Glyph();
+	glyph.set(font, cellWidth, cellHeight, baseline, c, mode,
+		  probe.mFg, probe.mBg);
+	glyph.mImage = render(glyph, fg, bg);
+	mGlyphs.put(glyph, glyph);
+	linkFirst(glyph);
+	return glyph.mImage;
+    }
+
+    /**
+     * Method for discarding all the cached glyphs.
+     */
+    public synchronized void clear()
+    {
+	for (Glyph g = mHead; g != null; g = g.mNext) {
+	    g.mImage.flush();
+	}
+	mGlyphs.clear();
+	mHead = mTail = null;
+    }
+
+    /* *** Rendering: *** */
+
+    private Image render(Glyph glyph, Color fg, Color bg)
+    {
+	int w = glyph.mWidth;
+	int h = glyph.mHeight;
+	BufferedImage img = new BufferedImage(2 * w, h,
+					      BufferedImage.TYPE_INT_RGB);
+	Graphics2D g = img.createGraphics();
+
+	g.setColor(bg);
+	g.fillRect(0, 0, 2 * w, h);
+	g.setColor(fg);
+	// Bottom half is the doubled glyph moved up by one cell:
+	if (glyph.mMode == MODE_DOUBLE_HEIGHT_BOTTOM) {
+	    g.translate(0, -h);
+	}
+	g.scale(2.0, (glyph.mMode == MODE_DOUBLE_WIDTH) ? 1.0 : 2.0);
+	if (!drawSymbol(g, glyph.mChar, glyph.mFont, 0, 0, w, h,
+			glyph.mBaseline)) {
+	    char[] text = new char[] { glyph.mChar };
+	    g.setFont(glyph.mFont);
+	    g.drawChars(text, 0, 1, 0, glyph.mBaseline);
+	}
+	g.dispose();
+	return img;
+    }
+
+    /**
+     * Method for drawing the DEC special graphics symbols that fonts
+     * do not (usually) have; symbols are identified by their Unicode
+     * equivalents. Colour is to be set by the caller.
+     *
+     * @return True if the char was a symbol, and was drawn; false if
+     *   it's a normal char, to be drawn using the font.
+     */
+    public static boolean drawSymbol(Graphics g, char c, Font font,
+				     int x, int y, int w, int h, int base)
+    {
+	if (!isSymbol(c)) {
+	    return false;
+	}
+
+	boolean bold = font.isBold();
+	int hc = (w - 1) / 2; // horizontal centre
+	int vc = (h - 1) / 2; // vertical centre
+
+	g.translate(x, y);
+
+	switch (c) {
+	case '\u25C6': // Diamond
+	    g.fillPolygon(new int[] { hc, w - 1, hc, 0 },
+			  new int[] { 0, vc, h - 1, vc }, 4);
+	    break;
+
+	case '\u2592': // Checkerboard; bolded identical to non-bolded
+	    for (int yy = 0; yy < h; ++yy) {
+		for (int xx = (yy & 1); xx < w; xx += 2) {
+		    g.drawLine(xx, yy, xx, yy);
+		}
+	    }
+	    break;
+
+	case '\u2409': // Digraph HT
+	    drawDigraph(g, font, w, h, "h", "t");
+	    break;
+	case '\u240C': // Digraph FF
+	    drawDigraph(g, font, w, h, "f", "f");
+	    break;
+	case '\u240D': // Digraph CR
+	    drawDigraph(g, font, w, h, "c", "r");
+	    break;
+	case '\u240A': // Digraph LF
+	    drawDigraph(g, font, w, h, "l", "f");
+	    break;
+	case '\u2424': // Digraph NL
+	    drawDigraph(g, font, w, h, "n", "l");
+	    break;
+	case '\u240B': // Digraph VT
+	    drawDigraph(g, font, w, h, "v", "t");
+	    break;
+
+	case '\u2518': // SE-corner
+	    vLine(g, hc, 0, vc, bold);
+	    hLine(g, 0, hc, vc, bold);
+	    break;
+	case '\u2510': // NE-corner
+	    hLine(g, 0, hc, vc, bold);
+	    vLine(g, hc, vc, h - 1, bold);
+	    break;
+	case '\u250C': // NW-corner
+	    vLine(g, hc, vc, h - 1, bold);
+	    hLine(g, hc, w - 1, vc, bold);
+	    break;
+	case '\u2514': // SW-corner
+	    vLine(g, hc, 0, vc, bold);
+	    hLine(g, hc, w - 1, vc, bold);
+	    break;
+	case '\u253C': // Crossing lines
+	    vLine(g, hc, 0, h - 1, bold);
+	    hLine(g, 0, w - 1, vc, bold);
+	    break;
+
+	case '\u23BA': // Horiz line, scan 1 (top)
+	    hLine(g, 0, w - 1, 0, bold);
+	    break;
+	case '\u23BB': // Horiz line, scan 3 (upper)
+	    hLine(g, 0, w - 1, vc / 2, bold);
+	    break;
+	case '\u2500': // Horiz line, scan 5 (center)
+	    hLine(g, 0, w - 1, vc, bold);
+	    break;
+	case '\u23BC': // Horiz line, scan 7 (lower)
+	    hLine(g, 0, w - 1, (vc + h - 1) / 2, bold);
+	    break;
+	case '\u23BD': // Horiz line, scan 9 (bottom)
+	    hLine(g, 0, w - 1, bold ? (h - 2) : (h - 1), bold);
+	    break;
+
+	case '\u251C': // Left "T" (I-)
+	    vLine(g, hc, 0, h - 1, bold);
+	    hLine(g, hc, w - 1, vc, bold);
+	    break;
+	case '\u2524': // Right "T" (-I)
+	    vLine(g, hc, 0, h - 1, bold);
+	    hLine(g, 0, hc, vc, bold);
+	    break;
+	case '\u2534': // Bottom "T" (I_)
+	    vLine(g, hc, 0, vc, bold);
+	    hLine(g, 0, w - 1, vc, bold);
+	    break;
+	case '\u252C': // Top "T" (T)
+	    vLine(g, hc, vc, h - 1, bold);
+	    hLine(g, 0, w - 1, vc, bold);
+	    break;
+	case '\u2502': // Vertical bar (|)
+	    vLine(g, hc, 0, h - 1, bold);
+	    break;
+
+	case '\u2264': // <=
+	    g.setFont(font);
+	    g.drawString("<", 0, base);
+	    g.drawString("_", 0, base);
+	    break;
+	case '\u2265': // >=
+	    g.setFont(font);
+	    g.drawString(">", 0, base);
+	    g.drawString("_", 0, base);
+	    break;
+	case '\u2260': // !=
+	    g.setFont(font);
+	    g.drawString("=", 0, base);
+	    g.drawString("/", 0, base);
+	    break;
+
+	case '\u03C0': // Pi; not in ISO-latin-1
+	    {
+		int top = base / 2;
+		int xs = w / 6;
+		if (xs < 1) {
+		    xs = 1;
+		}
+		hLine(g, xs, w - xs - 1, top, bold);
+		vLine(g, 2 * xs, top, base, bold);
+		vLine(g, w - 2 * xs - 1, top, base, bold);
+	    }
+	    break;
+	}
+
+	g.translate(-x, -y);
+	return true;
+    }
+
+    private final static boolean isSymbol(char c)
+    {
+	switch (c) {
+	case '\u25C6': case '\u2592':
+	case '\u2409': case '\u240C': case '\u240D': case '\u240A':
+	case '\u2424': case '\u240B':
+	case '\u2518': case '\u2510': case '\u250C': case '\u2514':
+	case '\u253C':
+	case '\u23BA': case '\u23BB': case '\u2500': case '\u23BC':
+	case '\u23BD':
+	case '\u251C': case '\u2524': case '\u2534': case '\u252C':
+	case '\u2502':
+	case '\u2264': case '\u2265': case '\u2260': case '\u03C0':
+	    return true;
+	}
+	return false;
+    }
+
+    /* Lines of bold symbols are 2 pixels thick: */
+    private final static void hLine(Graphics g, int x1, int x2, int y,
+				    boolean bold)
+    {
+	g.drawLine(x1, y, x2, y);
+	if (bold) {
+	    g.drawLine(x1, y + 1, x2, y + 1);
+	}
+    }
+
+    private final static void vLine(Graphics g, int x, int y1, int y2,
+				    boolean bold)
+    {
+	g.drawLine(x, y1, x, y2);
+	if (bold) {
+	    g.drawLine(x + 1, y1, x + 1, y2);
+	}
+    }
+
+    /* A digraph is a symbol that consists of two small characters;
+     * first one on the upper left, second one on the lower right.
+     */
+    private final static void drawDigraph(Graphics g, Font font, int w, int h,
+					  String a, String b)
+    {
+	g.setFont(font.deriveFont(font.getSize2D() * 0.6f));
+	g.drawString(a, 0, h / 2);
+	g.drawString(b, w / 3, h - 1);
+    }
+
+    /* *** LRU list handling: *** */
+
+    private void unlink(Glyph glyph)
+    {
+	if (glyph.mPrev == null) {
+	    mHead = glyph.mNext;
+	} else {
+	    glyph.mPrev.mNext = glyph.mNext;
+	}
+	if (glyph.mNext == null) {
+	    mTail = glyph.mPrev;
+	} else {
+	    glyph.mNext.mPrev = glyph.mPrev;
+	}
+	glyph.mPrev = glyph.mNext = null;
+    }
+
+    private void linkFirst(Glyph glyph)
+    {
+	glyph.mNext = mHead;
+	if (mHead != null) {
+	    mHead.mPrev = glyph;
+	}
+	mHead = glyph;
+	if (mTail == null) {
+	    mTail = glyph;
+	}
+    }
+
+    /**
+     * Cache entry; works as its own key.
+     */
+    private final static class
+    Glyph
+    {
+	Font mFont;
+	int mWidth, mHeight, mBaseline;
+	char mChar;
+	int mMode;
+	int mFg, mBg;
+	int mHash;
+
+	Image mImage;
+	Glyph mPrev, mNext;
+
+	void set(Font font, int w, int h, int base, char c, int mode,
+		 int fg, int bg)
+	{
+	    mFont = font;
+	    mWidth = w;
+	    mHeight = h;
+	    mBaseline = base;
+	    mChar = c;
+	    mMode = mode;
+	    mFg = fg;
+	    mBg = bg;
+	    int hash = ((font.hashCode() * 31 + c) * 31 + fg) * 31 + bg;
+	    hash = (hash * 31 + (w << 16) + (h << 8) + base) * 3 + mode;
+	    mHash = hash;
+	}
+
+	public int hashCode() { return mHash; }
+
+	public boolean equals(Object o)
+	{
+	    if (!(o instanceof Glyph)) {
+		return false;
+	    }
+	    Glyph other = (Glyph) o;
+	    return (other.mChar == mChar) && (other.mMode == mMode)
+		&& (other.mFg == mFg) && (other.mBg == mBg)
+		&& (other.mWidth == mWidth) && (other.mHeight == mHeight)
+		&& (other.mBaseline == mBaseline)
+		&& other.mFont.equals(mFont);
+	}
+    }
+}
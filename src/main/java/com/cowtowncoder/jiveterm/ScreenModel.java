@@ -0,0 +1,175 @@
+/************************************************************
+
+Project:
+    JiveTerm.
+
+    A VT52/VT100/VT102-compliant telnet/terminal program
+    written in java.
+
+    (C) 1998-2001 Tatu Saloranta
+    tatu.saloranta@iki.fi.
+
+Module:
+    ScreenModel.java
+
+    Interface Terminal uses to update the screen contents.
+
+Last changed:
+    16-Oct-2026
+
+************************************************************/
+
+package com.cowtowncoder.jiveterm;
+
+import java.awt.Color;
+
+/**
+ * Interface that defines the operations Terminal needs for updating
+ * the screen: printing text, moving the cursor, erasing, inserting and
+ * deleting, scrolling, tab stops, modes and so on. Terminal decodes the
+ * VT-codes, implementations of this interface keep the resulting
+ * screen contents.
+ *
+ * There are two implementations: {@link Display}, the AWT component
+ * that also paints the screen, and {@link MemoryScreen}, which only
+ * keeps the contents in memory. The latter needs no toolkit, fonts or
+ * images (java.awt.Color is only used as a value class for colours),
+ * so it can be used on headless hosts, for automation and for
+ * screen-scraping, and it's cheap enough to have thousands of them.
+ *
+ * Coordinates are 0-based; x is the column, y the row (relative to
+ * the top of the screen).
+ */
+
+interface
+ScreenModel
+{
+    // On/off properties (display modes):
+    public final static int MODE_ORIGIN_RELATIVE = 0x0001;
+    public final static int MODE_AUTO_WRAP = 0x0002;
+    public final static int MODE_SMOOTH_SCROLL = 0x0004;
+    public final static int MODE_INSERT_MODE = 0x0008;
+    public final static int MODE_CURSOR_VISIBLE = 0x0010;
+    public final static int MODE_SCREEN_REVERSED = 0x0020;
+
+    // Default settings for those properties (list of those that are on)
+    public final static int DEFAULT_DISPLAY_FLAGS =
+	MODE_AUTO_WRAP | MODE_CURSOR_VISIBLE;
+
+    /* Are they all saveable? According to docs, only auto-wrap and
+     * origin mode?
+     */
+    public final static int SAVEABLE_DISPLAY_FLAGS =
+	MODE_ORIGIN_RELATIVE | MODE_AUTO_WRAP;
+
+    public final static int DEFAULT_TAB_SIZE = 8;
+
+    /* *** Modes and state: *** */
+
+    /**
+     * @return True if the whole screen was redrawn as a result
+     */
+    public boolean setDisplayMode(int modes, boolean state);
+    public boolean displayMode(int mode);
+    public void setScreenReversed(boolean state);
+    public void softResetDisplay(boolean repaint);
+
+    /**
+     * Returns an opaque object that contains the cursor position,
+     * saveable modes and character attributes; used by Terminal for
+     * DECSC/DECRC.
+     */
+    public Object getDisplayState();
+    public void setDisplayState(Object state);
+
+    public void setColumns132(boolean to132);
+
+    /**
+     * Method for asking the screen to be redrawn completely (no-op if
+     * there's nothing to draw).
+     */
+    public void redrawScreen();
+
+    /**
+     * Method called when a session starts, to count painting done in
+     * the stats (no-op if there's no painting).
+     */
+    public void setStats(SessionStats stats);
+
+    /* *** Character attributes: *** */
+
+    public void resetCharAttrs();
+    public void setNewCharAttrs(int attrs, Color fg, Color bg);
+
+    /* *** Cursor: *** */
+
+    public int getCursorX();
+    public int getCursorY();
+    public void setCursorPosition(int x, int y);
+    public void setCursorX(int x);
+    public void moveCursor(int dx, int dy);
+
+    /* *** Printing text and control chars: *** */
+
+    /**
+     * Method for printing text that is known not to contain control
+     * chars.
+     */
+    public void printText(char[] chars, int start, int len);
+    public void printCarriageReturn();
+    public void printLinefeed(boolean auto);
+    public void printBackspace();
+    public void printTab();
+    public void printBell();
+
+    /* *** Scrolling region and indexing: *** */
+
+    public void setScrollingRegion(int top, int bottom);
+    public void clearScrollingRegion();
+    public void indexUp(int count);
+    public void indexDown(int count);
+    public void indexLeft(int count);
+    public void indexRight(int count);
+
+    /* *** Erasing; 'NonSelected' variants leave protected chars: *** */
+
+    public void eraseLine();
+    public void eraseEOL();
+    public void eraseSOL();
+    public void eraseDown();
+    public void eraseUp();
+    public void eraseScreen();
+    public void eraseLineNonSelected();
+    public void eraseEOLNonSelected();
+    public void eraseSOLNonSelected();
+    public void eraseDownNonSelected();
+    public void eraseUpNonSelected();
+    public void eraseScreenNonSelected();
+    public void eraseChars(int count);
+
+    /* *** Inserting and deleting: *** */
+
+    public void insertChars(int count);
+    public void deleteChars(int count);
+    public void insertLines(int count);
+    public void deleteLines(int count);
+
+    /* *** Line effects (double width/height): *** */
+
+    public void setLineEffectDW(boolean repaint);
+    public void setLineEffectDHTop(boolean repaint);
+    public void setLineEffectDHBottom(boolean repaint);
+    public void setLineEffectNone(boolean repaint);
+    public void setLineEffectTest();
+
+    /* *** Tab stops: *** */
+
+    public void addTab();
+    public void removeTab();
+    public void removeAllTabs();
+
+    /* *** Scrollback: *** */
+
+    public int getArchivedLines();
+    public int getBufferLines();
+}
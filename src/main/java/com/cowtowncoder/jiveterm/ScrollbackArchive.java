@@ -0,0 +1,447 @@
+/************************************************************
+
+Project:
+    JiveTerm.
+
+    A VT52/VT100/VT102-compliant telnet/terminal program
+    written in java.
+
+    (C) 1998-2001 Tatu Saloranta
+    tatu.saloranta@iki.fi.
+
+Module:
+    ScrollbackArchive.java
+
+    On-disk storage for the lines that no longer fit in the
+    in-memory scrollback buffer.
+
+Last changed:
+    16-Oct-2026
+
+************************************************************/
+
+package com.cowtowncoder.jiveterm;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Class that stores lines evicted from the in-memory LineBuffer into
+ * an append-only, memory-mapped temporary file, so that buffer mode
+ * can show the whole history of a session, no matter how long it is.
+ *
+ * There are two files per archive: the data file contains encoded
+ * lines (see {@link #append}), and the index file contains the
+ * offset of each line in the data file (as a long), so lines can
+ * be accessed randomly by their number. Both files are mapped in
+ * fixed-size segments; only the segments currently being written
+ * and read are mapped, so heap usage does not depend on the length
+ * of the history.
+ *
+ * Encoding of a line:
+ *<pre>
+ *   short  length (in chars)
+ *   short  line attributes
+ *   short  number of runs (chars with identical attributes)
+ *   runs:  short length, int flags, int fg (RGB), int bg (RGB)
+ *   chars: length * char
+ *</pre>
+ * Attributes are stored by value, since ids of the CharAttrsTable
+ * may get reused after entries are purged.
+ *
+ * Archive size can be limited: once the limit is reached, segments
+ * are reused from the oldest one on, and the lines in them are
+ * dropped (see {@link #append}). Line numbers passed to
+ * {@link #readLine} are relative to the oldest line still stored.
+ *
+ * Files of all archives go in one temporary directory per process.
+ * Where the platform allows it (unix), files are deleted as soon as
+ * they are opened, so they go away with the archive no matter how
+ * the process ends. Otherwise they are deleted when the archive is
+ * closed; files that could not be deleted then (win32 does not allow
+ * deleting files that are still mapped) are deleted when the next
+ * archive is created, or at the latest by a shutdown hook that
+ * removes the whole directory. Nothing is registered per file, so
+ * opening and closing sessions all day does not use up memory.
+ */
+
+final class
+ScrollbackArchive
+{
+    /* Size of the mapped data segments; no line may span segment
+     * boundaries, so this needs to be bigger than the biggest possible
+     * line (32k chars, all with different attributes)
+     */
+    private final static int DATA_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    /* Index entries are longs; 1M entries (8 megs) per segment: */
+    private final static int INDEX_SEGMENT_SHIFT = 20;
+    private final static int INDEX_SEGMENT_ENTRIES = 1 << INDEX_SEGMENT_SHIFT;
+    private final static int INDEX_SEGMENT_MASK = INDEX_SEGMENT_ENTRIES - 1;
+
+    private final static long INDEX_SEGMENT_SIZE = INDEX_SEGMENT_ENTRIES * 8L;
+
+    private final static int LINE_HEADER_SIZE = 6;
+    private final static int RUN_HEADER_SIZE = 14;
+
+    /* Default limit for the size of an archive (both files), in bytes;
+     * enough for millions of lines:
+     */
+    public final static long DEFAULT_MAX_SIZE = 1024L * 1024L * 1024L;
+
+    /* Directory for the archive files of this process; created when
+     * first needed:
+     */
+    private static File sTempDir = null;
+
+    private final CharAttrsTable mAttrTable;
+
+    /* Number of data segments (and of index segments) that the files
+     * may have; when all are used, the oldest ones are reused:
+     */
+    private final int mMaxSegments;
+
+    private File mDataPath, mIndexPath;
+    private RandomAccessFile mDataFile, mIndexFile;
+    private FileChannel mDataChannel, mIndexChannel;
+
+    /* Segments currently mapped; -1 if none: */
+    private int mWriteSegment = -1, mReadSegment = -1;
+    private MappedByteBuffer mWriteData, mReadData;
+    private int mWriteIndexSegment = -1, mReadIndexSegment = -1;
+    private MappedByteBuffer mWriteIndex, mReadIndex;
+
+    /* Number of the oldest line still stored, number for the next
+     * line, and offset (in data) for the next line. These keep growing
+     * when segments are reused; segment of an offset (or line number)
+     * is mapped to its place in the file modulo mMaxSegments.
+     */
+    private long mFirstLine = 0L;
+    private long mNextLine = 0L;
+    private long mDataEnd = 0L;
+
+    /* Scratch buffer for decoding chars: */
+    private char[] mChars = new char[Display.DEF_COLS];
+
+    public ScrollbackArchive(CharAttrsTable attrTable)
+	throws IOException
+    {
+	this(attrTable, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize Maximum size of the archive files, in bytes; 0
+     *   or less for no limit. Space is used in segments of 24 megs
+     *   (data and index), and at least 2 segments are used.
+     */
+    public ScrollbackArchive(CharAttrsTable attrTable, long maxSize)
+	throws IOException
+    {
+	mAttrTable = attrTable;
+	if (maxSize <= 0L) {
+	    mMaxSegments = Integer.MAX_VALUE;
+	} else {
+	    long segs = maxSize / (DATA_SEGMENT_SIZE + INDEX_SEGMENT_SIZE);
+	    mMaxSegments = (int) Math.min(Math.max(segs, 2L), Integer.MAX_VALUE);
+	}
+	synchronized (ScrollbackArchive.class) {
+	    File dir = getTempDir();
+	    /* Files left over from closed archives (ones that could not
+	     * be deleted at the time) can go now. Files of open archives
+	     * are either deleted already, or can't be deleted:
+	     */
+	    deleteFiles(dir);
+	    mDataPath = File.createTempFile("archive", ".scrollback", dir);
+	    mIndexPath = File.createTempFile("archive", ".scrollidx", dir);
+	    mDataFile = new RandomAccessFile(mDataPath, "rw");
+	    mIndexFile = new RandomAccessFile(mIndexPath, "rw");
+	}
+	mDataChannel = mDataFile.getChannel();
+	mIndexChannel = mIndexFile.getChannel();
+
+	// Open files can be deleted on unix; no need to do it later then:
+	if (mDataPath.delete()) {
+	    mDataPath = null;
+	}
+	if (mIndexPath.delete()) {
+	    mIndexPath = null;
+	}
+    }
+
+    /* *** Public API: *** */
+
+    /**
+     * Returns the number of lines stored (not including ones dropped
+     * because of the size limit).
+     */
+    public int getLineCount() { return (int) (mNextLine - mFirstLine); }
+
+    /**
+     * Method for appending given line to the end of the archive. If
+     * the archive has reached its size limit, the oldest segment is
+     * reused, and the lines in it dropped.
+     *
+     * @return Number of (oldest) lines dropped to make room; 0 if none
+     */
+    public int append(Display.DisplayLine line)
+	throws IOException
+    {
+	long firstLine = mFirstLine;
+	int len = line.getLineLength();
+
+	// First need to know how many runs there are:
+	int runs = 0;
+	int prevAttrs = -1;
+	for (int i = 0; i < len; ++i) {
+	    int attrs = Display.DisplayLine.getCellAttrsId(line.getCell(i));
+	    if (attrs != prevAttrs) {
+		++runs;
+		prevAttrs = attrs;
+	    }
+	}
+
+	int size = LINE_HEADER_SIZE + (runs * RUN_HEADER_SIZE) + (len * 2);
+	long segStart = mDataEnd - (mDataEnd % DATA_SEGMENT_SIZE);
+
+	// Won't fit in the current segment? Let's skip to the next one:
+	if ((mDataEnd + size) > (segStart + DATA_SEGMENT_SIZE)) {
+	    mDataEnd = segStart + DATA_SEGMENT_SIZE;
+	}
+
+	/* Starting to reuse a segment? Lines in it go; first ones whose
+	 * index entries are overwritten, then ones whose data is:
+	 */
+	long indexSeg = mNextLine >>> INDEX_SEGMENT_SHIFT;
+	if (indexSeg >= mMaxSegments && (mNextLine & INDEX_SEGMENT_MASK) == 0) {
+	    long limit = (indexSeg - mMaxSegments + 1) << INDEX_SEGMENT_SHIFT;
+	    if (mFirstLine < limit) {
+		mFirstLine = limit;
+	    }
+	}
+	long dataSeg = mDataEnd / DATA_SEGMENT_SIZE;
+	if (dataSeg >= mMaxSegments && (mDataEnd % DATA_SEGMENT_SIZE) == 0) {
+	    long limit = (dataSeg - mMaxSegments + 1) * DATA_SEGMENT_SIZE;
+	    while (mFirstLine < mNextLine && getLineOffset(mFirstLine) < limit) {
+		++mFirstLine;
+	    }
+	}
+
+	MappedByteBuffer data = getWriteData(mDataEnd);
+	int pos = (int) (mDataEnd % DATA_SEGMENT_SIZE);
+
+	data.putShort(pos, (short) len);
+	data.putShort(pos+2, (short) line.getLineAttrs());
+	data.putShort(pos+4, (short) runs);
+	pos += LINE_HEADER_SIZE;
+
+	for (int i = 0; i < len; ) {
+	    int attrId = Display.DisplayLine.getCellAttrsId(line.getCell(i));
+	    int j = i;
+	    while (++j < len
+		   && Display.DisplayLine.getCellAttrsId(line.getCell(j)) == attrId) {
+		;
+	    }
+	    CharAttrs attrs = mAttrTable.get(attrId);
+	    data.putShort(pos, (short) (j - i));
+	    data.putInt(pos+2, attrs.getAttributes());
+	    data.putInt(pos+6, attrs.getForeground().getRGB());
+	    data.putInt(pos+10, attrs.getBackground().getRGB());
+	    pos += RUN_HEADER_SIZE;
+	    i = j;
+	}
+	for (int i = 0; i < len; ++i) {
+	    data.putChar(pos, line.getChar(i));
+	    pos += 2;
+	}
+
+	MappedByteBuffer index = getWriteIndex(mNextLine);
+	index.putLong((int) (mNextLine & INDEX_SEGMENT_MASK) << 3, mDataEnd);
+	++mNextLine;
+	mDataEnd += size;
+	return (int) (mFirstLine - firstLine);
+    }
+
+    /**
+     * Method for reading the specified line from the archive, into
+     * the given (scratch) line.
+     *
+     * @param index Number of the line to read; 0 is the oldest line
+     *   still stored
+     * @param line Line object to decode contents to; previous contents
+     *   are discarded
+     */
+    public void readLine(int index, Display.DisplayLine line)
+	throws IOException
+    {
+	long offset = getLineOffset(mFirstLine + index);
+	MappedByteBuffer data = getReadData(offset);
+	int pos = (int) (offset % DATA_SEGMENT_SIZE);
+
+	int len = data.getShort(pos);
+	int lineAttrs = data.getShort(pos+2);
+	int runs = data.getShort(pos+4);
+	pos += LINE_HEADER_SIZE;
+
+	if (mChars.length < len) {
+	    mChars = new char[len];
+	}
+	char[] chars = mChars;
+	int charPos = pos + (runs * RUN_HEADER_SIZE);
+	for (int i = 0; i < len; ++i) {
+	    chars[i] = data.getChar(charPos);
+	    charPos += 2;
+	}
+
+	line.clearLine();
+	line.resize(len);
+	line.setLineAttrs(lineAttrs);
+	int col = 0;
+	for (int r = 0; r < runs; ++r) {
+	    int runLen = data.getShort(pos);
+	    CharAttrs attrs = mAttrTable.intern(data.getInt(pos+2),
+						data.getInt(pos+6),
+						data.getInt(pos+10));
+	    line.addChars(chars, col, runLen, attrs, col, len, true);
+	    col += runLen;
+	    pos += RUN_HEADER_SIZE;
+	}
+    }
+
+    /**
+     * Method for releasing the mappings and deleting the files. After
+     * this call the archive can not be used any more.
+     */
+    public void close()
+    {
+	mWriteData = mReadData = null;
+	mWriteIndex = mReadIndex = null;
+	mWriteSegment = mReadSegment = -1;
+	mWriteIndexSegment = mReadIndexSegment = -1;
+	mFirstLine = mNextLine = 0L;
+	try {
+	    mDataFile.close();
+	} catch (IOException ie) { }
+	try {
+	    mIndexFile.close();
+	} catch (IOException ie) { }
+	/* Note: some platforms (win32) do not allow deleting files that
+	 * are still mapped; mappings are only released when they are
+	 * GC'ed. If so, the next archive created deletes them (or the
+	 * shutdown hook, see getTempDir()).
+	 */
+	if (mDataPath != null) {
+	    mDataPath.delete();
+	    mDataPath = null;
+	}
+	if (mIndexPath != null) {
+	    mIndexPath.delete();
+	    mIndexPath = null;
+	}
+    }
+
+    /* *** Internal methods: *** */
+
+    /* Called with the class locked: */
+    private static File getTempDir()
+	throws IOException
+    {
+	if (sTempDir == null) {
+	    File dir = File.createTempFile("jiveterm", ".tmp");
+	    if (!dir.delete() || !dir.mkdir()) {
+		throw new IOException("Can not create directory '"+dir+"'");
+	    }
+	    final File d = dir;
+	    Runtime.getRuntime().addShutdownHook(new Thread("JiveTerm temp cleanup") {
+		    public void run() {
+			deleteFiles(d);
+			d.delete();
+		    }
+		});
+	    sTempDir = dir;
+	}
+	return sTempDir;
+    }
+
+    private static void deleteFiles(File dir)
+    {
+	File[] files = dir.listFiles();
+	if (files != null) {
+	    for (int i = 0; i < files.length; ++i) {
+		files[i].delete();
+	    }
+	}
+    }
+
+    private long getLineOffset(long line)
+	throws IOException
+    {
+	return getReadIndex(line).getLong((int) (line & INDEX_SEGMENT_MASK) << 3);
+    }
+
+    private MappedByteBuffer getWriteData(long offset)
+	throws IOException
+    {
+	int seg = (int) (offset / DATA_SEGMENT_SIZE);
+	if (seg != mWriteSegment) {
+	    mWriteData = mapData(seg);
+	    mWriteSegment = seg;
+	}
+	return mWriteData;
+    }
+
+    private MappedByteBuffer getReadData(long offset)
+	throws IOException
+    {
+	int seg = (int) (offset / DATA_SEGMENT_SIZE);
+	if (seg == mWriteSegment) {
+	    return mWriteData;
+	}
+	if (seg != mReadSegment) {
+	    mReadData = mapData(seg);
+	    mReadSegment = seg;
+	}
+	return mReadData;
+    }
+
+    private MappedByteBuffer mapData(int seg)
+	throws IOException
+    {
+	return mDataChannel.map(FileChannel.MapMode.READ_WRITE,
+				(long) (seg % mMaxSegments) * DATA_SEGMENT_SIZE,
+				DATA_SEGMENT_SIZE);
+    }
+
+    private MappedByteBuffer getWriteIndex(long line)
+	throws IOException
+    {
+	int seg = (int) (line >>> INDEX_SEGMENT_SHIFT);
+	if (seg != mWriteIndexSegment) {
+	    mWriteIndex = mapIndex(seg);
+	    mWriteIndexSegment = seg;
+	}
+	return mWriteIndex;
+    }
+
+    private MappedByteBuffer getReadIndex(long line)
+	throws IOException
+    {
+	int seg = (int) (line >>> INDEX_SEGMENT_SHIFT);
+	if (seg == mWriteIndexSegment) {
+	    return mWriteIndex;
+	}
+	if (seg != mReadIndexSegment) {
+	    mReadIndex = mapIndex(seg);
+	    mReadIndexSegment = seg;
+	}
+	return mReadIndex;
+    }
+
+    private MappedByteBuffer mapIndex(int seg)
+	throws IOException
+    {
+	return mIndexChannel.map(FileChannel.MapMode.READ_WRITE,
+				 (long) (seg % mMaxSegments) * INDEX_SEGMENT_SIZE,
+				 INDEX_SEGMENT_SIZE);
+    }
+}
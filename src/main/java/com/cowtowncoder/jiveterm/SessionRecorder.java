@@ -0,0 +1,126 @@
+/************************************************************
+
+Project:
+    JiveTerm.
+
+    A VT52/VT100/VT102-compliant telnet/terminal program
+    written in java.
+
+    (C) 1998-2001 Tatu Saloranta
+    tatu.saloranta@iki.fi.
+
+Module:
+    SessionRecorder.java
+
+    Records the raw output of the server, with timing
+    information, for later replay.
+
+Last changed:
+    16-Oct-2026
+
+************************************************************/
+
+package com.cowtowncoder.jiveterm;
+
+import java.io.*;
+
+/**
+ * Class that writes everything the connection returns (after telnet
+ * protocol handling, ie. exactly what Terminal gets) to a file, so that
+ * the session can be replayed later using {@link SessionReplay}; either
+ * to see what exactly the server sent (this replaces the old debug
+ * dumps of VT-codes), or to measure how fast Terminal and Display can
+ * process real-world output.
+ *
+ * File format is simple: a header (magic bytes and version), followed by
+ * one record per read done by Terminal. Each record has the time since
+ * the previous record (in microseconds) and the length of the data, both
+ * as variable-length ints (7 bits per byte, least significant first),
+ * followed by the data itself. A single byte of output thus only takes
+ * 2 or 3 bytes of file space.
+ */
+
+final class
+SessionRecorder
+{
+    /* "JTRC" + version: */
+    final static byte[] MAGIC = new byte[] {
+	(byte) 'J', (byte) 'T', (byte) 'R', (byte) 'C'
+    };
+    final static int VERSION = 1;
+
+    private final File mPath;
+    private OutputStream mOut;
+
+    private long mLastTime;
+    private long mTotalBytes = 0L;
+
+    /* Scratch buffer for the record header: */
+    private final byte[] mHeader = new byte[20];
+
+    public SessionRecorder(File path)
+	throws IOException
+    {
+	mPath = path;
+	mOut = new BufferedOutputStream(new FileOutputStream(path), 16000);
+	mOut.write(MAGIC);
+	mOut.write(VERSION);
+	mLastTime = System.nanoTime();
+    }
+
+    public File getPath() { return mPath; }
+
+    /**
+     * Returns the number of data bytes (not including record headers)
+     * recorded so far.
+     */
+    public long getTotalBytes() { return mTotalBytes; }
+
+    /**
+     * Method for appending given data as the next record.
+     */
+    public void record(byte[] buf, int start, int len)
+	throws IOException
+    {
+	if (len <= 0 || mOut == null) {
+	    return;
+	}
+	long now = System.nanoTime();
+	long delta = (now - mLastTime) / 1000L;
+	mLastTime = now;
+
+	int hlen = putVarInt(mHeader, 0, delta);
+	hlen = putVarInt(mHeader, hlen, len);
+	mOut.write(mHeader, 0, hlen);
+	mOut.write(buf, start, len);
+	mTotalBytes += len;
+    }
+
+    public void flush()
+	throws IOException
+    {
+	if (mOut != null) {
+	    mOut.flush();
+	}
+    }
+
+    public void close()
+	throws IOException
+    {
+	if (mOut != null) {
+	    OutputStream out = mOut;
+	    mOut = null;
+	    out.close();
+	}
+    }
+
+    private final static int putVarInt(byte[] buf, int ptr, long value)
+    {
+	while (value >= 0x80L) {
+	    buf[ptr++] = (byte) (0x80 | (value & 0x7F));
+	    value >>>= 7;
+	}
+	buf[ptr++] = (byte) value;
+	return ptr;
+    }
+}
@@ -0,0 +1,245 @@
+/************************************************************
+
+Project:
+    JiveTerm.
+
+    A VT52/VT100/VT102-compliant telnet/terminal program
+    written in java.
+
+    (C) 1998-2001 Tatu Saloranta
+    tatu.saloranta@iki.fi.
+
+Module:
+    SessionReplay.java
+
+    Reads sessions recorded by SessionRecorder, for
+    feeding them back to Terminal.
+
+Last changed:
+    16-Oct-2026
+
+************************************************************/
+
+package com.cowtowncoder.jiveterm;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Class that reads a session recorded with {@link SessionRecorder}, and
+ * returns the data one recorded chunk at a time (split if the caller's
+ * buffer is smaller); Terminal uses it in place of a connection (see
+ * Terminal.replaySession()). Unlike JiveConnection.lendBytes(), which
+ * lends slices of the connection's buffer, {@link #getBytes} copies
+ * the data to the caller's buffer; Terminal then processes it exactly
+ * like a lent slice.
+ *
+ * Replay can either be done at the original speed (records are returned
+ * no sooner than they were received originally, relative to the start
+ * of the replay), or as fast as possible; the latter is useful for
+ * finding out how fast the terminal emulation itself is, without
+ * network or server affecting the results.
+ *
+ * The file is accessed through memory-mapped buffers, so data is copied
+ * directly from the mapped pages to the caller's buffer. Big files are
+ * mapped one window at a time.
+ */
+
+final class
+SessionReplay
+{
+    /* Size of the mapped window; records never span windows (window is
+     * made bigger if a record needs it)
+     */
+    private final static int WINDOW_SIZE = 16 * 1024 * 1024;
+
+    private final File mPath;
+    private RandomAccessFile mFile;
+    private FileChannel mChannel;
+    private final long mFileSize;
+
+    private MappedByteBuffer mWindow = null;
+    private long mWindowStart = 0L;
+
+    /* Offset of the next record header, in the file: */
+    private long mNextRecord;
+
+    /* Bytes of the current record not yet returned: */
+    private int mLeft = 0;
+
+    /* Speed can be switched by another thread (see setMaxSpeed()): */
+    private volatile boolean mMaxSpeed;
+
+    /* Time when replay started (nanoTime()), and time the current record
+     * is due at, relative to the start (microseconds):
+     */
+    private volatile long mStartTime = 0L;
+    private volatile long mRecordTime = 0L;
+
+    /* Longest single sleep while waiting for a record, so that switching
+     * to maximum speed takes effect soon enough (nanoseconds):
+     */
+    private final static long MAX_WAIT_NANOS = 100L * 1000L * 1000L;
+
+    public SessionReplay(File path, boolean maxSpeed)
+	throws IOException
+    {
+	mPath = path;
+	mMaxSpeed = maxSpeed;
+	mFile = new RandomAccessFile(path, "r");
+	mChannel = mFile.getChannel();
+	mFileSize = mChannel.size();
+
+	byte[] magic = SessionRecorder.MAGIC;
+	int hlen = magic.length + 1;
+	boolean ok = (mFileSize >= hlen);
+	if (ok) {
+	    mapWindow(0L, hlen);
+	    for (int i = 0; i < magic.length; ++i) {
+		if (mWindow.get(i) != magic[i]) {
+		    ok = false;
+		}
+	    }
+	    ok = ok && (mWindow.get(magic.length) == SessionRecorder.VERSION);
+	}
+	if (!ok) {
+	    close();
+	    throw new IOException("File '"+path+"' is not a JiveTerm session recording.");
+	}
+	mNextRecord = hlen;
+    }
+
+    public File getPath() { return mPath; }
+
+    public boolean isMaxSpeed() { return mMaxSpeed; }
+
+    /**
+     * Method for switching between original speed and maximum
+     * speed; can be called while replay is in progress.
+     */
+    public void setMaxSpeed(boolean state)
+    {
+	if (mMaxSpeed && !state) {
+	    // Original timing continues from the current record:
+	    mStartTime = System.nanoTime() - (mRecordTime * 1000L);
+	}
+	mMaxSpeed = state;
+    }
+
+    /**
+     * Method for reading the next chunk of data; blocks (when replaying
+     * at original speed) until it is time to return the data.
+     *
+     * @return Number of bytes read, or -1 if the end of the recording
+     *   has been reached.
+     */
+    public int getBytes(byte[] buf)
+	throws IOException, InterruptedException
+    {
+	if (mLeft == 0) {
+	    if (!nextRecord()) {
+		return -1;
+	    }
+	    if (!mMaxSpeed) {
+		waitUntilDue();
+	    }
+	}
+	int len = (mLeft < buf.length) ? mLeft : buf.length;
+	mWindow.get(buf, 0, len);
+	mLeft -= len;
+	return len;
+    }
+
+    public void close()
+    {
+	mWindow = null;
+	if (mFile != null) {
+	    try {
+		mFile.close();
+	    } catch (IOException ie) { }
+	    mFile = null;
+	    mChannel = null;
+	}
+    }
+
+    /* *** Internal methods: *** */
+
+    private boolean nextRecord()
+	throws IOException
+    {
+	// Headers are at most 10 + 5 bytes:
+	long ptr = mNextRecord;
+	if (ptr >= mFileSize) {
+	    return false;
+	}
+	ensureMapped(ptr, (int) Math.min(15L, mFileSize - ptr));
+	mWindow.position((int) (ptr - mWindowStart));
+	long delta = getVarInt();
+	int len = (int) getVarInt();
+	long dataStart = mWindowStart + mWindow.position();
+	if (len < 0 || (dataStart + len) > mFileSize) {
+	    throw new IOException("Corrupt session recording '"+mPath
+				  +"' (record at "+ptr+")");
+	}
+	ensureMapped(dataStart, len);
+	mWindow.position((int) (dataStart - mWindowStart));
+	mNextRecord = dataStart + len;
+	mLeft = len;
+
+	if (mStartTime == 0L) { // first record starts the replay
+	    mStartTime = System.nanoTime();
+	} else {
+	    mRecordTime += delta;
+	}
+	return true;
+    }
+
+    private void waitUntilDue()
+	throws InterruptedException
+    {
+	long left;
+	while (!mMaxSpeed
+	       && (left = mStartTime + (mRecordTime * 1000L) - System.nanoTime()) > 0L) {
+	    if (left > MAX_WAIT_NANOS) {
+		left = MAX_WAIT_NANOS;
+	    }
+	    Thread.sleep(left / 1000000L, (int) (left % 1000000L));
+	}
+    }
+
+    private long getVarInt()
+	throws IOException
+    {
+	long value = 0L;
+	for (int shift = 0; shift < 64; shift += 7) {
+	    if (!mWindow.hasRemaining()) {
+		break;
+	    }
+	    int b = mWindow.get();
+	    value |= ((long) (b & 0x7F)) << shift;
+	    if (b >= 0) {
+		return value;
+	    }
+	}
+	throw new IOException("Corrupt session recording '"+mPath+"'");
+    }
+
+    private void ensureMapped(long offset, int len)
+	throws IOException
+    {
+	if (mWindow != null && offset >= mWindowStart
+	    && (offset + len) <= (mWindowStart + mWindow.limit())) {
+	    return;
+	}
+	mapWindow(offset, len);
+    }
+
+    private void mapWindow(long offset, int len)
+	throws IOException
+    {
+	long size = Math.min(Math.max(WINDOW_SIZE, len), mFileSize - offset);
+	mWindow = mChannel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+	mWindowStart = offset;
+    }
+}
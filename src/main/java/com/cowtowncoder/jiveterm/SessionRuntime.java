@@ -0,0 +1,229 @@
+/************************************************************
+
+Project:
+    JiveTerm.
+
+    A VT52/VT100/VT102-compliant telnet/terminal program
+    written in java.
+
+    (C) 1998-2001 Tatu Saloranta
+    tatu.saloranta@iki.fi.
+
+Module:
+    SessionRuntime.java
+
+    Creates and tracks the threads that run sessions.
+
+Last changed:
+    16-Oct-2026
+
+************************************************************/
+
+package com.cowtowncoder.jiveterm;
+
+import java.lang.reflect.Method;
+
+/**
+ * Class that runs sessions (Terminal reading and parsing what a
+ * connection returns), as well as other per-connection helper tasks
+ * (connection writers, SSH initialization).
+ *
+ * When the JVM supports virtual threads (Java 21 and later), all tasks
+ * run on them; a blocked read then only ties up a small heap object,
+ * not a platform thread, so one JVM can easily run thousands of
+ * sessions. On older JVMs plain daemon threads are used. Virtual
+ * threads are found using reflection, so that the code still compiles
+ * (and runs) on older JDKs.
+ *
+ * Sessions are stopped co-operatively ({@link Session#cancel}): the
+ * Terminal is told to stop, and the thread interrupted in case it's
+ * sleeping; closing the connection (which the caller does anyway)
+ * unblocks any pending read. Thread.stop() is never needed.
+ *
+ * A session that ends because the input ended (server closed the
+ * connection, process exited) closes the connection itself, telling
+ * JiveTerm (if any) about it; either way, the connection's writer
+ * thread is stopped when the session ends, so that nothing of a
+ * finished session is left behind.
+ *
+ * Each session gets a {@link SessionStats}, registered as an MXBean
+ * for as long as the session runs.
+ */
+
+final class
+SessionRuntime
+{
+    private final static SessionRuntime sInstance = new SessionRuntime();
+
+    /* Thread.Builder (for virtual threads) and its unstarted() method,
+     * if available:
+     */
+    private final Object mVirtualBuilder;
+    private final Method mUnstarted;
+
+    private int mActiveSessions = 0;
+
+    private SessionRuntime()
+    {
+	Object builder = null;
+	Method unstarted = null;
+	try {
+	    Method m = Thread.class.getMethod("ofVirtual", new Class[0]);
+	    builder = m.invoke(null, new Object[0]);
+	    Class builderClass = Class.forName("java.lang.Thread$Builder");
+	    unstarted = builderClass.getMethod("unstarted",
+					       new Class[] { Runnable.class });
+	} catch (Exception e) { // not available (or not enabled)
+	    builder = null;
+	    unstarted = null;
+	}
+	mVirtualBuilder = builder;
+	mUnstarted = unstarted;
+    }
+
+    public static SessionRuntime getInstance() { return sInstance; }
+
+    public boolean usesVirtualThreads() { return mVirtualBuilder != null; }
+
+    /**
+     * Returns the number of sessions started and not yet finished.
+     */
+    public synchronized int getActiveSessions() { return mActiveSessions; }
+
+    /**
+     * Method for creating (but not starting) a thread for running
+     * given task; virtual if possible, a daemon thread otherwise.
+     */
+    public Thread newThread(String name, Runnable task)
+    {
+	Thread t = null;
+
+	if (mVirtualBuilder != null) {
+	    // Builders are not thread-safe:
+	    synchronized (this) {
+		try {
+		    t = (Thread) mUnstarted.invoke(mVirtualBuilder,
+						   new Object[] { task });
+		} catch (Exception e) {
+		    t = null; // shouldn't happen; let's fall back
+		}
+	    }
+	}
+	if (t == null) {
+	    t = new Thread(task);
+	    t.setDaemon(true);
+	}
+	t.setName(name);
+	return t;
+    }
+
+    /**
+     * Method for starting a session: Terminal handling the input from
+     * given connection, until the connection is closed or the session
+     * cancelled.
+     */
+    public Session startSession(String name, Terminal terminal,
+				JiveConnection conn)
+    {
+	SessionStats stats = new SessionStats(name, conn);
+	terminal.setStats(stats);
+	conn.setStats(stats);
+	stats.register();
+	Session s = new Session(terminal, conn, stats);
+	Thread t = newThread(name, s);
+	s.mThread = t;
+	synchronized (this) {
+	    ++mActiveSessions;
+	}
+	t.start();
+	return s;
+    }
+
+    private synchronized void sessionDone()
+    {
+	--mActiveSessions;
+    }
+
+    /**
+     * Handle to a running session.
+     */
+    public final class
+    Session
+	implements Runnable
+    {
+	private final Terminal mTerminal;
+	private final JiveConnection mConnection;
+	private final SessionStats mStats;
+	Thread mThread;
+
+	private volatile boolean mCancelled = false;
+	private volatile boolean mDone = false;
+
+	Session(Terminal t, JiveConnection c, SessionStats stats)
+	{
+	    mTerminal = t;
+	    mConnection = c;
+	    mStats = stats;
+	}
+
+	public Terminal getTerminal() { return mTerminal; }
+	public JiveConnection getConnection() { return mConnection; }
+	public SessionStats getStats() { return mStats; }
+
+	public boolean isCancelled() { return mCancelled; }
+	public boolean isDone() { return mDone; }
+
+	public void run()
+	{
+	    try {
+		mTerminal.handleConnection(mConnection);
+	    } finally {
+		/* Whoever cancelled the session closes the connection;
+		 * otherwise the other end did, and it's up to us:
+		 */
+		if (!mCancelled) {
+		    mConnection.informDisconnect(true);
+		}
+		mConnection.stopWriter();
+		mStats.unregister();
+		mDone = true;
+		sessionDone();
+	    }
+	}
+
+	/**
+	 * Method for asking the session to stop; returns right away.
+	 * The caller is expected to close the connection too, so that
+	 * a pending read returns.
+	 */
+	public void cancel()
+	{
+	    if (mCancelled) {
+		return;
+	    }
+	    mCancelled = true;
+	    mTerminal.cancel();
+	    // No point in interrupting ourselves...
+	    Thread t = mThread;
+	    if (t != null && t != Thread.currentThread()) {
+		t.interrupt();
+	    }
+	}
+
+	/**
+	 * Method for waiting until the session has finished, for at most
+	 * given time (in msecs; 0 means no limit).
+	 *
+	 * @return True if the session has finished
+	 */
+	public boolean join(long msecs)
+	    throws InterruptedException
+	{
+	    Thread t = mThread;
+	    if (t != null && t != Thread.currentThread()) {
+		t.join(msecs);
+	    }
+	    return mDone;
+	}
+    }
+}
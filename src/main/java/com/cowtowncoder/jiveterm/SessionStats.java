@@ -0,0 +1,224 @@
+/************************************************************
+
+Project:
+    JiveTerm.
+
+    A VT52/VT100/VT102-compliant telnet/terminal program
+    written in java.
+
+    (C) 1998-2001 Tatu Saloranta
+    tatu.saloranta@iki.fi.
+
+Module:
+    SessionStats.java
+
+    Counters for a session's input and painting, visible
+    through JMX.
+
+Last changed:
+    16-Oct-2026
+
+************************************************************/
+
+package com.cowtowncoder.jiveterm;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Class that keeps count of what a session does: how much input the
+ * connection reads and Terminal parses (and what kind of VT-codes it
+ * contains), how often and how much Display paints, and how much
+ * time goes to parsing and painting. SessionRuntime creates one for
+ * each session and registers it as an MXBean, so that unattended
+ * sessions can be watched with any JMX client.
+ *
+ * Updating has to be cheap enough to be always on. Every counter has
+ * just one writer: input counters are only updated by the session
+ * thread, paint counters only with the Display lock held. So no atomic
+ * read-modify-write is needed; the new value is just stored with
+ * lazySet(), which (unlike a volatile write) needs no memory barrier,
+ * but still gets readers a consistent (if slightly stale) value. The
+ * input and paint counters are in separate arrays, padded so that the
+ * two threads don't write to the same cache line.
+ */
+
+final class
+SessionStats
+    implements SessionStatsMXBean
+{
+    public final static String DOMAIN = "com.cowtowncoder.jiveterm";
+
+    /* Indexes of the input counters: */
+    final static int BYTES_READ = 0;
+    final static int BYTES_PARSED = 1;
+    final static int PRINTABLE_BYTES = 2;
+    final static int CODES_BRACKET = 3;
+    final static int CODES_QUESTION = 4;
+    final static int CODES_DOLLAR = 5;
+    final static int CODES_SPECIAL = 6;
+    final static int CODES_OTHER = 7;
+    final static int PARSE_NANOS = 8;
+
+    /* Indexes of the paint counters: */
+    final static int PAINTS = 0;
+    final static int CELLS = 1;
+    final static int PIXELS = 2;
+    final static int LAST_CELLS = 3;
+    final static int LAST_PIXELS = 4;
+    final static int PAINT_NANOS = 5;
+
+    /* Counters are followed by this many unused slots (64 bytes),
+     * to keep the arrays on separate cache lines:
+     */
+    private final static int PADDING = 8;
+
+    private final static Object sIdLock = new Object();
+    private static int sNextId = 1;
+
+    private final String mName;
+    private final String mConnectionType;
+    private final AtomicLongArray mInput = new AtomicLongArray(PARSE_NANOS + 1 + PADDING);
+    private final AtomicLongArray mPaint = new AtomicLongArray(PAINT_NANOS + 1 + PADDING);
+
+    /* For the scrollback gauges; read when asked: */
+    private volatile ScreenModel mDisplay = null;
+
+    private ObjectName mObjectName = null;
+
+    public SessionStats(String name, JiveConnection conn)
+    {
+	mName = name;
+	mConnectionType = (conn == null) ? "none" : conn.getClass().getName();
+    }
+
+    void setDisplay(ScreenModel d) { mDisplay = d; }
+
+    /* *** Updating; only called by the counter's single writer: *** */
+
+    final void addInput(int ix, long amount)
+    {
+	mInput.lazySet(ix, mInput.get(ix) + amount);
+    }
+
+    final void countInput(int ix)
+    {
+	mInput.lazySet(ix, mInput.get(ix) + 1);
+    }
+
+    /**
+     * Called by Display after each doPaint().
+     *
+     * @param cells Number of character cells painted
+     * @param pixels Number of pixels painted
+     * @param nanos Time doPaint() took
+     */
+    final void paintDone(long cells, long pixels, long nanos)
+    {
+	AtomicLongArray a = mPaint;
+	a.lazySet(PAINTS, a.get(PAINTS) + 1);
+	a.lazySet(CELLS, a.get(CELLS) + cells);
+	a.lazySet(PIXELS, a.get(PIXELS) + pixels);
+	a.lazySet(LAST_CELLS, cells);
+	a.lazySet(LAST_PIXELS, pixels);
+	a.lazySet(PAINT_NANOS, a.get(PAINT_NANOS) + nanos);
+    }
+
+    /* *** Registration: *** */
+
+    /**
+     * Method for registering the stats with the platform MBean server;
+     * failures are not fatal (the session just won't be visible).
+     */
+    public synchronized void register()
+    {
+	if (mObjectName != null) {
+	    return;
+	}
+	int id;
+	synchronized (sIdLock) {
+	    id = sNextId++;
+	}
+	try {
+	    ObjectName on = new ObjectName(DOMAIN+":type=Session,id="+id
+					   +",name="+ObjectName.quote(mName));
+	    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	    server.registerMBean(this, on);
+	    mObjectName = on;
+	} catch (Exception e) { // SecurityException too
+	    System.err.println("Warning: could not register session stats for '"
+			       +mName+"': "+e);
+	}
+    }
+
+    public synchronized void unregister()
+    {
+	if (mObjectName == null) {
+	    return;
+	}
+	try {
+	    ManagementFactory.getPlatformMBeanServer().unregisterMBean(mObjectName);
+	} catch (Exception e) {
+	    // Already gone; fine
+	}
+	mObjectName = null;
+    }
+
+    /* *** SessionStatsMXBean implementation: *** */
+
+    public String getName() { return mName; }
+    public String getConnectionType() { return mConnectionType; }
+
+    public long getBytesRead() { return mInput.get(BYTES_READ); }
+    public long getBytesParsed() { return mInput.get(BYTES_PARSED); }
+    public long getPrintableBytes() { return mInput.get(PRINTABLE_BYTES); }
+
+    public long getBracketCodes() { return mInput.get(CODES_BRACKET); }
+    public long getQuestionCodes() { return mInput.get(CODES_QUESTION); }
+    public long getDollarCodes() { return mInput.get(CODES_DOLLAR); }
+    public long getSpecialCodes() { return mInput.get(CODES_SPECIAL); }
+    public long getOtherCodes() { return mInput.get(CODES_OTHER); }
+
+    public long getParseTime() { return mInput.get(PARSE_NANOS) / 1000000L; }
+
+    public long getPaintCount() { return mPaint.get(PAINTS); }
+    public long getCellsPainted() { return mPaint.get(CELLS); }
+    public long getPixelsPainted() { return mPaint.get(PIXELS); }
+    public long getLastPaintCells() { return mPaint.get(LAST_CELLS); }
+    public long getLastPaintPixels() { return mPaint.get(LAST_PIXELS); }
+
+    public double getAverageCellsPerPaint()
+    {
+	long paints = mPaint.get(PAINTS);
+	return (paints == 0L) ? 0.0 : ((double) mPaint.get(CELLS) / paints);
+    }
+
+    public long getPaintTime() { return mPaint.get(PAINT_NANOS) / 1000000L; }
+
+    public int getArchivedLines()
+    {
+	ScreenModel d = mDisplay;
+	return (d == null) ? 0 : d.getArchivedLines();
+    }
+
+    public int getBufferLines()
+    {
+	ScreenModel d = mDisplay;
+	return (d == null) ? 0 : d.getBufferLines();
+    }
+
+    /* Not done by the writers, so a count being updated at the same
+     * time may survive the reset; good enough for monitoring.
+     */
+    public void reset()
+    {
+	for (int i = 0; i <= PARSE_NANOS; ++i) {
+	    mInput.set(i, 0L);
+	}
+	for (int i = 0; i <= PAINT_NANOS; ++i) {
+	    mPaint.set(i, 0L);
+	}
+    }
+}
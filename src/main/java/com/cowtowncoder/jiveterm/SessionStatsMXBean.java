@@ -0,0 +1,82 @@
+/************************************************************
+
+Project:
+    JiveTerm.
+
+    A VT52/VT100/VT102-compliant telnet/terminal program
+    written in java.
+
+    (C) 1998-2001 Tatu Saloranta
+    tatu.saloranta@iki.fi.
+
+Module:
+    SessionStatsMXBean.java
+
+    Management interface of the per-session statistics.
+
+Last changed:
+    16-Oct-2026
+
+************************************************************/
+
+package com.cowtowncoder.jiveterm;
+
+/**
+ * Interface through which JMX clients (jconsole and such) see the
+ * statistics of a running session; see {@link SessionStats}. Counters
+ * are totals since the session started; times are in milliseconds.
+ */
+
+public interface
+SessionStatsMXBean
+{
+    public String getName();
+    public String getConnectionType();
+
+    /* *** Input side: *** */
+
+    /**
+     * Bytes read from the server by the connection (before telnet
+     * protocol bytes are removed).
+     */
+    public long getBytesRead();
+
+    /**
+     * Bytes passed to Terminal for parsing.
+     */
+    public long getBytesParsed();
+
+    /**
+     * Bytes displayed as text (ie. not control chars or VT-codes).
+     */
+    public long getPrintableBytes();
+
+    public long getBracketCodes();
+    public long getQuestionCodes();
+    public long getDollarCodes();
+    public long getSpecialCodes();
+    public long getOtherCodes();
+
+    /**
+     * Time spent handling input (excluding time spent waiting for it).
+     */
+    public long getParseTime();
+
+    /* *** Output (painting) side: *** */
+
+    public long getPaintCount();
+    public long getCellsPainted();
+    public long getPixelsPainted();
+    public long getLastPaintCells();
+    public long getLastPaintPixels();
+    public double getAverageCellsPerPaint();
+    public long getPaintTime();
+
+    public int getArchivedLines();
+    public int getBufferLines();
+
+    /**
+     * Sets all counters back to zero.
+     */
+    public void reset();
+}
@@ -14,10 +14,28 @@ Description:
     Simple utility class that represents telnet-connections
 
 Last changed:
-    24-Sep-1999, TSa
+    16-Oct-2026
 
 Changes:
 
+  16-Oct-2026:
+    Input is scanned for IAC, CR and NULL bytes a word at a
+    time (using ControlScanner), and the data between them is
+    copied as is; the byte-by-byte handling is only needed for
+    the protocol bytes.
+    The data is no longer copied at all, but lent to Terminal
+    as slices of the input buffer.
+    Output is written by JiveConnection's writer thread.
+    Can be used without a JiveTerm instance (master may be
+    null), for headless sessions and LoopbackSoak; NAWS then
+    reports the size last sent (80x24 by default), echo
+    negotiation doesn't change any local echo, and
+    warnings go to System.err.
+    Speed limit is applied by JiveConnection.getMoreInput(),
+    a read at a time.
+    User is warned if input is dropped because the server
+    has stopped reading it.
+
 **************************************/
 
 package com.cowtowncoder.jiveterm;
@@ -27,7 +45,7 @@ import java.io.*;
 import java.awt.Dimension;
 
 public final class TelnetConnection
-implements JiveConnection
+extends JiveConnection
 {
     /** Constants: */
     public final static int TELNET_PORT = 23;
@@ -167,7 +185,7 @@ implements JiveConnection
     protected String hostName;
     protected InetAddress hostAddress;
     protected Terminal terminal = null;
-    protected JiveTerm jiveterm = null;
+    protected JiveTerm jiveterm = null; // null for headless sessions
 
     // For telnet-connections:
     protected boolean sendNAWS = false;
@@ -179,6 +197,14 @@ implements JiveConnection
     // Debug-stuff:
     public final static boolean debugConnection = true;
 
+    /* Used for finding the protocol bytes in the input: */
+    private final ControlScanner mScanner = new ControlScanner();
+
+    /* Content bytes that are not in the input buffer as is (CR of
+     * \r\0, quoted IAC) are lent from here:
+     */
+    private final byte[] mSpecialBytes = new byte[1];
+
     private final static Hashtable telnetOptions = new Hashtable();
     private final static Hashtable telnetSuboptions = new Hashtable();
 
@@ -237,6 +263,7 @@ implements JiveConnection
 	    throw e;
 	}
 
+	startWriter();
 	return true;
     }
 
@@ -253,9 +280,12 @@ implements JiveConnection
   {
     terminal = null;
 
+    stopWriter();
     Socket foo = telnetSocket;
     telnetSocket = null;
-    foo.close();
+    if (foo != null) {
+      foo.close();
+    }
     return true;
   }
 
@@ -268,8 +298,12 @@ implements JiveConnection
     informDisconnect(boolean inform_master)
     {
 	terminal = null;
+	stopWriter();
 	Socket foo = telnetSocket;
 	telnetSocket = null;
+	if (foo == null) { // closed already
+	    return;
+	}
 	try {
 	    foo.close();
 	}catch (IOException ie) {
@@ -277,114 +311,97 @@ implements JiveConnection
 	    ; // What can we do even if closing fails?
 	}
     
-	if (inform_master) {
+	if (inform_master && jiveterm != null) {
 	    jiveterm.informDisconnect();
 	}
     }
 
     /* ** Method(s) for reading data from connection: ** */
-    private int readBytes(byte[] buffer) throws IOException
+    protected int readBytes(byte[] buffer, int length) throws IOException
     {
-	return mInputStream.read(buffer);
+	return mInputStream.read(buffer, 0, length);
     }
 
-    public int getBytes(byte[] result)
+    public boolean lendBytes(InputSlice slice)
     {
-	byte b;
-	int resultPtr = 0;
-	int len = result.length;
-
-	loop:
-	do {
-	    // No stuff in input buffer?
-	    if (mInputPtr >= mInputSize) {
-		/* If we have gotten something, let's just return it
-		 * now, and read more stuff in later:
-		 */
-		if (resultPtr > 0) {
-		    break loop;
-		}
-		/* .. but it this is in fact 'later' (or previous bytes
-		 * were control codes that were handled), we have to
-		 * read more:
+	/* Catch is needed for end-of-connections in the middle of
+	 * protocol bytes:
+	 */
+	try {
+	    while (true) {
+		/* No stuff in input buffer? Since the previous slice has been
+		 * given back, we are free to refill it:
 		 */
-		if (!getMoreInput()) {
-		    /* Will only fail when connection closed (or a similar
-		     * fatal exception caught?)
-		     */
-		    return -1;
+		if (mInputPtr >= mInputSize) {
+		    if (!getMoreInput()) {
+			/* Will only fail when connection closed (or a similar
+			 * fatal exception caught?)
+			 */
+			slice.clear();
+			return false;
+		    }
 		}
-	    }
-	    
-	    // This is just an 'explicit inline':
-	    /* bps-delay checks: */
-	    if (mBpsLimit > 0) {
-		maintainBpsLimit();
-	    }
-	    
-	    byte b = mInputBuffer[mInputPtr];
-
-	    /* We need to handle:
-	     * - In-band telnet control codes (options, suboptions) and
-	     * - NVT linefeeds
-	     */
-	    switch (b) {
-	    case TELNET_IAC:
-		/* Same as with reading new stuff; if we already got
-		 * something, let's return it as handling control codes
-		 * may require reading in more stuff:
+
+		/* Everything up to the next IAC, CR or NULL is passed as
+		 * is, so it can be lent directly from the input buffer:
 		 */
-		if (resultPtr > 0) {
-		    break loop;
+		int count = mScanner.findTelnetSpecial(mInputBuffer, mInputPtr,
+						       mInputSize) - mInputPtr;
+		if (count > 0) {
+		    slice.set(mInputBuffer, mInputPtr, count);
+		    mInputPtr += count;
+		    return true;
 		}
-		++mInputPtr;
-		resultPtr = handleTelnetCodes(result, resultPtr);
-		break;
 
-	    /* If we get \r, it may be either part of NVT linefeed (\r\n),
-	     * stand-alone \r (\r\0). Other combinations are illegal,
-	     * although it may make sense to just let them through.
-	     */
-	    case BYTE_CR:
-		/* Hmmh. If we don't have the next byte, but do have output
-		 * ready, let's return it instead of possibly stalling:
+		/* We need to handle:
+		 * - In-band telnet control codes (options, suboptions) and
+		 * - NVT linefeeds
 		 */
-		if (++mInputPtr >= mInputSize && resultPtr > 0) {
-		    --mInputPtr;
-		    break loop;
-		}
-		b = getNextRawByte();
+		byte b = mInputBuffer[mInputPtr++];
 		switch (b) {
-		case BYTE_NULL:
-		    b = BYTE_CR;
-		    break;
-		case BYTE_LF:
+		case TELNET_IAC:
+		    if (handleTelnetCodes(mSpecialBytes, 0) > 0) {
+			slice.set(mSpecialBytes, 0, 1);
+			return true;
+		    }
 		    break;
-		default:
-		    // Not legal, but not lethal either...
-		    if (debugConnection) {
-			master.doWarning("Warning: Unknown \\r - sequence; \\r was followed by a character with ascii-code of "+((int) b & 0xFF)+".");
+
+		/* If we get \r, it may be either part of NVT linefeed (\r\n),
+		 * stand-alone \r (\r\0). Other combinations are illegal,
+		 * although it may make sense to just let them through.
+		 */
+		case BYTE_CR:
+		    b = getNextRawByte();
+		    if (b == BYTE_LF) {
+			/* Terminal only wants the \n; it is passed along with
+			 * the text that follows it:
+			 */
+			--mInputPtr;
+			break;
+		    }
+		    if (b != BYTE_NULL) {
+			// Not legal, but not lethal either...
+			if (debugConnection) {
+			    doWarningLF("Warning: Unknown \\r - sequence; \\r was followed by a character with ascii-code of "+((int) b & 0xFF)+".");
+			}
+			--mInputPtr; // Let's return \r, and push this byte back
 		    }
-		    --mInputPtr; // Let's add \r to result, and push this byte back
-		    b = BYTE_CR;
+		    mSpecialBytes[0] = BYTE_CR;
+		    slice.set(mSpecialBytes, 0, 1);
+		    return true;
+
+		/* NULLs are actually legal things to send, but since terminal
+		 * has no use for them, let's strip them out. (can be changed
+		 * if they are ever needed) 
+		 */
+		default: // BYTE_NULL
 		    break;
 		}
-		result[resultPtr++] = b;
-		break;
-		
-	    /* NULLs are actually legal things to send, but since terminal
-	     * has no use for them, let's strip them out. (can be changed
-	     * if they are ever needed) 
-	     */
-	    case BYTE_NULL:
-		break;
-	    default:
-		++mInputPtr;
-		result[resultPtr++] = b;
 	    }
-	} while (resultPtr < len);
-	
-	return resultPtr;
+	} catch (IOException ie) {
+	    slice.clear();
+	    return false;
+	}
     }
 
     // The last output window size sent to the server:
@@ -394,17 +411,24 @@ implements JiveConnection
     public final synchronized void
 	sendNAWS(int x, int y, boolean force)
     {
-	if (!jiveterm.isConnected())
+	if (jiveterm != null && !jiveterm.isConnected())
 	    return;
 
-	Dimension wsize = null;
-	if (x < 0 || y < 0)
-	    wsize = jiveterm.getWindowSizeInChars();
-	
-	if (x < 0)
-	    x = wsize.width;
-	if (y < 0)
-	    y = wsize.height;
+	/* Without a window, the size last sent (or the default 80x24) is
+	 * the size:
+	 */
+	if (jiveterm == null) {
+	    if (x < 0)
+		x = (windowX > 0) ? windowX : 80;
+	    if (y < 0)
+		y = (windowY > 0) ? windowY : 24;
+	} else if (x < 0 || y < 0) {
+	    Dimension wsize = jiveterm.getWindowSizeInChars();
+	    if (x < 0)
+		x = wsize.width;
+	    if (y < 0)
+		y = wsize.height;
+	}
 	if (!force && x == windowX && y == windowY)
 	    return;
 	windowX = x;
@@ -413,64 +437,62 @@ implements JiveConnection
 	if (!sendNAWS || mOutput == null) {
 	    if (debugConnection) {
 		if (mOutput == null)
-		    jiveterm.doWarningLF("Debug: Can't send NAWS, connection not open.");
+		    doWarningLF("Debug: Can't send NAWS, connection not open.");
 		else 
-		    jiveterm.doWarningLF("Debug: Can't send NAWS, window size = "+x+" x "+y+ ", server hasn't given permission.");
+		    doWarningLF("Debug: Can't send NAWS, window size = "+x+" x "+y+ ", server hasn't given permission.");
 	    }
 	    return;
 	}
 	
 	if (debugConnection) {
-	    jiveterm.doWarningLF("Debug: Sending NAWS, window size = "+x+" x "+y);
+	    doWarningLF("Debug: Sending NAWS, window size = "+x+" x "+y);
 	}
 	
-	try {
-	    DataOutputStream dout = new DataOutputStream(mOutput);
-	    dout.write(Terminal.TELNET_IAC);
-	    dout.write(Terminal.TELNET_SUBOPTION);
-	    dout.write(Terminal.TN_OPTION_NAWS);
-	    dout.writeShort((short) x);
-	    dout.writeShort((short) y);
-	    dout.write(Terminal.TELNET_IAC);
-	    dout.write(Terminal.TELNET_SUBOPTION_END);
-	} catch (IOException e) {
-	    jiveterm.doWarningLF("Error: got exception when sending NAWS: "+e);
-	    return;
+	byte[] naws = new byte[] {
+	    TELNET_IAC, TELNET_SUBOPTION, TN_OPTION_NAWS,
+	    (byte) (x >> 8), (byte) x, (byte) (y >> 8), (byte) y,
+	    TELNET_IAC, TELNET_SUBOPTION_END
+	};
+	if (!sendBytes(naws, true)) {
+	    doWarningLF("Error: failed to send NAWS.");
 	}
     }
 
-/**** Then the functions for sending data to the server: ******/
-    public final synchronized boolean
-    sendByte(byte x, boolean flush)
+    // Headless sessions have no window to show warnings in:
+    private void doWarningLF(String msg)
     {
-	if (mOutput == null)
-	    return false;
-	try {
-	    mOutput.write(x);
-	    if (flush)
-		mOutput.flush();
-	} catch (IOException e) {
-	    return false;
+	if (jiveterm == null) {
+	    System.err.println(msg);
+	} else {
+	    jiveterm.doWarningLF(msg);
 	}
-	return true;
     }
 
-    public final synchronized boolean
-    sendBytes(byte [] x, int offset, int length, boolean flush)
+    /* Local echo is the JiveTerm's business; headless sessions have
+     * nothing to echo to:
+     */
+    private void setEcho(int x)
     {
-	if (mOutput == null) {
-	    return false;
+	if (jiveterm != null) {
+	    jiveterm.setEcho(x, false);
 	}
-	try {
-	    mOutput.write(x, offset, length);
-	    if (flush) {
-		mOutput.flush();
-	    }
-	} catch (IOException e) {
-	    return false;
-	}
-	return true;
-  }
+    }
+
+/**** Then the functions for sending data to the server: ******/
+
+    // Called by the writer thread:
+    protected void writeBytes(byte [] x, int offset, int length)
+	throws IOException
+    {
+	mOutput.write(x, offset, length);
+	mOutput.flush();
+    }
+
+    // Called when keystrokes (etc) had to be dropped:
+    protected void outputDropped()
+    {
+	doWarningLF("Warning: server is not reading input; input dropped.");
+    }
 
     /**
      * This method will handle control code, if it turns out to be one.
@@ -500,7 +522,7 @@ implements JiveConnection
 	    c = getNextRawByte();
 
 	    if (debugTelnet) {
-		master.doWarningLF("DEBUG: Received IAC "+getOptionName(b)
+		doWarningLF("DEBUG: Received IAC "+getOptionName(b)
 				   +" "+getSuboptionName(c));
 	    }
     
@@ -510,19 +532,19 @@ implements JiveConnection
 		switch (b) {
 		case TELNET_WILL:
 		    IACReply[1] = TELNET_DO;
-		    master.setEcho(0, false);
+		    setEcho(0);
 		    break;
 		case TELNET_WONT:
 		    IACReply[1] = TELNET_DONT;
-		    master.setEcho(1, false);
+		    setEcho(1);
 		    break;
 		case TELNET_DO:
 		    IACReply[1] = TELNET_WILL;
-		    master.setEcho(1, false);
+		    setEcho(1);
 		    break;
 		case TELNET_DONT:
 		    IACReply[1] = TELNET_WONT;
-		    master.setEcho(0, false);
+		    setEcho(0);
 		    break;
 		}
 		break;
@@ -570,7 +592,7 @@ implements JiveConnection
 	    }
     
 	    if (debugTelnet) {
-		master.doWarningLF("DEBUG: Sending reply "
+		doWarningLF("DEBUG: Sending reply "
 				   +getOptionName(IACReply[1]));
     }
     IACReply[2] = c;
@@ -592,7 +614,7 @@ implements JiveConnection
 	b = getNextRawByte();
 	
 	if (debugTelnet) {
-	    master.doWarningLF("DEBUG: Received IAC "
+	    doWarningLF("DEBUG: Received IAC "
 			       +getOptionName(TELNET_SUBOPTION)
 			       + " "
 			       +getSuboptionName(b));
@@ -604,14 +626,14 @@ implements JiveConnection
 	    b = getNextRawByte();
 	    if (b == (byte) 1) {
 		if (getNextRawByte() != TELNET_IAC) {
-		    master.doWarningLF("ERROR: TELNET_IAC expected after sub-option term type.");
+		    doWarningLF("ERROR: TELNET_IAC expected after sub-option term type.");
 		}
 		if (getNextRawByte() != TELNET_SUBOPTION_END) {
-		    master.doWarningLF("ERROR: TELNET_IAC+TELNET_SUBOPTION_END expected after sub-option term type.");
+		    doWarningLF("ERROR: TELNET_IAC+TELNET_SUBOPTION_END expected after sub-option term type.");
 		}
 		
 		if (debugTelnet) {
-		    master.doWarningLF("DEBUG: Sending term-type reply '"+
+		    doWarningLF("DEBUG: Sending term-type reply '"+
 				       new String(IACTermTypeReply)+"'");
 		}
 		sendBytes(IACTermTypeReply, false);
@@ -13,7 +13,7 @@ Module:
     Terminal.java
 
 Last changed:
-    27-Sep-2001
+    16-Oct-2026
 
 Description:
     This class handles the communication
@@ -39,6 +39,33 @@ Changed:
   23-Apr-99, TSa:
     To support SSH, now handling of telnet's in-band
     signalling is optional.
+  16-Oct-2026:
+    VT-code parsing now done by a table-driven state
+    machine (VTParser); no more exceptions for cancelled
+    or interrupted codes.
+    Runs of printable chars are found using ControlScanner,
+    which checks 8 bytes at a time.
+    Text is decoded as UTF-8 by default (ISO-Latin-1 can
+    still be chosen).
+    Input can be recorded to a file, and recorded sessions
+    replayed (SessionRecorder, SessionReplay); replaces
+    the old VT-code dumps.
+    Input is parsed directly from the connection's buffer
+    (lent as InputSlices), instead of a copy.
+    No longer a Thread; SessionRuntime runs handleConnection(),
+    and stops it by calling cancel().
+    Bytes parsed, printable bytes, VT-codes (by family) and
+    time spent parsing are counted in SessionStats, if set.
+    Screen is updated through the ScreenModel interface, so
+    that Terminal can also run without AWT (MemoryScreen).
+    Chars printed with the DEC special graphics (or UK)
+    char set selected are translated to Unicode.
+    Speed limit is passed on to the connection, which
+    applies it (BandwidthShaper); optionally to the data
+    sent as well.
+    Calls to the applet (JiveTerm) go through the
+    TerminalListener interface; no more AWT or applet
+    dependencies.
 
 **************************************/
 
@@ -47,11 +74,7 @@ package com.cowtowncoder.jiveterm;
 import java.util.*;
 import java.io.*;
 import java.net.*;
-import java.awt.*;
-import java.awt.image.*;
-import java.awt.event.*;
-import java.awt.*;
-import java.applet.Applet;
+import java.awt.Color;
 
 import jiveterm.*;
 
@@ -65,7 +88,6 @@ user input to the server.
 
 final class
 Terminal
-extends Thread
 {
   private final static byte [] sAnswerbackMsg = "JIVETERM 1.0".getBytes();
 
@@ -84,6 +106,23 @@ extends Thread
   public final static int CHAR_SET_ALT_ASCII = 5;
   public final static int CHAR_SET_ALT_GFX = 6;
 
+  /* DEC special graphics: chars 0x5F - 0x7E are replaced by these
+   * (the Unicode equivalents xterm uses; Display draws most of them
+   * itself, see ScaledGlyphCache.drawSymbol()):
+   */
+  private final static int GFX_FIRST = 0x5F;
+  private final static char [] sGfxChars = {
+    '\u00A0', // _ blank
+    '\u25C6', '\u2592', '\u2409', '\u240C', // ` a b c
+    '\u240D', '\u240A', '\u00B0', '\u00B1', // d e f g
+    '\u2424', '\u240B', '\u2518', '\u2510', // h i j k
+    '\u250C', '\u2514', '\u253C', '\u23BA', // l m n o
+    '\u23BB', '\u2500', '\u23BC', '\u23BD', // p q r s
+    '\u251C', '\u2524', '\u2534', '\u252C', // t u v w
+    '\u2502', '\u2264', '\u2265', '\u03C0', // x y z {
+    '\u2260', '\u00A3', '\u00B7'             // | } ~
+  };
+
   /* *** Ctrl code bytes we need to handle: * ***/
   public final static byte BYTE_NULL = (byte) 0x00;
   public final static byte BYTE_ENQ = 0x05;
@@ -186,12 +225,56 @@ extends Thread
     private int VTMode = VT100;
 
     /* Main-level entities we communicate with: */
-    protected Display mDisplay; // Display we control
+    protected ScreenModel mDisplay; // Display (or other screen) we control
     protected JiveConnection mConnection; // Connection (telnet- etc)
 
-    protected byte[] mInputBuffer = new byte[4096];
+    /* Speed limit (bps; 0 for none) for the connection, and whether
+     * it's applied to the data sent too:
+     */
+    private int mSpeed = 0;
+    private boolean mSpeedOutput = false;
+
+    /* Input comes in slices lent by the connection; mInputBuffer is
+     * the buffer of the current slice (owned by the connection), and
+     * mInputEnd the end of the slice in it:
+     */
+    private final InputSlice mSlice = new InputSlice();
+    protected byte[] mInputBuffer = null;
     protected int mInputPtr = 0;
-    protected int mInputSize = 0;
+    protected int mInputEnd = 0;
+
+    /* Session recording and replay; replay, when active, is read
+     * instead of the connection:
+     */
+    private volatile SessionRecorder mRecorder = null;
+    private SessionReplay mReplay = null;
+    private byte[] mReplayBuffer = null;
+
+    /* Set when the session is to end; checked whenever more input
+     * is needed:
+     */
+    private volatile boolean mCancelled = false;
+
+    /* Statistics of the session, if any; mParseStart is when the
+     * current slice was received (parsing time excludes waiting for
+     * input):
+     */
+    private SessionStats mStats = null;
+    private long mParseStart = 0L;
+
+    /* Used for finding the runs of printable text in the input, and
+     * for passing them to the display as chars:
+     */
+    private final ControlScanner mScanner = new ControlScanner();
+    private char[] mTextBuffer = new char[4096 + 1];
+
+    /* Is the input UTF-8 (or ISO-Latin-1)? Decoder keeps the state
+     * between the input buffers. Cells hold one 16-bit char, so chars
+     * above U+FFFF become one U+FFFD (a surrogate pair would take two
+     * columns):
+     */
+    private boolean mUtf8 = true;
+    private final Utf8Decoder mDecoder = new Utf8Decoder(true);
 
     private Hashtable VT100ctrlCodes = new Hashtable();
     {
@@ -221,29 +304,55 @@ extends Thread
     /* Various switches for outputting extra debug-information: */
     private final static boolean mDebugVT = true;
     //private final static boolean mDebugVT = false;
-    //private final static boolean dumpVTCodes = true;
-    private final static boolean dumpVTCodes = false;
     //private final static boolean preventVTErrors = true;
     private final static boolean preventVTErrors = false;
 
   /*** Telnet vs. SSH switch(es): ***/
 
-  Terminal(Display d)
+  Terminal(ScreenModel d)
   {
       setDisplay(d);
       resetCharsets();
   }
+
+  /* Where mode changes and warnings go; JiveTerm sets itself,
+   * others (benchmarks, headless sessions) can leave it be:
+   */
+  private TerminalListener mListener = TerminalListener.NONE;
+
+  public void setListener(TerminalListener l)
+  {
+      mListener = (l == null) ? TerminalListener.NONE : l;
+  }
  
   private void setConnection(JiveConnection c)
   {
       mConnection = c;
+      if (c != null) {
+	  c.setSpeed(mSpeed, mSpeedOutput);
+      }
   }
 
-  private void setDisplay(Display d)
+  private void setDisplay(ScreenModel d)
   {
       mDisplay = d;
   }
 
+  /**
+   * Method for setting the statistics object to update; has to be
+   * called before the session starts (SessionRuntime does this).
+   */
+  public void setStats(SessionStats stats)
+  {
+      mStats = stats;
+      if (stats != null) {
+	  stats.setDisplay(mDisplay);
+      }
+      mDisplay.setStats(stats);
+  }
+
+  public SessionStats getStats() { return mStats; }
+
   /* Not sure what specifically should hard reset do what soft
    * does not...
    */
@@ -252,9 +361,9 @@ extends Thread
   public void hardResetTerminal(boolean repaint)
   {
       softResetTerminal(false);
-      display.eraseScreen();
+      mDisplay.eraseScreen();
       if (repaint) {
-	  display.redrawScreen();
+	  mDisplay.redrawScreen();
       }
   }
 
@@ -262,12 +371,12 @@ extends Thread
   {
     boolean old_inv = modeScreenReversed;
 
-    display.resetCharAttrs();
+    mDisplay.resetCharAttrs();
 
     // Modes should be reset to default values:
-    master.setModeNewline(modeNewline = false);
+    mListener.setModeNewline(modeNewline = false);
     modeCursorKeyApplication = false;
-    modeVT52 = false;
+    setVT52Mode(false);
     mode132Cols = false;
     modeAutorepeat = false;
     modeInterlace = false;
@@ -277,7 +386,7 @@ extends Thread
     modePrintScrollRegion = false;
     modeKeyboardLocked = false;
     modeEchoOn = false;
-    master.setEcho(0, false);
+    mListener.setEcho(0, false);
 
     // Not sure if this should reset 8-bitness off?
     modeMaySend8BitCodes = false;
@@ -301,7 +410,7 @@ extends Thread
     currFgroundColorNr = defFgroundColorNr;
     currFgroundColor = defFgroundColor = currColors[currFgroundColorNr];
 
-    display.softResetDisplay(repaint);
+    mDisplay.softResetDisplay(repaint);
   }
 
   public void resetCharsets()
@@ -325,7 +434,7 @@ extends Thread
     case BYTE_NULL:
 
       if (debugCtrlCodes) {
-	master.doWarningLF("Warning: byte 0 encountered in terminal.");
+	mListener.doWarningLF("Warning: byte 0 encountered in terminal.");
       }
       return;
 
@@ -334,7 +443,7 @@ extends Thread
       // Vertical tab -> linefeed as well
     case BYTE_VT:
     case BYTE_LF:
-	display.printLinefeed();
+	mDisplay.printLinefeed(false);
 	break;
 
       // DEL should be discarded... (shouldn't even be sent, but just
@@ -345,21 +454,21 @@ extends Thread
     case BYTE_DEL:
 
       if (debugCtrlCodes) {
-	master.doWarningLF("Warning(VT): DEL-char gotten, discarding.");
+	mListener.doWarningLF("Warning(VT): DEL-char gotten, discarding.");
       }
       return;
 
-      // These codes should be handled by the display...
+      // These codes should be handled by the mDisplay...
     case BYTE_TAB:
-	display.printTab();
+	mDisplay.printTab();
 	break;
     case BYTE_BELL:
 	// How do we display visual (or aural) bell?
-	display.printBell();
+	mDisplay.printBell();
 	break;
 
     case BYTE_BS:
-	display.printBackspace();
+	mDisplay.printBackspace();
 	break;
 
     case BYTE_INVOKE_G0:
@@ -371,7 +480,7 @@ extends Thread
 	break;
 
     case BYTE_CR:
-	display.printCarriageReturn();
+	mDisplay.printCarriageReturn();
 	break;
 
 	// ENQ -> send answerback message?
@@ -383,7 +492,7 @@ extends Thread
     default:
 
       if (debugCtrlCodes) {
-	master.doWarningLF("DEBUG: ctrl-char "+((int) b &0xFF)+
+	mListener.doWarningLF("DEBUG: ctrl-char "+((int) b &0xFF)+
 			 " gotten, skipping.");
       }
       return;
@@ -394,23 +503,21 @@ extends Thread
    * in vt52 mode, though)
    */
   public void handleShortCodes(byte b)
-  throws VTCommandCancelled, VTCommandInterrupted,
-    VTCommandInterrupted8Bit
   {
     switch (b) {
       /* Cursor up: */
     case (byte) 'A':
-	display.moveCursor(0, -1);
+	mDisplay.moveCursor(0, -1);
 	break;
 
       /* Cursor down: */
     case (byte) 'B':
-	display.moveCursor(0, 1);
+	mDisplay.moveCursor(0, 1);
 	break;
 
       /* Cursor right: */
     case (byte) 'C':
-	display.moveCursor(1, 0);
+	mDisplay.moveCursor(1, 0);
 	break;
 
       /* Reset device (non-VT52?): */
@@ -418,7 +525,7 @@ extends Thread
 
 	softResetTerminal(true);
 	if (mDebugVT) {
-	    master.doWarningLF("Warning: Reset device requested.");
+	    mListener.doWarningLF("Warning: Reset device requested.");
 	}
 
       break;
@@ -431,14 +538,14 @@ extends Thread
     case (byte) 'D':
 
       if (VTMode == VT52 || modeVT52) {
-	  display.moveCursor(0, 1);
+	  mDisplay.moveCursor(0, 1);
 
 	  /* Indexing can _not_ be done by simple "cursor down" command
 	   * because it needs to scroll stuff up if already at the bottommost
 	   * row...
 	   */
       } else {
-	  display.indexDown(1);
+	  mDisplay.indexDown(1);
       }
       break;
 
@@ -446,7 +553,7 @@ extends Thread
       // no matching VT52-mode command.
     case (byte) 'E':
 
-	display.printLinefeed();
+	mDisplay.printLinefeed(false);
 	break;
 
       /* Select special graphics character set ('enter gfx mode'): */	
@@ -464,9 +571,9 @@ extends Thread
     case (byte) 'H':
 	  
       if (VTMode == VT52 || modeVT52) {
-	  display.setCursorPosition(0, 0);
+	  mDisplay.setCursorPosition(0, 0);
       } else {
-	  display.addTab();
+	  mDisplay.addTab();
       }
       break;
 
@@ -474,32 +581,32 @@ extends Thread
     case (byte) 'i':
 
       if (!preventVTErrors) {
-	master.doWarningLF("Warning: 'Local Printing' received, not handled currently.");
+	mListener.doWarningLF("Warning: 'Local Printing' received, not handled currently.");
       }
       break;
 
       /* "Reverse linefeed" (VT52). Up by one, no linefeed ("not "reverse newline") */
     case (byte) 'I':
 
-	display.indexUp(1);
+	mDisplay.indexUp(1);
 	break;
 
       /* Erase to end of Screen (VT52) */
     case (byte) 'J':
 	
-	display.eraseDown();
+	mDisplay.eraseDown();
 	break;
 
       /* Erase to end of Line (VT52) */
     case (byte) 'K':
 
-	display.eraseEOL();
+	mDisplay.eraseEOL();
 	break;
 
       /* Index (down?) (VT100): */
     case (byte) 'L':
 
-	display.indexDown(1);
+	mDisplay.indexDown(1);
 	break;
 
       /* Reverse index (up) (VT100): */
@@ -507,7 +614,7 @@ extends Thread
       // Ie. simply moves cursor up by one line without changing columns.
     case (byte) 'M':
 
-	display.indexUp(1);
+	mDisplay.indexUp(1);
 	break;
 
       /* 'Map G2 to GL for next char only, single shift' (Kermit-docs) */
@@ -523,14 +630,6 @@ extends Thread
 	useCharset(0);
 	break;
 
-      /* 'Device Control String Introducer' (Kermit-docs). Wild. */
-    case (byte) 'P':
-
-      if (!preventVTErrors) {
-	master.doWarningLF("Warning: 'Device Control String Introducer', not handled currently.");
-      }
-      return;
-
       /* 'Start Protected Area (erasure protection)' (Kermit-docs) */
     case (byte) 'V':
 	setCharAttr(CharAttrs.FX_PROTECTION, true);
@@ -541,20 +640,6 @@ extends Thread
 	setCharAttr(CharAttrs.FX_PROTECTION, false);
 	break;
 
-      /* Direct cursor address (VT52) */
-    case (byte) 'Y':
-
-      int y = checkChar(getNextByte()) - 32;
-      int x = checkChar(getNextByte()) - 32;
-
-      /* 2 characters follow; the first is for line, second column;
-       * characters are 32 + number (that is, home, (0, 0), translates
-       * to (32, 32); although in general indexes in vt-xxx begin from
-       * 1, not 0)
-       */
-      display.setCursorPosition(x, y);
-      break;
-
       /* Report the device code ("Identify"): */
     case (byte) 'Z':	
 
@@ -581,7 +666,7 @@ extends Thread
        * at the left end:
        */
     case (byte) '6': 
-	display.indexLeft(1);
+	mDisplay.indexLeft(1);
 	return;
 
       /* Save cursor + attrs: */
@@ -599,13 +684,13 @@ extends Thread
        */
     case (byte) '9': 
 
-	display.indexRight(1);
+	mDisplay.indexRight(1);
 	return;
 
     default:
     
       if (!preventVTErrors) {
-	master.doWarningLF("Warning: Unknown short VT-code ESC + "
+	mListener.doWarningLF("Warning: Unknown short VT-code ESC + "
 			   +(char) b + " received.");
       }
       break;
@@ -628,12 +713,10 @@ extends Thread
    * the code itself
    */
 
-  /* Returns TRUE if all went ok (or current command was cancelled!),
-   * and FALSE if another ESC-initiated interrupted this command.
+  /* Returns TRUE if all went ok; cancelled and interrupted
+   * commands never get this far (VTParser handles those).
    */
   public boolean handleBracketCodes(char c)
-    throws VTCommandCancelled, VTCommandInterrupted,
-    VTCommandInterrupted8Bit
   {
     int i, j, code;
     byte b;
@@ -642,17 +725,17 @@ extends Thread
 
       /* Kermit-docs say that it's "ANSI Cursor Forward N Columns"...*/
     case 'a':
-	display.moveCursor(getFirstVTArg(1), 0);
+	mDisplay.moveCursor(getFirstVTArg(1), 0);
 	break;
 	    
       /* Cursor Up */
     case 'A':
-	display.moveCursor(-getFirstVTArg(1), 0);
+	mDisplay.moveCursor(-getFirstVTArg(1), 0);
 	break;
 	    
       /* Cursor Down */
     case 'B':
-	display.moveCursor(0, getFirstVTArg(1));
+	mDisplay.moveCursor(0, getFirstVTArg(1));
 	break;
 
       /* Query/report the device-code: */
@@ -663,27 +746,27 @@ extends Thread
 
       /* Cursor Forward (right) */
     case 'C':
-	display.moveCursor(0, getFirstVTArg(1));
+	mDisplay.moveCursor(0, getFirstVTArg(1));
 	break;
 	    
       /* According to Kermit-docs, "ANSI Cursor to row N, absolute" */
     case 'd':
       if (VTAttrCount < 1) {
-	master.doWarningLF("Warning: ESC + [ + d (ANSI Set Cursor Row Abs) without argument received, ignored.");
+	mListener.doWarningLF("Warning: ESC + [ + d (ANSI Set Cursor Row Abs) without argument received, ignored.");
       } else {
 	  // Columns start from 1 on VT-stuff:
-	  display.setCursorX(getFirstVTArg(1) - 1);
+	  mDisplay.setCursorX(getFirstVTArg(1) - 1);
       }
       break;
     
       /* Cursor Back (left) */
     case 'D':
-	display.moveCursor(-getFirstArg(1), 0);
+	mDisplay.moveCursor(-getFirstArg(1), 0);
 	break;
 
       /* Kermit-docs say that it's "ANSI Cursor Down N Rows"...*/
     case 'e':
-	display.moveCursor(0, getFirstArg(1));
+	mDisplay.moveCursor(0, getFirstArg(1));
 	break;
 
       /* Next-line; like CR+LF but can be repeated arg times: */
@@ -691,14 +774,14 @@ extends Thread
     case 'E':
 	i = getFirstVTArg(1);
 	while (--i >= 0) {
-	    display.printLinefeed();
+	    mDisplay.printLinefeed(false);
 	}
 	break;
     
       /* Reverse-index, arg -> number of lines. */
 
     case 'F':
-	display.indexUp(getFirstVTArg(1));
+	mDisplay.indexUp(getFirstVTArg(1));
 	break;
 
       /* Cursor position Force == Cursor home */
@@ -713,7 +796,7 @@ extends Thread
 	 */
 	y = getFirstVTArg(1) - 1;
 	x = getNthVTArg(1, 1) - 1;
-	display.setCursorPosition(x, y);
+	mDisplay.setCursorPosition(x, y);
 	break;
 	    
       /* Control Tabs */
@@ -726,14 +809,14 @@ extends Thread
        */
       switch (getFirstVTArg(0)) {
       case 0:
-	  display.removeTab();
+	  mDisplay.removeTab();
 	  break;
       case 3:
-	  display.removeAllTabs();
+	  mDisplay.removeAllTabs();
 	  break;
       default:
 	if (!preventVTErrors) {
-	    master.doWarningLF("Warning: ESC + [ + g (Clear tab(s)) received with unknown argument '"+i+"'; treating as NOP.");
+	    mListener.doWarningLF("Warning: ESC + [ + g (Clear tab(s)) received with unknown argument '"+i+"'; treating as NOP.");
 	}
       }
       break;
@@ -743,18 +826,18 @@ extends Thread
 
       if (VTAttrCount < 1) {
 	if (!preventVTErrors) {
-	  master.doWarningLF("Warning: ESC + [ + G (ANSI Set Cursor Col Abs) without arguments; ignoring.");
+	  mListener.doWarningLF("Warning: ESC + [ + G (ANSI Set Cursor Col Abs) without arguments; ignoring.");
 	  return true;
 	}
       }
-      display.setCursorX(getFirstVTArg(1) - 1);
+      mDisplay.setCursorX(getFirstVTArg(1) - 1);
       break;
 
       /* 'h' (high) is for setting an attribute on: */
     case 'h':
 
       if (VTAttrCount < 1) {
-	master.doWarningLF("Warning: 'Esc + [ + h' with no arguments received.");
+	mListener.doWarningLF("Warning: 'Esc + [ + h' with no arguments received.");
       } else {
 	setVTMode(false);
       }
@@ -765,7 +848,7 @@ extends Thread
     case 'i':
 
       if (!preventVTErrors) {
-	master.doWarningLF("Warning: 'ESC + [ + i' (print xxx) received; printing not implemented.");
+	mListener.doWarningLF("Warning: 'ESC + [ + i' (print xxx) received; printing not implemented.");
       }
       break;
 
@@ -774,15 +857,15 @@ extends Thread
 
 	i = getFirstVTArg(-1);
 	if (i == -1) {
-	    master.doWarning("Warning: 'Esc + [ + I' (Horizontal Index) with no arguments received; defaulting to one tab.");
+	    mListener.doWarning("Warning: 'Esc + [ + I' (Horizontal Index) with no arguments received; defaulting to one tab.");
 	    i = 1;
 	} else if (i < 1) {
 	    // Actually, has to be zero as we can't get negative numbers...
-	    master.doWarning("Warning: 'Esc + [ + I' (Horizontal Index) with count "+i+", skipping.");
+	    mListener.doWarning("Warning: 'Esc + [ + I' (Horizontal Index) with count "+i+", skipping.");
 	}
 
 	for (; --i >= 0; ) {
-	    display.printTab();
+	    mDisplay.printTab();
 	}
 	break;
 
@@ -790,7 +873,7 @@ extends Thread
     case 'l':
 
       if (VTAttrCount < 1) {
-	master.doWarning("Warning: 'Esc + [ + l' with no arguments received.");
+	mListener.doWarning("Warning: 'Esc + [ + l' with no arguments received.");
 	return true;
       }
       resetVTMode(false);
@@ -801,7 +884,7 @@ extends Thread
     case 'n':
 
       if (VTAttrCount < 1) {
-	master.doWarning("Warning: VT-100 code 'ESC [ n' with no arguments received.");
+	mListener.doWarning("Warning: VT-100 code 'ESC [ n' with no arguments received.");
 	return true;
       }
 
@@ -821,7 +904,7 @@ extends Thread
 
       default:
 	if (!preventVTErrors) {
-	  master.doWarningLF("Warning: 'ESC + [ + n' with unknown argument, "
+	  mListener.doWarningLF("Warning: 'ESC + [ + n' with unknown argument, "
             + VTAttr[0]+", received, ignored.");
 	}
 	return true;
@@ -838,18 +921,18 @@ extends Thread
       }
       switch (i) {
       case 0:
-	  display.eraseDown();
+	  mDisplay.eraseDown();
 	  break;
       case 1:
-	  display.eraseUp();
+	  mDisplay.eraseUp();
 	  break;
       case 2:
-	  display.eraseScreen();
+	  mDisplay.eraseScreen();
 	  break;
 
       default:
 	  if (!preventVTErrors) {
-	      master.doWarningLF("Warning: ESC + [ + J with invalid argument ("+VTAttr[0]+" received, ignored.");
+	      mListener.doWarningLF("Warning: ESC + [ + J with invalid argument ("+VTAttr[0]+" received, ignored.");
 	  }
       }
       break;
@@ -864,25 +947,25 @@ extends Thread
       }
       switch (i) {
       case 0:
-	  display.eraseEOL();
+	  mDisplay.eraseEOL();
 	  break;
       case 1:
-	  display.eraseSOL();
+	  mDisplay.eraseSOL();
 	  break;
 	/* Erase Line: */
       case 2:
-	  display.eraseLine();
+	  mDisplay.eraseLine();
 	  break;
       default:
 	  if (!preventVTErrors) {
-	      master.doWarningLF("Warning: ESC + [ + K with invalid argument ("+VTAttr[0]+" received, ignored.");
+	      mListener.doWarningLF("Warning: ESC + [ + K with invalid argument ("+VTAttr[0]+" received, ignored.");
 	  }
       }
       break;
 
       /* Insert a line (VT102): */
     case 'L':
-	display.insertLines(getFirstVTArg(1));
+	mDisplay.insertLines(getFirstVTArg(1));
 	break;
 
       /* Set attribute(s): */
@@ -915,28 +998,28 @@ extends Thread
       /* Delete a line (VT102): */
     case 'M':
 
-	display.deleteLines(getFirstVTArg(1));
+	mDisplay.deleteLines(getFirstVTArg(1));
 	break;
 
       /* Define key (macro?) */
     case 'p':
 
       if (!preventVTErrors) {
-	master.doWarningLF("Debug: ESC + [ + p, 'define macro' received, not implemented.");
+	mListener.doWarningLF("Debug: ESC + [ + p, 'define macro' received, not implemented.");
       }
       break;
 
       /* Delete character(s), from the cursor _left_ (VT102): */
     case 'P':
 
-	display.deleteChars(getFirstVTArg(1));
+	mDisplay.deleteChars(getFirstVTArg(1));
 	break;
 
       // Load LEDs (DEC private)
     case 'q':
 
 	if (!preventVTErrors) {
-	    master.doWarningLF("Debug: DECLL (Load leds) received, not implemented");
+	    mListener.doWarningLF("Debug: DECLL (Load leds) received, not implemented");
 	}
 	break;
 	
@@ -945,9 +1028,9 @@ extends Thread
 
       // Takes 2 arguments, or 0 if removing the scrolling region
       if (VTAttrCount == 0) {
-	  display.clearScrollingRegion();
+	  mDisplay.clearScrollingRegion();
       } else {
-	  display.setScrollingRegion(getFirstVTArg(0, 0) - 1,
+	  mDisplay.setScrollingRegion(getFirstVTArg(0, 0) - 1,
 				     getNthVTArg(1, Int.MAX_VALUE) - 1);
       }
       break;
@@ -961,7 +1044,7 @@ extends Thread
     case 't':
 
 	if (!preventVTErrors) {
-	    master.doWarningLF("Warning: 'Set Lines Per Page' received; not implemented, ignoring.");
+	    mListener.doWarningLF("Warning: 'Set Lines Per Page' received; not implemented, ignoring.");
 	}
 	break;
 	
@@ -974,7 +1057,7 @@ extends Thread
     case 'U':
 
       if (!preventVTErrors) {
-	master.doWarningLF("Warning: 'Move To Next Page' received; pages not implemented, skipping the command.");
+	mListener.doWarningLF("Warning: 'Move To Next Page' received; pages not implemented, skipping the command.");
       }
       break;
 
@@ -983,13 +1066,13 @@ extends Thread
 case 'V':
 
       if (!preventVTErrors) {
-	master.doWarningLF("Warning: 'Move To Previous Page' received; pages not implemented, skipping the command.");
+	mListener.doWarningLF("Warning: 'Move To Previous Page' received; pages not implemented, skipping the command.");
       }
       break;
 
       /* VT-220, Erase Characters (at and right of cursor claims kermit): */
     case 'X':
-	display.eraseChars(getFirstVTArg(1));
+	mDisplay.eraseChars(getFirstVTArg(1));
 	break;
 
       /* Reqest/report terminal parameters. */
@@ -1008,7 +1091,7 @@ case 'V':
 	default:
 
 	    if (!preventVTErrors) {
-		master.doWarningLF("Warning: 'ESC [ <params> x' (report terminal status) received with unknown second argument, "+i+".");
+		mListener.doWarningLF("Warning: 'ESC [ <params> x' (report terminal status) received with unknown second argument, "+i+".");
 	    }
 	}
 	break;
@@ -1033,7 +1116,7 @@ case 'V':
 	    hardResetTerminal(true);
 	} else {
 	    if (!preventVTErrors) {
-		master.doWarningLF("Warning: 'Invoke Confidence Test' received; currently not implemented (except with argument 0, to mean RESET).");
+		mListener.doWarningLF("Warning: 'Invoke Confidence Test' received; currently not implemented (except with argument 0, to mean RESET).");
 	    }
 	}
 	break;
@@ -1041,44 +1124,16 @@ case 'V':
       /* ANSI (not VT-102 says vttest...) 'Insert Character' function: */
     case '@':
 
-	display.insertChars(getFirstVTAttr(1));
+	mDisplay.insertChars(getFirstVTAttr(1));
 	if (mDebugVT) {
-	    master.doWarningLF("Debug: ESC + [ + @ is a 'ANSI-only' function, INSERT_CHAR, not really supported by VT-102.");
+	    mListener.doWarningLF("Debug: ESC + [ + @ is a 'ANSI-only' function, INSERT_CHAR, not really supported by VT-102.");
 	}
 	break;
 
-      /* Probably DEC-specific as well: */
-    case '"':
-
-      b = getNextByte();
-      c = checkChar(b);
-
-      switch (c) {
-
-	/* Actually, this should also do a soft reset? */
-      case 'p': // Set conformance level:
-
-	if (VTAttrCount < 1) {
-	  master.doWarningLF("Warning: ESC + { + \" + <args> + p (Set Conformance level gotten without arguments; ignoring.");
-	  return true;
-	}
-
-	setConformanceLevel(getFirstVTArg(0),
-			    getNthVTArg(0));
-	break;
-
-      default:
-	if (!preventVTErrors) {
-	  master.doWarningLF("Debug: ESC + [ + \" + "+c+"; an unknown special code.");
-	}
-	return true;
-      }
-      break;
-
 default:
     
       if (!preventVTErrors) {
-	master.doWarningLF("DEBUG: Unknown extended command ("
+	mListener.doWarningLF("DEBUG: Unknown extended command ("
 			   +"ESC + [ + "+c + ", ascii "+((int) c)
 			   +"), with "+VTAttrCount+" args, received.");
       }
@@ -1203,7 +1258,7 @@ default:
 
       default:
 	if (!preventVTErrors) {
-	  master.doWarningLF("Debug: unrecognized VT-effect, "+attr);
+	  mListener.doWarningLF("Debug: unrecognized VT-effect, "+attr);
 	}
       }
   }
@@ -1234,7 +1289,7 @@ default:
 	  fg = bg;
       }
 
-      display.setNewCharAttrs(mCharAttrs, fg, bg);
+      mDisplay.setNewCharAttrs(mCharAttrs, fg, bg);
       mCharAttrsChanged = false;
   }
 
@@ -1251,7 +1306,7 @@ default:
     case 'c': // Return the mode?
 	      
       if (!preventVTErrors) {
-	master.doWarningLF("Warning: 'Esc + ? + .. + c' received, don't"
+	mListener.doWarningLF("Warning: 'Esc + ? + .. + c' received, don't"
 			   +"know how to handle.");
       }
       return;
@@ -1261,24 +1316,24 @@ default:
       setVTMode(true);
       return;
 
-    case 'J': // Much  like 'normal' CSI + J, ie. erase-in-display.
+    case 'J': // Much  like 'normal' CSI + J, ie. erase-in-mDisplay.
       // The difference is that this won't erase protected characters.
       // So, we could easily interpret it, but for now let's not:
 
       i = getFirstVTAttr(0);
       switch (VTAttr[0]) {
       case 0:
-	  display.eraseDownNonSelected();
+	  mDisplay.eraseDownNonSelected();
 	  break;
       case 1:
-	  display.eraseUpNonSelected();
+	  mDisplay.eraseUpNonSelected();
 	  break;
       case 2:
-	  display.eraseScreenNonSelected();
+	  mDisplay.eraseScreenNonSelected();
 	  break;
       default:
 	  if (!preventVTErrors) {
-	      master.doWarningLF("Warning: ESC + [ + ? + J (Selective Erase in Screen) with invalid argument ("+VTAttr[0]+" received, ignored.");
+	      mListener.doWarningLF("Warning: ESC + [ + ? + J (Selective Erase in Screen) with invalid argument ("+VTAttr[0]+" received, ignored.");
 	  }
       }
       break;
@@ -1288,18 +1343,18 @@ default:
 
 	switch (VTAttr[0]) {
 	case 0:
-	    display.eraseEOLNonSelected();
+	    mDisplay.eraseEOLNonSelected();
 	    break;
 	case 1:
-	    display.eraseSOLNonSelected();
+	    mDisplay.eraseSOLNonSelected();
 	    break;
       case 2:
-	    display.eraseLineNonSelected();
+	    mDisplay.eraseLineNonSelected();
 	    break;
       default:
 
 	if (!preventVTErrors) {
-	  master.doWarningLF("Warning: ESC + + [ + ? + K (Selective Erase in Line) with invalid argument ("+VTAttr[0]+") received, ignored.");
+	  mListener.doWarningLF("Warning: ESC + + [ + ? + K (Selective Erase in Line) with invalid argument ("+VTAttr[0]+") received, ignored.");
 	}
       }
       break;
@@ -1313,7 +1368,7 @@ default:
     default:
       
       if (!preventVTErrors) {
-	master.doWarningLF("Warning: A mode set/reset code (ESC + [ + ? + "
+	mListener.doWarningLF("Warning: A mode set/reset code (ESC + [ + ? + "
 			   + " <arg(s)> <command> encountered; "
 			   +"<command> was '"+c
 			   +"', not 'h' (high, set), 'l' (low, reset) or 'c'.");
@@ -1334,7 +1389,7 @@ default:
 	break;
 
     default:
-      master.doWarning("<GT-CODE ignored>");
+      mListener.doWarning("<GT-CODE ignored>");
       return;
     }
   }
@@ -1346,6 +1401,17 @@ default:
     // These commands are manufacturer-specific, usually DEC...
 
     switch (c) {
+
+      /* Actually, this should also do a soft reset? */
+    case 'p': // Set conformance level:
+
+	if (VTAttrCount < 1) {
+	    mListener.doWarningLF("Warning: ESC + [ + <args> + \" + p (Set Conformance level gotten without arguments; ignoring.");
+	    return;
+	}
+	setConformanceLevel(getFirstVTArg(0), getNthVTArg(1, 0));
+	break;
+
     case 'q': // Set Character Protection Attributes...
 
 	switch (getFirstVTAttr(0)) {
@@ -1360,7 +1426,7 @@ default:
 
 	default:
 	    if (!preventVTErrors) {
-		master.doWarningLF("Warning: unknown attribute "+i+" for DECSCA (Set Char Protection Attrs); allowed values are 0, 1 and 2. Ignoring the command.");
+		mListener.doWarningLF("Warning: unknown attribute "+i+" for DECSCA (Set Char Protection Attrs); allowed values are 0, 1 and 2. Ignoring the command.");
 	    }
 	    return;
 	}
@@ -1368,7 +1434,7 @@ default:
 	
     default:
 	
-	master.doWarning("Warning: Quote-CODE (ESC + \"" + ((char) c)
+	mListener.doWarning("Warning: Quote-CODE (ESC + \"" + ((char) c)
 			 +" ignored>");
 	return;
     }
@@ -1383,7 +1449,7 @@ default:
 	break;
 
     default:
-      master.doWarningLF("Unknown exclamation-code (ESC + [ + ! + "+c+") ignored!");
+      mListener.doWarningLF("Unknown exclamation-code (ESC + [ + ! + "+c+") ignored!");
       return;
     }
   }
@@ -1404,31 +1470,31 @@ default:
       // Syntax is Pt; Pl; Pb; Pr; Ps1..PsN $ r
       // where Pt->top, Pl->left, Pb->bottom, Pr->right (edges),
       // and Ps1 to PsN are normal screen attributes to set.
-      master.doWarningLF("Debug: ESC + [ + $ + p -> Set Rectangular Area to; not implemented, ignoring.");
+      mListener.doWarningLF("Debug: ESC + [ + $ + p -> Set Rectangular Area to; not implemented, ignoring.");
       return;
 
     case '}': // Select Active Status Display; 0->terminal, 1->status
 
-      master.doWarningLF("Debug: Select Active Status Display, with "
+      mListener.doWarningLF("Debug: Select Active Status Display, with "
          +VTAttrCount+" args, arg#0->"+VTAttr[0]+", ignoring.");
       return;
 
     case '-': // Set Status Display Type; 0->Blank, 1->Indicator,
       // 2 -> Hist-writable
 
-      master.doWarningLF("Debug: Set Status Display Type, with "+VTAttrCount
+      mListener.doWarningLF("Debug: Set Status Display Type, with "+VTAttrCount
 			 +" args, arg#0->"+VTAttr[0]+", ignoring.");
       return;
 
     case '|': // Set page N to 80/132 cols; arg of 0, 80 (or missing)->
       // 80 columsn, 132 -> 132 cols...
 
-      master.doWarningLF("Debug: Set Page #n to 80/132 columns; ignoring.");
+      mListener.doWarningLF("Debug: Set Page #n to 80/132 columns; ignoring.");
       return;
 
     default:
 
-      master.doWarningLF("Unknown quote-code (ESC + [ + ! + "+c+") ignored!");
+      mListener.doWarningLF("Unknown quote-code (ESC + [ + ! + "+c+") ignored!");
     }
   }
 
@@ -1449,7 +1515,7 @@ default:
   {
       /* Double-width escape codes start with ESC + #...
        */
-      if (mInputPtr < (mInputSize + 1)) {
+      if ((mInputPtr + 1) < mInputEnd) {
 	  byte b1 =  mInputBuffer[mInputPtr];
 	  byte b2 =  mInputBuffer[mInputPtr+1];
 
@@ -1462,27 +1528,17 @@ default:
 
   /* VT-xxx codes found here are _mostly_ DEC-specific, but not
    * always.
-   * Returns TRUE if things go ok (or the command is cancelled!),
-   * and FALSE to indicate that another ESC-initiated command interrupted
-   * the current command.
+   * Argument is either the first intermediate char (for ESC + ( + B
+   * and the like), or the final char if there were no intermediates;
+   * in the former case the final char is gotten from the parser.
    */
-  public boolean handleSpecialCodes(char c)
-      throws VTCommandCancelled, VTCommandInterrupted,
-      VTCommandInterrupted8Bit
+  public void handleSpecialCodes(char c)
   {
-    byte b;
-
-    /* Probably all these codes do require the next character
-     * to be read also... So we perhaps could check for ESC,
-     * CAN or SUB here?
-     */
-
     switch (c) {
 
     case ' ':
 
-      b = getNextByte(false);
-      c = checkChar(b);
+      c = mParser.getFinal();
 
       if (c == 'F') {
 	set8Bitness(false);
@@ -1490,16 +1546,15 @@ default:
 	set8Bitness(true);
       } else {
 	if (mDebugVT) {
-	master.doWarningLF("Warning: ESC + <space> + "+(char) b+" is an unknown escape code, ignored.");
+	mListener.doWarningLF("Warning: ESC + <space> + "+c+" is an unknown escape code, ignored.");
 	}
-	return true;
+	return;
       }
       break;
 
     case '#':
 
-      b = getNextByte(false);
-      c = checkChar(b);
+      c = mParser.getFinal();
 
       /* #3 -> Change this line to double-height top half
        * #4 -> Change this line to double-height bottom half
@@ -1511,24 +1566,24 @@ default:
      switch (c) {
 
      case '3':
-	 display.setLineEffectDHTop(!isNextDoubleWidthCommand());
+	 mDisplay.setLineEffectDHTop(!isNextDoubleWidthCommand());
 	 break;
      case '4':
-	 display.setLineEffectDHBottom(!isNextDoubleWidthCommand());
+	 mDisplay.setLineEffectDHBottom(!isNextDoubleWidthCommand());
 	 break;
      case '5':
-	 display.setLineEffectNone(!isNextDoubleWidthCommand());
+	 mDisplay.setLineEffectNone(!isNextDoubleWidthCommand());
 	 break;
      case '6':
-	 display.setLineEffectDW(!isNextDoubleWidthCommand());
+	 mDisplay.setLineEffectDW(!isNextDoubleWidthCommand());
 	 break;
      case '8':
-	 display.setLineEffectTest();
+	 mDisplay.setLineEffectTest();
 	 break;
 
      default:
 	 if (!preventVTErrors) {
-	     master.doWarningLF("Warning: Unknown ESC + # code, ascii "
+	     mListener.doWarningLF("Warning: Unknown ESC + # code, ascii "
 				+ ((int) c) + ".");
 	 }
      }
@@ -1538,8 +1593,7 @@ default:
       // Open parenthesis begins G0-designator codes (char set selection):
     case '(':
 
-      b = getNextByte(false);
-      c = checkChar(b);
+      c = mParser.getFinal();
 
       switch (c) {
       case 'A':
@@ -1559,7 +1613,7 @@ default:
 	  break;
       default:
 	if (!preventVTErrors) {
-	  master.doWarningLF("Warning: ESC + ( + Unknown char set '"+
+	  mListener.doWarningLF("Warning: ESC + ( + Unknown char set '"+
 			     ((char) c)+"'; ignoring.");
 	}
       }
@@ -1571,8 +1625,12 @@ default:
       // char set (94 byte char set with parenthesis, 96 with minus)
     case '-':
 
-      b = getNextByte(false);
-      c = checkChar(b);
+      // Second intermediate, if any, is part of the char set name:
+      if (mParser.getIntermediateCount() > 1) {
+	  c = mParser.getIntermediate(1);
+      } else {
+	  c = mParser.getFinal();
+      }
 
       switch (c) {
       case 'A': // UK-ascii / ISO-latin
@@ -1599,16 +1657,15 @@ default:
 	  // Thus, let's just use alt gfx set; not good but has to do
 	  setCharset(1, CHAR_SET_ALT_GFX);
 	  if (!preventVTErrors) {
-	      master.doWarningLF("Warning: Trying to select Hebrew char-set; not implemented.");
+	      mListener.doWarningLF("Warning: Trying to select Hebrew char-set; not implemented.");
 	  }
 	  break;
 
       case '%': // If followed by '5', DEC supplemental gfx:
-	  b = getNextByte(false);
-	  c = checkChar(b);
+	  c = mParser.getFinal();
 	  if (c != '5') {
 	      if (!preventVTErrors) {
-		  master.doWarningLF("Warning: Unknown char set '%"+c+"; only %5 known.");
+		  mListener.doWarningLF("Warning: Unknown char set '%"+c+"; only %5 known.");
 	      }
 	      send_size = 0;
 	  } else {
@@ -1617,7 +1674,7 @@ default:
 	break;
       default:
 	if (!preventVTErrors) {
-	  master.doWarningLF("Warning: ESC + ) + Unknown char set '"+
+	  mListener.doWarningLF("Warning: ESC + ) + Unknown char set '"+
 			     ((char) c)+"'; ignoring.");
 	}
       }
@@ -1626,14 +1683,14 @@ default:
       // Asterisk begins G2-designator codes... wonder how G2 is chosen?
     case '*':
       if (!preventVTErrors) {
-	master.doWarningLF("Warning: ESC + * + <char set>; G2 not implemented.");
+	mListener.doWarningLF("Warning: ESC + * + <char set>; G2 not implemented.");
       }
       break;
       
       // Plus begins G3-designator codes... wonder how G3 is chosen, then?
     case '+':
       if (!preventVTErrors) {
-	master.doWarningLF("Warning: ESC + * + <char set>; G3 not implemented.");
+	mListener.doWarningLF("Warning: ESC + * + <char set>; G3 not implemented.");
       }
       break;
       
@@ -1656,21 +1713,16 @@ default:
 
     case '!':
 
-      b = getNextByte(false);
+      c = mParser.getFinal();
 
-      if (b == BYTE_ESC || b == BYTE_ESC_8BIT)
-	  return false;
-      if (b == BYTE_CAN || b == BYTE_SUB)
-	  return true;
-      
-      if (b == (byte) 'p') {
+      if (c == 'p') {
 	  if (mDebugVT) {
-	      master.doWarning("Debug: soft reset (ESC + [ + ! + p) issued, ignoring.");
+	      mListener.doWarning("Debug: soft reset (ESC + [ + ! + p) issued, ignoring.");
 	  }
 	  softResetTerminal(true);
       } else {
 	  if (mDebugVT) {
-	      master.doWarning("Debug: Unknown code, ESC + [ + ! + "+(char)b
+	      mListener.doWarning("Debug: Unknown code, ESC + [ + ! + "+c
 			       +" issued, ignoring.");
 	  }       
       }
@@ -1683,57 +1735,29 @@ default:
     case '\\':
 
 	if (mDebugVT) {
-	    master.doWarning("Debug: String terminator, ESC + \\ received...");
+	    mListener.doWarning("Debug: String terminator, ESC + \\ received...");
 	}       
-	return true;
-
-	/* ESC + ] -> 'Operating System Command' (says Kermit-docs):
-	 * (followed by the string ending with ESC + \)
-	 */
-    case ']':
-
-	if (!preventVTErrors) {
-	    master.doWarning("Debug: 'Operating System Command', ESC + ], received, ignored.");
-	}       
-	return true;
+	return;
 
-	/* ESC + ^ -> 'Privacy Message' (says Kermit-docs):
-	 * (followed by the string ending with ESC + \)
+	/* ESC + ], ESC + ^ and ESC + _ (OSC, 'Privacy Message' and
+	 * 'Application Program Command', says Kermit-docs) are followed
+	 * by a string; VTParser takes care of skipping those.
 	 */
 
-    case '^':
-
-     if (!preventVTErrors) {
-       master.doWarning("Debug: 'Privacy Message', ESC + ^, received, ignored.");
-     }       
-     return true;
-
-     // ESC + _ -> 'Application Program Command' (says Kermit-docs):
-     // (followed by the string ending with ESC + \)
-
-    case '_':
-
-     if (!preventVTErrors) {
-       master.doWarning("Debug: 'Application Program Command', ESC + _, received, ignored.");
-     }       
-     return true;
-
     default:
       
       if (!preventVTErrors) {
-	master.doWarningLF("Warning: Unknown ESC - code (ESC + "+c
+	mListener.doWarningLF("Warning: Unknown ESC - code (ESC + "+c
 			   +"=ascii "+ ((int) c & 0xFF) + ").");
       }
       break;
     }
-
-    return true;
   }
 
 
   /* *** Methods for saving/storing terminal state: *** */
 
-  public void saveCursor() { mSavedDisplayState = display.getDisplayState(); }
+  public void saveCursor() { mSavedDisplayState = mDisplay.getDisplayState(); }
   public void restoreCursor() { mDisplay.setDisplayState(mSavedDisplayState); }
 
   /* *** Reporting: *** */
@@ -1748,8 +1772,8 @@ default:
    */
   public void reportCursorPosition()
   {
-      Dimension d = display.getCursorPosition();
-      String reply = "\u001B[" + (d.y+1) + ";" + (d.x+1) + "R";
+      String reply = "\u001B[" + (mDisplay.getCursorY()+1) + ";"
+	  + (mDisplay.getCursorX()+1) + "R";
       sendBytes(reply.getBytes(), false);
   }
 
@@ -1808,17 +1832,17 @@ default:
 
     if (VTMode == VT52 || modeVT52) { 
       if (mDebugVT) {
-	master.doWarningLF("DEBUG: Sending the device code reply of VT52.");
+	mListener.doWarningLF("DEBUG: Sending the device code reply of VT52.");
       }
       sendBytes(VT52DeviceCodeReply, false);
     } else if (VTMode == VT320) {
      if (mDebugVT) {
-	master.doWarningLF("DEBUG: Sending the device code reply of VT320.");
+	mListener.doWarningLF("DEBUG: Sending the device code reply of VT320.");
       }
       sendBytes(VT320DeviceCodeReply, false);
     } else {
      if (mDebugVT) {
-	master.doWarningLF("DEBUG: Sending the device code reply of VT100/VT102.");
+	mListener.doWarningLF("DEBUG: Sending the device code reply of VT100/VT102.");
       }
       connection.sendBytes(sVT100DeviceCodeReply, false);
     }
@@ -1863,7 +1887,11 @@ default:
 
   /* *** Methods for changing terminal state: * ***/
 
-  public void setVT52Mode(boolean x) { modeVT52 = x; }
+  public void setVT52Mode(boolean x) {
+      modeVT52 = x;
+      // Parser needs to know, as VT52 codes are not ANSI sequences:
+      mParser.setVT52(VTMode == VT52 || x);
+  }
   public void setKeyboardLocked(boolean state) {
       modeKeyboardLocked = state;
   }
@@ -1884,13 +1912,13 @@ default:
 
   public void setColumns132(boolean is132)
   {
-      if (!master.VTResizeOk()) {
+      if (!mListener.VTResizeOk()) {
 	  if (debugVT) {
-	      master.doWarningLF("Warning: VT-originated resize not allowed.");
+	      mListener.doWarningLF("Warning: VT-originated resize not allowed.");
 	  }
       } else {
 	  mode132Cols = is132;
-	  display.setColumns132(is132);
+	  mDisplay.setColumns132(is132);
       }
   }
 
@@ -1898,7 +1926,7 @@ default:
   {
       if (set >= mCharsets.length) {
 	  if (debugVT) {
-	      master.doWarningLF("Warning: trying to invoke unknown character set "+set+" (only 0 - "+(mCharsets.length-1)+" allowed).");
+	      mListener.doWarningLF("Warning: trying to invoke unknown character set "+set+" (only 0 - "+(mCharsets.length-1)+" allowed).");
 	  }
       } else {
 	  mUsingCharset = set;
@@ -1906,11 +1934,36 @@ default:
       }
   }
 
+  /* Translates chars printed when G0/G1 is not plain ASCII (the
+   * screen, Display or MemoryScreen, just gets the resulting chars):
+   */
+  private void mapCharset(char [] text, int len)
+  {
+      switch (mCurrCharset) {
+      case CHAR_SET_GFX:
+      case CHAR_SET_ALT_GFX:
+	  for (int i = 0; i < len; ++i) {
+	      int ix = text[i] - GFX_FIRST;
+	      if (ix >= 0 && ix < sGfxChars.length) {
+		  text[i] = sGfxChars[ix];
+	      }
+	  }
+	  break;
+      case CHAR_SET_UK: // only differs by having pound sign for '#'
+	  for (int i = 0; i < len; ++i) {
+	      if (text[i] == '#') {
+		  text[i] = '\u00A3';
+	      }
+	  }
+	  break;
+      }
+  }
+
   public void setCharset(int set, int charset)
   {
       if (set >= mCharsets.length) {
 	  if (debugVT) {
-	      master.doWarningLF("Warning: trying to invoke unknown character set "+set+" (only 0 - "+(mCharsets.length-1)+" allowed).");
+	      mListener.doWarningLF("Warning: trying to invoke unknown character set "+set+" (only 0 - "+(mCharsets.length-1)+" allowed).");
 	  }
       } else {
 	  mCharsets[set] = charset;
@@ -1923,12 +1976,12 @@ default:
   public void set8Bitness(boolean x)
   {
       if (mDebugVT) {
-	  master.doWarningLF("Debug: "+(x ? "enable" : "disable")
+	  mListener.doWarningLF("Debug: "+(x ? "enable" : "disable")
 			     +" output of 8-bit control codes.");
       }
       if (x) {
 	  modeMaySend8BitCodes = true;
-	  if (master.send8BitCodesOk()) {
+	  if (mListener.send8BitCodesOk()) {
 	      modeDoSend8BitCodes = true;
 	  }
       } else {
@@ -1954,33 +2007,33 @@ default:
   {
     switch (a) {
     case 60: // Just a guess that this is to be VT52
-      master.terminal.setEmulationLevel(Terminal.VT52);
+      setEmulationLevel(Terminal.VT52);
       modeMaySend8BitCodes = false;
       break;
     case 61:
-      master.terminal.setEmulationLevel(Terminal.VT102);
+      setEmulationLevel(Terminal.VT102);
       modeMaySend8BitCodes = false;
       break;
     case 62:
-      master.terminal.setEmulationLevel(Terminal.VT220);
+      setEmulationLevel(Terminal.VT220);
       modeMaySend8BitCodes = (b == 1) ? false : true;
       break;
     case 63:
-      master.terminal.setEmulationLevel(Terminal.VT320);
+      setEmulationLevel(Terminal.VT320);
       modeMaySend8BitCodes = (b == 1) ? false : true;
       break;
     case 64:
-      master.terminal.setEmulationLevel(Terminal.VT420);
+      setEmulationLevel(Terminal.VT420);
       modeMaySend8BitCodes = (b == 1) ? false : true;
       break;
     case 65:
-      master.terminal.setEmulationLevel(Terminal.VT520);
+      setEmulationLevel(Terminal.VT520);
       modeMaySend8BitCodes = (b == 1) ? false : true;
       break;
     default:
-      master.doWarningLF("Warning: unknown conformance level (termtype) "+a
+      mListener.doWarningLF("Warning: unknown conformance level (termtype) "+a
 			 +"; using 7-bit VT102 instead.");
-      master.terminal.setEmulationLevel(Terminal.VT102);
+      setEmulationLevel(Terminal.VT102);
       modeMaySend8BitCodes = false;
     }
 
@@ -2039,22 +2092,22 @@ default:
 	   */
 
 	if (question_mark) {
-	    display.setDisplayMode(Display.MODE_SMOOTH_SCROLL, true);
+	    mDisplay.setDisplayMode(ScreenModel.MODE_SMOOTH_SCROLL, true);
 	} else {
-	    display.setDisplayMode(Display.MODE_INSERT_MODE, true);
+	    mDisplay.setDisplayMode(ScreenModel.MODE_INSERT_MODE, true);
 	}
 	break;
 
       case 5: // Inverse video
-	  display.setScreenReversed(true);
+	  mDisplay.setScreenReversed(true);
 	  break;
 
       case 6: // Origin mode relative/absolute
-	  display.setDisplayMode(Display.MODE_ORIGIN_RELATIVE, true);
+	  mDisplay.setDisplayMode(ScreenModel.MODE_ORIGIN_RELATIVE, true);
 	  break;
 
       case 7: // Wrap-around on
-	  display.setDisplayMode(Display.MODE_AUTO_WRAP, true);
+	  mDisplay.setDisplayMode(ScreenModel.MODE_AUTO_WRAP, true);
 	  break;
 		
       case 8: // Autorepeat
@@ -2085,18 +2138,18 @@ default:
       case 21: // Rumoured to mean "Set cursor to block" (on Irix)
 	// not implemented...
 	if (!preventVTErrors) {
-	  master.doWarningLF("Warning: ESC + [ + (?) + 21 + h gotten; possibly means 'cursor to block'; skipping.");
+	  mListener.doWarningLF("Warning: ESC + [ + (?) + 21 + h gotten; possibly means 'cursor to block'; skipping.");
 	}
 	return;
 
       case 25: // Cursor on / off
-	  display.setDisplayMode(Display.MODE_CURSOR_VISIBLE, true);
+	  mDisplay.setDisplayMode(ScreenModel.MODE_CURSOR_VISIBLE, true);
 	  break;
 
       case 33: // Rumoured to mean "Wyse Steady Cursor Mode", not handled
 
 	if (!preventVTErrors) {
-	  master.doWarningLF("Warning: ESC + [ + (?) + 33 + h gotten; possibly means 'Wyse Steady Cursor Mode'; skipping.");
+	  mListener.doWarningLF("Warning: ESC + [ + (?) + 33 + h gotten; possibly means 'Wyse Steady Cursor Mode'; skipping.");
 	}
 	return;
 
@@ -2105,7 +2158,7 @@ default:
 	// right-to-left / left-to-right mode:
 
 	if (!preventVTErrors) {
-	  master.doWarningLF("Warning: ESC + [ + (?) + 34 + h gotten; possibly means 'Wyse Underline Cursor Mode'; skipping, or 'left-to-right' mode set (DEC)");
+	  mListener.doWarningLF("Warning: ESC + [ + (?) + 34 + h gotten; possibly means 'Wyse Underline Cursor Mode'; skipping, or 'left-to-right' mode set (DEC)");
 	}
 	return;
 
@@ -2122,7 +2175,7 @@ default:
       case 68: // Typewriter, data process/typewriter (DEC).
 	       // What on earth does that mean?
 	if (!preventVTErrors) {
-	  master.doWarningLF("Warning: recognized but unimplemented mode ("
+	  mListener.doWarningLF("Warning: recognized but unimplemented mode ("
 			     +mode+") to set " +"with ESC + [ + ?");
 	}
 	break;
@@ -2130,7 +2183,7 @@ default:
       default:
 
 	if (!preventVTErrors) {
-	  master.doWarningLF("Warning: Unknown mode ("+mode+") to set "
+	  mListener.doWarningLF("Warning: Unknown mode ("+mode+") to set "
 			     +"with ESC + [ + ?");
 	}
 	return;
@@ -2182,15 +2235,15 @@ default:
 	break;
 	  
       case 5: // Inverse video
-	  display.setScreenReversed(false);
+	  mDisplay.setScreenReversed(false);
 	  break;
 
       case 6: // Origin mode relative/absolute
-	  display.setDisplayMode(Display.MODE_ORIGIN_RELATIVE, false);
+	  mDisplay.setDisplayMode(ScreenModel.MODE_ORIGIN_RELATIVE, false);
 	  break;
 
       case 7: // Wrap-around off
-	  display.setDisplayMode(Display.MODE_AUTO_WRAP, false);
+	  mDisplay.setDisplayMode(ScreenModel.MODE_AUTO_WRAP, false);
 	  break;
 		
       case 8: // Autorepeat
@@ -2221,18 +2274,18 @@ default:
       case 21: // Rumoured to mean "Set cursor to block" (on Irix)
 	// not implemented...
 	if (!preventVTErrors) {
-	  master.doWarningLF("Warning: ESC + [ + (?) + 21 + l gotten; possibly means 'cursor to xxx'; skipping.");
+	  mListener.doWarningLF("Warning: ESC + [ + (?) + 21 + l gotten; possibly means 'cursor to xxx'; skipping.");
 	}
 	return;
 
       case 25: // Cursor on / off
-	  display.setDisplayMode(Display.MODE_CURSOR_VISIBLE, false);
+	  mDisplay.setDisplayMode(ScreenModel.MODE_CURSOR_VISIBLE, false);
 	  break;
 
       case 33: // Rumoured to mean "Wyse Steady Cursor Mode", not handled
 
 	if (!preventVTErrors) {
-	  master.doWarningLF("Warning: ESC + [ + (?) + 33 + l gotten; possibly means 'Wyse Steady Cursor Mode'; skipping.");
+	  mListener.doWarningLF("Warning: ESC + [ + (?) + 33 + l gotten; possibly means 'Wyse Steady Cursor Mode'; skipping.");
 	}
 	return;
 
@@ -2241,7 +2294,7 @@ default:
 	// right-to-left / left-to-right mode:
 
 	if (!preventVTErrors) {
-	  master.doWarningLF("Warning: ESC + [ + (?) + 34 + l gotten; possibly means 'Wyse Underline Cursor Mode'; skipping, or 'left-to-right' mode set (DEC)");
+	  mListener.doWarningLF("Warning: ESC + [ + (?) + 34 + l gotten; possibly means 'Wyse Underline Cursor Mode'; skipping, or 'left-to-right' mode set (DEC)");
 	}
 	return;
 
@@ -2257,7 +2310,7 @@ default:
       case 68: // Typewriter, data process/typewriter (DEC).
 	       // What on earth does that mean?
 	if (!preventVTErrors) {
-	  master.doWarningLF("Warning: recognized but unimplemented mode ("
+	  mListener.doWarningLF("Warning: recognized but unimplemented mode ("
 			     +mode+") to set " +"with ESC + [ + ?");
 	}
 	break;
@@ -2265,7 +2318,7 @@ default:
       default:
 
 	if (!preventVTErrors) {
-	  master.doWarningLF("Warning: Unknown mode ("+mode+") to reset "
+	  mListener.doWarningLF("Warning: Unknown mode ("+mode+") to reset "
 			     +"with ESC + [ + ?");
 	}
 	return;
@@ -2277,29 +2330,25 @@ default:
   public void
   setEmulationLevel(int lvl)
   {
-    modeVT52 = false;
     VTMode = lvl;
+    setVT52Mode(false);
   }
 
+  /**
+   * Method for simulating a serial line of given speed (bps; 0 for
+   * no limit). The limit is applied by the connection; to the data
+   * received, and if 'output' is true, to the data sent too.
+   */
   public void
-  setSpeed(int speed)
+  setSpeed(int speed, boolean output)
   {
-    bpsLimit = speed;
-
-    if (speed < 1) {
-      bpsLimit = 0;
-      bpsLimitTime = 0;
-    } else {
-      // Assuming 8n1 means we need 9 bits for each char, thus:
-      bpsWaitPerChar = 9000.0 / (double) speed;
-      /* Let's use up to ~50 ms for reading (optimization); we don't
-       * want to use too much CPU time for doing slow-down...
-       */
-      bpsMaxCharsPerRead = (int) (50.0 / bpsWaitPerChar) + 1;
-      bpsLimitTime = 0; // Will be set to a correct value when reading next
-                        // char
+    mSpeed = (speed < 1) ? 0 : speed;
+    mSpeedOutput = output;
+    JiveConnection c = mConnection;
+    if (c != null) {
+      c.setSpeed(mSpeed, mSpeedOutput);
     }
- }
+  }
 
   /* *** Sending VT stuff: *** */
   private byte [] arrowCodes = new byte[3]; {
@@ -2339,10 +2388,16 @@ default:
     sendBytes(arrowCodes, 0, send_size + 1, true);
   }
 
-  /* Internal state data about the VT-code read in: */
-  private int [] VTAttr = new int[20];
+  /* Internal state data about the VT-code read in; the parser
+   * collects the arguments, VTAttr just refers to its array:
+   */
+  private final VTParser mParser = new VTParser();
+  private int [] VTAttr = mParser.getParams();
+  {
+    // No C1 controls with UTF-8 (see setUtf8()):
+    mParser.setUtf8(mUtf8);
+  }
   private int VTAttrCount = 0;
-  private byte VTCommand; // The 'last letter', if present
 
   // A small utility function that dumps list of read-in
   // VT attributes:
@@ -2351,236 +2406,237 @@ default:
   {  
     for (int j = 0; j < VTAttrCount; j++) {
       if (j > 0)
-	master.doWarning(", ");
-      master.doWarning("" + VTAttr[j]);
+	mListener.doWarning(", ");
+      mListener.doWarning("" + VTAttr[j]);
     }
     if (flush)
-      master.doWarningLF("");
+      mListener.doWarningLF("");
   }
 
-  /* This function reads in a list of semicolon-separated
-   * ascii-numbers:    
+  /* This function feeds a control char, or the start of a VT-code
+   * (ESC, or an 8-bit C1 code) to the parser, along with any bytes
+   * following it, until the parser gets back to the ground state.
+   * Complete commands are passed for further processing to other
+   * functions; cancelled (CAN, SUB) and interrupted (ESC, CSI)
+   * commands are simply dropped by the parser.
    */
-  public byte
-  getVTAttrs(byte b)
-  throws VTCommandCancelled, VTCommandInterrupted,
-    VTCommandInterrupted8Bit
-  {
-    int currVal = 0;
-    VTAttrCount = 0;
-
-    do {
-
-      if (b == BYTE_ESC)
-	throw new VTCommandInterrupted();
-      if (b == BYTE_ESC_8BIT)
-	throw new VTCommandInterrupted8Bit();
-      // These control chars cancel the current command:
-      if (b == BYTE_CAN || b == BYTE_SUB)
-	throw new VTCommandCancelled();
-
-      if (b >= (byte) '0' && b <= (byte) '9') {
-	currVal = currVal * 10 + (int) (b - (byte) '0');
-      } else {
-	if (VTAttrCount == VTAttr.length) {
-	  int [] tmp = VTAttr;
-	  VTAttr = new int[VTAttrCount + 10];
-	  System.arraycopy(tmp, 0, VTAttr, 0, VTAttrCount);
-	}
-	VTAttr[VTAttrCount++] = currVal;
-	if (b != (byte) ';') {
-	  return b;
-	}
-	currVal = 0;
-      }
-      b = getNextByte(false);
+  public void handleVTCode(byte b)
+      throws IOException
+  {
+    VTParser p = mParser;
 
-    } while (true);
-  }
+    while (true) {
 
-  private char[] VTCode = new char [4];
-  private int VTCodeLength;
+      switch (p.next(b)) {
 
-  public char checkChar(byte b)
-  throws VTCommandCancelled, VTCommandInterrupted,
-    VTCommandInterrupted8Bit
-  {
-    if (b == BYTE_ESC)
-      throw new VTCommandInterrupted();
-    if (b == BYTE_ESC_8BIT)
-      throw new VTCommandInterrupted8Bit();
-    if (b == BYTE_CAN || b == BYTE_SUB)
-      throw new VTCommandCancelled();
-    return (char) b;
-  }
+      case VTParser.ACTION_EXECUTE:
+	  handleCtrlChar(b);
+	  break;
 
-  /* This function reads in a VT-code, and then either discards it
-   * (if it was cancelled) or passes it for further processing
-   * to another function.
-   */
-  public void handleVTCode(byte b)
-  {
-    char c, code;
-    String db;
+      case VTParser.ACTION_ESC_DISPATCH:
+	  dispatchEscCode();
+	  break;
 
-    // This loop is needed in case a VT-code is interrupted by
-    // another VT-code
-  main_loop:
+      case VTParser.ACTION_CSI_DISPATCH:
+	  dispatchCSICode();
+	  break;
 
-     while (true) {
+      case VTParser.ACTION_OSC_END:
+	  handleOSCString(p.getOscBuffer(), p.getOscLength());
+	  break;
 
-       try {
+	/* 'Device Control String Introducer' (Kermit-docs). Wild. */
+      case VTParser.ACTION_DCS_HOOK:
 
-	 VTCodeLength = VTAttrCount = 0;
-	 c = checkChar(b);
-	 
-	 // Now we can already decide whether it is a short code...
-	 // Shouldn't cause false positives?
-	 if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ||
-	     (c >= '0' && c <= '9')) {
+	  if (!preventVTErrors) {
+	      mListener.doWarningLF("Warning: 'Device Control String Introducer', not handled currently.");
+	  }
+	  break;
 
-	   if (dumpVTCodes) {
-	     master.doWarning(" <(SHORT)_ESC "+c+">");
-	   }
-	   handleShortCodes(b);
-	   return;
-	 }
-	 
-	 VTCode[VTCodeLength++] = c;
-	 
-	/* Then there are more specialized VT-codes, which begin
-	 * with a punctuation character:
+	/* Direct cursor address (VT52); 2 characters follow; the first
+	 * is for line, second column; characters are 32 + number (that is,
+	 * home, (0, 0), translates to (32, 32); although in general indexes
+	 * in vt-xxx begin from 1, not 0). Parser has already subtracted
+	 * the 32.
 	 */
-	 // These are the 'normal' vt100 codes:
-	if (VTCode[0] == CHAR_BRACKET) {
-
-	  b = getNextByte(false);
-	  c = checkChar(b);
-
-	  // Now we might already get some numeric arguments:
-	  if ((c >= '0' && c <= '9') || c == ';' || c == '-') {
-	    b = getVTAttrs(b);
-	    // No need to check now, getVTAttrs has already checked
-	    // it...
-	    c = (char) b;
-	  }
+      case VTParser.ACTION_VT52_ADDRESS:
+	  mDisplay.setCursorPosition(VTAttr[1], VTAttr[0]);
+	  break;
+      }
 
-	  /* Before or after args... we may have special chars indicating
-	   * vendor-specific extensions:
-	   */
-	  if (c == '?' || c == '>' || c == '"' || c == '!' || c == '$') {
-	    code = c;
-	    if (dumpVTCodes) {
-	      master.doWarning(" <ESC_[_"+code);
-	    }
-	    b = getNextByte(false);
-	    c = checkChar(b);
-	  } else {
-	    code = '[';
-	    if (dumpVTCodes)
-	      master.doWarning(" <ESC_[");
-	  }
+      if (p.isInGround()) {
+	  return;
+      }
+      b = getNextByte();
+    }
+  }
 
-	  // Now we might already get some numeric arguments:
-	  if ((c >= '0' && c <= '9') || c == ';' || c == '-') {
-	    b = getVTAttrs(b);
-	    // No need to check now, getVTAttrs has already checked
-	    // it...
-	    c = (char) b;
+  private void dispatchEscCode()
+  {
+      char c = mParser.getFinal();
+
+      SessionStats stats = mStats;
+
+      // ESC + ( + B and the like:
+      if (mParser.getIntermediateCount() > 0) {
+	  if (stats != null) {
+	      stats.countInput(SessionStats.CODES_SPECIAL);
 	  }
+	  handleSpecialCodes(mParser.getIntermediate(0));
+	  return;
+      }
 
-	  if (VTAttrCount > 0) {
-	    if (dumpVTCodes) {
-	      db = "_(";
-	      for (int x = 0; x < VTAttrCount; x++) {
-		if (x > 0) db += ",";
-		db = db + "" + VTAttr[x];
-	      }
-	      db = db + ")_" + c + ">";
-	      master.doWarning(db);
-	    }
-	  } else {
-	    if (dumpVTCodes)
-	      master.doWarning("_(-)_"+c+">");
+      // Short codes are the ones ending with an alphanumeric char:
+      if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ||
+	  (c >= '0' && c <= '9')) {
+	  if (stats != null) {
+	      stats.countInput(SessionStats.CODES_OTHER);
 	  }
-	  
-	  switch (code) {
-	  case '[':
-	    handleBracketCodes(c);
-	    return;
+	  handleShortCodes((byte) c);
+	  return;
+      }
+
+      if (stats != null) {
+	  stats.countInput(SessionStats.CODES_SPECIAL);
+      }
+      handleSpecialCodes(c);
+  }
 
+  private void dispatchCSICode()
+  {
+      char c = mParser.getFinal();
+      /* Before or after args... we may have special chars indicating
+       * vendor-specific extensions:
+       */
+      char code = mParser.getPrivateMarker();
+
+      if (code == 0) {
+	  code = mParser.getIntermediate(0);
+      }
+      VTAttrCount = mParser.getParamCount();
+
+      SessionStats stats = mStats;
+      if (stats != null) {
+	  switch (code) {
+	  case 0:
+	      stats.countInput(SessionStats.CODES_BRACKET);
+	      break;
 	  case '?':
-	    handleQuestionCodes(c);
-	    return;
+	      stats.countInput(SessionStats.CODES_QUESTION);
+	      break;
+	  case '$':
+	      stats.countInput(SessionStats.CODES_DOLLAR);
+	      break;
+	  default:
+	      stats.countInput(SessionStats.CODES_OTHER);
+	  }
+      }
 
-	  case '!':
-	    handleExclamationCodes(c);
-	    return;
+      switch (code) {
+      case 0:
+	  handleBracketCodes(c);
+	  return;
 
-	  case '>':
-	    handleGtCodes(c);
-	    return;
+      case '?':
+	  handleQuestionCodes(c);
+	  return;
 
-	  case '"':
-	    handleQuoteCodes(c);
-	    return;
+      case '!':
+	  handleExclamationCodes(c);
+	  return;
 
-	  case '$':
-	    handleDollarCodes(c);
-	    return;
+      case '>':
+	  handleGtCodes(c);
+	  return;
 
-	  default:
-	    master.doWarningLF("Warning: Internal error in Terminal.handleVTCode()!");
-	  }	  
+      case '"':
+	  handleQuoteCodes(c);
+	  return;
+
+      case '$':
+	  handleDollarCodes(c);
 	  return;
-	} // if (code == BRACKET)
 
-	if (dumpVTCodes) {
-	  db = " <(SPEC)_ESC_(";
-	  for (int x = 0; x < VTAttrCount; x++) {
-		if (x > 0) db += ",";
-		db = db + "" + VTAttr[x];
+      default:
+	  if (!preventVTErrors) {
+	      mListener.doWarningLF("Warning: Unknown VT-code (ESC + [ + "+code
+				 +" + "+c+"), ignoring.");
 	  }
-	  db = db +")_" + c + ">";
-	  master.doWarning(db);
-	}
+      }
+  }
 
-	handleSpecialCodes(c);
-	return;
+  /* ESC + ] -> 'Operating System Command' (says Kermit-docs):
+   * (followed by the string ending with ESC + \ or BEL). xterm uses
+   * these for setting window titles and such; not supported yet.
+   */
+  public void handleOSCString(char [] str, int len)
+  {
+      if (!preventVTErrors) {
+	  mListener.doWarning("Debug: 'Operating System Command', ESC + ], received, ignored.");
+      }
+  }
 
-	/* Should we print a checker-board char, then? */
-	/* (some docs claim that should result in interrupted ESC-code) */
-       } catch (VTCommandCancelled e1) {
-	 if (dumpVTCodes) {
-	   master.doWarning("<ESC_CAN>");
-	 }
-	 return;
-       } catch (VTCommandInterrupted e2)  {
-	 if (dumpVTCodes) {
-	   master.doWarning("<ESC_ESC>");
-	 }
-	 b = getNextByte(true);
-	 continue main_loop;
-       } catch (VTCommandInterrupted8Bit e3) {
-	 if (dumpVTCodes) {
-	   master.doWarning("<ESC_ESC/8>");
-	 }
-	 b = BYTE_BRACKET;
-	 continue main_loop;
-       }
-     }
+  /**
+   * Method for choosing whether the text from the server is to be
+   * decoded as UTF-8, or as ISO-Latin-1 (one byte per char).
+   */
+  public void setUtf8(boolean utf8)
+  {
+      mUtf8 = utf8;
+      mDecoder.reset();
+      mParser.setUtf8(utf8);
   }
 
+  public boolean isUtf8() { return mUtf8; }
+
   private byte getNextByte()
       throws IOException
   {
-      if (mInputPtr >= mInputSize) {
-	  mInputPtr = 0;
-	  mInputSize = mConnection.getBytes(mInputBuffer);
-	  // End of connection?
-	  if (mInputSize < 0) {
+      if (mInputPtr >= mInputEnd) {
+	  if (mCancelled) {
+	      throw new InterruptedIOException("Session cancelled");
+	  }
+	  /* Asking for the next slice gives the current one back to
+	   * the connection:
+	   */
+	  SessionStats stats = mStats;
+	  if (stats != null) {
+	      stats.addInput(SessionStats.PARSE_NANOS,
+			     System.nanoTime() - mParseStart);
+	  }
+	  InputSlice slice = mSlice;
+	  if (mReplay != null) {
+	      int count;
+	      try {
+		  count = mReplay.getBytes(mReplayBuffer);
+	      } catch (InterruptedException ie) {
+		  throw new InterruptedIOException("Replay interrupted");
+	      }
+	      if (count < 0) {
+		  throw new IOException("End-of-replay");
+	      }
+	      slice.set(mReplayBuffer, 0, count);
+	  } else if (!mConnection.lendBytes(slice)) {
+	      // End of connection
 	      throw new IOException("End-of-connection");
 	  }
+	  mInputBuffer = slice.getBuffer();
+	  mInputPtr = slice.getStart();
+	  mInputEnd = slice.getEnd();
+	  if (stats != null) {
+	      stats.addInput(SessionStats.BYTES_PARSED, mInputEnd - mInputPtr);
+	      mParseStart = System.nanoTime();
+	  }
+	  SessionRecorder rec = mRecorder;
+	  if (rec != null) {
+	      try {
+		  rec.record(mInputBuffer, mInputPtr, mInputEnd - mInputPtr);
+	      } catch (IOException ie) {
+		  mListener.doWarningLF("Recording to '"+rec.getPath()
+				     +"' failed: "+ie.getMessage());
+		  stopRecording();
+	      }
+	  }
       }
       
       return mInputBuffer[mInputPtr++];
@@ -2593,107 +2649,143 @@ default:
   public void handleConnection(JiveConnection conn)
   {
       setConnection(conn);
+      processInput();
+      setConnection(null);
+      // Session is over, and so is its recording:
+      stopRecording();
+  }
+
+  /**
+   * Method for replaying a recorded session; data is processed
+   * exactly as if it had come from the connection. Returns when the
+   * whole recording has been processed.
+   */
+  public void replaySession(SessionReplay replay)
+  {
+      if (mReplayBuffer == null) {
+	  mReplayBuffer = new byte[JiveConnection.IN_BUFFER_SIZE];
+      }
+      mReplay = replay;
+      processInput();
+      mReplay = null;
+      replay.close();
+  }
+
+  /**
+   * Method for starting to record everything read from the
+   * connection to given file (see SessionRecorder).
+   */
+  public synchronized void startRecording(File path)
+      throws IOException
+  {
+      stopRecording();
+      mRecorder = new SessionRecorder(path);
+  }
+
+  public synchronized void stopRecording()
+  {
+      SessionRecorder rec = mRecorder;
+      if (rec != null) {
+	  mRecorder = null;
+	  try {
+	      rec.close();
+	  } catch (IOException ie) {
+	      mListener.doWarningLF("Failed to close recording '"+rec.getPath()
+				 +"': "+ie.getMessage());
+	  }
+      }
+  }
 
-  main_loop:
+  public boolean isRecording() { return mRecorder != null; }
+
+  /**
+   * Method for asking the input processing to stop; it will, the
+   * next time it needs more input (or as soon as the connection is
+   * closed, if it's waiting for input).
+   */
+  public void cancel()
+  {
+      mCancelled = true;
+  }
+
+  public boolean isCancelled() { return mCancelled; }
+
+  private void processInput()
+  {
+      mParser.reset();
+      mInputPtr = mInputEnd = 0;
+      mSlice.clear();
+      mParseStart = System.nanoTime();
 
     try {
 	while (true) {
-	    byte b = getNextByte(true); // getNextByte() handles ctrl chars...
+	    byte b = getNextByte();
 	    
-	    /* Then we'll check for ESC-codes -> ANSI/VT-100 codes. */
-	    if (b == BYTE_ESC) {
-		handleVTCode(getNextByte(false));
-	    } else if (b == BYTE_ESC_8BIT) {
-		handleVTCode(BYTE_BRACKET);
-	    } else  if (b >= (byte) 128 && b <= (byte) 160) {
-		
-		/* List from Kermit-docs. Probably these could also be directly
-		 * calculated...
-		 */
-		switch ((int) b & 0xFF) {
-		case 0x84:
-		    b = (byte) 'D';
-		    break;
-		case 0x85:
-		    b = (byte) 'E';
-		    break;
-		case 0x88:
-		    b = (byte) 'H';
-		    break;
-		case 0x8D:
-		    b = (byte) 'M';
-		    break;
-		case 0x8E:
-		    b = (byte) 'N';
-		    break;
-		case 0x8F:
-		    b = (byte) 'O';
-		    break;
-		case 0x90:
-		    b = (byte) 'P';
-		    break;
-		case 0x96:
-		    b = (byte) 'V';
-		    break;
-		case 0x97:
-		    b = (byte) 'W';
-		    break;
-		case 0x9B: // Already handled earlier:
-		    master.doWarningLF("Warning: Internal problems; re-receiving 0x9B!");
-		    continue main_loop;
-		case 0x9C:
-		    b = (byte) '\\';
-		    break;
-		case 0x9D:
-		    b = (byte) ']';
-		    break;
-		case 0x9E:
-		    b = (byte) '^';
-		    break;
-		case 0x9F:
-		    b = (byte) '_';
-		    break;
-		default:
-		    
-		    if (mDebugVT) {
-			master.doWarningLF("Warning: Unknown upper-area ctrl code ("
-					   +((int) b & 0xFF)+" received, ignoring.");
+	    /* Control chars, and ESC-codes -> ANSI/VT-100 codes, go
+	     * through the parser (8-bit codes too, unless they are
+	     * part of UTF-8 chars):
+	     */
+	    if (mUtf8 ? ((b & 0xE0) == 0) : ((b & 0x60) == 0)) {
+		// A char cut off by a control code is invalid:
+		if (mDecoder.hasPending()) {
+		    if (mCharAttrsChanged) {
+			applyCharAttrs();
 		    }
-		    continue main_loop;
+		    mDisplay.printText(mTextBuffer, 0,
+				       mDecoder.finish(mTextBuffer));
 		}
 		handleVTCode(b);
 	    } else {
-		int i;
+		int i = mInputPtr - 1;
 
 		/* Let's break on any 'weird' (control) characters:
 		 * (actually, any non-printable char)
 		 */
-		for (i = mInputPtr - 1; mInputPtr < mInputSize; ++mInputPtr) {
-		    b = mInputBuffer[inPtr];
-		    if (((int)b & 0x007F) < 32) {
-			break;
-		    }
+		if (mUtf8) {
+		    mInputPtr = mScanner.findC0Control(mInputBuffer, mInputPtr,
+						       mInputEnd);
+		} else {
+		    mInputPtr = mScanner.findControl(mInputBuffer, mInputPtr,
+						     mInputEnd);
 		}
-		if (dumpVTCodes) {
-		    master.doWarning("\""+new String(inBuffer, i, inPtr - i)
-				     +"\"(" + (inPtr - i)+")");
+		int len = mInputPtr - i;
+		if (mStats != null) {
+		    mStats.addInput(SessionStats.PRINTABLE_BYTES, len);
 		}
 		// Need to update character attributes? (ie. they have been changed)
 		if (mCharAttrsChanged) {
 		    applyCharAttrs();
 		}
-		
-		display.printCharacters(mInputBuffer, i, mInputPtr - i);
+
+		if (len >= mTextBuffer.length) {
+		    mTextBuffer = new char[len + 1];
+		}
+		char[] text = mTextBuffer;
+		if (mUtf8) {
+		    /* Decoder keeps partial chars (ones split between
+		     * input buffers) until the rest arrives:
+		     */
+		    len = mDecoder.decode(mInputBuffer, i, mInputPtr, text);
+		} else { // ISO-Latin-1 bytes are chars as is:
+		    for (int j = 0; j < len; ++j) {
+			text[j] = (char) (mInputBuffer[i+j] & 0xFF);
+		    }
+		}
+		if (len > 0) {
+		    if (mCurrCharset != CHAR_SET_ASCII) {
+			mapCharset(text, len);
+		    }
+		    mDisplay.printText(text, 0, len);
+		}
 	    }
 	} // while (true)
     } catch (IOException ex) {
 	// Connection closed...
     }
 
-    setConnection(null);
   }
 
-  /* These functions locally echo a character(s) on the terminal display.
+  /* These functions locally echo a character(s) on the terminal mDisplay.
    * Called by a JiveTerm-instance; for the user it looks
    * as if the server had output text normally:
    */
@@ -2705,17 +2797,12 @@ default:
       // Overflow?
       if (echoSize == ECHO_BUFFER_SIZE) {
 	if (mDebugVT) {
-	  master.doWarning("VT-warning: Local echo buffer overflow.");
+	  mListener.doWarning("VT-warning: Local echo buffer overflow.");
 	}
 	return;
       }
 
-      echoBuffer[echoSize] = x;
-
-      // The buffer was empty?
-      if (echoSize++ == 0)
-	interrupt(); // In case this thread has been blocked by read()
-      else interrupt();
+      echoBuffer[echoSize++] = x;
     }
   }
 
@@ -2727,19 +2814,13 @@ default:
       // Overflow?
       if ((echoSize + x.length) > ECHO_BUFFER_SIZE) {
 	if (mDebugVT) {
-	  master.doWarning("VT-warning: Local echo buffer overflow.");
+	  mListener.doWarning("VT-warning: Local echo buffer overflow.");
 	}
 	return;
       }
 
       System.arraycopy(x, 0, echoBuffer, echoSize, x.length);
-      // The buffer was empty?
-      if (echoSize == 0) {
-	echoSize += x.length;
-	interrupt(); // In case this thread has been blocked by read()
-      } else {
-	echoSize += x.length;
-      }
+      echoSize += x.length;
     }
   }
 
@@ -2797,7 +2878,7 @@ default:
     code = (String) codes.get(new Integer(code_key));
     
     if (code == null) {
-      master.doWarning("Warning: Unknown ctrl code ("+code_key+") to send!");
+      mListener.doWarning("Warning: Unknown ctrl code ("+code_key+") to send!");
       return;
     }
     
@@ -2820,7 +2901,7 @@ default:
 	code = code.substring(0, i) + code.substring(i+1);
       }
     } else if (args != null && args.length > 0) {
-      master.doWarning("Warning: Passing args to ctrl code ("+code+") that doesn't accept arguments.");
+      mListener.doWarning("Warning: Passing args to ctrl code ("+code+") that doesn't accept arguments.");
     }
     sendString(code, false, flush);  
   }
@@ -2828,21 +2909,3 @@ default:
 /***** End of Terminal *******/
 }
 
-  /* Actually, we could use an exception or two, as markers... */
-final class
-VTCommandCancelled
-extends Exception
-{
-}
-
-final class
-VTCommandInterrupted
-extends Exception
-{
-}
-
-final class
-VTCommandInterrupted8Bit
-extends Exception
-{
-}
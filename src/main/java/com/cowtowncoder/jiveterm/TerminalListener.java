@@ -0,0 +1,80 @@
+/************************************************************
+
+Project:
+    JiveTerm.
+
+    A VT52/VT100/VT102-compliant telnet/terminal program
+    written in java.
+
+    (C) 1998-2001 Tatu Saloranta
+    tatu.saloranta@iki.fi.
+
+Module:
+    TerminalListener.java
+
+    Interface Terminal uses to call back to the application
+    it runs in.
+
+Last changed:
+    16-Oct-2026
+
+************************************************************/
+
+package com.cowtowncoder.jiveterm;
+
+/**
+ * Interface that defines the calls Terminal makes to the application
+ * (normally the JiveTerm applet): mode changes the application keeps
+ * track of (newline mode, local echo), questions about what the user
+ * has allowed the host to do, and warnings to show.
+ *
+ * Terminals run without an application (TerminalBenchmark,
+ * LoopbackSoak, MemoryScreen-based sessions) use {@link #NONE}, which
+ * ignores the mode changes and warnings, and allows everything the
+ * applet allows by default.
+ */
+
+interface
+TerminalListener
+{
+    /**
+     * Default listener, used until (and unless) one is set.
+     */
+    public final static TerminalListener NONE = new TerminalListener() {
+	    public void setModeNewline(boolean to) { }
+	    public void setEcho(int x, boolean from_menu) { }
+	    public boolean VTResizeOk() { return true; }
+	    public boolean send8BitCodesOk() { return true; }
+	    public void doWarning(String s) { }
+	    public void doWarningLF(String s) { }
+	};
+
+    /**
+     * Called when the host (or a reset) changes the newline mode
+     * (LNM); if on, Enter should send CR+LF instead of CR.
+     */
+    public void setModeNewline(boolean to);
+
+    /**
+     * Called when local echo is changed; 0 turns it off.
+     *
+     * @param from_menu True if the change was made by the user
+     */
+    public void setEcho(int x, boolean from_menu);
+
+    /**
+     * Returns true if the host may change the number of columns
+     * (DECCOLM).
+     */
+    public boolean VTResizeOk();
+
+    /**
+     * Returns true if 8-bit control codes may be sent, when the host
+     * asks for them (S8C1T).
+     */
+    public boolean send8BitCodesOk();
+
+    public void doWarning(String s);
+
+    public void doWarningLF(String s);
+}
@@ -0,0 +1,232 @@
+/************************************************************
+
+Project:
+    JiveTerm.
+
+    A VT52/VT100/VT102-compliant telnet/terminal program
+    written in java.
+
+    (C) 1998-2001 Tatu Saloranta
+    tatu.saloranta@iki.fi.
+
+Module:
+    Utf8Decoder.java
+
+    Incremental UTF-8 to char decoder.
+
+Last changed:
+    16-Oct-2026
+
+************************************************************/
+
+package com.cowtowncoder.jiveterm;
+
+/**
+ * Simple streaming UTF-8 decoder; converts bytes to chars directly
+ * from/to caller-provided arrays, so no objects are created per call
+ * (unlike with String or the java.io readers).
+ *
+ * Input can be split at any point: a multi-byte sequence cut off at
+ * the end of one buffer is kept as the decoder state, and completed
+ * by the next call. Invalid input (stray continuation bytes, truncated
+ * or overlong sequences, surrogates) is replaced with U+FFFD, so that
+ * the output stays in sync. Invalid bytes are replaced the same way
+ * the JDK's decoder replaces them: each maximal valid prefix of a
+ * sequence (or byte that can't start one) becomes one U+FFFD, and a
+ * complete surrogate sequence becomes one U+FFFD as well.
+ *
+ * Runs of ASCII (the most common case by far) are copied with a
+ * tight loop that does no state handling at all.
+ *
+ * By default chars above U+FFFF are output as surrogate pairs, like
+ * the JDK does; a decoder constructed with <code>bmpOnly</code> set
+ * outputs a single U+FFFD for them instead. Terminal uses the latter,
+ * since screen cells only hold one 16-bit char each: a pair would take
+ * two columns, and the cursor would no longer be where the host thinks
+ * it is.
+ */
+
+final class
+Utf8Decoder
+{
+    public final static char REPLACEMENT_CHAR = '\uFFFD';
+
+    /* Bits of the sequence being decoded, and the number of
+     * continuation bytes still missing (0 if none):
+     */
+    private int mValue = 0;
+    private int mNeeded = 0;
+
+    /* Range of valid values for the next continuation byte; the
+     * lead byte limits the first one (to rule out overlong encodings
+     * and values above U+10FFFF), the rest are 0x80 - 0xBF:
+     */
+    private int mLow = 0x80;
+    private int mHigh = 0xBF;
+
+    private final boolean mBmpOnly;
+
+    public Utf8Decoder() { this(false); }
+
+    public Utf8Decoder(boolean bmpOnly)
+    {
+	mBmpOnly = bmpOnly;
+    }
+
+    /**
+     * Returns true if the decoder has a partial sequence, waiting
+     * for more input.
+     */
+    public boolean hasPending() { return mNeeded > 0; }
+
+    /**
+     * Method for discarding a partial sequence (if any).
+     */
+    public void reset()
+    {
+	mNeeded = 0;
+    }
+
+    /**
+     * Method for ending the current sequence when no more bytes for it
+     * will come (at the end of input, or when a control code cuts it
+     * off): a partial sequence is invalid, and becomes U+FFFD.
+     *
+     * @param out Buffer to output the replacement char to (at index 0)
+     *
+     * @return Number of chars output; 1 if there was a partial
+     *   sequence, 0 if not
+     */
+    public int finish(char[] out)
+    {
+	if (mNeeded == 0) {
+	    return 0;
+	}
+	mNeeded = 0;
+	out[0] = REPLACEMENT_CHAR;
+	return 1;
+    }
+
+    /**
+     * Method for decoding given bytes.
+     *
+     * @param in Buffer containing the input
+     * @param start Index of the first byte to decode
+     * @param end Index after the last byte to decode
+     * @param out Buffer to decode to; starting from index 0. Needs
+     *   room for (end - start + 1) chars
+     *
+     * @return Number of chars decoded
+     */
+    public int decode(byte[] in, int start, int end, char[] out)
+    {
+	int i = start;
+	int o = 0;
+
+	// Partial sequence from the previous call?
+	if (mNeeded > 0) {
+	    i = continueSequence(in, i, end);
+	    if (mNeeded > 0) { // still not complete
+		return 0;
+	    }
+	    o = emit(out, o);
+	}
+
+	while (i < end) {
+	    // Fast path first; ASCII chars map to chars as is:
+	    int b = in[i];
+	    if (b >= 0) {
+		out[o++] = (char) b;
+		while (++i < end && (b = in[i]) >= 0) {
+		    out[o++] = (char) b;
+		}
+		if (i >= end) {
+		    break;
+		}
+	    }
+
+	    // Start of a multi-byte sequence:
+	    ++i;
+	    b &= 0xFF;
+	    mLow = 0x80;
+	    mHigh = 0xBF;
+	    if (b >= 0xC2 && b <= 0xDF) { // (0xC0, 0xC1 only for overlongs)
+		mValue = b & 0x1F;
+		mNeeded = 1;
+	    } else if ((b & 0xF0) == 0xE0) {
+		mValue = b & 0x0F;
+		mNeeded = 2;
+		if (b == 0xE0) {
+		    mLow = 0xA0;
+		}
+	    } else if (b >= 0xF0 && b <= 0xF4) {
+		mValue = b & 0x07;
+		mNeeded = 3;
+		if (b == 0xF0) {
+		    mLow = 0x90;
+		} else if (b == 0xF4) {
+		    mHigh = 0x8F;
+		}
+	    } else { // stray continuation byte, or invalid lead byte
+		out[o++] = REPLACEMENT_CHAR;
+		continue;
+	    }
+	    i = continueSequence(in, i, end);
+	    if (mNeeded > 0) { // rest comes with the next call
+		break;
+	    }
+	    o = emit(out, o);
+	}
+	return o;
+    }
+
+    /* Consumes continuation bytes of the current sequence; returns the
+     * index of the first byte not consumed. If the sequence is broken
+     * by a byte that is not a valid continuation, mValue is set to -1
+     * (and mNeeded to 0), and the byte is left to be decoded normally.
+     */
+    private int continueSequence(byte[] in, int i, int end)
+    {
+	int value = mValue;
+	int needed = mNeeded;
+
+	while (needed > 0 && i < end) {
+	    int b = in[i] & 0xFF;
+	    if (b < mLow || b > mHigh) {
+		mValue = -1;
+		mNeeded = 0;
+		return i;
+	    }
+	    mLow = 0x80;
+	    mHigh = 0xBF;
+	    value = (value << 6) | (b & 0x3F);
+	    --needed;
+	    ++i;
+	}
+	mValue = value;
+	mNeeded = needed;
+	return i;
+    }
+
+    /* Outputs the char(s) for the completed sequence: */
+    private int emit(char[] out, int o)
+    {
+	int value = mValue;
+
+	// (overlongs and too big values were ruled out already)
+	if (value < 0 || (value >= 0xD800 && value <= 0xDFFF)) {
+	    out[o++] = REPLACEMENT_CHAR;
+	} else if (value >= 0x10000) { // need a surrogate pair
+	    if (mBmpOnly) {
+		out[o++] = REPLACEMENT_CHAR;
+		return o;
+	    }
+	    value -= 0x10000;
+	    out[o++] = (char) (0xD800 + (value >> 10));
+	    out[o++] = (char) (0xDC00 + (value & 0x3FF));
+	} else {
+	    out[o++] = (char) value;
+	}
+	return o;
+    }
+}
@@ -0,0 +1,497 @@
+/************************************************************
+
+Project:
+    JiveTerm.
+
+    A VT52/VT100/VT102-compliant telnet/terminal program
+    written in java.
+
+    (C) 1998-2001 Tatu Saloranta
+    tatu.saloranta@iki.fi.
+
+Module:
+    VTParser.java
+
+    State machine that splits the incoming byte stream into
+    control functions (escape sequences, control sequences,
+    OSC/DCS strings) for Terminal to execute.
+
+Last changed:
+    16-Oct-2026
+
+************************************************************/
+
+package com.cowtowncoder.jiveterm;
+
+/**
+ * Class that implements the DEC/ANSI escape sequence parser as
+ * a finite state machine. Transitions are looked up from a
+ * precomputed table indexed by (current state, input byte); each
+ * table entry encodes both the next state and the action to take.
+ *
+ * The parser itself does not interpret the sequences; it only
+ * collects parameters, intermediate characters and string contents,
+ * and tells the caller (Terminal) when a complete control function
+ * is ready to be dispatched. Cancellation (CAN, SUB) and interruption
+ * (ESC, 8-bit CSI) are just normal transitions, so no exceptions
+ * are needed, and nothing gets allocated after construction.
+ *
+ * Table layout and state names follow the well-known DEC parser
+ * description by Paul Williams, with two additions for the VT52
+ * direct cursor addressing (ESC + Y + row + col).
+ *
+ * When the text is UTF-8, bytes 0x80 - 0x9F are continuation bytes,
+ * not C1 controls; so in UTF-8 mode (see {@link #setUtf8}) another
+ * table is used, one without the C1 transitions. Such bytes then go
+ * into OSC strings like other bytes do, and are ignored elsewhere.
+ *
+ * VT52 escape codes are all just ESC + one char (except for the
+ * cursor address), so in VT52 mode (see {@link #setVT52}) a third
+ * table is used, in which ESC + '[', ']', 'P', 'X', '^' and '_' are
+ * dispatched like other codes instead of starting sequences or
+ * strings, and only there does ESC + 'Y' take 2 more bytes. VT52 had
+ * no C1 controls, so that table has none, whatever the text encoding.
+ */
+
+final class
+VTParser
+{
+    /* States: */
+    public final static int STATE_GROUND = 0;
+    public final static int STATE_ESCAPE = 1;
+    public final static int STATE_ESCAPE_INTERMEDIATE = 2;
+    public final static int STATE_CSI_ENTRY = 3;
+    public final static int STATE_CSI_PARAM = 4;
+    public final static int STATE_CSI_INTERMEDIATE = 5;
+    public final static int STATE_CSI_IGNORE = 6;
+    public final static int STATE_OSC_STRING = 7;
+    public final static int STATE_DCS_ENTRY = 8;
+    public final static int STATE_DCS_PARAM = 9;
+    public final static int STATE_DCS_INTERMEDIATE = 10;
+    public final static int STATE_DCS_PASSTHROUGH = 11;
+    public final static int STATE_DCS_IGNORE = 12;
+    public final static int STATE_SOS_PM_APC_STRING = 13;
+    public final static int STATE_VT52_ROW = 14;
+    public final static int STATE_VT52_COL = 15;
+
+    private final static int NR_OF_STATES = 16;
+
+    /* Actions the caller needs to take care of (returned by next()): */
+    public final static int ACTION_NONE = 0;
+    public final static int ACTION_EXECUTE = 1; // C0 (or C1) control char
+    public final static int ACTION_ESC_DISPATCH = 2;
+    public final static int ACTION_CSI_DISPATCH = 3;
+    public final static int ACTION_OSC_END = 4;
+    public final static int ACTION_DCS_HOOK = 5;
+    public final static int ACTION_DCS_UNHOOK = 6;
+    public final static int ACTION_VT52_ADDRESS = 7;
+
+    /* And actions handled internally by the parser: */
+    private final static int ACTION_CLEAR = 8;
+    private final static int ACTION_COLLECT = 9;
+    private final static int ACTION_PARAM = 10;
+    private final static int ACTION_OSC_START = 11;
+    private final static int ACTION_OSC_PUT = 12;
+    private final static int ACTION_C1 = 13; // 8-bit equivalent of ESC + x
+    private final static int ACTION_VT52_ROW = 14;
+    private final static int ACTION_IGNORE = 15;
+
+    /* Limits; excess params/intermediates are quietly dropped, and
+     * numeric values are clamped to 16 bits:
+     */
+    public final static int MAX_PARAMS = 16;
+    public final static int MAX_INTERMEDIATES = 2;
+    public final static int MAX_PARAM_VALUE = 0xFFFF;
+    public final static int MAX_OSC_LENGTH = 256;
+
+    /* The transition tables, with and without C1 controls, and for
+     * VT52 mode; high nibble is the action, low nibble the next state.
+     */
+    private final static byte [] sTable = new byte[NR_OF_STATES * 256];
+    private final static byte [] sTableUtf8 = new byte[NR_OF_STATES * 256];
+    private final static byte [] sTableVT52 = new byte[NR_OF_STATES * 256];
+
+    static {
+	for (int state = 0; state < NR_OF_STATES; ++state) {
+	    initState(sTable, state, true, false);
+	    initState(sTableUtf8, state, false, false);
+	    initState(sTableVT52, state, false, true);
+	}
+    }
+
+    /* Parser state: */
+    private int mState = STATE_GROUND;
+    private byte [] mTable = sTable;
+    private boolean mUtf8 = false;
+    private boolean mVT52 = false;
+
+    private final int [] mParams = new int[MAX_PARAMS];
+    private int mParamCount;
+    private int mCurrParam;
+    private boolean mHasParams;
+
+    private char mPrivateMarker;
+    private final char [] mIntermediates = new char[MAX_INTERMEDIATES];
+    private int mIntermediateCount;
+    private char mFinal;
+
+    private final char [] mOscBuffer = new char[MAX_OSC_LENGTH];
+    private int mOscLength;
+
+    VTParser()
+    {
+    }
+
+    /*** Table construction: ***/
+
+    private final static void
+    set(byte [] table, int state, int from, int to, int action, int next)
+    {
+	byte entry = (byte) ((action << 4) | next);
+	int base = state << 8;
+	for (int i = from; i <= to; ++i) {
+	    table[base + i] = entry;
+	}
+    }
+
+    private final static void
+    initState(byte [] t, int state, boolean c1, boolean vt52)
+    {
+	/* Let's first define the default handling of C0 codes and
+	 * printable characters, state by state:
+	 */
+	switch (state) {
+	case STATE_GROUND:
+	    set(t, state, 0x00, 0x1F, ACTION_EXECUTE, state);
+	    set(t, state, 0x20, 0xFF, ACTION_NONE, state);
+	    break;
+
+	case STATE_ESCAPE:
+	    set(t, state, 0x00, 0x1F, ACTION_EXECUTE, state);
+	    set(t, state, 0x20, 0x2F, ACTION_COLLECT, STATE_ESCAPE_INTERMEDIATE);
+	    set(t, state, 0x30, 0x7E, ACTION_ESC_DISPATCH, STATE_GROUND);
+	    set(t, state, 0x7F, 0xFF, ACTION_IGNORE, state);
+	    if (vt52) {
+		// Direct cursor address; 2 raw bytes follow:
+		set(t, state, 'Y', 'Y', ACTION_NONE, STATE_VT52_ROW);
+		break;
+	    }
+	    set(t, state, '[', '[', ACTION_CLEAR, STATE_CSI_ENTRY);
+	    set(t, state, ']', ']', ACTION_OSC_START, STATE_OSC_STRING);
+	    set(t, state, 'P', 'P', ACTION_CLEAR, STATE_DCS_ENTRY);
+	    set(t, state, 'X', 'X', ACTION_NONE, STATE_SOS_PM_APC_STRING);
+	    set(t, state, '^', '_', ACTION_NONE, STATE_SOS_PM_APC_STRING);
+	    break;
+
+	case STATE_ESCAPE_INTERMEDIATE:
+	    set(t, state, 0x00, 0x1F, ACTION_EXECUTE, state);
+	    set(t, state, 0x20, 0x2F, ACTION_COLLECT, state);
+	    set(t, state, 0x30, 0x7E, ACTION_ESC_DISPATCH, STATE_GROUND);
+	    set(t, state, 0x7F, 0xFF, ACTION_IGNORE, state);
+	    break;
+
+	case STATE_CSI_ENTRY:
+	    set(t, state, 0x00, 0x1F, ACTION_EXECUTE, state);
+	    set(t, state, 0x20, 0x2F, ACTION_COLLECT, STATE_CSI_INTERMEDIATE);
+	    set(t, state, 0x30, 0x39, ACTION_PARAM, STATE_CSI_PARAM);
+	    set(t, state, 0x3A, 0x3A, ACTION_NONE, STATE_CSI_IGNORE);
+	    set(t, state, 0x3B, 0x3B, ACTION_PARAM, STATE_CSI_PARAM);
+	    set(t, state, 0x3C, 0x3F, ACTION_COLLECT, STATE_CSI_PARAM);
+	    set(t, state, 0x40, 0x7E, ACTION_CSI_DISPATCH, STATE_GROUND);
+	    set(t, state, 0x7F, 0xFF, ACTION_IGNORE, state);
+	    break;
+
+	case STATE_CSI_PARAM:
+	    set(t, state, 0x00, 0x1F, ACTION_EXECUTE, state);
+	    set(t, state, 0x20, 0x2F, ACTION_COLLECT, STATE_CSI_INTERMEDIATE);
+	    set(t, state, 0x30, 0x39, ACTION_PARAM, state);
+	    set(t, state, 0x3A, 0x3A, ACTION_NONE, STATE_CSI_IGNORE);
+	    set(t, state, 0x3B, 0x3B, ACTION_PARAM, state);
+	    set(t, state, 0x3C, 0x3F, ACTION_NONE, STATE_CSI_IGNORE);
+	    set(t, state, 0x40, 0x7E, ACTION_CSI_DISPATCH, STATE_GROUND);
+	    set(t, state, 0x7F, 0xFF, ACTION_IGNORE, state);
+	    break;
+
+	case STATE_CSI_INTERMEDIATE:
+	    set(t, state, 0x00, 0x1F, ACTION_EXECUTE, state);
+	    set(t, state, 0x20, 0x2F, ACTION_COLLECT, state);
+	    set(t, state, 0x30, 0x3F, ACTION_NONE, STATE_CSI_IGNORE);
+	    set(t, state, 0x40, 0x7E, ACTION_CSI_DISPATCH, STATE_GROUND);
+	    set(t, state, 0x7F, 0xFF, ACTION_IGNORE, state);
+	    break;
+
+	case STATE_CSI_IGNORE:
+	    set(t, state, 0x00, 0x1F, ACTION_EXECUTE, state);
+	    set(t, state, 0x20, 0x3F, ACTION_IGNORE, state);
+	    set(t, state, 0x40, 0x7E, ACTION_NONE, STATE_GROUND);
+	    set(t, state, 0x7F, 0xFF, ACTION_IGNORE, state);
+	    break;
+
+	case STATE_OSC_STRING:
+	    set(t, state, 0x00, 0x1F, ACTION_IGNORE, state);
+	    // xterm allows BEL to terminate OSC, in addition to ST:
+	    set(t, state, 0x07, 0x07, ACTION_NONE, STATE_GROUND);
+	    set(t, state, 0x20, 0xFF, ACTION_OSC_PUT, state);
+	    break;
+
+	case STATE_DCS_ENTRY:
+	    set(t, state, 0x00, 0x1F, ACTION_IGNORE, state);
+	    set(t, state, 0x20, 0x2F, ACTION_COLLECT, STATE_DCS_INTERMEDIATE);
+	    set(t, state, 0x30, 0x39, ACTION_PARAM, STATE_DCS_PARAM);
+	    set(t, state, 0x3A, 0x3A, ACTION_NONE, STATE_DCS_IGNORE);
+	    set(t, state, 0x3B, 0x3B, ACTION_PARAM, STATE_DCS_PARAM);
+	    set(t, state, 0x3C, 0x3F, ACTION_COLLECT, STATE_DCS_PARAM);
+	    set(t, state, 0x40, 0x7E, ACTION_DCS_HOOK, STATE_DCS_PASSTHROUGH);
+	    set(t, state, 0x7F, 0xFF, ACTION_IGNORE, state);
+	    break;
+
+	case STATE_DCS_PARAM:
+	    set(t, state, 0x00, 0x1F, ACTION_IGNORE, state);
+	    set(t, state, 0x20, 0x2F, ACTION_COLLECT, STATE_DCS_INTERMEDIATE);
+	    set(t, state, 0x30, 0x39, ACTION_PARAM, state);
+	    set(t, state, 0x3A, 0x3A, ACTION_NONE, STATE_DCS_IGNORE);
+	    set(t, state, 0x3B, 0x3B, ACTION_PARAM, state);
+	    set(t, state, 0x3C, 0x3F, ACTION_NONE, STATE_DCS_IGNORE);
+	    set(t, state, 0x40, 0x7E, ACTION_DCS_HOOK, STATE_DCS_PASSTHROUGH);
+	    set(t, state, 0x7F, 0xFF, ACTION_IGNORE, state);
+	    break;
+
+	case STATE_DCS_INTERMEDIATE:
+	    set(t, state, 0x00, 0x1F, ACTION_IGNORE, state);
+	    set(t, state, 0x20, 0x2F, ACTION_COLLECT, state);
+	    set(t, state, 0x30, 0x3F, ACTION_NONE, STATE_DCS_IGNORE);
+	    set(t, state, 0x40, 0x7E, ACTION_DCS_HOOK, STATE_DCS_PASSTHROUGH);
+	    set(t, state, 0x7F, 0xFF, ACTION_IGNORE, state);
+	    break;
+
+	    /* We don't have any DCS consumers yet, so the passthrough
+	     * data is simply dropped:
+	     */
+	case STATE_DCS_PASSTHROUGH:
+	case STATE_DCS_IGNORE:
+	case STATE_SOS_PM_APC_STRING:
+	    set(t, state, 0x00, 0xFF, ACTION_IGNORE, state);
+	    break;
+
+	case STATE_VT52_ROW:
+	    set(t, state, 0x00, 0x1F, ACTION_EXECUTE, state);
+	    set(t, state, 0x20, 0xFF, ACTION_VT52_ROW, STATE_VT52_COL);
+	    break;
+
+	case STATE_VT52_COL:
+	    set(t, state, 0x00, 0x1F, ACTION_EXECUTE, state);
+	    set(t, state, 0x20, 0xFF, ACTION_VT52_ADDRESS, STATE_GROUND);
+	    break;
+	}
+
+	/* And then the 'anywhere' transitions, which override the
+	 * state-specific ones:
+	 */
+
+	// CAN and SUB cancel the current sequence:
+	set(t, state, 0x18, 0x18, ACTION_EXECUTE, STATE_GROUND);
+	set(t, state, 0x1A, 0x1A, ACTION_EXECUTE, STATE_GROUND);
+	// ESC interrupts it, starting a new one:
+	set(t, state, 0x1B, 0x1B, ACTION_CLEAR, STATE_ESCAPE);
+
+	/* C1 controls; ones that have a 7-bit ESC + x equivalent
+	 * are dispatched as such, and others are passed on as control
+	 * chars (Terminal will just ignore them). Not with UTF-8,
+	 * where these are continuation bytes:
+	 */
+	if (!c1) {
+	    return;
+	}
+	set(t, state, 0x80, 0x9F, ACTION_EXECUTE, STATE_GROUND);
+	set(t, state, 0x84, 0x85, ACTION_C1, STATE_GROUND); // IND, NEL
+	set(t, state, 0x88, 0x88, ACTION_C1, STATE_GROUND); // HTS
+	set(t, state, 0x8D, 0x8F, ACTION_C1, STATE_GROUND); // RI, SS2, SS3
+	set(t, state, 0x96, 0x97, ACTION_C1, STATE_GROUND); // SPA, EPA
+	set(t, state, 0x90, 0x90, ACTION_CLEAR, STATE_DCS_ENTRY);
+	set(t, state, 0x98, 0x98, ACTION_NONE, STATE_SOS_PM_APC_STRING);
+	set(t, state, 0x9B, 0x9B, ACTION_CLEAR, STATE_CSI_ENTRY);
+	set(t, state, 0x9C, 0x9C, ACTION_NONE, STATE_GROUND); // ST
+	set(t, state, 0x9D, 0x9D, ACTION_OSC_START, STATE_OSC_STRING);
+	set(t, state, 0x9E, 0x9F, ACTION_NONE, STATE_SOS_PM_APC_STRING);
+    }
+
+    /*** Public API: ***/
+
+    /**
+     * Method called to feed the next byte of input to the parser.
+     * Updates the state and returns one of the public ACTION_xxx
+     * codes, to indicate what (if anything) the caller should do.
+     * Collected parameters, intermediates and string contents
+     * remain accessible until the next sequence starts.
+     */
+    public int
+    next(byte b)
+    {
+	int c = (int) b & 0xFF;
+	int entry = (int) mTable[(mState << 8) | c];
+	int next = entry & 0x0F;
+	int action = (entry >> 4) & 0x0F;
+	int result = ACTION_NONE;
+
+	/* Only the string states have exit actions; note that if the
+	 * transition itself has an external action (like CAN), it
+	 * wins, which effectively cancels the string.
+	 */
+	if (next != mState) {
+	    if (mState == STATE_OSC_STRING) {
+		result = ACTION_OSC_END;
+	    } else if (mState == STATE_DCS_PASSTHROUGH) {
+		result = ACTION_DCS_UNHOOK;
+	    }
+	}
+	mState = next;
+
+	switch (action) {
+	case ACTION_NONE:
+	case ACTION_IGNORE:
+	    return result;
+
+	case ACTION_CLEAR:
+	    clear();
+	    return result;
+
+	case ACTION_COLLECT:
+	    if (c >= 0x3C) { // '<', '=', '>' or '?'
+		mPrivateMarker = (char) c;
+	    } else if (mIntermediateCount < MAX_INTERMEDIATES) {
+		mIntermediates[mIntermediateCount++] = (char) c;
+	    }
+	    return result;
+
+	case ACTION_PARAM:
+	    mHasParams = true;
+	    if (c == ';') {
+		if (mParamCount < MAX_PARAMS) {
+		    mParams[mParamCount++] = mCurrParam;
+		}
+		mCurrParam = 0;
+	    } else {
+		mCurrParam = mCurrParam * 10 + (c - '0');
+		if (mCurrParam > MAX_PARAM_VALUE) {
+		    mCurrParam = MAX_PARAM_VALUE;
+		}
+	    }
+	    return result;
+
+	case ACTION_OSC_START:
+	    clear();
+	    mOscLength = 0;
+	    return result;
+
+	case ACTION_OSC_PUT:
+	    if (mOscLength < MAX_OSC_LENGTH) {
+		mOscBuffer[mOscLength++] = (char) c;
+	    }
+	    return result;
+
+	case ACTION_C1:
+	    clear();
+	    mFinal = (char) (c - 0x40);
+	    return ACTION_ESC_DISPATCH;
+
+	case ACTION_VT52_ROW:
+	    mParams[0] = c - 32;
+	    mParamCount = 1;
+	    return result;
+
+	case ACTION_VT52_ADDRESS:
+	    mParams[1] = c - 32;
+	    mParamCount = 2;
+	    return ACTION_VT52_ADDRESS;
+
+	case ACTION_CSI_DISPATCH:
+	case ACTION_DCS_HOOK:
+	    // Trailing (possibly empty) argument needs to be added:
+	    if (mHasParams && mParamCount < MAX_PARAMS) {
+		mParams[mParamCount++] = mCurrParam;
+	    }
+	    mHasParams = false;
+	    mCurrParam = 0;
+	    // fall through
+	default: // ESC_DISPATCH, EXECUTE
+	    mFinal = (char) c;
+	    return action;
+	}
+    }
+
+    /**
+     * Resets the parser back to the ground state, discarding any
+     * partial sequence.
+     */
+    public void
+    reset()
+    {
+	mState = STATE_GROUND;
+	clear();
+	mOscLength = 0;
+    }
+
+    private final void
+    clear()
+    {
+	mParamCount = 0;
+	mCurrParam = 0;
+	mHasParams = false;
+	mPrivateMarker = 0;
+	mIntermediateCount = 0;
+    }
+
+    /**
+     * Method for telling whether the input is UTF-8; if so, bytes
+     * 0x80 - 0x9F are not taken to be C1 controls.
+     */
+    public void
+    setUtf8(boolean utf8)
+    {
+	mUtf8 = utf8;
+	selectTable();
+    }
+
+    /**
+     * Method for switching VT52 mode on and off; in VT52 mode escape
+     * codes are not parsed as ANSI sequences.
+     */
+    public void
+    setVT52(boolean vt52)
+    {
+	mVT52 = vt52;
+	selectTable();
+    }
+
+    private final void
+    selectTable()
+    {
+	if (mVT52) {
+	    mTable = sTableVT52;
+	} else {
+	    mTable = mUtf8 ? sTableUtf8 : sTable;
+	}
+    }
+
+    /*** Accessors: ***/
+
+    public final boolean isInGround() { return mState == STATE_GROUND; }
+    public final int getState() { return mState; }
+
+    /**
+     * Note: the array returned is shared, and is overwritten by
+     * the following sequences.
+     */
+    public final int [] getParams() { return mParams; }
+    public final int getParamCount() { return mParamCount; }
+
+    public final char getPrivateMarker() { return mPrivateMarker; }
+    public final int getIntermediateCount() { return mIntermediateCount; }
+    public final char getIntermediate(int index) {
+	return (index < mIntermediateCount) ? mIntermediates[index] : 0;
+    }
+    public final char getFinal() { return mFinal; }
+
+    public final char [] getOscBuffer() { return mOscBuffer; }
+    public final int getOscLength() { return mOscLength; }
+}
@@ -0,0 +1,62 @@
+package com.cowtowncoder.jiveterm;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that BandwidthShaper lets bytes through at the speed of the
+ * line it simulates.
+ */
+public class BandwidthShaperTest
+{
+    @Test
+    public void testOneSecondAt9600() throws Exception
+    {
+	checkOneSecond(9600);
+    }
+
+    @Test
+    public void testOneSecondAt115200() throws Exception
+    {
+	checkOneSecond(115200);
+    }
+
+    @Test
+    public void testChunkSizeAtLowSpeed() throws Exception
+    {
+	// 300 bps is 30 bytes a second; less than one per 10 msec chunk:
+	assertEquals(1, new BandwidthShaper(300).getChunkSize());
+	assertTrue(new BandwidthShaper(1).getChunkSize() >= 1);
+	assertEquals(96, new BandwidthShaper(96000).getChunkSize());
+    }
+
+    @Test
+    public void testIllegalSpeed() throws Exception
+    {
+	try {
+	    new BandwidthShaper(0);
+	    fail("Should not accept 0 bps");
+	} catch (IllegalArgumentException iae) { }
+    }
+
+    /* Passes one second's worth of bytes in chunks, and checks that it
+     * takes about a second (some credit may have been saved up before
+     * the first chunk, and the last sleep may oversleep):
+     */
+    private void checkOneSecond(int bps)
+    {
+	BandwidthShaper shaper = new BandwidthShaper(bps);
+	int left = bps / BandwidthShaper.BITS_PER_BYTE;
+	int chunk = shaper.getChunkSize();
+	long start = System.nanoTime();
+	while (left > 0) {
+	    int count = Math.min(chunk, left);
+	    shaper.acquire(count);
+	    left -= count;
+	}
+	long msecs = (System.nanoTime() - start) / 1000000L;
+	assertTrue("Took "+msecs+" msecs at "+bps+" bps", msecs >= 900L);
+	assertTrue("Took "+msecs+" msecs at "+bps+" bps", msecs <= 1300L);
+    }
+}
@@ -0,0 +1,153 @@
+package com.cowtowncoder.jiveterm;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that ByteRing passes bytes in order (also when writes and
+ * reads do not line up with the end of the array), and that closing
+ * wakes up both sides.
+ */
+public class ByteRingTest
+{
+    @Test
+    public void testOrderAcrossWrap() throws Exception
+    {
+	final ByteRing ring = new ByteRing(256);
+	final int total = 100000;
+	final int[] writeSizes = { 1, 7, 13, 97, 255, 256, 300, 3 };
+	final Throwable[] failed = new Throwable[1];
+
+	Thread writer = new Thread(new Runnable() {
+	    public void run() {
+		try {
+		    int value = 0;
+		    for (int i = 0; value < total; ++i) {
+			int len = Math.min(writeSizes[i % writeSizes.length],
+					   total - value);
+			byte[] buf = new byte[len + 2];
+			for (int j = 0; j < len; ++j) {
+			    buf[j + 1] = (byte) value++;
+			}
+			ring.write(buf, 1, len);
+		    }
+		    ring.close();
+		} catch (Throwable t) {
+		    failed[0] = t;
+		}
+	    }
+	});
+	writer.start();
+
+	int[] maxSizes = { 3, 11, 250, 1, 64, Integer.MAX_VALUE };
+	InputSlice slice = new InputSlice();
+	int value = 0;
+	for (int i = 0; ring.lend(slice, maxSizes[i % maxSizes.length]); ++i) {
+	    int max = maxSizes[i % maxSizes.length];
+	    assertTrue(slice.getLength() >= 1);
+	    assertTrue(slice.getLength() <= max);
+	    byte[] buf = slice.getBuffer();
+	    for (int j = slice.getStart(); j < slice.getEnd(); ++j) {
+		assertEquals((byte) value, buf[j]);
+		++value;
+	    }
+	}
+	writer.join(5000L);
+	assertNull(failed[0]);
+	assertEquals(total, value);
+    }
+
+    @Test
+    public void testLendMax() throws Exception
+    {
+	ByteRing ring = new ByteRing(256);
+	byte[] data = new byte[100];
+	for (int i = 0; i < data.length; ++i) {
+	    data[i] = (byte) i;
+	}
+	ring.write(data);
+
+	InputSlice slice = new InputSlice();
+	assertTrue(ring.lend(slice, 10));
+	assertEquals(10, slice.getLength());
+	assertEquals(0, slice.getBuffer()[slice.getStart()]);
+	// Less than one is taken as one:
+	assertTrue(ring.lend(slice, 0));
+	assertEquals(1, slice.getLength());
+	assertEquals(10, slice.getBuffer()[slice.getStart()]);
+	// And the rest at once, when not limited:
+	assertTrue(ring.lend(slice));
+	assertEquals(89, slice.getLength());
+	assertEquals(11, slice.getBuffer()[slice.getStart()]);
+	assertEquals(99, slice.getBuffer()[slice.getEnd() - 1]);
+    }
+
+    @Test
+    public void testCloseWakesReaderAfterDrain() throws Exception
+    {
+	final ByteRing ring = new ByteRing(256);
+	final int[] read = new int[1];
+	final boolean[] ended = new boolean[1];
+
+	Thread reader = new Thread(new Runnable() {
+	    public void run() {
+		InputSlice slice = new InputSlice();
+		while (ring.lend(slice)) {
+		    read[0] += slice.getLength();
+		}
+		ended[0] = true;
+	    }
+	});
+	reader.start();
+	ring.write(new byte[5]);
+	waitUntilParked(reader);
+	// Reader has drained what was written, and is waiting for more:
+	assertTrue(reader.isAlive());
+	ring.close();
+	reader.join(5000L);
+	assertFalse(reader.isAlive());
+	assertTrue(ended[0]);
+	assertEquals(5, read[0]);
+    }
+
+    @Test
+    public void testCloseFailsBlockedWriter() throws Exception
+    {
+	final ByteRing ring = new ByteRing(256);
+	ring.write(new byte[ring.getCapacity()]);
+	final Throwable[] failed = new Throwable[1];
+
+	Thread writer = new Thread(new Runnable() {
+	    public void run() {
+		try {
+		    ring.write(new byte[1]);
+		} catch (Throwable t) {
+		    failed[0] = t;
+		}
+	    }
+	});
+	writer.start();
+	waitUntilParked(writer);
+	assertTrue(writer.isAlive());
+	ring.close();
+	writer.join(5000L);
+	assertFalse(writer.isAlive());
+	assertTrue(failed[0] instanceof IOException);
+	assertFalse(failed[0] instanceof InterruptedIOException);
+    }
+
+    private static void waitUntilParked(Thread t) throws InterruptedException
+    {
+	long end = System.currentTimeMillis() + 5000L;
+	while (t.getState() != Thread.State.WAITING) {
+	    if (System.currentTimeMillis() > end) {
+		fail("Thread did not block");
+	    }
+	    Thread.sleep(1L);
+	}
+    }
+}
@@ -0,0 +1,154 @@
+package com.cowtowncoder.jiveterm;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the word-at-a-time scanning of ControlScanner against
+ * simple byte-at-a-time versions of the same checks.
+ */
+public class ControlScannerTest
+{
+    private final static int CONTROL = 0;
+    private final static int C0_CONTROL = 1;
+    private final static int TELNET_SPECIAL = 2;
+
+    // Long enough for the word scan (which needs 16 bytes) to be used:
+    private final static int BUFFER_LEN = 40;
+
+    @Test
+    public void testFindControl()
+    {
+	checkAllBytes(CONTROL);
+    }
+
+    @Test
+    public void testFindC0Control()
+    {
+	checkAllBytes(C0_CONTROL);
+    }
+
+    @Test
+    public void testFindTelnetSpecial()
+    {
+	checkAllBytes(TELNET_SPECIAL);
+    }
+
+    @Test
+    public void testRandomContents()
+    {
+	// Mostly bytes next to the interesting values, to catch carries:
+	final byte[] values = new byte[] {
+	    0x00, 0x01, 0x0C, 0x0D, 0x0E, 0x1B, 0x1F, 0x20, 0x40, 0x5F,
+	    0x60, 0x7E, 0x7F, (byte) 0x80, (byte) 0x9F, (byte) 0xA0,
+	    (byte) 0xC0, (byte) 0xDF, (byte) 0xE0, (byte) 0xFE, (byte) 0xFF
+	};
+	Random r = new Random(123);
+	ControlScanner scanner = new ControlScanner();
+	byte[] buf = new byte[BUFFER_LEN];
+
+	for (int round = 0; round < 20000; ++round) {
+	    /* Special bytes should be rare, otherwise the scan stops
+	     * right away:
+	     */
+	    int density = 1 + r.nextInt(32);
+	    for (int i = 0; i < buf.length; ++i) {
+		buf[i] = (r.nextInt(density) == 0) ?
+		    values[r.nextInt(values.length)] : (byte) (0x21 + r.nextInt(0x5E));
+	    }
+	    int start = r.nextInt(buf.length);
+	    int end = start + r.nextInt(buf.length - start + 1);
+	    for (int method = CONTROL; method <= TELNET_SPECIAL; ++method) {
+		assertEquals("method "+method+", start "+start+", end "+end,
+			     reference(method, buf, start, end),
+			     scan(scanner, method, buf, start, end));
+	    }
+	}
+    }
+
+    /* For every byte value, at every offset within a word (and with
+     * every alignment of the start), on a background of every value
+     * that is not special itself:
+     */
+    private void checkAllBytes(int method)
+    {
+	ControlScanner scanner = new ControlScanner();
+	byte[] buf = new byte[BUFFER_LEN];
+
+	for (int fill = 0; fill < 256; ++fill) {
+	    byte filler = (byte) fill;
+	    if (isSpecial(method, filler)) {
+		continue;
+	    }
+	    for (int start = 0; start < 8; ++start) {
+		int end = buf.length;
+		for (int i = 0; i < buf.length; ++i) {
+		    buf[i] = filler;
+		}
+		assertEquals(end, scan(scanner, method, buf, start, end));
+
+		// First word, second word, and the tail (no word scan):
+		for (int pos = 0; pos < 8; ++pos) {
+		    int[] offsets = new int[] {
+			start + pos, start + 8 + pos, end - 8 + pos
+		    };
+		    for (int j = 0; j < offsets.length; ++j) {
+			int ix = offsets[j];
+			for (int b = 0; b < 256; ++b) {
+			    buf[ix] = (byte) b;
+			    int expected = isSpecial(method, buf[ix]) ? ix : end;
+			    int actual = scan(scanner, method, buf, start, end);
+			    if (actual != expected) {
+				fail("method "+method+": byte 0x"+Integer.toHexString(b)
+				     +" at "+ix+" (start "+start+", filler 0x"
+				     +Integer.toHexString(fill)+"): expected "
+				     +expected+", got "+actual);
+			    }
+			}
+			buf[ix] = filler;
+		    }
+		}
+	    }
+	}
+    }
+
+    private static int scan(ControlScanner scanner, int method, byte[] buf,
+			    int start, int end)
+    {
+	switch (method) {
+	case CONTROL:
+	    return scanner.findControl(buf, start, end);
+	case C0_CONTROL:
+	    return scanner.findC0Control(buf, start, end);
+	default:
+	    return scanner.findTelnetSpecial(buf, start, end);
+	}
+    }
+
+    private static int reference(int method, byte[] buf, int start, int end)
+    {
+	for (int i = start; i < end; ++i) {
+	    if (isSpecial(method, buf[i])) {
+		return i;
+	    }
+	}
+	return end;
+    }
+
+    private static boolean isSpecial(int method, byte b)
+    {
+	int i = b & 0xFF;
+
+	switch (method) {
+	case CONTROL: // C0, DEL excluded, and C1
+	    return (i < 0x20) || (i >= 0x80 && i < 0xA0);
+	case C0_CONTROL:
+	    return (i < 0x20);
+	default:
+	    return (i == 0x00 || i == 0x0D || i == 0xFF);
+	}
+    }
+}
@@ -0,0 +1,362 @@
+/************************************************************
+
+Project:
+    JiveTerm.
+
+    A VT52/VT100/VT102-compliant telnet/terminal program
+    written in java.
+
+    (C) 1998-2001 Tatu Saloranta
+    tatu.saloranta@iki.fi.
+
+Module:
+    LoopbackServer.java
+
+    Minimal telnet server that streams generated output
+    to clients on the loopback interface.
+
+Last changed:
+    16-Oct-2026
+
+************************************************************/
+
+package com.cowtowncoder.jiveterm;
+
+import java.io.*;
+import java.net.*;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in for a telnet server, used by LoopbackSoak for driving
+ * TelnetConnection without a remote host. Listens on an ephemeral port
+ * on 127.0.0.1; each client gets a stream of output generated by a
+ * {@link Workload}, until the byte or time limit is reached, after
+ * which the connection is closed.
+ *
+ * Only as much of the telnet protocol is spoken as a real server
+ * would use at the start of a session: the server asks for the
+ * terminal type (TERM-TYPE) and window size (NAWS), and offers to
+ * echo and suppress go-aheads. The client's replies (and what it
+ * sends later on) are parsed by a reader thread of each client; the
+ * terminal type and window size received are kept for checking. IAC
+ * bytes in the output are quoted, so any output can be sent.
+ */
+
+final class
+LoopbackServer
+    implements Runnable
+{
+    private final static byte IAC = TelnetConnection.TELNET_IAC;
+    private final static byte SB = TelnetConnection.TELNET_SUBOPTION;
+    private final static byte SE = TelnetConnection.TELNET_SUBOPTION_END;
+    private final static byte WILL = TelnetConnection.TELNET_WILL;
+    private final static byte WONT = TelnetConnection.TELNET_WONT;
+    private final static byte DO = TelnetConnection.TELNET_DO;
+    private final static byte DONT = TelnetConnection.TELNET_DONT;
+    private final static byte TTYPE = TelnetConnection.TN_OPTION_TERM_TYPE;
+    private final static byte NAWS = TelnetConnection.TN_OPTION_NAWS;
+
+    // TERM-TYPE subcommands (RFC 1091):
+    private final static byte TTYPE_IS = 0;
+    private final static byte TTYPE_SEND = 1;
+
+    private final static byte[] GREETING = new byte[] {
+	IAC, DO, TTYPE,
+	IAC, DO, NAWS,
+	IAC, WILL, TelnetConnection.TN_OPTION_ECHO,
+	IAC, WILL, TelnetConnection.TN_OPTION_SUPPRESS_GA
+    };
+
+    private final static byte[] TTYPE_REQUEST = new byte[] {
+	IAC, SB, TTYPE, TTYPE_SEND, IAC, SE
+    };
+
+    /* Output is written in chunks of about this size (quoting may
+     * make them a bit bigger):
+     */
+    private final static int CHUNK_SIZE = 4096;
+
+    private final ServerSocket mServerSocket;
+    private final String mWorkload;
+
+    /* Limits per connection; 0 means no limit (but at least one of them
+     * should be set):
+     */
+    private final long mMaxBytes;
+    private final long mMaxMsecs;
+
+    private final AtomicLong mBytesSent = new AtomicLong();
+    private final Vector mClients = new Vector();
+    private int mConnections = 0;
+
+    private volatile boolean mClosed = false;
+
+    /**
+     * @param workload Name of the workload to send (see Workload)
+     * @param maxBytes Number of bytes to send to each client, 0 for
+     *   no limit
+     * @param maxMsecs Time to keep sending to each client, 0 for no
+     *   limit
+     */
+    public LoopbackServer(String workload, long maxBytes, long maxMsecs)
+	throws IOException
+    {
+	new Workload(workload); // to fail early if the name is wrong
+	mWorkload = workload;
+	mMaxBytes = maxBytes;
+	mMaxMsecs = maxMsecs;
+	mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    }
+
+    public void start()
+    {
+	SessionRuntime.getInstance().newThread("LoopbackServer", this).start();
+    }
+
+    public String getHost() { return "127.0.0.1"; }
+    public int getPort() { return mServerSocket.getLocalPort(); }
+
+    /**
+     * Returns the number of bytes sent to all the clients so far, not
+     * counting the protocol bytes.
+     */
+    public long getBytesSent() { return mBytesSent.get(); }
+
+    public synchronized int getConnections() { return mConnections; }
+
+    /**
+     * Returns the terminal types the clients have reported (null for
+     * those that haven't), in the order they connected.
+     */
+    public String[] getTermTypes()
+    {
+	synchronized (mClients) {
+	    String[] result = new String[mClients.size()];
+	    for (int i = 0; i < result.length; ++i) {
+		result[i] = ((Client) mClients.elementAt(i)).mTermType;
+	    }
+	    return result;
+	}
+    }
+
+    /**
+     * Returns the window sizes the clients have reported, as
+     * "columns x rows" (null for those that haven't).
+     */
+    public String[] getWindowSizes()
+    {
+	synchronized (mClients) {
+	    String[] result = new String[mClients.size()];
+	    for (int i = 0; i < result.length; ++i) {
+		Client c = (Client) mClients.elementAt(i);
+		result[i] = (c.mCols < 0) ? null : (c.mCols+" x "+c.mRows);
+	    }
+	    return result;
+	}
+    }
+
+    /**
+     * Method for stopping the server; connections open are closed
+     * too.
+     */
+    public void close()
+    {
+	mClosed = true;
+	try {
+	    mServerSocket.close();
+	} catch (IOException ie) {
+	    ; // Nothing to do about it
+	}
+	synchronized (mClients) {
+	    for (int i = 0; i < mClients.size(); ++i) {
+		((Client) mClients.elementAt(i)).close();
+	    }
+	}
+    }
+
+    // Accept loop:
+    public void run()
+    {
+	while (!mClosed) {
+	    Socket s;
+	    try {
+		s = mServerSocket.accept();
+	    } catch (IOException ie) {
+		if (!mClosed) {
+		    System.err.println("Warning: LoopbackServer failed to accept: "+ie);
+		}
+		return;
+	    }
+	    int id;
+	    synchronized (this) {
+		id = ++mConnections;
+	    }
+	    Client c = new Client(s);
+	    mClients.addElement(c);
+	    SessionRuntime rt = SessionRuntime.getInstance();
+	    rt.newThread("LoopbackServer reader #"+id, c.mReader).start();
+	    rt.newThread("LoopbackServer writer #"+id, c).start();
+	}
+    }
+
+    /* Writer for a single client; runs the workload. Reading what
+     * the client sends is done by mReader:
+     */
+    private final class
+    Client
+	implements Runnable
+    {
+	private final Socket mSocket;
+	final Runnable mReader;
+
+	volatile String mTermType = null;
+	volatile int mCols = -1, mRows = -1;
+
+	Client(Socket s)
+	{
+	    mSocket = s;
+	    mReader = new Runnable() {
+		    public void run() { readInput(); }
+		};
+	}
+
+	public void run()
+	{
+	    Workload wl = new Workload(mWorkload);
+	    ByteArrayOutputStream buf = new ByteArrayOutputStream(CHUNK_SIZE * 2);
+	    byte[] quoted = new byte[CHUNK_SIZE * 4];
+	    long sent = 0L;
+	    long end = (mMaxMsecs > 0L) ?
+		(System.currentTimeMillis() + mMaxMsecs) : Long.MAX_VALUE;
+
+	    try {
+		write(GREETING, GREETING.length);
+		while (!mClosed) {
+		    if (mMaxBytes > 0L && sent >= mMaxBytes) {
+			break;
+		    }
+		    if (System.currentTimeMillis() >= end) {
+			break;
+		    }
+		    while (buf.size() < CHUNK_SIZE) {
+			wl.generate(buf);
+		    }
+		    byte[] data = buf.toByteArray();
+		    int len = data.length;
+		    if (mMaxBytes > 0L && (mMaxBytes - sent) < len) {
+			len = (int) (mMaxBytes - sent);
+		    }
+		    // IAC bytes of the content need to be doubled:
+		    int qlen = 0;
+		    if (quoted.length < len * 2) {
+			quoted = new byte[len * 2];
+		    }
+		    for (int i = 0; i < len; ++i) {
+			byte b = data[i];
+			quoted[qlen++] = b;
+			if (b == IAC) {
+			    quoted[qlen++] = IAC;
+			}
+		    }
+		    write(quoted, qlen);
+		    sent += len;
+		    mBytesSent.addAndGet(len);
+		    buf.reset();
+		    buf.write(data, len, data.length - len);
+		}
+	    } catch (IOException ie) {
+		if (!mClosed) {
+		    System.err.println("Warning: LoopbackServer failed to write: "+ie);
+		}
+	    } finally {
+		close();
+	    }
+	}
+
+	/* Parses the telnet commands the client sends; anything else
+	 * (keyboard input) is just skipped.
+	 */
+	private void readInput()
+	{
+	    try {
+		InputStream in = new BufferedInputStream(mSocket.getInputStream());
+		int b;
+		while ((b = in.read()) >= 0) {
+		    if ((byte) b != IAC) {
+			continue;
+		    }
+		    int cmd = in.read();
+		    if (cmd < 0) {
+			break;
+		    }
+		    switch ((byte) cmd) {
+		    case WILL:
+			if ((byte) in.read() == TTYPE) {
+			    write(TTYPE_REQUEST, TTYPE_REQUEST.length);
+			}
+			break;
+		    case WONT:
+		    case DO:
+		    case DONT:
+			in.read(); // option; nothing to do about it
+			break;
+		    case SB:
+			readSuboption(in);
+			break;
+		    default: // IAC IAC, or a command without an option
+			break;
+		    }
+		}
+	    } catch (IOException ie) {
+		; // Closed by the writer, most likely
+	    }
+	}
+
+	private void readSuboption(InputStream in)
+	    throws IOException
+	{
+	    ByteArrayOutputStream sb = new ByteArrayOutputStream(32);
+	    int b;
+	    while ((b = in.read()) >= 0) {
+		if ((byte) b == IAC) {
+		    b = in.read();
+		    if ((byte) b == SE || b < 0) {
+			break;
+		    }
+		}
+		sb.write(b);
+	    }
+	    byte[] data = sb.toByteArray();
+	    if (data.length < 1) {
+		return;
+	    }
+	    if (data[0] == TTYPE && data.length > 1 && data[1] == TTYPE_IS) {
+		mTermType = new String(data, 2, data.length - 2, "ISO-8859-1");
+	    } else if (data[0] == NAWS && data.length >= 5) {
+		mCols = ((data[1] & 0xFF) << 8) | (data[2] & 0xFF);
+		mRows = ((data[3] & 0xFF) << 8) | (data[4] & 0xFF);
+	    }
+	}
+
+	// Reader and writer both send; one at a time:
+	private void write(byte[] data, int len)
+	    throws IOException
+	{
+	    OutputStream out = mSocket.getOutputStream();
+	    synchronized (out) {
+		out.write(data, 0, len);
+		out.flush();
+	    }
+	}
+
+	void close()
+	{
+	    try {
+		mSocket.close();
+	    } catch (IOException ie) {
+		; // Nothing to do about it
+	    }
+	}
+    }
+}
@@ -0,0 +1,326 @@
+/************************************************************
+
+Project:
+    JiveTerm.
+
+    A VT52/VT100/VT102-compliant telnet/terminal program
+    written in java.
+
+    (C) 1998-2001 Tatu Saloranta
+    tatu.saloranta@iki.fi.
+
+Module:
+    LoopbackSoak.java
+
+    Runs telnet sessions against LoopbackServer (or local
+    ones) and reports throughput, painting and heap
+    behaviour.
+
+Last changed:
+    16-Oct-2026
+
+************************************************************/
+
+package com.cowtowncoder.jiveterm;
+
+import java.awt.Frame;
+import java.io.File;
+import java.lang.management.*;
+import java.util.Iterator;
+
+/**
+ * Stand-alone tool (run with 'make soak'; kept with the tests, not shipped
+ * with JiveTerm)
+ * for soak and throughput testing of the whole input pipeline: a
+ * {@link LoopbackServer} streams a workload over a real telnet connection
+ * on the loopback interface, and TelnetConnection, Terminal and the screen
+ * handle it just like they would handle output from a remote host.
+ *
+ * Unlike TerminalBenchmark, which only measures the parsing and screen
+ * updates, this includes the sockets, the telnet protocol handling and
+ * the session threads; and it can be left running for hours, to see
+ * that neither throughput nor heap use change over time.
+ *
+ * Every few seconds (see '-report') a line is printed with the bytes
+ * sent and parsed per second, frames painted, and heap use and GC
+ * activity. At the end, the heap is compared (after a full GC) to the
+ * heap before the sessions were started; growth that stays after the
+ * sessions are gone is a leak.
+ *
+ * By default the screens are Displays that are not shown anywhere (so
+ * nothing is painted); with '-window' each one is shown in a window of
+ * its own, so that painting is included, and with '-memory' they are
+ * MemoryScreens.
+ *
+ * With '-local', there is no server: each session runs the workload
+ * generator (Workload's main()) as a local process, on a
+ * PtyConnection. This is the baseline without TCP and telnet in
+ * between; but not one without extra hops, since on a pty the output
+ * is relayed by 'script' (see PtyConnection).
+ */
+
+final class
+LoopbackSoak
+{
+    private final static String DEFAULT_WORKLOAD = "plain";
+    private final static int DEFAULT_SIZE_MB = 256;
+    private final static int DEFAULT_SESSIONS = 1;
+    private final static int DEFAULT_REPORT_SECS = 5;
+
+    private final static int COLS = 80;
+    private final static int ROWS = 24;
+
+    private final static double MB = 1024.0 * 1024.0;
+
+    public static void main(String[] args)
+	throws Exception
+    {
+	String workload = DEFAULT_WORKLOAD;
+	long sizeMB = DEFAULT_SIZE_MB;
+	long durationSecs = 0L;
+	int sessions = DEFAULT_SESSIONS;
+	int reportSecs = DEFAULT_REPORT_SECS;
+	boolean memory = false;
+	boolean window = false;
+	boolean local = false;
+
+	try {
+	    for (int i = 0; i < args.length; ++i) {
+		String arg = args[i];
+		if (arg.equals("-memory")) {
+		    memory = true;
+		    continue;
+		}
+		if (arg.equals("-window")) {
+		    window = true;
+		    continue;
+		}
+		if (arg.equals("-local")) {
+		    local = true;
+		    continue;
+		}
+		if (i + 1 >= args.length) {
+		    usage();
+		}
+		String value = args[++i];
+		if (arg.equals("-workload")) {
+		    if (!Workload.isKnown(value)) {
+			usage();
+		    }
+		    workload = value;
+		} else if (arg.equals("-mb")) {
+		    sizeMB = Long.parseLong(value);
+		} else if (arg.equals("-duration")) {
+		    durationSecs = Long.parseLong(value);
+		    sizeMB = 0L; // time limit replaces the size limit
+		} else if (arg.equals("-sessions")) {
+		    sessions = Integer.parseInt(value);
+		} else if (arg.equals("-report")) {
+		    reportSecs = Integer.parseInt(value);
+		} else {
+		    usage();
+		}
+	    }
+	} catch (NumberFormatException ne) {
+	    usage();
+	}
+	if (sessions < 1 || reportSecs < 1
+	    || (sizeMB <= 0L && durationSecs <= 0L)
+	    || (memory && window)
+	    || (local && sizeMB <= 0L)) { // generator only takes a size
+	    usage();
+	}
+	if (!window && System.getProperty("java.awt.headless") == null) {
+	    System.setProperty("java.awt.headless", "true");
+	}
+
+	MemoryMXBean mem = ManagementFactory.getMemoryMXBean();
+	mem.gc();
+	long heapBefore = mem.getHeapMemoryUsage().getUsed();
+
+	LoopbackServer server = null;
+	if (!local) {
+	    server = new LoopbackServer(workload, sizeMB * 1024L * 1024L,
+					durationSecs * 1000L);
+	    server.start();
+	}
+
+	System.out.println("JiveTerm loopback soak: workload '"+workload+"', "
+			   +sessions+" session(s), "
+			   +((durationSecs > 0L) ? (durationSecs+" s") : (sizeMB+" MB"))
+			   +" each; "
+			   +(memory ? "MemoryScreen" : (window ? "Display (shown)" : "Display"))
+			   +(local ? ("; local "+(PtyConnection.isPtySupported() ? "pty" : "pipes"))
+			     : "; telnet")
+			   +"; java "+System.getProperty("java.version"));
+
+	SessionRuntime rt = SessionRuntime.getInstance();
+	SessionRuntime.Session[] running = new SessionRuntime.Session[sessions];
+	Frame[] frames = new Frame[sessions];
+	for (int i = 0; i < sessions; ++i) {
+	    ScreenModel screen;
+	    if (memory) {
+		screen = new MemoryScreen(COLS, ROWS);
+	    } else {
+		Display d = new Display(null, "Monospaced", 12);
+		if (window) {
+		    frames[i] = new Frame("JiveTerm soak #"+(i+1));
+		    frames[i].add(d);
+		    frames[i].pack();
+		    frames[i].setVisible(true);
+		}
+		screen = d;
+	    }
+	    JiveConnection conn;
+	    if (local) {
+		conn = new PtyConnection(null, new String[] {
+		    System.getProperty("java.home")+File.separator+"bin"
+		    +File.separator+"java",
+		    "-cp", System.getProperty("java.class.path"),
+		    Workload.class.getName(), workload, String.valueOf(sizeMB)
+		});
+	    } else {
+		conn = new TelnetConnection(null, server.getHost(),
+					    server.getPort(), true);
+	    }
+	    conn.connect();
+	    conn.initializeConnection();
+	    running[i] = rt.startSession("soak-"+(i+1), new Terminal(screen), conn);
+	}
+
+	System.out.println("  time (s)   sent MB/s  parsed MB/s   frames/s"
+			   +"   heap used/committed (MB)   GCs (ms)");
+
+	long start = System.currentTimeMillis();
+	long lastTime = start;
+	long lastSent = 0L, lastParsed = 0L, lastFrames = 0L;
+	long maxHeap = 0L;
+
+	while (true) {
+	    boolean done = true;
+	    for (int i = 0; i < sessions; ++i) {
+		// (join(0) would wait until the session is done)
+		if (!running[i].join(Math.max(1L, reportSecs * 1000L / sessions))) {
+		    done = false;
+		}
+	    }
+	    long now = System.currentTimeMillis();
+	    if (!done && (now - lastTime) < reportSecs * 1000L) {
+		continue;
+	    }
+	    long sent = (server == null) ? 0L : server.getBytesSent();
+	    long parsed = 0L, frameCount = 0L;
+	    for (int i = 0; i < sessions; ++i) {
+		SessionStats stats = running[i].getStats();
+		if (server == null) { // let's count what we got instead
+		    sent += stats.getBytesRead();
+		}
+		parsed += stats.getBytesParsed();
+		frameCount += stats.getPaintCount();
+	    }
+	    long used = mem.getHeapMemoryUsage().getUsed();
+	    if (used > maxHeap) {
+		maxHeap = used;
+	    }
+	    double secs = (now - lastTime) / 1000.0;
+	    if (secs > 0.0) {
+		System.out.println(pad(TerminalBenchmark.format((now - start) / 1000.0), 11)
+				   +pad(TerminalBenchmark.format((sent - lastSent) / MB / secs), 11)
+				   +pad(TerminalBenchmark.format((parsed - lastParsed) / MB / secs), 13)
+				   +pad(TerminalBenchmark.format((frameCount - lastFrames) / secs), 11)
+				   +pad(TerminalBenchmark.format(used / MB)+" / "
+					+TerminalBenchmark.format(mem.getHeapMemoryUsage().getCommitted() / MB), 27)
+				   +gcSummary());
+	    }
+	    lastTime = now;
+	    lastSent = sent;
+	    lastParsed = parsed;
+	    lastFrames = frameCount;
+	    if (done) {
+		break;
+	    }
+	}
+
+	long elapsed = System.currentTimeMillis() - start;
+	long parsed = 0L, frameCount = 0L;
+	for (int i = 0; i < sessions; ++i) {
+	    SessionStats stats = running[i].getStats();
+	    parsed += stats.getBytesParsed();
+	    frameCount += stats.getPaintCount();
+	    /* Sessions close their connections when the input ends; but
+	     * let's make sure nothing (writer threads, buffers) is left,
+	     * so that the heap after GC only has what really leaked:
+	     */
+	    running[i].getConnection().disconnect();
+	    running[i].join(0L);
+	    running[i] = null;
+	    if (frames[i] != null) {
+		frames[i].dispose();
+		frames[i] = null;
+	    }
+	}
+	String[] types = new String[0];
+	String[] sizes = new String[0];
+	if (server != null) {
+	    types = server.getTermTypes();
+	    sizes = server.getWindowSizes();
+	    server.close();
+	    server = null;
+	}
+
+	mem.gc();
+	long heapAfter = mem.getHeapMemoryUsage().getUsed();
+
+	double secs = elapsed / 1000.0;
+	System.out.println();
+	System.out.println("Parsed "+TerminalBenchmark.format(parsed / MB)+" MB in "
+			   +TerminalBenchmark.format(secs)+" s: "
+			   +TerminalBenchmark.format(parsed / MB / secs)+" MB/s; "
+			   +frameCount+" frames ("
+			   +TerminalBenchmark.format(frameCount / secs)+"/s)");
+	if (types.length > 0) {
+	    System.out.println("Client reported terminal type '"+types[0]
+			       +"', window size "+sizes[0]);
+	}
+	System.out.println("Heap: "+TerminalBenchmark.format(heapBefore / MB)
+			   +" MB before, max "+TerminalBenchmark.format(maxHeap / MB)
+			   +" MB, "+TerminalBenchmark.format(heapAfter / MB)
+			   +" MB after (after GC; growth "
+			   +TerminalBenchmark.format((heapAfter - heapBefore) / MB)+" MB); GCs "
+			   +gcSummary());
+	System.exit(0); // Display's render thread would keep us alive
+    }
+
+    private static void usage()
+    {
+	System.err.println("Usage: java "+LoopbackSoak.class.getName()
+			   +" [-workload NAME] [-mb MB | -duration SECS]"
+			   +" [-sessions N] [-memory | -window] [-local] [-report SECS]");
+	System.err.print("Workloads:");
+	for (int i = 0; i < Workload.NAMES.length; ++i) {
+	    System.err.print(" "+Workload.NAMES[i]);
+	}
+	System.err.println();
+	System.exit(1);
+    }
+
+    // Collections and time spent in them, over all collectors:
+    private static String gcSummary()
+    {
+	long count = 0L, time = 0L;
+	Iterator it = ManagementFactory.getGarbageCollectorMXBeans().iterator();
+	while (it.hasNext()) {
+	    GarbageCollectorMXBean gc = (GarbageCollectorMXBean) it.next();
+	    if (gc.getCollectionCount() > 0L) {
+		count += gc.getCollectionCount();
+		time += gc.getCollectionTime();
+	    }
+	}
+	return count+" ("+time+")";
+    }
+
+    private static String pad(String s, int len)
+    {
+	return TerminalBenchmark.pad(s, len);
+    }
+}
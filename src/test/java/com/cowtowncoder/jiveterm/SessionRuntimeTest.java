@@ -0,0 +1,124 @@
+package com.cowtowncoder.jiveterm;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that nothing of a session is left running once it has
+ * ended; in particular the connection's writer thread.
+ */
+public class SessionRuntimeTest
+{
+    @Test
+    public void testWriterStopsWhenInputEnds() throws Exception
+    {
+	// Server sends a line, then closes the connection:
+	FakeConnection conn = new FakeConnection("hello\r\n".getBytes("ISO-8859-1"));
+	conn.connect();
+	MemoryScreen screen = new MemoryScreen();
+	SessionRuntime.Session s = SessionRuntime.getInstance()
+	    .startSession("test", new Terminal(screen), conn);
+
+	assertTrue(s.join(5000L));
+	assertTrue(conn.mWriterDone.await(5L, TimeUnit.SECONDS));
+	assertTrue(conn.mInformed);
+	assertEquals("hello", screen.getLineText(0));
+    }
+
+    @Test
+    public void testWriterStopsWhenCancelled() throws Exception
+    {
+	// Connection that never returns anything:
+	FakeConnection conn = new FakeConnection(null);
+	conn.connect();
+	SessionRuntime.Session s = SessionRuntime.getInstance()
+	    .startSession("test", new Terminal(new MemoryScreen()), conn);
+
+	s.cancel();
+	conn.close();
+	assertTrue(s.join(5000L));
+	assertTrue(conn.mWriterDone.await(5L, TimeUnit.SECONDS));
+	// Whoever cancelled is responsible for closing:
+	assertFalse(conn.mInformed);
+    }
+
+    /* Connection that returns given data (if any) once, and then
+     * reports end of input, or waits until closed if there is no data:
+     */
+    final static class FakeConnection
+	extends JiveConnection
+    {
+	private final byte[] mData;
+	private boolean mDataGiven = false;
+	private final CountDownLatch mClosed = new CountDownLatch(1);
+
+	final CountDownLatch mWriterDone = new CountDownLatch(1);
+	volatile boolean mInformed = false;
+
+	FakeConnection(byte[] data) { mData = data; }
+
+	void close() { mClosed.countDown(); }
+
+	public void run()
+	{
+	    try {
+		super.run();
+	    } finally {
+		mWriterDone.countDown();
+	    }
+	}
+
+	public void setSendNAWS(boolean x) { }
+	public synchronized void sendNAWS(int x, int y, boolean force) { }
+
+	public boolean connect()
+	{
+	    startWriter();
+	    return true;
+	}
+
+	public void initializeConnection() { }
+
+	public boolean disconnect()
+	{
+	    stopWriter();
+	    close();
+	    return true;
+	}
+
+	public void informDisconnect(boolean inform_master)
+	{
+	    mInformed = true;
+	    stopWriter();
+	    close();
+	}
+
+	public boolean lendBytes(InputSlice slice)
+	{
+	    if (mData != null && !mDataGiven) {
+		mDataGiven = true;
+		slice.set(mData, 0, mData.length);
+		return true;
+	    }
+	    if (mData == null) {
+		try {
+		    mClosed.await();
+		} catch (InterruptedException ie) { }
+	    }
+	    slice.clear();
+	    return false;
+	}
+
+	protected int readBytes(byte[] buffer, int length) throws IOException
+	{
+	    return -1;
+	}
+
+	protected void writeBytes(byte[] buffer, int offset, int length) { }
+    }
+}
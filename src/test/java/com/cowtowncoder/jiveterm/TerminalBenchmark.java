@@ -0,0 +1,259 @@
+/************************************************************
+
+Project:
+    JiveTerm.
+
+    A VT52/VT100/VT102-compliant telnet/terminal program
+    written in java.
+
+    (C) 1998-2001 Tatu Saloranta
+    tatu.saloranta@iki.fi.
+
+Module:
+    TerminalBenchmark.java
+
+    Measures how fast Terminal and Display process
+    different kinds of output.
+
+Last changed:
+    16-Oct-2026
+
+************************************************************/
+
+package com.cowtowncoder.jiveterm;
+
+import java.io.*;
+
+/**
+ * Stand-alone benchmark (run with 'make bench'; kept with the tests, not
+ * shipped with JiveTerm)
+ * that feeds generated output through Terminal to a Display that is
+ * not shown anywhere, and reports the throughput (MB/s) and cost per
+ * byte (ns/byte). This is the baseline to compare performance changes
+ * against.
+ *
+ * Each workload is first written to a temporary session recording,
+ * which is then replayed at maximum speed (see SessionReplay), so the
+ * input goes through exactly the same code as a real session; the
+ * network and the server are just left out. Real sessions recorded
+ * with the "record" parameter can be measured the same way, by giving
+ * the recording files as arguments.
+ *
+ * Workloads are generated by {@link Workload}: plain text, SGR-heavy
+ * coloured text, cursor addressing, scrolling regions, inserting and
+ * deleting, double-width/height lines.
+ *
+ * Each workload is run a few times first (to let the JIT compile
+ * everything), then measured a number of times; both the best and
+ * the average results are reported.
+ *
+ * With '-memory', a MemoryScreen is used instead of Display; the
+ * difference between the two shows how much the AWT side costs.
+ */
+
+final class
+TerminalBenchmark
+{
+    private final static int DEFAULT_WARMUP = 3;
+    private final static int DEFAULT_ITERATIONS = 5;
+    private final static int DEFAULT_SIZE_MB = 8;
+
+    /* Size of records in generated recordings; about what a socket
+     * read typically returns:
+     */
+    private final static int RECORD_SIZE = 4096;
+
+    private final static int COLS = 80;
+    private final static int ROWS = 24;
+
+    private final Terminal mTerminal;
+
+    private int mWarmup = DEFAULT_WARMUP;
+    private int mIterations = DEFAULT_ITERATIONS;
+
+    public TerminalBenchmark(boolean memory)
+    {
+	ScreenModel screen;
+	if (memory) {
+	    screen = new MemoryScreen(COLS, ROWS);
+	} else {
+	    screen = new Display(null, "Monospaced", 12);
+	}
+	mTerminal = new Terminal(screen);
+    }
+
+    public static void main(String[] args)
+	throws Exception
+    {
+	if (System.getProperty("java.awt.headless") == null) {
+	    System.setProperty("java.awt.headless", "true");
+	}
+
+	int warmup = DEFAULT_WARMUP;
+	int iterations = DEFAULT_ITERATIONS;
+	int sizeMB = DEFAULT_SIZE_MB;
+	boolean memory = false;
+	int first = 0;
+
+	try {
+	    for (; first < args.length && args[first].startsWith("-"); first += 2) {
+		if (args[first].equals("-memory")) {
+		    memory = true;
+		    --first; // no value
+		    continue;
+		}
+		if (first + 1 >= args.length) {
+		    usage();
+		}
+		int value = Integer.parseInt(args[first+1]);
+		if (args[first].equals("-warmup")) {
+		    warmup = value;
+		} else if (args[first].equals("-iterations")) {
+		    iterations = value;
+		} else if (args[first].equals("-size")) {
+		    sizeMB = value;
+		} else {
+		    usage();
+		}
+	    }
+	} catch (NumberFormatException ne) {
+	    usage();
+	}
+
+	TerminalBenchmark bm = new TerminalBenchmark(memory);
+	bm.mWarmup = warmup;
+	bm.mIterations = (iterations < 1) ? 1 : iterations;
+
+	System.out.println("JiveTerm benchmark: "+warmup+" warmup, "
+			   +bm.mIterations+" measured iterations; "
+			   +(memory ? "MemoryScreen" : "Display")+"; java "
+			   +System.getProperty("java.version"));
+	System.out.println("workload            size (MB)   best MB/s    avg MB/s"
+			   +"   best ns/byte");
+
+	if (first == args.length) { // no args -> all generated workloads
+	    for (int i = 0; i < Workload.NAMES.length; ++i) {
+		bm.runGenerated(Workload.NAMES[i], sizeMB);
+	    }
+	} else {
+	    for (int i = first; i < args.length; ++i) {
+		if (Workload.isKnown(args[i])) {
+		    bm.runGenerated(args[i], sizeMB);
+		} else {
+		    File f = new File(args[i]);
+		    bm.run(f.getName(), f);
+		}
+	    }
+	}
+	System.exit(0); // Display's render thread would keep us alive
+    }
+
+    private static void usage()
+    {
+	System.err.println("Usage: java "+TerminalBenchmark.class.getName()
+			   +" [-memory] [-warmup N] [-iterations N] [-size MB]"
+			   +" [workload | recording-file] ...");
+	System.err.print("Workloads:");
+	for (int i = 0; i < Workload.NAMES.length; ++i) {
+	    System.err.print(" "+Workload.NAMES[i]);
+	}
+	System.err.println();
+	System.exit(1);
+    }
+
+    /* *** Running: *** */
+
+    private void runGenerated(String workload, int sizeMB)
+	throws IOException
+    {
+	File tmp = File.createTempFile("jiveterm-bench-"+workload, ".jtrc");
+	try {
+	    generate(workload, sizeMB * 1024L * 1024L, tmp);
+	    run(workload, tmp);
+	} finally {
+	    tmp.delete();
+	}
+    }
+
+    private void run(String name, File recording)
+	throws IOException
+    {
+	long bytes = 0L;
+	long best = Long.MAX_VALUE;
+	long total = 0L;
+
+	for (int i = -mWarmup; i < mIterations; ++i) {
+	    mTerminal.hardResetTerminal(false);
+	    SessionReplay replay = new SessionReplay(recording, true);
+	    SessionStats stats = new SessionStats(name, null);
+	    mTerminal.setStats(stats);
+	    long start = System.nanoTime();
+	    mTerminal.replaySession(replay);
+	    long time = System.nanoTime() - start;
+	    mTerminal.setStats(null);
+	    bytes = stats.getBytesParsed();
+	    if (i >= 0) {
+		total += time;
+		if (time < best) {
+		    best = time;
+		}
+	    }
+	}
+	if (bytes == 0L) {
+	    System.out.println(pad(name, 20)+"(no data)");
+	    return;
+	}
+	double mb = bytes / (1024.0 * 1024.0);
+	double avg = (double) total / mIterations;
+	System.out.println(pad(name, 20)
+			   +pad(format(mb), 12)
+			   +pad(format(mb / (best / 1.0e9)), 12)
+			   +pad(format(mb / (avg / 1.0e9)), 12)
+			   +format((double) best / bytes));
+    }
+
+    /* *** Generating workloads: *** */
+
+    private void generate(String workload, long size, File path)
+	throws IOException
+    {
+	Workload wl = new Workload(workload);
+	SessionRecorder rec = new SessionRecorder(path);
+	ByteArrayOutputStream out = new ByteArrayOutputStream(RECORD_SIZE * 2);
+	long done = 0L;
+
+	while (done < size) {
+	    wl.generate(out);
+	    // Records are cut at arbitrary points, as with real reads:
+	    if (out.size() >= RECORD_SIZE) {
+		byte[] data = out.toByteArray();
+		int len = data.length - (data.length % RECORD_SIZE);
+		rec.record(data, 0, len);
+		done += len;
+		out.reset();
+		out.write(data, len, data.length - len);
+	    }
+	}
+	rec.close();
+    }
+
+    /* *** Helper methods: *** */
+
+    static String format(double d)
+    {
+	long l = Math.round(d * 100.0);
+	String s = String.valueOf(l / 100)+"."+(l % 100 + 100);
+	// Fraction has one extra digit ('1' + two digits):
+	int dot = s.indexOf('.');
+	return s.substring(0, dot + 1)+s.substring(dot + 2);
+    }
+
+    static String pad(String s, int len)
+    {
+	StringBuffer sb = new StringBuffer(s);
+	while (sb.length() < len) {
+	    sb.append(' ');
+	}
+	return sb.toString();
+    }
+}
@@ -0,0 +1,80 @@
+package com.cowtowncoder.jiveterm;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs UTF-8 input through Terminal to a MemoryScreen (by way of a
+ * recorded session), and checks what ends up on the screen.
+ */
+public class TerminalTest
+{
+    @Test
+    public void testNonBmpCharTakesOneColumn() throws Exception
+    {
+	// Emoji (U+1F600) is 4 bytes, a surrogate pair in Java:
+	byte[] emoji = "\ud83d\ude00".getBytes("UTF-8");
+	MemoryScreen screen = run(new byte[][] {
+	    "a".getBytes("UTF-8"), emoji, "b".getBytes("UTF-8")
+	});
+	assertEquals(3, screen.getCursorX());
+	assertEquals("a\ufffdb", screen.getLineText(0));
+
+	// And the same when split in the middle of the char:
+	for (int split = 1; split < emoji.length; ++split) {
+	    byte[] first = new byte[split + 1];
+	    byte[] second = new byte[emoji.length - split + 1];
+	    first[0] = 'a';
+	    System.arraycopy(emoji, 0, first, 1, split);
+	    System.arraycopy(emoji, split, second, 0, emoji.length - split);
+	    second[second.length - 1] = 'b';
+	    screen = run(new byte[][] { first, second });
+	    assertEquals(3, screen.getCursorX());
+	    assertEquals("a\ufffdb", screen.getLineText(0));
+	}
+    }
+
+    @Test
+    public void testCharCutOffByControl() throws Exception
+    {
+	// Euro sign (E2 82 AC) without its last byte, then SGR reset:
+	MemoryScreen screen = run(new byte[][] {
+	    new byte[] { 'a', (byte) 0xE2, (byte) 0x82, 0x1B, '[', 'm', 'b' }
+	});
+	assertEquals(3, screen.getCursorX());
+	assertEquals("a\ufffdb", screen.getLineText(0));
+
+	// Cut off by a CR, in a later buffer:
+	screen = run(new byte[][] {
+	    new byte[] { 'a', (byte) 0xE2 }, new byte[] { 0x0D, 'b' }
+	});
+	assertEquals(1, screen.getCursorX());
+	assertEquals("b\ufffd", screen.getLineText(0));
+    }
+
+    /* Records given chunks (one record each), and replays them to a
+     * new Terminal:
+     */
+    private MemoryScreen run(byte[][] chunks) throws Exception
+    {
+	File f = File.createTempFile("jiveterm-test", ".jtrc");
+	try {
+	    SessionRecorder rec = new SessionRecorder(f);
+	    for (int i = 0; i < chunks.length; ++i) {
+		rec.record(chunks[i], 0, chunks[i].length);
+	    }
+	    rec.close();
+
+	    MemoryScreen screen = new MemoryScreen(MemoryScreen.DEFAULT_COLUMNS,
+						   MemoryScreen.DEFAULT_ROWS);
+	    Terminal t = new Terminal(screen);
+	    t.replaySession(new SessionReplay(f, true));
+	    return screen;
+	} finally {
+	    f.delete();
+	}
+    }
+}
@@ -0,0 +1,274 @@
+package com.cowtowncoder.jiveterm;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks Utf8Decoder against the JDK's decoder (new String(bytes,
+ * "UTF-8")), with the input split at every possible point; for invalid
+ * input too, where both should produce the same replacement chars.
+ */
+public class Utf8DecoderTest
+{
+    private final static String[] VALID = new String[] {
+	"",
+	"plain ASCII text\r\n",
+	"Latin-1: \u00e4\u00f6\u00e5 \u00a3\u00a9",
+	"DEC graphics: \u2518\u2510\u250c\u2514\u253c\u2500\u2502",
+	"CJK: \u65e5\u672c\u8a9e \ud55c\uad6d\uc5b4",
+	"Surrogate pairs: \ud83d\ude00 \ud800\udc00 \udbff\udfff",
+	"Limits: \u007f\u0080\u07ff\u0800\ud7ff\ue000\uffff"
+    };
+
+    private final static int[][] INVALID = new int[][] {
+	{ 0x80 }, { 0xBF }, { 0x80, 0x80, 0x41 }, // stray continuations
+	{ 0xC0, 0x80 }, { 0xC1, 0xBF }, // overlong 2-byte
+	{ 0xE0, 0x80, 0x80 }, { 0xE0, 0x9F, 0xBF }, // overlong 3-byte
+	{ 0xF0, 0x80, 0x80, 0x80 }, { 0xF0, 0x8F, 0xBF, 0xBF }, // overlong 4-byte
+	{ 0xED, 0xA0, 0x80 }, { 0xED, 0xBF, 0xBF }, // surrogates
+	{ 0xF4, 0x90, 0x80, 0x80 }, { 0xF5, 0x80, 0x80, 0x80 }, // above U+10FFFF
+	{ 0xF8, 0x88, 0x80, 0x80, 0x80 }, { 0xFE }, { 0xFF },
+	{ 0xE2, 0x82, 0x41 }, { 0xF0, 0x9F, 0x98, 0x41 }, // truncated
+	{ 0xE2, 0xE2, 0x82, 0xAC }, { 0xC3, 0xC3, 0xA4 }, // lead after lead
+	{ 0xE2, 0x82 }, { 0xF0, 0x9F, 0x98 }, { 0xC3 } // truncated at end
+    };
+
+    @Test
+    public void testValidSplitEverywhere() throws Exception
+    {
+	for (int i = 0; i < VALID.length; ++i) {
+	    checkAllSplits(VALID[i].getBytes("UTF-8"));
+	}
+    }
+
+    @Test
+    public void testInvalidSplitEverywhere() throws Exception
+    {
+	for (int i = 0; i < INVALID.length; ++i) {
+	    byte[] bytes = toBytes(INVALID[i]);
+	    checkAllSplits(bytes);
+	    // And surrounded by valid text:
+	    checkAllSplits(mixedBytes("a\u00e4", bytes, "\u20acb"));
+	}
+    }
+
+    @Test
+    public void testAllTwoByteSequences() throws Exception
+    {
+	byte[] bytes = new byte[4];
+	bytes[0] = 'a';
+	bytes[3] = 'b';
+	for (int b1 = 0; b1 < 256; ++b1) {
+	    for (int b2 = 0; b2 < 256; ++b2) {
+		bytes[1] = (byte) b1;
+		bytes[2] = (byte) b2;
+		// Whole, and split between the two bytes:
+		check(bytes, new int[] { 0, bytes.length });
+		check(bytes, new int[] { 0, 2, bytes.length });
+	    }
+	}
+    }
+
+    @Test
+    public void testAllThreeByteSequenceStarts() throws Exception
+    {
+	// All lead bytes with all second bytes, then a valid or invalid last byte:
+	final int[] thirds = new int[] { 0x00, 0x41, 0x7F, 0x80, 0x9F, 0xA0, 0xBF, 0xC0, 0xE2, 0xFF };
+	byte[] bytes = new byte[4];
+	for (int b1 = 0xC0; b1 < 256; ++b1) {
+	    for (int b2 = 0; b2 < 256; ++b2) {
+		for (int k = 0; k < thirds.length; ++k) {
+		    bytes[0] = (byte) b1;
+		    bytes[1] = (byte) b2;
+		    bytes[2] = (byte) thirds[k];
+		    bytes[3] = (byte) 0x80;
+		    check(bytes, new int[] { 0, bytes.length });
+		    check(bytes, new int[] { 0, 1, bytes.length });
+		    check(bytes, new int[] { 0, 2, 3, bytes.length });
+		}
+	    }
+	}
+    }
+
+    @Test
+    public void testRandomInput() throws Exception
+    {
+	final int[] values = new int[] {
+	    0x00, 0x1B, 0x41, 0x7F, 0x80, 0x8F, 0x90, 0x9F, 0xA0, 0xBF,
+	    0xC0, 0xC1, 0xC2, 0xDF, 0xE0, 0xE1, 0xED, 0xEF, 0xF0, 0xF1,
+	    0xF4, 0xF5, 0xFF
+	};
+	Random r = new Random(456);
+	for (int round = 0; round < 20000; ++round) {
+	    byte[] bytes = new byte[r.nextInt(24)];
+	    for (int i = 0; i < bytes.length; ++i) {
+		bytes[i] = (byte) values[r.nextInt(values.length)];
+	    }
+	    int parts = 1 + r.nextInt(4);
+	    int[] splits = new int[parts + 1];
+	    for (int i = 1; i < parts; ++i) {
+		splits[i] = r.nextInt(bytes.length + 1);
+	    }
+	    splits[parts] = bytes.length;
+	    java.util.Arrays.sort(splits);
+	    check(bytes, splits);
+	}
+    }
+
+    @Test
+    public void testCutOffByControl() throws Exception
+    {
+	/* Terminal decodes text up to a control byte, then finishes the
+	 * decoder before handling the control; result should be what
+	 * the JDK gives for the whole input:
+	 */
+	final int[] controls = new int[] { 0x00, 0x07, 0x0A, 0x0D, 0x1B };
+	for (int i = 0; i < INVALID.length; ++i) {
+	    for (int k = 0; k < controls.length; ++k) {
+		byte[] text = mixedBytes("a", toBytes(INVALID[i]), "");
+		byte[] bytes = mixedBytes("", text, "?[m"); // ? is the control
+		bytes[text.length] = (byte) controls[k];
+		String expected = new String(bytes, "UTF-8");
+
+		Utf8Decoder dec = new Utf8Decoder();
+		char[] out = new char[bytes.length + 1];
+		StringBuffer sb = new StringBuffer();
+		sb.append(out, 0, dec.decode(bytes, 0, text.length, out));
+		sb.append(out, 0, dec.finish(out));
+		assertFalse(dec.hasPending());
+		sb.append((char) controls[k]);
+		sb.append(out, 0, dec.decode(bytes, text.length + 1,
+					     bytes.length, out));
+		assertEquals(hex(expected), hex(sb.toString()));
+	    }
+	}
+    }
+
+    @Test
+    public void testBmpOnly() throws Exception
+    {
+	// Chars above U+FFFF become one replacement char, rest as usual:
+	String input = "a\ud83d\ude00b\u20ac\udbff\udfff";
+	byte[] bytes = input.getBytes("UTF-8");
+	for (int split = 0; split <= bytes.length; ++split) {
+	    Utf8Decoder dec = new Utf8Decoder(true);
+	    char[] out = new char[bytes.length + 1];
+	    StringBuffer sb = new StringBuffer();
+	    sb.append(out, 0, dec.decode(bytes, 0, split, out));
+	    sb.append(out, 0, dec.decode(bytes, split, bytes.length, out));
+	    assertFalse(dec.hasPending());
+	    assertEquals(hex("a\ufffdb\u20ac\ufffd"), hex(sb.toString()));
+	}
+    }
+
+    /* Whole, split in two at every point, split in three at every
+     * pair of points, and one byte at a time:
+     */
+    private void checkAllSplits(byte[] bytes) throws Exception
+    {
+	int len = bytes.length;
+
+	check(bytes, new int[] { 0, len });
+	for (int i = 0; i <= len; ++i) {
+	    check(bytes, new int[] { 0, i, len });
+	    for (int j = i; j <= len; ++j) {
+		check(bytes, new int[] { 0, i, j, len });
+	    }
+	}
+	int[] single = new int[len + 1];
+	for (int i = 0; i <= len; ++i) {
+	    single[i] = i;
+	}
+	check(bytes, single);
+    }
+
+    /* Decodes the input in parts (splits has the start of each part,
+     * and the end of input last), and compares with the JDK:
+     */
+    private void check(byte[] bytes, int[] splits) throws Exception
+    {
+	String expected = new String(bytes, "UTF-8");
+	Utf8Decoder dec = new Utf8Decoder();
+	StringBuffer sb = new StringBuffer();
+
+	for (int i = 0; i + 1 < splits.length; ++i) {
+	    int start = splits[i];
+	    int end = splits[i+1];
+	    char[] out = new char[end - start + 1];
+	    int count = dec.decode(bytes, start, end, out);
+	    sb.append(out, 0, count);
+	}
+	/* A sequence cut off by the end of input is kept for the next
+	 * call; for the JDK it's invalid:
+	 */
+	char[] last = new char[1];
+	sb.append(last, 0, dec.finish(last));
+	String actual = sb.toString();
+	if (!expected.equals(actual)) {
+	    fail("Input "+hex(bytes)+", split at "+toString(splits)
+		 +": expected "+hex(expected)+", got "+hex(actual));
+	}
+    }
+
+    private static byte[] toBytes(int[] values)
+    {
+	byte[] result = new byte[values.length];
+	for (int i = 0; i < values.length; ++i) {
+	    result[i] = (byte) values[i];
+	}
+	return result;
+    }
+
+    private static byte[] mixedBytes(String before, byte[] middle, String after)
+	throws Exception
+    {
+	byte[] b = before.getBytes("UTF-8");
+	byte[] a = after.getBytes("UTF-8");
+	byte[] result = new byte[b.length + middle.length + a.length];
+	System.arraycopy(b, 0, result, 0, b.length);
+	System.arraycopy(middle, 0, result, b.length, middle.length);
+	System.arraycopy(a, 0, result, b.length + middle.length, a.length);
+	return result;
+    }
+
+    private static String hex(byte[] bytes)
+    {
+	StringBuffer sb = new StringBuffer("[");
+	for (int i = 0; i < bytes.length; ++i) {
+	    if (i > 0) {
+		sb.append(' ');
+	    }
+	    sb.append(Integer.toHexString(bytes[i] & 0xFF));
+	}
+	return sb.append(']').toString();
+    }
+
+    private static String hex(String s)
+    {
+	StringBuffer sb = new StringBuffer("\"");
+	for (int i = 0; i < s.length(); ++i) {
+	    char c = s.charAt(i);
+	    if (c >= 0x20 && c < 0x7F) {
+		sb.append(c);
+	    } else {
+		sb.append("\\u").append(Integer.toHexString(c | 0x10000).substring(1));
+	    }
+	}
+	return sb.append('"').toString();
+    }
+
+    private static String toString(int[] values)
+    {
+	StringBuffer sb = new StringBuffer();
+	for (int i = 0; i < values.length; ++i) {
+	    if (i > 0) {
+		sb.append(',');
+	    }
+	    sb.append(values[i]);
+	}
+	return sb.toString();
+    }
+}
@@ -0,0 +1,68 @@
+package com.cowtowncoder.jiveterm;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that escape codes are parsed as ANSI sequences or VT52 codes,
+ * depending on the mode.
+ */
+public class VTParserTest
+{
+    @Test
+    public void testAnsiStringIntroducers() throws Exception
+    {
+	VTParser p = new VTParser();
+	// OSC (window title), terminated by BEL:
+	assertEquals(VTParser.ACTION_NONE, feed(p, "\u001B]0;x"));
+	assertEquals(VTParser.ACTION_OSC_END, p.next((byte) 7));
+	assertEquals("0;x", new String(p.getOscBuffer(), 0, p.getOscLength()));
+
+	// ESC Y is nothing special here; the next byte is just text:
+	assertEquals(VTParser.ACTION_ESC_DISPATCH, feed(p, "\u001BY"));
+	assertEquals('Y', p.getFinal());
+	assertTrue(p.isInGround());
+    }
+
+    @Test
+    public void testVT52Codes() throws Exception
+    {
+	VTParser p = new VTParser();
+	p.setVT52(true);
+	String codes = "[]PX^_AH";
+	for (int i = 0; i < codes.length(); ++i) {
+	    assertEquals(VTParser.ACTION_ESC_DISPATCH,
+			 feed(p, "\u001B" + codes.charAt(i)));
+	    assertEquals(codes.charAt(i), p.getFinal());
+	    assertTrue(p.isInGround());
+	}
+
+	// Direct cursor address, to row 3, column 10:
+	assertEquals(VTParser.ACTION_NONE, feed(p, "\u001BY#"));
+	assertEquals(VTParser.ACTION_VT52_ADDRESS, feed(p, "*"));
+	assertEquals(2, p.getParamCount());
+	assertEquals(3, p.getParams()[0]);
+	assertEquals(10, p.getParams()[1]);
+	assertTrue(p.isInGround());
+
+	// And back to ANSI:
+	p.setVT52(false);
+	assertEquals(VTParser.ACTION_NONE, feed(p, "\u001B[2"));
+	assertEquals(VTParser.ACTION_CSI_DISPATCH, feed(p, "J"));
+	assertEquals(1, p.getParamCount());
+	assertEquals(2, p.getParams()[0]);
+    }
+
+    /* Feeds given chars to the parser, returning the action for the
+     * last one:
+     */
+    private int feed(VTParser p, String s)
+    {
+	int action = VTParser.ACTION_NONE;
+	for (int i = 0; i < s.length(); ++i) {
+	    action = p.next((byte) s.charAt(i));
+	}
+	return action;
+    }
+}
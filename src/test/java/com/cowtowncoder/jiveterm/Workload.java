@@ -0,0 +1,273 @@
+/************************************************************
+
+Project:
+    JiveTerm.
+
+    A VT52/VT100/VT102-compliant telnet/terminal program
+    written in java.
+
+    (C) 1998-2001 Tatu Saloranta
+    tatu.saloranta@iki.fi.
+
+Module:
+    Workload.java
+
+    Generates synthetic server output, for benchmarks and
+    soak tests.
+
+Last changed:
+    16-Oct-2026
+
+************************************************************/
+
+package com.cowtowncoder.jiveterm;
+
+import java.io.*;
+
+/**
+ * Class that generates endless amounts of output of a given kind,
+ * like a server would send it; used by TerminalBenchmark (written to
+ * a recording, then replayed) and LoopbackServer (sent over a real
+ * telnet connection). Output is deterministic: same workload always
+ * produces the same bytes. Can also be run as a program that writes a
+ * workload to stdout (used by LoopbackSoak with '-local').
+ *
+ * Workloads:
+ *<ul>
+ * <li>plain: lines of plain text
+ * <li>sgr: text with SGR (colour, bold etc.) codes every few words
+ * <li>cursor: full-screen updates with cursor addressing
+ * <li>scroll: scrolling within a scroll region (LF and reverse index)
+ * <li>insdel: inserting and deleting chars and lines
+ * <li>double: double-width and double-height lines
+ *</ul>
+ */
+
+final class
+Workload
+{
+    final static String[] NAMES = new String[] {
+	"plain", "sgr", "cursor", "scroll", "insdel", "double"
+    };
+
+    /* Output is generated for a screen of this size: */
+    private final static int COLS = 80;
+    private final static int ROWS = 24;
+
+    private final static String WORDS =
+	"the quick brown fox jumps over lazy dog while terminal emulation "
+	+"keeps parsing bytes and painting glyphs onto screen lines ";
+
+    private final String mName;
+    private final int mType;
+
+    /* Seed for the simple generator used to vary the output: */
+    private int mSeed = 12345;
+
+    private boolean mStarted = false;
+
+    public Workload(String name)
+    {
+	int type = -1;
+	for (int i = 0; i < NAMES.length; ++i) {
+	    if (NAMES[i].equals(name)) {
+		type = i;
+	    }
+	}
+	if (type < 0) {
+	    throw new IllegalArgumentException("Unknown workload '"+name+"'");
+	}
+	mName = name;
+	mType = type;
+    }
+
+    public static boolean isKnown(String name)
+    {
+	for (int i = 0; i < NAMES.length; ++i) {
+	    if (NAMES[i].equals(name)) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    public String getName() { return mName; }
+
+    /**
+     * Writes given amount (MB) of given workload to stdout.
+     */
+    public static void main(String[] args)
+	throws IOException
+    {
+	if (args.length != 2 || !isKnown(args[0])) {
+	    System.err.println("Usage: java "+Workload.class.getName()+" workload MB");
+	    System.exit(1);
+	}
+	long size = Long.parseLong(args[1]) * 1024L * 1024L;
+	Workload wl = new Workload(args[0]);
+	ByteArrayOutputStream buf = new ByteArrayOutputStream(8192);
+	OutputStream out = new FileOutputStream(FileDescriptor.out);
+	long done = 0L;
+
+	while (done < size) {
+	    while (buf.size() < 4096) {
+		wl.generate(buf);
+	    }
+	    int len = (int) Math.min(buf.size(), size - done);
+	    out.write(buf.toByteArray(), 0, len);
+	    done += len;
+	    buf.reset();
+	}
+	out.close();
+    }
+
+    /**
+     * Method for appending the next piece of output (a line, a screen
+     * update or such; from some dozens to a couple of thousand bytes)
+     * to given stream.
+     */
+    public void generate(ByteArrayOutputStream out)
+    {
+	if (!mStarted) { // Let's start from a known state:
+	    append(out, "\033[H\033[2J");
+	    mStarted = true;
+	}
+	switch (mType) {
+	case 0:
+	    genPlain(out);
+	    break;
+	case 1:
+	    genSgr(out);
+	    break;
+	case 2:
+	    genCursor(out);
+	    break;
+	case 3:
+	    genScroll(out);
+	    break;
+	case 4:
+	    genInsDel(out);
+	    break;
+	default:
+	    genDouble(out);
+	}
+    }
+
+    private void genPlain(ByteArrayOutputStream out)
+    {
+	append(out, text(COLS - 1 - nextInt(20)));
+	append(out, "\r\n");
+    }
+
+    private void genSgr(ByteArrayOutputStream out)
+    {
+	int col = 0;
+	while (col < COLS - 12) {
+	    // Foreground, background, and bold/underline/reverse now and then:
+	    int fg = 30 + nextInt(8);
+	    int bg = 40 + nextInt(8);
+	    switch (nextInt(4)) {
+	    case 0:
+		append(out, "\033["+fg+";"+bg+"m");
+		break;
+	    case 1:
+		append(out, "\033[1;"+fg+"m");
+		break;
+	    case 2:
+		append(out, "\033[4;7;"+bg+"m");
+		break;
+	    default:
+		append(out, "\033[0m");
+	    }
+	    String word = text(2 + nextInt(8));
+	    append(out, word);
+	    col += word.length();
+	}
+	append(out, "\033[0m\r\n");
+    }
+
+    private void genCursor(ByteArrayOutputStream out)
+    {
+	// One full screen, rows in random order:
+	for (int i = 0; i < ROWS; ++i) {
+	    int row = 1 + nextInt(ROWS);
+	    append(out, "\033["+row+";1H");
+	    append(out, text(COLS));
+	}
+	append(out, "\033[H");
+    }
+
+    private void genScroll(ByteArrayOutputStream out)
+    {
+	int top = 3 + nextInt(4);
+	int bottom = ROWS - nextInt(4);
+	append(out, "\033["+top+";"+bottom+"r\033["+bottom+";1H");
+	for (int i = 0; i < 8; ++i) {
+	    append(out, "\n\r");
+	    append(out, text(COLS / 2));
+	}
+	// A few reverse indexes at the top of the region:
+	append(out, "\033["+top+";1H");
+	for (int i = 0; i < 3; ++i) {
+	    append(out, "\033M");
+	    append(out, text(COLS / 2));
+	    append(out, "\r");
+	}
+	append(out, "\033[r");
+    }
+
+    private void genInsDel(ByteArrayOutputStream out)
+    {
+	int row = 1 + nextInt(ROWS);
+	int col = 1 + nextInt(COLS / 2);
+	append(out, "\033["+row+";"+col+"H");
+	append(out, "\033["+(1 + nextInt(10))+"@"); // ICH
+	append(out, text(5 + nextInt(10)));
+	append(out, "\033["+(1 + nextInt(10))+"P"); // DCH
+	if (nextInt(4) == 0) {
+	    append(out, "\033["+(1 + nextInt(3))+"L"); // IL
+	    append(out, text(COLS / 2));
+	    append(out, "\033["+(1 + nextInt(3))+"M"); // DL
+	}
+    }
+
+    private void genDouble(ByteArrayOutputStream out)
+    {
+	int row = 1 + nextInt(ROWS - 1);
+	append(out, "\033["+row+";1H");
+	switch (nextInt(3)) {
+	case 0: // double-width
+	    append(out, "\033#6");
+	    append(out, text(COLS / 2));
+	    break;
+	case 1: // double-height (top and bottom halves)
+	    String s = text(COLS / 2);
+	    append(out, "\033#3"+s+"\r\n\033#4"+s);
+	    break;
+	default: // back to single-width
+	    append(out, "\033#5");
+	    append(out, text(COLS));
+	}
+    }
+
+    /* *** Internal methods: *** */
+
+    private int nextInt(int max)
+    {
+	mSeed = mSeed * 1103515245 + 12345;
+	return ((mSeed >>> 16) & 0x7FFF) % max;
+    }
+
+    private String text(int len)
+    {
+	int start = nextInt(WORDS.length() - len);
+	return WORDS.substring(start, start + len);
+    }
+
+    private static void append(ByteArrayOutputStream out, String s)
+    {
+	for (int i = 0, len = s.length(); i < len; ++i) {
+	    out.write((byte) s.charAt(i));
+	}
+    }
+}